@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of logging a value, from the analysis thread alone, and from several
+ * threads at once as with the analysis and control threads of a pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class AlicaLoggerBenchmark {
+    private final AlicaLogger logger = AlicaLogger.getInstance();
+
+    /**
+     * Frame number of one logging thread.
+     */
+    @State(Scope.Thread)
+    public static class FrameCounter {
+        int frame_no = 0;
+    }
+
+    @Setup(Level.Iteration)
+    public void clearLog() {
+        logger.clear();
+    }
+
+    @Benchmark
+    public void addToLog(FrameCounter counter) {
+        logger.addToLog(++counter.frame_no, "analyzer_intermittent_output", 1.5);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addToLogContended(FrameCounter counter) {
+        logger.addToLog(++counter.frame_no, "analyzer_intermittent_output", 1.5);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of saving the log of an acquisition, with the parameters the
+ * workers log for every frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class SaveLogBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int frame_count;
+
+    @Param({"csv", BinaryLog.EXTENSION})
+    public String format;
+
+    private final AlicaLogger logger = AlicaLogger.getInstance();
+    private File file;
+
+    @Setup
+    public void fillLog() throws IOException {
+        logger.clear();
+        for (int frame_no = 1; frame_no <= frame_count; frame_no++) {
+            logger.addToLog(frame_no, "tag_frame_index", frame_no);
+            logger.addIntermittentOutput(frame_no, 0.01 * (frame_no % 1000));
+            // the control ticks are slower than the frame rate
+            if (frame_no % 10 == 0) {
+                logger.addBatchedOutput(frame_no, 0.01 * (frame_no % 1000));
+                logger.addControllerOutput(frame_no, 0.001 * (frame_no % 10000));
+            }
+        }
+        logger.addSetpoint(1, 5.0);
+        file = File.createTempFile("alica_benchmark", "." + format);
+    }
+
+    @TearDown
+    public void deleteFile() {
+        logger.clear();
+        file.delete();
+    }
+
+    @Benchmark
+    public boolean saveLog() {
+        return logger.saveLog(file);
+    }
+}
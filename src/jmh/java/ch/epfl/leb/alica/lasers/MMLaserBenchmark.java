@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.lasers;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the deadzone filtering of MMLaser.setLaserPower() on noisy
+ * controller output around a stable power. The hardware call which
+ * follows for requests outside the deadzone is not part of the benchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MMLaserBenchmark {
+    private static final int REQUEST_COUNT = 1024;
+
+    @Param({"0.0", "0.05", "0.1"})
+    public double deadzone;
+
+    private final double[] requests = new double[REQUEST_COUNT];
+    private int index = 0;
+    private double current_power = 50.0;
+
+    @Setup
+    public void createRequests() {
+        // controller output fluctuating by about 5% around 50
+        Random random = new Random(42);
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            requests[i] = 50.0 + 2.5 * random.nextGaussian();
+        }
+    }
+
+    @Benchmark
+    public double deadzoneFilter() {
+        double desired_power = requests[index++ & (REQUEST_COUNT - 1)];
+        if (!MMLaser.isWithinDeadzone(current_power, desired_power, deadzone)) {
+            current_power = desired_power;
+        }
+        return current_power;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.Laser;
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.Controller;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerStatusPanel;
+import ch.epfl.leb.alica.interfaces.controllers.ControllerStatusPanel;
+import ch.epfl.leb.alica.replay.StackFrameSource;
+import ij.gui.Roi;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead of one control tick (batch output query, controller, logging
+ * and laser request) with trivial analyzer, controller and laser. The
+ * laser is written by the dispatcher thread in the background.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ControlTaskBenchmark {
+    private ControlTask control_task;
+    private LaserDispatcher dispatcher;
+
+    /**
+     * Returns a slowly changing output.
+     */
+    private static class StubAnalyzer implements Analyzer {
+        private double output = 0.0;
+
+        @Override
+        public void processImage(Object image, int image_width, int image_height,
+                double pixel_size_um, long time_ms) {
+        }
+
+        @Override
+        public double getIntermittentOutput() {
+            return output;
+        }
+
+        @Override
+        public double getBatchOutput() {
+            output = (output + 0.25) % 100.0;
+            return output;
+        }
+
+        @Override
+        public String getShortReturnDescription() {
+            return "stub";
+        }
+
+        @Override
+        public void setROI(Roi roi) {
+        }
+
+        @Override
+        public String getName() {
+            return "Stub";
+        }
+
+        @Override
+        public AnalyzerStatusPanel getStatusPanel() {
+            return null;
+        }
+
+        @Override
+        public void dispose() {
+        }
+    }
+
+    /**
+     * Proportional controller.
+     */
+    private static class StubController implements Controller {
+        private double setpoint = 50.0;
+
+        @Override
+        public double nextValue(double value) {
+            return Math.max(0.0, 0.5 * (setpoint - value));
+        }
+
+        @Override
+        public void setSetpoint(double value) {
+            setpoint = value;
+        }
+
+        @Override
+        public double getSetpoint() {
+            return setpoint;
+        }
+
+        @Override
+        public String getName() {
+            return "Stub";
+        }
+
+        @Override
+        public ControllerStatusPanel getStatusPanel() {
+            return null;
+        }
+    }
+
+    /**
+     * Only caches the power.
+     */
+    private static class StubLaser implements Laser {
+        private double power = 0.0;
+
+        @Override
+        public double setLaserPower(double desired_power) {
+            power = Math.min(desired_power, getMaxPower());
+            return power;
+        }
+
+        @Override
+        public double getLaserPower() {
+            return power;
+        }
+
+        @Override
+        public double getLaserPowerCached() {
+            return power;
+        }
+
+        @Override
+        public double getMaxPower() {
+            return 100.0;
+        }
+
+        @Override
+        public double getMinPower() {
+            return 0.0;
+        }
+
+        @Override
+        public String getDeviceName() {
+            return "STUB";
+        }
+
+        @Override
+        public String getPropertyName() {
+            return "Power";
+        }
+    }
+
+    @Setup
+    public void createTask() {
+        // the worker thread is never started, only its outputs are queried
+        AnalysisWorker analysis_worker = new AnalysisWorker(null,
+                new StackFrameSource(new Object[] {new short[1]}, 1, 1, 1),
+                Collections.<Analyzer>singletonList(new StubAnalyzer()), 0.1);
+        Laser laser = new StubLaser();
+        dispatcher = new LaserDispatcher(laser, analysis_worker.getPipelineLatency(), 0);
+        control_task = new ControlTask(analysis_worker,
+                Collections.singletonList(new LaserChannel(laser, new StubController())),
+                Collections.singletonList(dispatcher));
+    }
+
+    @TearDown
+    public void stopDispatcher() throws InterruptedException {
+        dispatcher.stop(1000);
+    }
+
+    @Benchmark
+    public double controlTick() {
+        control_task.run();
+        return control_task.getLastControllerOutput();
+    }
+}
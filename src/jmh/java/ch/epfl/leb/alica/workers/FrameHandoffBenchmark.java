@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of handing a frame from the Micro-Manager event thread to the
+ * AnalysisWorker, through the latest-wins mailbox (LIVE and
+ * NEXT_ACQUISITION modes) and the frame queue (ALL_FRAMES mode). The
+ * uncontended benchmarks offer and take a frame on the same thread, the
+ * grouped ones run a producer and a consumer thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class FrameHandoffBenchmark {
+    private final Frame frame = new Frame(new short[512 * 512], 512, 512, 1);
+    private final FrameMailbox<Frame> mailbox = new FrameMailbox<>();
+    private final FrameQueue<Frame> queue = new FrameQueue<>(64,
+            FrameQueue.OverflowPolicy.DROP_OLDEST, 0);
+
+    @Benchmark
+    public Frame mailboxOfferPoll() throws InterruptedException {
+        mailbox.offer(frame);
+        return mailbox.poll(0, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    public Frame queueOfferPoll() throws InterruptedException {
+        queue.offer(frame);
+        return queue.poll(0, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Group("mailbox")
+    @GroupThreads(1)
+    public void mailboxProducer() {
+        mailbox.offer(frame);
+    }
+
+    @Benchmark
+    @Group("mailbox")
+    @GroupThreads(1)
+    public Frame mailboxConsumer() throws InterruptedException {
+        return mailbox.poll(1, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public boolean queueProducer() {
+        return queue.offer(frame);
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public Frame queueConsumer() throws InterruptedException {
+        return queue.poll(1, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.concurrent.TimeUnit;
+import org.micromanager.internal.graph.GraphData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of adding a point to the monitor plot once it is full, and of
+ * building the plotted data of the recent points afterwards.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GrapherBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int n_points;
+
+    private Grapher grapher;
+    private double value = 0.0;
+
+    @Setup
+    public void fillGrapher() {
+        grapher = new Grapher(n_points);
+        for (int i = 0; i < n_points; i++) {
+            grapher.addDataPoint(i);
+        }
+    }
+
+    @Benchmark
+    public Grapher addDataPoint() {
+        value += 0.5;
+        grapher.addDataPoint(value);
+        return grapher;
+    }
+
+    @Benchmark
+    public GraphData addAndGetGraphData() {
+        value += 0.5;
+        grapher.addDataPoint(value);
+        return grapher.getGraphData();
+    }
+}
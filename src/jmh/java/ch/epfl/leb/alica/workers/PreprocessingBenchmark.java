@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of 2x2 binning of a 16 bit frame, compared with what it saves in
+ * an analyzer whose cost grows with the number of pixels. The analysis
+ * smooths the frame with a 3x3 box filter and counts the local maxima
+ * above a threshold, as spot counting does. Binning pays off if
+ * binAndDetect is faster than detectFull.
+ * perPixelBin2x2 bins through the type-independent Pixels accessors, as
+ * a reference for the typed loops of BinningStage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PreprocessingBenchmark {
+    @Param({"512", "2048"})
+    public int size;
+
+    private final BinningStage binning = new BinningStage(2, BinningStage.Mode.AVERAGE);
+    private short[] frame;
+    private Object binned;
+    private int[] smoothed;
+    private int[] smoothed_binned;
+
+    @Setup
+    public void createFrame() {
+        // camera noise around an offset, with sparse bright spots
+        Random random = new Random(42);
+        frame = new short[size * size];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (short) (100 + random.nextInt(20));
+        }
+        for (int i = 0; i < frame.length / 1000; i++) {
+            frame[random.nextInt(frame.length)] += 1000;
+        }
+        binned = new short[(size / 2) * (size / 2)];
+        smoothed = new int[size * size];
+        smoothed_binned = new int[(size / 2) * (size / 2)];
+    }
+
+    @Benchmark
+    public Object bin2x2() {
+        binned = binning.process(frame, size, size, 0, 0, binned);
+        return binned;
+    }
+
+    @Benchmark
+    public Object perPixelBin2x2() {
+        int out_size = size / 2;
+        for (int row = 0; row < out_size; row++) {
+            for (int column = 0; column < out_size; column++) {
+                int index = 2 * row * size + 2 * column;
+                float sum = Pixels.get(frame, Pixels.SHORT, index)
+                        + Pixels.get(frame, Pixels.SHORT, index + 1)
+                        + Pixels.get(frame, Pixels.SHORT, index + size)
+                        + Pixels.get(frame, Pixels.SHORT, index + size + 1);
+                Pixels.set(binned, Pixels.SHORT, row * out_size + column, sum / 4);
+            }
+        }
+        return binned;
+    }
+
+    @Benchmark
+    public int detectFull() {
+        return countSpots(frame, size, size, smoothed, 9 * 200);
+    }
+
+    @Benchmark
+    public int binAndDetect() {
+        binned = binning.process(frame, size, size, 0, 0, binned);
+        return countSpots((short[]) binned, size / 2, size / 2, smoothed_binned, 9 * 150);
+    }
+
+    /**
+     * Smooth the pixels with a 3x3 box filter, and count the smoothed
+     * pixels above the threshold which are the maximum of their 3x3
+     * neighbourhood.
+     */
+    private static int countSpots(short[] pixels, int width, int height, int[] smoothed,
+            int threshold) {
+        for (int row = 1; row < height - 1; row++) {
+            for (int column = 1; column < width - 1; column++) {
+                int index = row * width + column;
+                int sum = 0;
+                for (int dy = -width; dy <= width; dy += width) {
+                    sum += (pixels[index + dy - 1] & 0xffff)
+                            + (pixels[index + dy] & 0xffff)
+                            + (pixels[index + dy + 1] & 0xffff);
+                }
+                smoothed[index] = sum;
+            }
+        }
+        int count = 0;
+        for (int row = 2; row < height - 2; row++) {
+            for (int column = 2; column < width - 2; column++) {
+                int index = row * width + column;
+                int value = smoothed[index];
+                if (value <= threshold)
+                    continue;
+                boolean maximum = true;
+                for (int dy = -width; dy <= width && maximum; dy += width) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        if (smoothed[index + dy + dx] > value) {
+                            maximum = false;
+                            break;
+                        }
+                    }
+                }
+                if (maximum)
+                    count++;
+            }
+        }
+        return count;
+    }
+}
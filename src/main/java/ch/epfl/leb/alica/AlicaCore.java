@@ -19,11 +19,21 @@
  */
 package ch.epfl.leb.alica;
 
+import ch.epfl.leb.alica.interfaces.Analyzer;
 import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerFactory;
 import ch.epfl.leb.alica.workers.Coordinator;
+import ch.epfl.leb.alica.workers.FrameSource;
+import ch.epfl.leb.alica.workers.LaserChannel;
+import ch.epfl.leb.alica.workers.PipelineExecutor;
+import ch.epfl.leb.alica.workers.TiledAnalyzer;
+import ch.epfl.leb.alica.workers.WorkerSettings;
 import ch.epfl.leb.alica.interfaces.controllers.ControllerFactory;
 import ch.epfl.leb.alica.lasers.LaserFactory;
 import ij.gui.Roi;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import mmcorej.StrVector;
 import org.micromanager.Studio;
 
@@ -31,20 +41,52 @@ import org.micromanager.Studio;
  * The core's settings are controlled by MainGUI, and the Core then produces
  products from its factories, and initializes the Coordinator, and later
  terminates it.
+ * 
+ * Besides the Coordinator of the MainGUI, named pipelines can be started
+ * from scripts, e.g. one per camera and laser. Each one is built from the
+ * factories as they are set up when it is started, logs into its own
+ * session log, and all pipelines share the threads of one PipelineExecutor.
  * @author stefko
  */
 public final class AlicaCore {
     private static AlicaCore instance = null;
     
+    /**
+     * A laser driven in addition to the one selected in the LaserFactory.
+     */
+    private static final class AdditionalLaser {
+        final String device_name;
+        final String property_name;
+        // if false, the laser follows the first one
+        final boolean has_controller;
+        final double scale;
+        final double offset;
+
+        AdditionalLaser(String device_name, String property_name, 
+                boolean has_controller, double scale, double offset) {
+            this.device_name = device_name;
+            this.property_name = property_name;
+            this.has_controller = has_controller;
+            this.scale = scale;
+            this.offset = offset;
+        }
+    }
+    
     private final Studio studio;
     private Coordinator coordinator;
+    // named pipelines, kept after their stop so that their logs can be saved
+    private final Map<String, Coordinator> pipelines = new LinkedHashMap<>();
+    // threads shared by all pipelines, created at the first start
+    private PipelineExecutor executor = null;
     
     private final AnalyzerFactory analyzer_factory;
     private final ControllerFactory controller_factory;
     private final LaserFactory laser_factory;
+    private final WorkerSettings worker_settings;
     
     private int controller_tick_rate_ms = 500;
     private Roi ROI;
+    private final List<AdditionalLaser> additional_lasers = new ArrayList<>();
     
 
     
@@ -54,6 +96,7 @@ public final class AlicaCore {
         this.analyzer_factory = new AnalyzerFactory();
         this.controller_factory = new ControllerFactory();
         this.laser_factory = new LaserFactory(studio);
+        this.worker_settings = new WorkerSettings();
     }
     
     /**
@@ -180,6 +223,14 @@ public final class AlicaCore {
     public LaserFactory getLaserFactory() {
         return laser_factory;
     }
+    
+    /**
+     *
+     * @return settings passed to the Coordinator when workers are started
+     */
+    public WorkerSettings getWorkerSettings() {
+        return worker_settings;
+    }
      
     /**
      * Builds products from their factories using current settings, and
@@ -191,9 +242,172 @@ public final class AlicaCore {
             coordinator.dispose();
         }
         // run without headless mode
-        coordinator = new Coordinator(studio, analyzer_factory.build(), 
-                controller_factory.build(), laser_factory.build(), imaging_mode,
-                controller_tick_rate_ms, ROI, false);
+        coordinator = new Coordinator(null, studio, buildAnalyzers(), buildLaserChannels(), 
+                imaging_mode, controller_tick_rate_ms, ROI, false, worker_settings, 
+                getExecutor());
+    }
+    
+    /**
+     * Start a named headless pipeline, built from the factories with their
+     * current settings. It runs until stopPipeline() is called, or until the
+     * end of the acquisition in NEXT_ACQUISITION mode.
+     * @param name unique name of the pipeline
+     * @param imaging_mode
+     */
+    public synchronized void startPipeline(String name, ImagingMode imaging_mode) {
+        checkPipelineName(name);
+        pipelines.put(name, new Coordinator(name, studio, buildAnalyzers(), 
+                buildLaserChannels(), imaging_mode, controller_tick_rate_ms, ROI, 
+                true, worker_settings, getExecutor()));
+    }
+    
+    /**
+     * Start a named headless pipeline which analyzes the images of the given
+     * source, e.g. of a second camera.
+     * @param name unique name of the pipeline
+     * @param frame_source supplies the images to be analyzed
+     * @param pixel_size_um pixel size passed to the analyzers
+     */
+    public synchronized void startPipeline(String name, FrameSource frame_source, 
+            double pixel_size_um) {
+        checkPipelineName(name);
+        pipelines.put(name, new Coordinator(name, frame_source, pixel_size_um, 
+                buildAnalyzers(), buildLaserChannels(), controller_tick_rate_ms, ROI, 
+                getExecutor()));
+    }
+    
+    /**
+     * A name can be reused once its pipeline was stopped.
+     */
+    private void checkPipelineName(String name) {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("You need to set a pipeline name!");
+        Coordinator previous = pipelines.get(name);
+        if (previous != null && previous.isRunning())
+            throw new IllegalStateException("Pipeline " + name + " is already running!");
+        if (previous != null)
+            previous.dispose();
+    }
+    
+    /**
+     * Stop a named pipeline. Its log can still be saved afterwards.
+     * @param name name of the pipeline
+     */
+    public synchronized void stopPipeline(String name) {
+        Coordinator pipeline = pipelines.get(name);
+        if (pipeline == null)
+            throw new IllegalArgumentException("There is no pipeline named " + name + "!");
+        pipeline.requestStop();
+    }
+    
+    /**
+     * 
+     * @param name name of the pipeline
+     * @return the pipeline, or null if none was started with this name
+     */
+    public synchronized Coordinator getPipeline(String name) {
+        return pipelines.get(name);
+    }
+    
+    /**
+     * 
+     * @return names of the started pipelines, running or stopped
+     */
+    public synchronized List<String> getPipelineNames() {
+        return new ArrayList<>(pipelines.keySet());
+    }
+    
+    /**
+     * 
+     * @return threads shared by all pipelines
+     */
+    public synchronized PipelineExecutor getExecutor() {
+        if (executor == null)
+            executor = new PipelineExecutor();
+        return executor;
+    }
+    
+    /**
+     * Builds the analyzer instances requested by the worker settings, which
+     * analyze consecutive frames in parallel.
+     * @return independent analyzer instances
+     */
+    private List<Analyzer> buildAnalyzers() {
+        List<Analyzer> analyzers = new ArrayList<>();
+        for (int i = 0; i < worker_settings.getAnalyzerCount(); i++) {
+            analyzers.add(buildAnalyzer());
+        }
+        return analyzers;
+    }
+    
+    /**
+     * Builds the selected laser with its controller, followed by the
+     * additional lasers.
+     * @return laser channels
+     */
+    private List<LaserChannel> buildLaserChannels() {
+        List<LaserChannel> channels = new ArrayList<>();
+        channels.add(new LaserChannel(laser_factory.build(), controller_factory.build()));
+        for (AdditionalLaser additional : additional_lasers) {
+            Laser laser = laser_factory.build(additional.device_name, additional.property_name);
+            if (additional.has_controller) {
+                channels.add(new LaserChannel(laser, controller_factory.build()));
+            } else {
+                channels.add(new LaserChannel(laser, additional.scale, additional.offset));
+            }
+        }
+        return channels;
+    }
+    
+    /**
+     * Drive another laser from the same analysis, with its own instance
+     * of the controller selected in the ControllerFactory. Takes effect
+     * at the next start of the workers.
+     * @param device_name unique device identifier from the MMCore
+     * @param property_name unique property identifier from MMCore
+     */
+    public void addControlledLaser(String device_name, String property_name) {
+        additional_lasers.add(new AdditionalLaser(device_name, property_name, true, 1.0, 0.0));
+    }
+    
+    /**
+     * Drive another laser from the same analysis, whose power follows the
+     * output of the first controller as scale * output + offset. Takes
+     * effect at the next start of the workers.
+     * @param device_name unique device identifier from the MMCore
+     * @param property_name unique property identifier from MMCore
+     * @param scale factor applied to the controller output
+     * @param offset added to the scaled output
+     */
+    public void addDerivedLaser(String device_name, String property_name, 
+            double scale, double offset) {
+        additional_lasers.add(new AdditionalLaser(device_name, property_name, false, scale, offset));
+    }
+    
+    /**
+     * Drive only the laser selected in the LaserFactory again.
+     */
+    public void clearAdditionalLasers() {
+        additional_lasers.clear();
+    }
+    
+    /**
+     * Builds an analyzer from the factory, split into tiles if requested
+     * by the worker settings.
+     * @return analyzer
+     */
+    private Analyzer buildAnalyzer() {
+        if (!worker_settings.isTiled()) {
+            return analyzer_factory.build();
+        }
+        List<Analyzer> tile_analyzers = new ArrayList<>();
+        int tile_count = worker_settings.getTileRows() * worker_settings.getTileColumns();
+        for (int i = 0; i < tile_count; i++) {
+            tile_analyzers.add(analyzer_factory.build());
+        }
+        return new TiledAnalyzer(tile_analyzers, worker_settings.getTileRows(),
+                worker_settings.getTileColumns(), worker_settings.getTileOverlapPx(),
+                worker_settings.getTileReduction(), getExecutor().getTilePool());
     }
     
     /**
@@ -19,10 +19,11 @@ package ch.epfl.leb.alica;
 
 import ij.IJ;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JFileChooser;
@@ -32,25 +33,266 @@ import org.micromanager.Studio;
 
 /**
  * The ALICA logger logs analyzer and controller outputs during an acquisition.
+ * The values are stored in primitive columns of a LogTable, and boxed only
+ * when the log is viewed as a map. Optionally, finalized frames are streamed
+ * to a file by a LogStreamWriter and evicted from memory.
+ * 
+ * Values may be logged from any thread. They are put into a lock-free
+ * LogRecordQueue and moved into the table by a single drainer thread, so
+ * that the threads which log never wait for each other or for a save.
+ * Everything which reads the log drains the queue first, under the lock
+ * of the logger, so it sees a consistent snapshot containing all values
+ * logged before the call.
+ * 
+ * Besides the default log returned by getInstance(), each named pipeline
+ * can log into its own session log (openSession()). All logs are drained
+ * by the same thread, messages and errors go to the same MM log.
  * @author Marcel Stefko
  */
 public class AlicaLogger {
-    private static AlicaLogger instance = null;
-    private LogManager mm_logger = null;
+    // how often the drainer thread moves queued values into the table
+    private static final long DRAIN_INTERVAL_MS = 20;
+    // logs drained by the drainer thread
+    private static final List<AlicaLogger> open_logs = new CopyOnWriteArrayList<>();
+    private static volatile LogManager mm_logger = null;
+    
+    private static final AlicaLogger instance = new AlicaLogger(null);
+    
+    static {
+        Thread drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(DRAIN_INTERVAL_MS);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (AlicaLogger logger: open_logs) {
+                        try {
+                            logger.drain();
+                        } catch (RuntimeException ex) {
+                            logger.logError(ex, "Error in draining the ALICA log queue.");
+                        }
+                    }
+                }
+            }
+        }, "Alica Log Drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+    
+    // null for the default log
+    private final String session_name;
+    
+    private final LogTable log_table = new LogTable();
+    private final LogRecordQueue record_queue = new LogRecordQueue(16384);
+    private final LogRecordQueue.RecordHandler record_handler = new LogRecordQueue.RecordHandler() {
+        @Override
+        public void handle(int frame_no, String name, double value) {
+            storeValue(frame_no, name, value);
+        }
+        @Override
+        public void handle(int frame_no, String name, int value) {
+            storeValue(frame_no, name, value);
+        }
+        @Override
+        public void handle(int frame_no, String name, String value) {
+            storeValue(frame_no, name, value);
+        }
+    };
     
-    private LinkedHashMap<Integer, LinkedHashMap<String,Object>> log_map;
-    private LinkedHashSet<String> parameter_set;
+    // streaming to disk, null if the log is only kept in memory
+    private LogStreamWriter stream_writer = null;
+    private int finalization_lag_frames = 0;
+    // frames up to this one were streamed, MIN_VALUE if none
+    private int streamed_through = Integer.MIN_VALUE;
+    // values for already streamed frames, and session markers
+    private final StringBuilder stream_pending = new StringBuilder();
     
-    private AlicaLogger() {
+    private AlicaLogger(String session_name) {
+        this.session_name = session_name;
         clear();
+        open_logs.add(this);
+    }
+    
+    /**
+     * Open a log for one pipeline, separate from the default log. It is
+     * drained in the background until closeSession() is called, and can
+     * still be read and saved afterwards.
+     * @param session_name name of the pipeline
+     * @return new empty log
+     */
+    public static AlicaLogger openSession(String session_name) {
+        if (session_name == null)
+            throw new NullPointerException("You need to set a session name!");
+        return new AlicaLogger(session_name);
+    }
+    
+    /**
+     * Stop draining this log in the background. Values which are logged
+     * later are moved into the log when it is read. The default log is
+     * never closed.
+     */
+    public void closeSession() {
+        if (this == instance)
+            return;
+        open_logs.remove(this);
+        drain();
+    }
+    
+    /**
+     * 
+     * @return name of the session, or null for the default log
+     */
+    public String getSessionName() {
+        return session_name;
+    }
+    
+    /**
+     * Move all queued values into the table.
+     */
+    private synchronized void drain() {
+        record_queue.drain(record_handler);
+    }
+    
+    /**
+     * Resets logger, removes all data logged before the call. If the log is
+     * streamed, the remaining frames are streamed first, and a new session
+     * starts in the file.
+     */
+    public final synchronized void clear() {
+        drain();
+        if (stream_writer != null) {
+            StringBuilder remaining = new StringBuilder();
+            drainToStream(remaining, true);
+            stream_pending.append(remaining)
+                    .append(LogStreamWriter.CLEAR_MARKER).append('\n');
+        }
+        log_table.clear();
+        streamed_through = Integer.MIN_VALUE;
+    }
+    
+    /**
+     * Start appending the log to a file in the background, with default
+     * intervals. Frames which are written are evicted from memory, so
+     * getLogMap() only contains the most recent frames afterwards.
+     * @param file output file, overwritten if it exists
+     * @throws IOException if the file can't be opened
+     */
+    public void startStreaming(File file) throws IOException {
+        startStreaming(file, 256, 200, 1000);
+    }
+    
+    /**
+     * Start appending the log to a file in the background. Frames which
+     * are written are evicted from memory, so getLogMap() only contains the
+     * most recent frames afterwards.
+     * @param file output file, overwritten if it exists
+     * @param finalization_lag_frames the most recent frames, which may still
+     *  receive values, are kept in memory until they are this many frames
+     *  behind the latest frame
+     * @param flush_interval_ms period of appending finalized frames
+     * @param fsync_interval_ms period of syncing the file to the disk
+     * @throws IOException if the file can't be opened
+     */
+    public synchronized void startStreaming(File file, int finalization_lag_frames,
+            long flush_interval_ms, long fsync_interval_ms) throws IOException {
+        if (stream_writer != null)
+            throw new IllegalStateException("Log is already being streamed!");
+        if (finalization_lag_frames < 0)
+            throw new IllegalArgumentException("Finalization lag must not be negative!");
+        stream_writer = new LogStreamWriter(this, file, flush_interval_ms, fsync_interval_ms);
+        this.finalization_lag_frames = finalization_lag_frames;
+        streamed_through = Integer.MIN_VALUE;
+        stream_pending.setLength(0);
+        stream_writer.start();
+    }
+    
+    /**
+     * Write all remaining frames to the stream file and close it. The log
+     * is kept in memory afterwards.
+     * @throws IOException if writing fails
+     */
+    public void stopStreaming() throws IOException {
+        LogStreamWriter writer;
+        synchronized(this) {
+            writer = stream_writer;
+        }
+        if (writer == null)
+            return;
+        try {
+            writer.close();
+        } finally {
+            synchronized(this) {
+                stream_writer = null;
+                streamed_through = Integer.MIN_VALUE;
+                stream_pending.setLength(0);
+            }
+        }
+    }
+    
+    /**
+     *
+     * @return true if the log is streamed to a file
+     */
+    public synchronized boolean isStreaming() {
+        return stream_writer != null;
+    }
+    
+    /**
+     * Called by the LogStreamWriter if writing fails. The log is kept in
+     * memory from now on, frames which were already evicted are only in
+     * the file.
+     * @param ex cause of the failure
+     */
+    synchronized void streamingFailed(IOException ex) {
+        stream_writer = null;
+        streamed_through = Integer.MIN_VALUE;
+        stream_pending.setLength(0);
+        logError(ex, "Streaming of the ALICA log failed, the log is kept in memory.");
+    }
+    
+    /**
+     * Called by the LogStreamWriter to collect the lines to be appended.
+     * Finalized frames are formatted and evicted from memory.
+     * @param out receives one line per value
+     * @param all if true, all frames are taken, not only finalized ones
+     */
+    synchronized void drainToStream(StringBuilder out, boolean all) {
+        drain();
+        out.append(stream_pending);
+        stream_pending.setLength(0);
+        if (log_table.isEmpty())
+            return;
+        int first = log_table.getMinFrame();
+        if (streamed_through != Integer.MIN_VALUE)
+            first = Math.max(first, streamed_through + 1);
+        int last = log_table.getMaxFrame();
+        if (!all)
+            last -= finalization_lag_frames;
+        for (int frame_no = first; frame_no <= last; frame_no++) {
+            for (int column = 0; column < log_table.getColumnCount(); column++) {
+                if (!log_table.hasValue(column, frame_no))
+                    continue;
+                out.append(frame_no).append(',')
+                        .append(log_table.getColumnName(column)).append(',');
+                log_table.appendValue(out, column, frame_no);
+                out.append('\n');
+            }
+        }
+        if (last >= first) {
+            streamed_through = last;
+            log_table.evictBefore(last + 1);
+        }
     }
     
     /**
-     * Resets logger, removes all data.
+     * Start a line for a value of an already streamed frame.
+     * @return the pending stream buffer, value and newline are to be appended
      */
-    public final void clear() {
-        log_map = new LinkedHashMap<>();
-        parameter_set = new LinkedHashSet<>();
+    private StringBuilder lateLine(int frame_no, String value_name) {
+        return stream_pending.append(frame_no).append(',').append(value_name).append(',');
     }
     
     /**
@@ -58,26 +300,59 @@ public class AlicaLogger {
      * @return AlicaLogger singleton
      */
     public static AlicaLogger getInstance() {
-        if (instance == null) {
-            instance = new AlicaLogger();
-        }
         return instance;
     }
     
     /**
-     * Returns the current log.
+     * Returns a copy of the current log, with frames in ascending order.
+     * Values are Double, Integer or String, depending on how they were
+     * logged. Building the copy is expensive for long acquisitions.
      * @return The current log stored by this logger.
      */
-    public LinkedHashMap<Integer,LinkedHashMap<String, Object>> getLogMap() {
+    public synchronized LinkedHashMap<Integer,LinkedHashMap<String, Object>> getLogMap() {
+        drain();
+        LinkedHashMap<Integer,LinkedHashMap<String, Object>> log_map = new LinkedHashMap<>();
+        if (log_table.isEmpty())
+            return log_map;
+        for (int frame_no = log_table.getMinFrame(); frame_no <= log_table.getMaxFrame(); frame_no++) {
+            LinkedHashMap<String, Object> frame_map = null;
+            for (int column = 0; column < log_table.getColumnCount(); column++) {
+                Object value = log_table.getValue(column, frame_no);
+                if (value == null)
+                    continue;
+                if (frame_map == null) {
+                    frame_map = new LinkedHashMap<>();
+                    log_map.put(frame_no, frame_map);
+                }
+                frame_map.put(log_table.getColumnName(column), value);
+            }
+        }
         return log_map;
     }
     
+    /**
+     * 
+     * @return approximate heap used by the frames kept in memory, in bytes
+     */
+    public synchronized long getMemoryBytes() {
+        drain();
+        return log_table.getMemoryBytes();
+    }
+    
+    /**
+     * 
+     * @return number of values waiting to be moved into the log
+     */
+    public int getQueuedValueCount() {
+        return record_queue.size();
+    }
+    
     /**
      * Set studio to allow general logging.
      * @param studio MMStudio
      */
     public void setStudio(Studio studio) {
-        this.mm_logger = studio.getLogManager();
+        mm_logger = studio.getLogManager();
     }
     
     /**
@@ -86,7 +361,7 @@ public class AlicaLogger {
      */
     public void logMessage(String message) {
         try {
-            this.mm_logger.logMessage(message);
+            mm_logger.logMessage(message);
         } catch (Throwable ex) {
             Logger.getLogger(this.getClass().getName()).log(Level.INFO, message);
         }
@@ -99,7 +374,7 @@ public class AlicaLogger {
      */
     public void logDebugMessage(String message) {
         try {
-            this.mm_logger.logDebugMessage(message);
+            mm_logger.logDebugMessage(message);
         } catch (Throwable ex) {
             Logger.getLogger(this.getClass().getName()).log(Level.FINER, message);
         }
@@ -111,7 +386,7 @@ public class AlicaLogger {
      */
     public void showMessage(String message) {
         try {
-            this.mm_logger.showMessage(message);
+            mm_logger.showMessage(message);
         } catch (Throwable ex) {
             IJ.showMessage(message);
         }
@@ -124,7 +399,7 @@ public class AlicaLogger {
      */
     public void showError(Exception exc, String message) {
         try {
-            this.mm_logger.showError(exc, message);
+            mm_logger.showError(exc, message);
         } catch (Throwable ex) {
             IJ.showMessage(message);
         }
@@ -137,7 +412,7 @@ public class AlicaLogger {
      */
     public void logError(Exception exc, String message) {
         try {
-            this.mm_logger.logError(exc, message);
+            mm_logger.logError(exc, message);
         } catch (Throwable ex) {
             Logger.getLogger(this.getClass().getName()).log(Level.SEVERE, message, exc);
         }
@@ -160,6 +435,55 @@ public class AlicaLogger {
         addToLog(frame_no,"analyzer_batched_output",value);
     }
     
+    /**
+     * Add the fraction of the frames since the previous batched output
+     * which were analyzed into the log.
+     * @param frame_no
+     * @param coverage between 0 and 1
+     */
+    public void addBatchCoverage(int frame_no, double coverage) {
+        addToLog(frame_no,"batch_coverage",coverage);
+    }
+    
+    /**
+     * Add the number of frames which were not analyzed between the
+     * previous analyzed frame and this one into the log.
+     * @param frame_no
+     * @param missing number of frames, 0 if none is missing
+     */
+    public void addMissingFrames(int frame_no, int missing) {
+        addToLog(frame_no,"frames_missing",missing);
+    }
+    
+    /**
+     * Add whether the analyzed image was already analyzed before, as 1 or
+     * 0, into the log.
+     * @param frame_no
+     * @param repeated true if the frame index did not increase
+     */
+    public void addRepeatedFrame(int frame_no, boolean repeated) {
+        addToLog(frame_no,"frame_repeated",repeated ? 1 : 0);
+    }
+    
+    /**
+     * Add the time of a frame into the log
+     * @param frame_no
+     * @param time_ms milliseconds since the start of the pipeline, with
+     *  the fraction
+     */
+    public void addFrameTime(int frame_no, double time_ms) {
+        addToLog(frame_no,"frame_time_ms",time_ms);
+    }
+    
+    /**
+     * Add the time since the previous analyzed frame into the log
+     * @param frame_no
+     * @param interval_ms interval in milliseconds, with the fraction
+     */
+    public void addFrameInterval(int frame_no, double interval_ms) {
+        addToLog(frame_no,"frame_interval_ms",interval_ms);
+    }
+    
     /**
      * Add output of controller into log
      * @param frame_no
@@ -169,6 +493,18 @@ public class AlicaLogger {
         addToLog(frame_no,"controller_output",value);
     }
     
+    /**
+     * Add output of the controller of a laser channel into log. The first
+     * channel is logged as "controller_output", the others with their
+     * index appended.
+     * @param frame_no
+     * @param channel index of the laser channel
+     * @param value value of the output
+     */
+    public void addControllerOutput(int frame_no, int channel, double value) {
+        addToLog(frame_no, (channel == 0) ? "controller_output" : "controller_output_" + channel, value);
+    }
+    
     /**
      * Add setpoint of controller into log
      * @param frame_no
@@ -178,24 +514,42 @@ public class AlicaLogger {
         addToLog(frame_no,"setpoint", setpoint);
     }
     
+    /**
+     * Add setpoint of the controller of a laser channel into log. The first
+     * channel is logged as "setpoint", the others with their index appended.
+     * @param frame_no
+     * @param channel index of the laser channel
+     * @param setpoint value of the setpoint
+     */
+    public void addSetpoint(int frame_no, int channel, double setpoint) {
+        addToLog(frame_no, (channel == 0) ? "setpoint" : "setpoint_" + channel, setpoint);
+    }
+    
     
     /**
-     * Add a parameter into the log.
+     * Add a parameter into the log. This never blocks, unless the queue of
+     * values waiting for the drainer thread is full.
      * @param frame_no The acquisition frame number for this log entry.
      * @param value_name name of parameter
      * @param value value of parameter
      */
     public void addToLog(int frame_no, String value_name, double value) {
-        parameter_set.add(value_name);
-        if (!log_map.containsKey(frame_no))
-            log_map.put(frame_no, new LinkedHashMap<>());
-        
-        // This prevents overwriting batched outputs that have already been
-        // logged. This may occur, for example, when the controller is working
-        // faster than the logger.
-        LinkedHashMap<String, Object> currFrame = log_map.get(frame_no);
-        if (!currFrame.containsKey(value_name))
-            currFrame.put(value_name, value);
+        while (!record_queue.offer(frame_no, value_name, value)) {
+            // the drainer thread fell behind, drain on this thread
+            drain();
+        }
+    }
+    
+    /**
+     * Add an integer parameter, such as a frame index, into the log.
+     * @param frame_no The acquisition frame number for this log entry.
+     * @param value_name name of parameter
+     * @param value value of parameter
+     */
+    public void addToLog(int frame_no, String value_name, int value) {
+        while (!record_queue.offer(frame_no, value_name, value)) {
+            drain();
+        }
     }
     
     /**
@@ -205,36 +559,64 @@ public class AlicaLogger {
      * @param value value of parameter
      */
     public void addToLog(int frame_no, String value_name, String value) {
-        parameter_set.add(value_name);
-        if (!log_map.containsKey(frame_no))
-            log_map.put(frame_no, new LinkedHashMap<>());
-        
+        if (value == null)
+            throw new NullPointerException("Logged value must not be null!");
+        while (!record_queue.offer(frame_no, value_name, value)) {
+            drain();
+        }
+    }
+    
+    /**
+     * Store a drained value in the table.
+     */
+    private void storeValue(int frame_no, String value_name, double value) {
         // This prevents overwriting batched outputs that have already been
         // logged. This may occur, for example, when the controller is working
         // faster than the logger.
-        LinkedHashMap<String, Object> currFrame = log_map.get(frame_no);
-        if (!currFrame.containsKey(value_name))
-            currFrame.put(value_name, value);
+        if (log_table.isEvicted(frame_no)) {
+            // the frame is only on disk, pass the value through
+            if (stream_writer != null)
+                lateLine(frame_no, value_name).append(value).append('\n');
+        } else if (log_table.put(frame_no, value_name, value) && frame_no <= streamed_through) {
+            lateLine(frame_no, value_name).append(value).append('\n');
+        }
+    }
+    
+    private void storeValue(int frame_no, String value_name, int value) {
+        // values which were already logged are not overwritten
+        if (log_table.isEvicted(frame_no)) {
+            if (stream_writer != null)
+                lateLine(frame_no, value_name).append(value).append('\n');
+        } else if (log_table.put(frame_no, value_name, value) && frame_no <= streamed_through) {
+            lateLine(frame_no, value_name).append(value).append('\n');
+        }
+    }
+    
+    private void storeValue(int frame_no, String value_name, String value) {
+        if (log_table.isEvicted(frame_no)) {
+            if (stream_writer != null)
+                lateLine(frame_no, value_name).append(value).append('\n');
+        } else if (log_table.put(frame_no, value_name, value) && frame_no <= streamed_through) {
+            lateLine(frame_no, value_name).append(value).append('\n');
+        }
     }
     
     /**
-     * Saves the log into a csv file chosen by file selection dialog.
+     * Saves the log into a csv or binary file chosen by file selection
+     * dialog, and clears the log.
      * @return true if save was successful, false otherwise
      */
     public boolean saveLog() {
-        if (log_map.isEmpty()) {
+        boolean empty;
+        synchronized(this) {
+            drain();
+            empty = log_table.isEmpty() && streamed_through == Integer.MIN_VALUE;
+        }
+        if (empty) {
             this.showMessage("Log is empty!");
             return true;
         }
         
-        
-        int max_frame_no = 0;
-        // intermittent output should have the largest value
-        for (int key: log_map.keySet()) {
-            if (max_frame_no < key)
-                max_frame_no = key;
-        }
-        
         JFileChooser fc = new JFileChooser();
         int returnVal;
         
@@ -243,59 +625,75 @@ public class AlicaLogger {
         //set a default filename 
         fc.setSelectedFile(new File("alica_log.csv"));
         //Set an extension filter
-        fc.setFileFilter(new FileNameExtensionFilter("CSV file","csv"));
+        FileNameExtensionFilter csv_filter = new FileNameExtensionFilter("CSV file","csv");
+        FileNameExtensionFilter binary_filter = new FileNameExtensionFilter("ALICA binary log", BinaryLog.EXTENSION);
+        fc.addChoosableFileFilter(binary_filter);
+        fc.setFileFilter(csv_filter);
         returnVal = fc.showSaveDialog(null);
         if  (returnVal != JFileChooser.APPROVE_OPTION) {
             return false;
         }
-        File csv_output = fc.getSelectedFile();
-        
-        PrintWriter writer;
-        try {
-            writer = new PrintWriter(csv_output.getAbsolutePath());
-        } catch (FileNotFoundException ex) {
-            this.showError(ex, "Can't find file to save.");
-            return false;
-        }
-        
-        writer.print("#frame_no");
-        for (String s: parameter_set) {
-            writer.print(','+s);
+        File output = fc.getSelectedFile();
+        if (fc.getFileFilter() == binary_filter && !isBinaryLogName(output)) {
+            output = new File(output.getAbsolutePath() + "." + BinaryLog.EXTENSION);
         }
-        writer.print("\n");
         
-        
-        LinkedHashMap<String,Object> value_cache = log_map.get(1);
-        if (value_cache == null) {
-            value_cache = new LinkedHashMap<String,Object>();
-        }
-        for (String s: parameter_set) {
-            if (value_cache.get(s) == null) {
-                value_cache.put(s, 0.0);
-            }
+        if (!saveLog(output))
+            return false;
+        this.clear();
+        return true;
+    }
+    
+    /**
+     * Saves the log into a file, without clearing it. If the name of the
+     * file ends with ".alog", the compact binary format of BinaryLog is
+     * used, otherwise the log is written as csv. If the log is streamed,
+     * the current session is read back from the stream file, since older
+     * frames are no longer in memory.
+     * @param output output file, overwritten if it exists
+     * @return true if save was successful, false otherwise
+     */
+    public boolean saveLog(File output) {
+        LogStreamWriter writer;
+        synchronized(this) {
+            writer = stream_writer;
         }
-        
-        for (int i=1; i<=max_frame_no; i++) {
-            writer.print(i);
-            
-            LinkedHashMap<String,Object> frame_map = log_map.get(i);
-            if (frame_map == null)
-                frame_map = new LinkedHashMap<String,Object>();
-            
-            for (String s: parameter_set) {
-                Object output = frame_map.get(s);
-                if (output==null) {
-                    output = value_cache.get(s);
-                } else {
-                    value_cache.put(s, output);
+        try {
+            if (writer != null) {
+                writer.flush(true);
+                LogTable streamed_table = new LogTable();
+                LogStreamWriter.readLastSession(writer.getFile(), streamed_table);
+                writeLog(streamed_table, output);
+            } else {
+                // write a snapshot, so that logging is not blocked
+                LogTable snapshot;
+                synchronized(this) {
+                    drain();
+                    snapshot = log_table.copy();
                 }
-                writer.print(",");
-                writer.print(output.toString());
+                writeLog(snapshot, output);
             }
-            writer.print("\n");
+        } catch (IOException ex) {
+            this.showError(ex, "Can't save the log.");
+            return false;
         }
-        writer.close();
-        this.clear();
         return true;
     }
+    
+    private static boolean isBinaryLogName(File file) {
+        return file.getName().toLowerCase().endsWith("." + BinaryLog.EXTENSION);
+    }
+    
+    /**
+     * Write the table in the format given by the file name.
+     */
+    private static void writeLog(LogTable table, File output) throws IOException {
+        if (isBinaryLogName(output)) {
+            BinaryLog.write(table, output);
+            return;
+        }
+        try (PrintWriter csv_writer = new PrintWriter(output.getAbsolutePath())) {
+            LogConverter.writeCsv(table, csv_writer, LogConverter.selectColumns(table));
+        }
+    }
 }
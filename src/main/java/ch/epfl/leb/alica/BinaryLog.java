@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary log file, read through a memory mapping.
+ *
+ * The file is little-endian. It starts with a header:
+ * <pre>
+ *   8 bytes  magic "ALICALOG"
+ *   int      format version (1)
+ *   int      frame number of the first row
+ *   int      number of rows
+ *   int      number of columns
+ *   per column: short name length, UTF-8 name, byte type (0 int, 1 double, 2 string)
+ *   int      number of strings in the dictionary
+ *   per string: int length, UTF-8 bytes
+ *   padding to a multiple of 8 bytes
+ * </pre>
+ * followed by one block per column: the presence bitmap as
+ * ceil(rows/64) longs (bit i of long i/64 is set if row i has a value), and
+ * the values as rows ints, doubles or dictionary ids, padded to a multiple
+ * of 8 bytes. Row i holds the frame number first_frame+i.
+ */
+public class BinaryLog implements LogView {
+    /**
+     * Usual extension of binary log files.
+     */
+    public static final String EXTENSION = "alog";
+
+    private static final byte[] MAGIC = "ALICALOG".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final byte TYPE_INT = 0;
+    private static final byte TYPE_DOUBLE = 1;
+    private static final byte TYPE_STRING = 2;
+
+    private final MappedByteBuffer buffer;
+    private final int first_frame;
+    private final int row_count;
+    private final String[] names;
+    private final byte[] types;
+    private final String[] dictionary;
+    // byte offsets of the bitmap and of the values of each column
+    private final int[] bitmap_offsets;
+    private final int[] value_offsets;
+    private final boolean empty;
+    private final int max_frame;
+
+    private BinaryLog(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("Not an ALICA binary log.");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported binary log version " + version + ".");
+        first_frame = buffer.getInt();
+        row_count = buffer.getInt();
+        int column_count = buffer.getInt();
+        names = new String[column_count];
+        types = new byte[column_count];
+        for (int c = 0; c < column_count; c++) {
+            byte[] name = new byte[buffer.getShort() & 0xffff];
+            buffer.get(name);
+            names[c] = new String(name, StandardCharsets.UTF_8);
+            types[c] = buffer.get();
+        }
+        dictionary = new String[buffer.getInt()];
+        for (int i = 0; i < dictionary.length; i++) {
+            byte[] value = new byte[buffer.getInt()];
+            buffer.get(value);
+            dictionary[i] = new String(value, StandardCharsets.UTF_8);
+        }
+        int offset = align8(buffer.position());
+        bitmap_offsets = new int[column_count];
+        value_offsets = new int[column_count];
+        for (int c = 0; c < column_count; c++) {
+            bitmap_offsets[c] = offset;
+            offset += bitmapWords(row_count) * 8;
+            value_offsets[c] = offset;
+            offset += align8(row_count * (types[c] == TYPE_DOUBLE ? 8 : 4));
+        }
+        if (offset > buffer.capacity())
+            throw new IOException("Binary log is truncated.");
+
+        // the highest row with any value
+        int last_row = -1;
+        for (int c = 0; c < column_count; c++) {
+            for (int row = row_count - 1; row > last_row; row--) {
+                if (isSet(c, row)) {
+                    last_row = row;
+                    break;
+                }
+            }
+        }
+        empty = (last_row < 0);
+        max_frame = first_frame + last_row;
+    }
+
+    /**
+     * Map a binary log file into memory.
+     * @param file binary log file
+     * @return the log
+     * @throws IOException if the file can't be read or is not a binary log
+     */
+    public static BinaryLog open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new BinaryLog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     *
+     * @param file any file
+     * @return true if the file starts like a binary log
+     * @throws IOException if the file can't be read
+     */
+    public static boolean isBinaryLog(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // keep reading until the magic is complete or the file ends
+            }
+            return !magic.hasRemaining() && Arrays.equals(magic.array(), MAGIC);
+        }
+    }
+
+    /**
+     * Write the table into a binary log file.
+     * @param table table to be written
+     * @param file output file, overwritten if it exists
+     * @throws IOException if writing fails
+     */
+    static void write(LogTable table, File file) throws IOException {
+        int first_frame = table.getBaseFrame();
+        int row_count = table.isEmpty() ? 0 : table.getMaxFrame() - first_frame + 1;
+        int column_count = table.getColumnCount();
+        List<String> dictionary = table.getDictionary();
+
+        // header
+        List<byte[]> names = new ArrayList<>();
+        int header_size = MAGIC.length + 4 * 4;
+        for (int c = 0; c < column_count; c++) {
+            byte[] name = table.getColumnName(c).getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            header_size += 2 + name.length + 1;
+        }
+        List<byte[]> strings = new ArrayList<>();
+        header_size += 4;
+        for (String value: dictionary) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            strings.add(bytes);
+            header_size += 4 + bytes.length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(align8(header_size)).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(VERSION).putInt(first_frame).putInt(row_count).putInt(column_count);
+        for (int c = 0; c < column_count; c++) {
+            header.putShort((short) names.get(c).length).put(names.get(c)).put(typeCode(table.getColumnType(c)));
+        }
+        header.putInt(strings.size());
+        for (byte[] bytes: strings) {
+            header.putInt(bytes.length).put(bytes);
+        }
+        header.position(0);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            int words = bitmapWords(row_count);
+            for (int c = 0; c < column_count; c++) {
+                boolean is_double = table.getColumnType(c) == LogTable.ColumnType.DOUBLE;
+                ByteBuffer block = ByteBuffer.allocate(words * 8 + align8(row_count * (is_double ? 8 : 4)))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                long[] present = table.getPresenceWords(c);
+                block.asLongBuffer().put(present, 0, Math.min(words, present.length));
+                block.position(words * 8);
+                if (is_double) {
+                    double[] values = table.getDoubleValues(c);
+                    block.asDoubleBuffer().put(values, 0, Math.min(row_count, values.length));
+                } else {
+                    int[] values = table.getIntValues(c);
+                    block.asIntBuffer().put(values, 0, Math.min(row_count, values.length));
+                }
+                block.position(0);
+                writeFully(channel, block);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private static byte typeCode(LogTable.ColumnType type) {
+        switch (type) {
+            case INT:
+                return TYPE_INT;
+            case DOUBLE:
+                return TYPE_DOUBLE;
+            default:
+                return TYPE_STRING;
+        }
+    }
+
+    private static int bitmapWords(int rows) {
+        return (rows + 63) >> 6;
+    }
+
+    private static int align8(int size) {
+        return (size + 7) & ~7;
+    }
+
+    private boolean isSet(int column, int row) {
+        long word = buffer.getLong(bitmap_offsets[column] + (row >> 6) * 8);
+        return (word & (1L << row)) != 0;
+    }
+
+    /**
+     *
+     * @return frame number of the first row
+     */
+    public int getFirstFrame() {
+        return first_frame;
+    }
+
+    /**
+     *
+     * @return number of rows, including rows without values
+     */
+    public int getRowCount() {
+        return row_count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    @Override
+    public int getMaxFrame() {
+        return max_frame;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return names.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return names[column];
+    }
+
+    /**
+     *
+     * @param name name of a parameter
+     * @return index of the parameter, or -1 if it is not in the log
+     */
+    public int getColumnIndex(String name) {
+        for (int c = 0; c < names.length; c++) {
+            if (names[c].equals(name))
+                return c;
+        }
+        return -1;
+    }
+
+    /**
+     *
+     * @param column index of the parameter
+     * @return true if the values are doubles, false for ints and strings
+     */
+    public boolean isDoubleColumn(int column) {
+        return types[column] == TYPE_DOUBLE;
+    }
+
+    /**
+     *
+     * @param column index of the parameter
+     * @return true if the values are strings
+     */
+    public boolean isStringColumn(int column) {
+        return types[column] == TYPE_STRING;
+    }
+
+    @Override
+    public boolean hasValue(int column, int frame_no) {
+        int row = frame_no - first_frame;
+        if (row < 0 || row >= row_count)
+            return false;
+        return isSet(column, row);
+    }
+
+    /**
+     *
+     * @param column index of an int or double parameter
+     * @param frame_no frame number
+     * @return value of the parameter, NaN if it has none
+     */
+    public double getDouble(int column, int frame_no) {
+        if (!hasValue(column, frame_no) || types[column] == TYPE_STRING)
+            return Double.NaN;
+        int row = frame_no - first_frame;
+        if (types[column] == TYPE_DOUBLE)
+            return buffer.getDouble(value_offsets[column] + row * 8);
+        return buffer.getInt(value_offsets[column] + row * 4);
+    }
+
+    /**
+     * Values of a parameter for a range of frames.
+     * @param column index of an int or double parameter
+     * @param first_frame_no first frame number
+     * @param values receives the values, NaN where the parameter has none
+     */
+    public void getDoubles(int column, int first_frame_no, double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getDouble(column, first_frame_no + i);
+        }
+    }
+
+    /**
+     * Boxed value of a parameter.
+     * @param column index of the parameter
+     * @param frame_no frame number
+     * @return Integer, Double or String value, or null if not set
+     */
+    public Object getValue(int column, int frame_no) {
+        if (!hasValue(column, frame_no))
+            return null;
+        int row = frame_no - first_frame;
+        switch (types[column]) {
+            case TYPE_INT:
+                return buffer.getInt(value_offsets[column] + row * 4);
+            case TYPE_DOUBLE:
+                return buffer.getDouble(value_offsets[column] + row * 8);
+            default:
+                return dictionary[buffer.getInt(value_offsets[column] + row * 4)];
+        }
+    }
+
+    @Override
+    public void printValue(PrintWriter writer, int column, int frame_no) {
+        int row = frame_no - first_frame;
+        switch (types[column]) {
+            case TYPE_INT:
+                writer.print(buffer.getInt(value_offsets[column] + row * 4));
+                break;
+            case TYPE_DOUBLE:
+                writer.print(buffer.getDouble(value_offsets[column] + row * 8));
+                break;
+            default:
+                writer.print(dictionary[buffer.getInt(value_offsets[column] + row * 4)]);
+        }
+    }
+}
@@ -39,5 +39,19 @@ public enum ImagingMode {
      * Get images from the Datastore which is associated with the next
      * acquisition that will be started.
      */
-    NEXT_ACQUISITION
+    NEXT_ACQUISITION,
+
+    /**
+     * Analyze every image of the next acquisition in order. Images wait in
+     * a bounded queue, and the overflow policy decides what happens if the
+     * analyzer can't keep up.
+     */
+    ALL_FRAMES,
+
+    /**
+     * Replay a TIFF or raw stack from a file, mapped into memory, without
+     * going through Micro-Manager. The file and the replay rate are set
+     * in the WorkerSettings.
+     */
+    FILE_REPLAY
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Converts binary logs, and the files written by log streaming, into the
+ * csv layout of AlicaLogger.saveLog(). Optionally only some of the
+ * parameters are exported.
+ *
+ * Usage: java -cp ALICA.jar ch.epfl.leb.alica.LogConverter input output.csv [parameter...]
+ */
+public class LogConverter {
+
+    private LogConverter() {
+    }
+
+    /**
+     * Convert a log file.
+     * @param args input file, output csv file, and optionally the names of
+     *  the parameters to be exported
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: LogConverter input output.csv [parameter...]");
+            System.exit(2);
+        }
+        String[] parameters = new String[args.length - 2];
+        System.arraycopy(args, 2, parameters, 0, parameters.length);
+        try {
+            convert(new File(args[0]), new File(args[1]), parameters);
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("Conversion failed: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Convert a binary log, or the last session of a stream file, to csv.
+     * @param input binary log or stream file
+     * @param output csv file, overwritten if it exists
+     * @param parameters names of the parameters to be exported, all if empty
+     * @throws IOException if reading or writing fails
+     */
+    public static void convert(File input, File output, String... parameters) throws IOException {
+        LogView log;
+        if (BinaryLog.isBinaryLog(input)) {
+            log = BinaryLog.open(input);
+        } else {
+            LogTable table = new LogTable();
+            LogStreamWriter.readLastSession(input, table);
+            log = table;
+        }
+        int[] columns = selectColumns(log, parameters);
+        try (PrintWriter writer = new PrintWriter(output.getAbsolutePath())) {
+            writeCsv(log, writer, columns);
+        }
+    }
+
+    /**
+     * Find the columns of the parameters.
+     * @param log log to be exported
+     * @param parameters names of the parameters, all if empty
+     * @return column indices
+     */
+    static int[] selectColumns(LogView log, String... parameters) {
+        if (parameters.length == 0) {
+            int[] columns = new int[log.getColumnCount()];
+            for (int c = 0; c < columns.length; c++) {
+                columns[c] = c;
+            }
+            return columns;
+        }
+        int[] columns = new int[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            columns[i] = -1;
+            for (int c = 0; c < log.getColumnCount(); c++) {
+                if (log.getColumnName(c).equals(parameters[i]))
+                    columns[i] = c;
+            }
+            if (columns[i] < 0)
+                throw new IllegalArgumentException("Parameter " + parameters[i] + " is not in the log.");
+        }
+        return columns;
+    }
+
+    /**
+     * Write the log as csv, one line per frame from 1 to the last logged
+     * frame. Missing values are filled with the previous value, or with
+     * 0.0 before the first value.
+     * @param log log to be written
+     * @param writer output
+     * @param columns indices of the columns to be written
+     */
+    static void writeCsv(LogView log, PrintWriter writer, int[] columns) {
+        int max_frame_no = log.isEmpty() ? 0 : Math.max(0, log.getMaxFrame());
+
+        writer.print("#frame_no");
+        for (int column: columns) {
+            writer.print(','+log.getColumnName(column));
+        }
+        writer.print("\n");
+
+        // frame whose value is repeated in each column, -1 for the default
+        int[] value_cache = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            value_cache[i] = log.hasValue(columns[i], 1) ? 1 : -1;
+        }
+
+        for (int frame_no = 1; frame_no <= max_frame_no; frame_no++) {
+            writer.print(frame_no);
+            for (int i = 0; i < columns.length; i++) {
+                if (log.hasValue(columns[i], frame_no))
+                    value_cache[i] = frame_no;
+                writer.print(",");
+                if (value_cache[i] < 0) {
+                    writer.print(0.0);
+                } else {
+                    log.printValue(writer, columns[i], value_cache[i]);
+                }
+            }
+            writer.print("\n");
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of log records, with many producers and a single
+ * consumer. The records are stored in preallocated parallel arrays, so
+ * offering a record does not allocate. Each slot carries a sequence number
+ * which tells whether it is free for the producer of a given position, or
+ * published for the consumer.
+ */
+class LogRecordQueue {
+    private static final byte TYPE_DOUBLE = 0;
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_STRING = 2;
+
+    /**
+     * Receives the drained records.
+     */
+    interface RecordHandler {
+        void handle(int frame_no, String name, double value);
+        void handle(int frame_no, String name, int value);
+        void handle(int frame_no, String name, String value);
+    }
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final int[] frames;
+    private final String[] names;
+    private final byte[] types;
+    private final double[] doubles;
+    private final int[] ints;
+    private final String[] strings;
+
+    // next position to be claimed by a producer
+    private final AtomicLong tail = new AtomicLong(0);
+    // next position to be consumed, only touched by the consumer
+    private long head = 0;
+
+    /**
+     * Initialize the queue.
+     * @param capacity maximal number of records, a power of two
+     */
+    LogRecordQueue(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two!");
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.frames = new int[capacity];
+        this.names = new String[capacity];
+        this.types = new byte[capacity];
+        this.doubles = new double[capacity];
+        this.ints = new int[capacity];
+        this.strings = new String[capacity];
+    }
+
+    /**
+     * Claim the slot of the next position.
+     * @return claimed position, or -1 if the queue is full
+     */
+    private long claim() {
+        while (true) {
+            long position = tail.get();
+            long sequence = sequences.get((int) (position & mask));
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1))
+                    return position;
+            } else if (sequence < position) {
+                return -1;
+            }
+            // another producer claimed this position, retry
+        }
+    }
+
+    /**
+     * Publish the slot to the consumer.
+     */
+    private void publish(long position) {
+        sequences.lazySet((int) (position & mask), position + 1);
+    }
+
+    /**
+     * Add a double record.
+     * @return false if the queue is full
+     */
+    boolean offer(int frame_no, String name, double value) {
+        long position = claim();
+        if (position < 0)
+            return false;
+        int slot = (int) (position & mask);
+        frames[slot] = frame_no;
+        names[slot] = name;
+        types[slot] = TYPE_DOUBLE;
+        doubles[slot] = value;
+        publish(position);
+        return true;
+    }
+
+    /**
+     * Add an integer record.
+     * @return false if the queue is full
+     */
+    boolean offer(int frame_no, String name, int value) {
+        long position = claim();
+        if (position < 0)
+            return false;
+        int slot = (int) (position & mask);
+        frames[slot] = frame_no;
+        names[slot] = name;
+        types[slot] = TYPE_INT;
+        ints[slot] = value;
+        publish(position);
+        return true;
+    }
+
+    /**
+     * Add a string record.
+     * @return false if the queue is full
+     */
+    boolean offer(int frame_no, String name, String value) {
+        long position = claim();
+        if (position < 0)
+            return false;
+        int slot = (int) (position & mask);
+        frames[slot] = frame_no;
+        names[slot] = name;
+        types[slot] = TYPE_STRING;
+        strings[slot] = value;
+        publish(position);
+        return true;
+    }
+
+    /**
+     * Pass all published records to the handler, in the order in which
+     * they were claimed. Must not be called concurrently.
+     * @param handler receives the records
+     * @return number of drained records
+     */
+    int drain(RecordHandler handler) {
+        int count = 0;
+        while (true) {
+            int slot = (int) (head & mask);
+            if (sequences.get(slot) != head + 1)
+                return count;
+            String name = names[slot];
+            switch (types[slot]) {
+                case TYPE_DOUBLE:
+                    handler.handle(frames[slot], name, doubles[slot]);
+                    break;
+                case TYPE_INT:
+                    handler.handle(frames[slot], name, ints[slot]);
+                    break;
+                default:
+                    handler.handle(frames[slot], name, strings[slot]);
+                    strings[slot] = null;
+            }
+            names[slot] = null;
+            sequences.lazySet(slot, head + mask + 1);
+            head++;
+            count++;
+        }
+    }
+
+    /**
+     *
+     * @return approximate number of records waiting to be drained
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    /**
+     *
+     * @return maximal number of records
+     */
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends the log to a file while the acquisition runs. A background thread
+ * periodically takes the finalized frames from the AlicaLogger (all frames
+ * except the most recent ones, which may still receive values), appends
+ * them to the file, and lets the logger evict them from memory. The file is
+ * synced to the disk at a fixed interval, so that it survives a crash of
+ * Micro-Manager.
+ *
+ * The file has one line per logged value, "frame_no,parameter,value". A line
+ * "#cleared" marks a reset of the logger, which starts a new session.
+ */
+class LogStreamWriter {
+    /**
+     * Header of the stream file.
+     */
+    static final String HEADER = "#frame_no,parameter,value\n";
+
+    /**
+     * Marks a reset of the logger in the stream file.
+     */
+    static final String CLEAR_MARKER = "#cleared";
+
+    private final AlicaLogger logger;
+    private final File file;
+    private final FileChannel channel;
+    private final long flush_interval_ms;
+    private final long fsync_interval_ms;
+    private final Thread thread;
+
+    private final StringBuilder batch = new StringBuilder();
+    private long last_fsync_ms;
+    private volatile boolean stop_flag = false;
+
+    /**
+     * Open the file and start the writer thread.
+     * @param logger logger whose frames are streamed
+     * @param file output file, overwritten if it exists
+     * @param flush_interval_ms period of appending finalized frames
+     * @param fsync_interval_ms period of syncing the file to the disk
+     * @throws IOException if the file can't be opened
+     */
+    LogStreamWriter(AlicaLogger logger, File file, long flush_interval_ms,
+            long fsync_interval_ms) throws IOException {
+        this.logger = logger;
+        this.file = file;
+        this.flush_interval_ms = flush_interval_ms;
+        this.fsync_interval_ms = fsync_interval_ms;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        write(HEADER);
+        this.last_fsync_ms = System.currentTimeMillis();
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "Alica Log Writer");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Start the writer thread.
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     *
+     * @return the stream file
+     */
+    File getFile() {
+        return file;
+    }
+
+    private void writeLoop() {
+        while (!stop_flag) {
+            try {
+                Thread.sleep(flush_interval_ms);
+            } catch (InterruptedException ex) {
+                break;
+            }
+            try {
+                flush(false);
+            } catch (IOException ex) {
+                logger.streamingFailed(ex);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Append frames from the logger to the file, and sync the file if the
+     * fsync interval has passed.
+     * @param all if true, all frames are appended, not only finalized ones
+     * @throws IOException if writing fails
+     */
+    synchronized void flush(boolean all) throws IOException {
+        batch.setLength(0);
+        logger.drainToStream(batch, all);
+        if (batch.length() > 0) {
+            write(batch);
+        }
+        long now = System.currentTimeMillis();
+        if (all || now - last_fsync_ms >= fsync_interval_ms) {
+            channel.force(false);
+            last_fsync_ms = now;
+        }
+    }
+
+    private void write(CharSequence text) throws IOException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(text));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * Stop the writer thread, append all remaining frames and close the
+     * file.
+     * @throws IOException if writing fails
+     */
+    void close() throws IOException {
+        stop_flag = true;
+        thread.interrupt();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Read the last session of a stream file back into a table.
+     * @param file stream file
+     * @param table table to be filled, it is cleared first
+     * @throws IOException if reading fails
+     */
+    static void readLastSession(File file, LogTable table) throws IOException {
+        table.clear();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(CLEAR_MARKER)) {
+                    table.clear();
+                    continue;
+                }
+                if (line.isEmpty() || line.charAt(0) == '#')
+                    continue;
+                int first = line.indexOf(',');
+                int second = line.indexOf(',', first + 1);
+                if (first < 0 || second < 0)
+                    throw new IOException("Malformed line in log stream: " + line);
+                int frame_no = Integer.parseInt(line.substring(0, first));
+                String name = line.substring(first + 1, second);
+                putParsed(table, frame_no, name, line.substring(second + 1));
+            }
+        }
+    }
+
+    /**
+     * Store a value with the type it was written with: integers have no
+     * decimal point, doubles have one, anything else is a string.
+     */
+    private static void putParsed(LogTable table, int frame_no, String name, String text) {
+        try {
+            table.put(frame_no, name, Integer.parseInt(text));
+            return;
+        } catch (NumberFormatException ex) {
+            // not an integer
+        }
+        try {
+            table.put(frame_no, name, Double.parseDouble(text));
+            return;
+        } catch (NumberFormatException ex) {
+            // not a number
+        }
+        table.put(frame_no, name, text);
+    }
+}
@@ -0,0 +1,598 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Column-oriented storage of the log. Every parameter is a column of
+ * primitive values indexed by frame number, with a bitmap recording which
+ * frames have a value. Values are never overwritten. Frames are stored
+ * densely from the lowest logged frame number, so adding a value does not
+ * allocate once the columns have grown to the length of the acquisition.
+ * Frames which were streamed to disk can be evicted from the front, so that
+ * the columns stop growing.
+ *
+ * Not thread-safe, AlicaLogger synchronizes the access.
+ */
+class LogTable implements LogView {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Type of the values stored in a column. A column is promoted to a
+     * wider type if a value of a wider type is logged into it.
+     */
+    enum ColumnType {
+        INT, DOUBLE, STRING
+    }
+
+    // parameter names in the order in which they were first logged
+    private final ArrayList<Column> columns = new ArrayList<>();
+    private final HashMap<String, Column> column_index = new HashMap<>();
+    // dictionary of the values of string columns
+    private final ArrayList<String> strings = new ArrayList<>();
+    private final HashMap<String, Integer> string_index = new HashMap<>();
+
+    // frame number of row 0
+    private int base_frame = 0;
+    private int row_capacity = 0;
+    private boolean empty = true;
+    private int min_frame = 0;
+    private int max_frame = 0;
+    // frames before this one were evicted
+    private int evicted_before = Integer.MIN_VALUE;
+
+    /**
+     * Remove all data.
+     */
+    public void clear() {
+        columns.clear();
+        column_index.clear();
+        strings.clear();
+        string_index.clear();
+        base_frame = 0;
+        row_capacity = 0;
+        empty = true;
+        min_frame = 0;
+        max_frame = 0;
+        evicted_before = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Deep copy of the table.
+     * @return independent table with the same values
+     */
+    public LogTable copy() {
+        LogTable copy = new LogTable();
+        for (Column c: columns) {
+            Column column_copy = c.copy();
+            copy.columns.add(column_copy);
+            copy.column_index.put(column_copy.name, column_copy);
+        }
+        copy.strings.addAll(strings);
+        copy.string_index.putAll(string_index);
+        copy.base_frame = base_frame;
+        copy.row_capacity = row_capacity;
+        copy.empty = empty;
+        copy.min_frame = min_frame;
+        copy.max_frame = max_frame;
+        copy.evicted_before = evicted_before;
+        return copy;
+    }
+
+    /**
+     *
+     * @return true if no value was logged since the last clear
+     */
+    @Override
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     *
+     * @return lowest frame number with a value
+     */
+    public int getMinFrame() {
+        return min_frame;
+    }
+
+    /**
+     *
+     * @return highest frame number with a value
+     */
+    @Override
+    public int getMaxFrame() {
+        return max_frame;
+    }
+
+    /**
+     *
+     * @return number of parameters
+     */
+    @Override
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    /**
+     *
+     * @param column index of the parameter
+     * @return name of the parameter
+     */
+    @Override
+    public String getColumnName(int column) {
+        return columns.get(column).name;
+    }
+
+    /**
+     *
+     * @param column index of the parameter
+     * @return type of the parameter's values
+     */
+    public ColumnType getColumnType(int column) {
+        return columns.get(column).type;
+    }
+
+    /**
+     *
+     * @return parameter names in the order in which they were first logged
+     */
+    public List<String> getColumnNames() {
+        ArrayList<String> names = new ArrayList<>(columns.size());
+        for (Column c: columns) {
+            names.add(c.name);
+        }
+        return names;
+    }
+
+    /**
+     * Add a double value, unless the parameter already has a value for
+     * this frame.
+     * @param frame_no frame number
+     * @param name name of the parameter
+     * @param value value of the parameter
+     * @return true if the value was stored
+     */
+    public boolean put(int frame_no, String name, double value) {
+        Column c = getColumn(name, ColumnType.DOUBLE);
+        int row = prepareRow(frame_no, c);
+        if (isSet(c, row))
+            return false;
+        if (c.type == ColumnType.STRING) {
+            c.ints[row] = intern(Double.toString(value));
+        } else {
+            c.doubles[row] = value;
+        }
+        markSet(c, row, frame_no);
+        return true;
+    }
+
+    /**
+     * Add an integer value, unless the parameter already has a value for
+     * this frame.
+     * @param frame_no frame number
+     * @param name name of the parameter
+     * @param value value of the parameter
+     * @return true if the value was stored
+     */
+    public boolean put(int frame_no, String name, int value) {
+        Column c = getColumn(name, ColumnType.INT);
+        int row = prepareRow(frame_no, c);
+        if (isSet(c, row))
+            return false;
+        switch (c.type) {
+            case INT:
+                c.ints[row] = value;
+                break;
+            case DOUBLE:
+                c.doubles[row] = value;
+                break;
+            default:
+                c.ints[row] = intern(Integer.toString(value));
+        }
+        markSet(c, row, frame_no);
+        return true;
+    }
+
+    /**
+     * Add a string value, unless the parameter already has a value for
+     * this frame.
+     * @param frame_no frame number
+     * @param name name of the parameter
+     * @param value value of the parameter
+     * @return true if the value was stored
+     */
+    public boolean put(int frame_no, String name, String value) {
+        if (value == null)
+            throw new NullPointerException("Logged value must not be null!");
+        Column c = getColumn(name, ColumnType.STRING);
+        int row = prepareRow(frame_no, c);
+        if (isSet(c, row))
+            return false;
+        c.ints[row] = intern(value);
+        markSet(c, row, frame_no);
+        return true;
+    }
+
+    /**
+     *
+     * @param column index of the parameter
+     * @param frame_no frame number
+     * @return true if the parameter has a value for the frame
+     */
+    @Override
+    public boolean hasValue(int column, int frame_no) {
+        int row = frame_no - base_frame;
+        if (row < 0 || row >= row_capacity)
+            return false;
+        return isSet(columns.get(column), row);
+    }
+
+    /**
+     * Boxed value of a parameter, for the map view of the log.
+     * @param column index of the parameter
+     * @param frame_no frame number
+     * @return Integer, Double or String value, or null if not set
+     */
+    public Object getValue(int column, int frame_no) {
+        if (!hasValue(column, frame_no))
+            return null;
+        Column c = columns.get(column);
+        int row = frame_no - base_frame;
+        switch (c.type) {
+            case INT:
+                return c.ints[row];
+            case DOUBLE:
+                return c.doubles[row];
+            default:
+                return strings.get(c.ints[row]);
+        }
+    }
+
+    /**
+     * Print a value of a parameter without boxing it.
+     * @param writer output
+     * @param column index of the parameter
+     * @param frame_no frame number, must have a value
+     */
+    @Override
+    public void printValue(PrintWriter writer, int column, int frame_no) {
+        Column c = columns.get(column);
+        int row = frame_no - base_frame;
+        switch (c.type) {
+            case INT:
+                writer.print(c.ints[row]);
+                break;
+            case DOUBLE:
+                writer.print(c.doubles[row]);
+                break;
+            default:
+                writer.print(strings.get(c.ints[row]));
+        }
+    }
+
+    /**
+     * Append a value of a parameter without boxing it.
+     * @param sb output
+     * @param column index of the parameter
+     * @param frame_no frame number, must have a value
+     */
+    public void appendValue(StringBuilder sb, int column, int frame_no) {
+        Column c = columns.get(column);
+        int row = frame_no - base_frame;
+        switch (c.type) {
+            case INT:
+                sb.append(c.ints[row]);
+                break;
+            case DOUBLE:
+                sb.append(c.doubles[row]);
+                break;
+            default:
+                sb.append(strings.get(c.ints[row]));
+        }
+    }
+
+    /**
+     *
+     * @param frame_no frame number
+     * @return true if the frame was evicted, values can no longer be
+     *  added to it
+     */
+    public boolean isEvicted(int frame_no) {
+        return frame_no < evicted_before;
+    }
+
+    /**
+     * Remove frames from the front of the table, reusing their space for
+     * later frames. To keep the bitmaps aligned, frames are removed in
+     * multiples of 64, so a few frames before frame_no may be kept.
+     * @param frame_no first frame which must be kept
+     */
+    public void evictBefore(int frame_no) {
+        if (row_capacity == 0)
+            return;
+        int rows = Math.min(frame_no - base_frame, row_capacity) & ~63;
+        if (rows <= 0)
+            return;
+        for (Column c: columns) {
+            c.shiftDown(rows);
+        }
+        base_frame += rows;
+        evicted_before = base_frame;
+        if (max_frame < base_frame) {
+            empty = true;
+        } else if (min_frame < base_frame) {
+            min_frame = base_frame;
+        }
+    }
+
+    /**
+     * Estimate of the heap used by the values, bitmaps and the string
+     * dictionary, without the object headers of the columns.
+     * @return approximate size in bytes
+     */
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (Column c: columns) {
+            if (c.doubles != null)
+                bytes += 8L * c.doubles.length;
+            if (c.ints != null)
+                bytes += 4L * c.ints.length;
+            bytes += 8L * c.present.length;
+        }
+        for (String s: strings) {
+            // characters, plus the String and its map entry
+            bytes += 2L * s.length() + 64;
+        }
+        return bytes;
+    }
+
+    /**
+     *
+     * @return frame number of the first stored row
+     */
+    int getBaseFrame() {
+        return base_frame;
+    }
+
+    /**
+     *
+     * @return values of string columns, indexed by their dictionary id
+     */
+    List<String> getDictionary() {
+        return strings;
+    }
+
+    /**
+     *
+     * @param column index of the parameter
+     * @return presence bitmap of the column, bit i of word i/64 is set if
+     *  the frame getBaseFrame()+i has a value
+     */
+    long[] getPresenceWords(int column) {
+        return columns.get(column).present;
+    }
+
+    /**
+     *
+     * @param column index of a DOUBLE column
+     * @return values of the column, starting at getBaseFrame()
+     */
+    double[] getDoubleValues(int column) {
+        return columns.get(column).doubles;
+    }
+
+    /**
+     *
+     * @param column index of an INT or STRING column
+     * @return values or dictionary ids of the column, starting at
+     *  getBaseFrame()
+     */
+    int[] getIntValues(int column) {
+        return columns.get(column).ints;
+    }
+
+    /**
+     * Look up the column, creating or promoting it if needed.
+     */
+    private Column getColumn(String name, ColumnType type) {
+        Column c = column_index.get(name);
+        if (c == null) {
+            c = new Column(name, type, row_capacity);
+            columns.add(c);
+            column_index.put(name, c);
+        } else if (type.ordinal() > c.type.ordinal()) {
+            promote(c, type);
+        }
+        return c;
+    }
+
+    /**
+     * Make space for the frame in all columns.
+     * @return row of the frame
+     */
+    private int prepareRow(int frame_no, Column c) {
+        if (row_capacity == 0) {
+            base_frame = frame_no;
+        }
+        if (frame_no < base_frame) {
+            // frames before the first logged frame are rare, shift all rows
+            int shift = base_frame - frame_no;
+            int new_capacity = Math.max(row_capacity + shift, INITIAL_CAPACITY);
+            for (Column col: columns) {
+                col.shift(shift, new_capacity);
+            }
+            row_capacity = new_capacity;
+            base_frame = frame_no;
+        }
+        int row = frame_no - base_frame;
+        if (row >= row_capacity) {
+            int new_capacity = Math.max(INITIAL_CAPACITY, row_capacity);
+            while (new_capacity <= row) {
+                new_capacity *= 2;
+            }
+            row_capacity = new_capacity;
+        }
+        c.ensureCapacity(row_capacity);
+        return row;
+    }
+
+    private static boolean isSet(Column c, int row) {
+        return (row >> 6) < c.present.length && (c.present[row >> 6] & (1L << row)) != 0;
+    }
+
+    private void markSet(Column c, int row, int frame_no) {
+        c.present[row >> 6] |= 1L << row;
+        if (empty) {
+            min_frame = frame_no;
+            max_frame = frame_no;
+            empty = false;
+        } else {
+            min_frame = Math.min(min_frame, frame_no);
+            max_frame = Math.max(max_frame, frame_no);
+        }
+    }
+
+    private int intern(String value) {
+        Integer id = string_index.get(value);
+        if (id == null) {
+            id = strings.size();
+            strings.add(value);
+            string_index.put(value, id);
+        }
+        return id;
+    }
+
+    /**
+     * Convert the stored values of the column to a wider type.
+     */
+    private void promote(Column c, ColumnType type) {
+        if (type == ColumnType.DOUBLE) {
+            c.doubles = new double[c.ints.length];
+            for (int row = 0; row < c.ints.length; row++) {
+                c.doubles[row] = c.ints[row];
+            }
+            c.ints = null;
+        } else {
+            int[] ids = new int[c.type == ColumnType.INT ? c.ints.length : c.doubles.length];
+            for (int row = 0; row < ids.length; row++) {
+                if (!isSet(c, row))
+                    continue;
+                ids[row] = intern(c.type == ColumnType.INT
+                        ? Integer.toString(c.ints[row]) : Double.toString(c.doubles[row]));
+            }
+            c.ints = ids;
+            c.doubles = null;
+        }
+        c.type = type;
+    }
+
+    /**
+     * Values of a single parameter.
+     */
+    private static class Column {
+        final String name;
+        ColumnType type;
+        // values of INT columns, or dictionary ids of STRING columns
+        int[] ints;
+        double[] doubles;
+        long[] present;
+
+        Column(String name, ColumnType type, int capacity) {
+            this.name = name;
+            this.type = type;
+            this.present = new long[0];
+            if (type == ColumnType.DOUBLE) {
+                this.doubles = new double[0];
+            } else {
+                this.ints = new int[0];
+            }
+            ensureCapacity(capacity);
+        }
+
+        Column copy() {
+            Column c = new Column(name, type, 0);
+            c.ints = (ints != null) ? ints.clone() : null;
+            c.doubles = (doubles != null) ? doubles.clone() : null;
+            c.present = present.clone();
+            return c;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (doubles != null && doubles.length < capacity) {
+                doubles = Arrays.copyOf(doubles, capacity);
+            }
+            if (ints != null && ints.length < capacity) {
+                ints = Arrays.copyOf(ints, capacity);
+            }
+            int words = (capacity + 63) >> 6;
+            if (present.length < words) {
+                present = Arrays.copyOf(present, words);
+            }
+        }
+
+        /**
+         * Drop the first rows, a multiple of 64, and move the others up.
+         */
+        void shiftDown(int rows) {
+            if (doubles != null) {
+                int kept = Math.max(0, doubles.length - rows);
+                System.arraycopy(doubles, Math.min(rows, doubles.length), doubles, 0, kept);
+                Arrays.fill(doubles, kept, doubles.length, 0.0);
+            }
+            if (ints != null) {
+                int kept = Math.max(0, ints.length - rows);
+                System.arraycopy(ints, Math.min(rows, ints.length), ints, 0, kept);
+                Arrays.fill(ints, kept, ints.length, 0);
+            }
+            int words = rows >> 6;
+            int kept = Math.max(0, present.length - words);
+            System.arraycopy(present, Math.min(words, present.length), present, 0, kept);
+            Arrays.fill(present, kept, present.length, 0L);
+        }
+
+        /**
+         * Move all rows down by shift rows.
+         */
+        void shift(int shift, int capacity) {
+            if (doubles != null) {
+                double[] d = new double[capacity];
+                System.arraycopy(doubles, 0, d, shift, Math.min(doubles.length, capacity - shift));
+                doubles = d;
+            }
+            if (ints != null) {
+                int[] i = new int[capacity];
+                System.arraycopy(ints, 0, i, shift, Math.min(ints.length, capacity - shift));
+                ints = i;
+            }
+            long[] p = new long[(capacity + 63) >> 6];
+            for (int row = 0; row < present.length * 64 && row + shift < capacity; row++) {
+                if ((present[row >> 6] & (1L << row)) != 0) {
+                    int r = row + shift;
+                    p[r >> 6] |= 1L << r;
+                }
+            }
+            present = p;
+        }
+    }
+}
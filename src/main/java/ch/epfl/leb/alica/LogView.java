@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica;
+
+import java.io.PrintWriter;
+
+/**
+ * Read access to a log organized in columns, either in memory (LogTable) or
+ * in a binary log file (BinaryLog).
+ */
+interface LogView {
+    /**
+     *
+     * @return true if the log contains no values
+     */
+    boolean isEmpty();
+
+    /**
+     *
+     * @return highest frame number with a value
+     */
+    int getMaxFrame();
+
+    /**
+     *
+     * @return number of parameters
+     */
+    int getColumnCount();
+
+    /**
+     *
+     * @param column index of the parameter
+     * @return name of the parameter
+     */
+    String getColumnName(int column);
+
+    /**
+     *
+     * @param column index of the parameter
+     * @param frame_no frame number
+     * @return true if the parameter has a value for the frame
+     */
+    boolean hasValue(int column, int frame_no);
+
+    /**
+     * Print a value of a parameter without boxing it.
+     * @param writer output
+     * @param column index of the parameter
+     * @param frame_no frame number, must have a value
+     */
+    void printValue(PrintWriter writer, int column, int frame_no);
+}
@@ -19,11 +19,20 @@
  */
 package ch.epfl.leb.alica;
 
+import ch.epfl.leb.alica.workers.BinningStage;
+import ch.epfl.leb.alica.workers.DownsamplingStage;
+import ch.epfl.leb.alica.workers.FrameQueue;
+import ch.epfl.leb.alica.workers.PreprocessingStage;
 import ij.IJ;
 import ij.gui.YesNoCancelDialog;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import org.micromanager.internal.MMStudio;
 
 /**
@@ -38,6 +47,9 @@ public final class MainGUI extends JFrame {
     
     private final AlicaCore alica_core;
     
+    // size reduction added from the preprocessing combo box at the last start
+    private PreprocessingStage gui_reduction = null;
+    
     
     /**
      * Creates new form MainGUI, private to prevent outside instantiation
@@ -178,6 +190,14 @@ public final class MainGUI extends JFrame {
         jLabel5 = new javax.swing.JLabel();
         e_laser_max_power = new javax.swing.JTextField();
         rb_source_acquisition = new javax.swing.JRadioButton();
+        rb_source_all_frames = new javax.swing.JRadioButton();
+        cb_overflow_policy = new javax.swing.JComboBox();
+        rb_source_file_replay = new javax.swing.JRadioButton();
+        b_choose_replay_file = new javax.swing.JButton();
+        e_replay_fps = new javax.swing.JTextField();
+        jLabel9 = new javax.swing.JLabel();
+        jLabel10 = new javax.swing.JLabel();
+        cb_preprocessing = new javax.swing.JComboBox();
         jLabel6 = new javax.swing.JLabel();
         e_controller_tickrate = new javax.swing.JTextField();
         b_save_last_run_log = new javax.swing.JButton();
@@ -314,6 +334,33 @@ public final class MainGUI extends JFrame {
         buttonGroup_imaging_mode.add(rb_source_acquisition);
         rb_source_acquisition.setText("Next acquisition");
 
+        buttonGroup_imaging_mode.add(rb_source_all_frames);
+        rb_source_all_frames.setText("All frames of next acquisition");
+
+        cb_overflow_policy.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "Block", "Drop oldest", "Drop newest" }));
+        cb_overflow_policy.setToolTipText("Behavior of a full frame queue");
+
+        buttonGroup_imaging_mode.add(rb_source_file_replay);
+        rb_source_file_replay.setText("Replay file");
+
+        b_choose_replay_file.setText("Choose file...");
+        b_choose_replay_file.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                b_choose_replay_fileActionPerformed(evt);
+            }
+        });
+
+        e_replay_fps.setHorizontalAlignment(javax.swing.JTextField.TRAILING);
+        e_replay_fps.setText("0");
+        e_replay_fps.setToolTipText("Replay rate, 0 for as fast as possible");
+
+        jLabel9.setText("fps");
+
+        jLabel10.setText("Preprocessing:");
+
+        cb_preprocessing.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "None", "Bin 2x2", "Bin 4x4", "Downsample 2x" }));
+        cb_preprocessing.setToolTipText("Applied to every frame before the analysis");
+
         jLabel6.setText("Controller tick rate [ms]:");
 
         e_controller_tickrate.setHorizontalAlignment(javax.swing.JTextField.TRAILING);
@@ -382,8 +429,20 @@ public final class MainGUI extends JFrame {
                                                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                                                     .addComponent(rb_source_live_pipeline)
                                                     .addComponent(rb_source_acquisition)
-                                                    .addComponent(rb_source_mmcore))
-                                                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, 496, Short.MAX_VALUE))))
+                                                    .addComponent(rb_source_mmcore)
+                                                    .addGroup(layout.createSequentialGroup()
+                                                        .addComponent(rb_source_all_frames)
+                                                        .addGap(18, 18, 18)
+                                                        .addComponent(cb_overflow_policy, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                                                    .addGroup(layout.createSequentialGroup()
+                                                        .addComponent(rb_source_file_replay)
+                                                        .addGap(18, 18, 18)
+                                                        .addComponent(b_choose_replay_file)
+                                                        .addGap(18, 18, 18)
+                                                        .addComponent(e_replay_fps, javax.swing.GroupLayout.PREFERRED_SIZE, 45, javax.swing.GroupLayout.PREFERRED_SIZE)
+                                                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                                                        .addComponent(jLabel9)))
+                                                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, 316, Short.MAX_VALUE))))
                                     .addGroup(layout.createSequentialGroup()
                                         .addComponent(jLabel2)
                                         .addGap(18, 18, 18)
@@ -402,6 +461,10 @@ public final class MainGUI extends JFrame {
                                                 .addComponent(jLabel6)
                                                 .addGap(18, 18, 18)
                                                 .addComponent(e_controller_tickrate, javax.swing.GroupLayout.PREFERRED_SIZE, 50, javax.swing.GroupLayout.PREFERRED_SIZE))
+                                            .addGroup(layout.createSequentialGroup()
+                                                .addComponent(jLabel10)
+                                                .addGap(18, 18, 18)
+                                                .addComponent(cb_preprocessing, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
                                             .addGroup(layout.createSequentialGroup()
                                                 .addComponent(l_roi_is_set)
                                                 .addGap(65, 65, 65)
@@ -452,6 +515,18 @@ public final class MainGUI extends JFrame {
                     .addComponent(rb_source_acquisition)
                     .addComponent(jLabel6)
                     .addComponent(e_controller_tickrate, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(rb_source_all_frames)
+                    .addComponent(cb_overflow_policy, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(jLabel10)
+                    .addComponent(cb_preprocessing, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(rb_source_file_replay)
+                    .addComponent(b_choose_replay_file)
+                    .addComponent(e_replay_fps, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(jLabel9))
                 .addGap(13, 13, 13)
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(jLabel2)
@@ -572,9 +647,76 @@ public final class MainGUI extends JFrame {
             imaging_mode = ImagingMode.GRAB_FROM_CORE;
         else if (rb_source_live_pipeline.isSelected())
             imaging_mode = ImagingMode.LIVE;
+        else if (rb_source_all_frames.isSelected())
+            imaging_mode = ImagingMode.ALL_FRAMES;
+        else if (rb_source_file_replay.isSelected())
+            imaging_mode = ImagingMode.FILE_REPLAY;
         else
             imaging_mode = ImagingMode.NEXT_ACQUISITION;
         
+        // parse frame queue overflow policy
+        switch (cb_overflow_policy.getSelectedIndex()) {
+            case 1:
+                alica_core.getWorkerSettings().setFrameQueueOverflowPolicy(FrameQueue.OverflowPolicy.DROP_OLDEST);
+                break;
+            case 2:
+                alica_core.getWorkerSettings().setFrameQueueOverflowPolicy(FrameQueue.OverflowPolicy.DROP_NEWEST);
+                break;
+            default:
+                alica_core.getWorkerSettings().setFrameQueueOverflowPolicy(FrameQueue.OverflowPolicy.BLOCK);
+        }
+        
+        // parse the replayed file and its rate
+        if (imaging_mode.equals(ImagingMode.FILE_REPLAY)) {
+            if (alica_core.getWorkerSettings().getReplayFile() == null) {
+                AlicaLogger.getInstance().showMessage("Choose a file to be replayed.");
+                return;
+            }
+            double replay_fps;
+            try {
+                replay_fps = Double.parseDouble(e_replay_fps.getText());
+            } catch (NumberFormatException ex) {
+                AlicaLogger.getInstance().showMessage("Error in parsing replay rate.");
+                return;
+            }
+            if (replay_fps < 0) {
+                AlicaLogger.getInstance().showMessage("Replay rate can't be negative.");
+                return;
+            }
+            alica_core.getWorkerSettings().setReplayFramesPerSecond(replay_fps);
+        }
+        
+        // the reduction selected at the last start is removed. A newly
+        // selected reduction replaces all size reductions set from a
+        // script, with "None" the stages of the script are kept as they are
+        PreprocessingStage selected_reduction;
+        switch (cb_preprocessing.getSelectedIndex()) {
+            case 1:
+                selected_reduction = new BinningStage(2, BinningStage.Mode.AVERAGE);
+                break;
+            case 2:
+                selected_reduction = new BinningStage(4, BinningStage.Mode.AVERAGE);
+                break;
+            case 3:
+                selected_reduction = new DownsamplingStage(2);
+                break;
+            default:
+                selected_reduction = null;
+                break;
+        }
+        List<PreprocessingStage> stages = new ArrayList<>();
+        for (PreprocessingStage stage: alica_core.getWorkerSettings().getPreprocessingStages()) {
+            if (stage == gui_reduction)
+                continue;
+            if (selected_reduction != null && stage.getReduction() != 1)
+                continue;
+            stages.add(stage);
+        }
+        if (selected_reduction != null)
+            stages.add(selected_reduction);
+        gui_reduction = selected_reduction;
+        alica_core.getWorkerSettings().setPreprocessingStages(stages);
+        
         // parse controller tick rate
         int controller_tick_rate;
         try {
@@ -614,6 +756,17 @@ public final class MainGUI extends JFrame {
             l_roi_is_set.setText("ROI: Not set");
     }//GEN-LAST:event_b_set_roiActionPerformed
 
+    private void b_choose_replay_fileActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_b_choose_replay_fileActionPerformed
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new FileNameExtensionFilter("TIFF stack", "tif", "tiff"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        File file = chooser.getSelectedFile();
+        alica_core.getWorkerSettings().setReplayFile(file);
+        b_choose_replay_file.setText(file.getName());
+        rb_source_file_replay.setSelected(true);
+    }//GEN-LAST:event_b_choose_replay_fileActionPerformed
+
     private void formWindowClosing(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_formWindowClosing
         this.setVisible(false);
     }//GEN-LAST:event_formWindowClosing
@@ -621,6 +774,7 @@ public final class MainGUI extends JFrame {
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JPanel analyzer_panel;
+    private javax.swing.JButton b_choose_replay_file;
     private javax.swing.JButton b_exit_plugin;
     private javax.swing.JButton b_print_loaded_devices;
     private javax.swing.JButton b_save_last_run_log;
@@ -631,12 +785,16 @@ public final class MainGUI extends JFrame {
     private javax.swing.JComboBox cb_controller_setup;
     private javax.swing.JComboBox cb_laser_properties;
     private javax.swing.JComboBox cb_laser_setup;
+    private javax.swing.JComboBox cb_overflow_policy;
+    private javax.swing.JComboBox cb_preprocessing;
     private javax.swing.JCheckBox chkb_laser_is_virtual;
     private javax.swing.JPanel controller_panel;
     private javax.swing.JTextField e_controller_tickrate;
     private javax.swing.JTextField e_laser_deadzone_pct;
     private javax.swing.JTextField e_laser_max_power;
+    private javax.swing.JTextField e_replay_fps;
     private javax.swing.JLabel jLabel1;
+    private javax.swing.JLabel jLabel10;
     private javax.swing.JLabel jLabel2;
     private javax.swing.JLabel jLabel3;
     private javax.swing.JLabel jLabel4;
@@ -644,10 +802,13 @@ public final class MainGUI extends JFrame {
     private javax.swing.JLabel jLabel6;
     private javax.swing.JLabel jLabel7;
     private javax.swing.JLabel jLabel8;
+    private javax.swing.JLabel jLabel9;
     private javax.swing.JLabel l_roi_is_set;
     private javax.swing.JLabel l_title;
     private javax.swing.JLabel l_titletext;
     private javax.swing.JRadioButton rb_source_acquisition;
+    private javax.swing.JRadioButton rb_source_all_frames;
+    private javax.swing.JRadioButton rb_source_file_replay;
     private javax.swing.JRadioButton rb_source_live_pipeline;
     private javax.swing.JRadioButton rb_source_mmcore;
     // End of variables declaration//GEN-END:variables
@@ -118,9 +118,20 @@ public final class LaserFactory {
      * @return initialized Laser
      */
     public Laser build() {
+        return build(selected_name, selected_property);
+    }
+    
+    /**
+     * Build a laser for another device and property, with the current
+     * power limits and deadzone
+     * @param device_name unique device identifier from the MMCore
+     * @param property_name unique property identifier from MMCore
+     * @return initialized Laser
+     */
+    public Laser build(String device_name, String property_name) {
         if (this.is_laser_virtual)
-            return new VirtualLaser(studio, selected_name, selected_property, 0.0, max_laser_power);
+            return new VirtualLaser(studio, device_name, property_name, 0.0, max_laser_power);
         else
-            return new MMLaser(studio, selected_name, selected_property, 0.0, max_laser_power, laser_power_deadzone);
+            return new MMLaser(studio, device_name, property_name, 0.0, max_laser_power, laser_power_deadzone);
     }
 }
@@ -63,7 +63,7 @@ public class MMLaser implements Laser {
             return current_power_cached;
         
         // if power change is within deadzone, do nothing
-        if (abs(current_power_cached-desired_power)/current_power_cached < laser_power_deadzone) {
+        if (isWithinDeadzone(current_power_cached, desired_power, laser_power_deadzone)) {
             return current_power_cached;
         }
         // constrain the input value
@@ -83,6 +83,18 @@ public class MMLaser implements Laser {
         return actual_power;
     }
 
+    /**
+     * Checks if a requested power change is too small to be passed on.
+     * @param current_power current laser power
+     * @param desired_power requested laser power
+     * @param deadzone relative deadzone (NOT in percent)
+     * @return true if the change relative to the current power is smaller
+     *  than the deadzone; never true while the current power is 0
+     */
+    static boolean isWithinDeadzone(double current_power, double desired_power, double deadzone) {
+        return abs(current_power-desired_power)/current_power < deadzone;
+    }
+
     @Override
     public double getLaserPower() throws Exception {
         current_power_cached = Double.parseDouble(studio.core().getProperty(device_name, property_name));
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.replay;
+
+import java.util.Arrays;
+
+/**
+ * Growing record of long values, e.g. durations or timestamps in
+ * nanoseconds. Values may be added from several threads.
+ */
+class LongRecorder {
+    private long[] values = new long[1024];
+    private int count = 0;
+
+    /**
+     * Append a value.
+     * @param value value to be recorded
+     */
+    synchronized void add(long value) {
+        if (count == values.length) {
+            values = Arrays.copyOf(values, 2 * values.length);
+        }
+        values[count++] = value;
+    }
+
+    /**
+     *
+     * @return number of recorded values
+     */
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     *
+     * @return copy of the recorded values, in the order they were added
+     */
+    synchronized long[] toArray() {
+        return Arrays.copyOf(values, count);
+    }
+}
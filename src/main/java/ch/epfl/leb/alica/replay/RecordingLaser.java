@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.replay;
+
+import ch.epfl.leb.alica.Laser;
+import java.util.Arrays;
+
+/**
+ * A laser which, like the VirtualLaser, only constrains the requested power,
+ * and records every change of the power instead of sending it anywhere. It
+ * needs no Micro-Manager.
+ */
+public class RecordingLaser implements Laser {
+    private final double min_power;
+    private final double max_power;
+
+    private double current_power_cached = 0.0;
+    private double[] powers = new double[256];
+    private int change_count = 0;
+    private int request_count = 0;
+
+    /**
+     * Initialize the laser
+     * @param min_power minimal allowed power
+     * @param max_power maximal allowed power
+     */
+    public RecordingLaser(double min_power, double max_power) {
+        this.min_power = min_power;
+        this.max_power = max_power;
+    }
+
+    @Override
+    public synchronized double setLaserPower(double desired_power) {
+        request_count++;
+        // constrain the input value
+        double actual_power = Math.max(min_power, Math.min(max_power, desired_power));
+        if (current_power_cached == actual_power) {
+            return current_power_cached;
+        }
+        current_power_cached = actual_power;
+        if (change_count == powers.length) {
+            powers = Arrays.copyOf(powers, 2 * powers.length);
+        }
+        powers[change_count++] = actual_power;
+        return actual_power;
+    }
+
+    @Override
+    public synchronized double getLaserPower() {
+        return current_power_cached;
+    }
+
+    @Override
+    public synchronized double getLaserPowerCached() {
+        return current_power_cached;
+    }
+
+    /**
+     *
+     * @return number of calls of setLaserPower()
+     */
+    public synchronized int getRequestCount() {
+        return request_count;
+    }
+
+    /**
+     *
+     * @return the powers set by the calls which changed the power, in order
+     */
+    public synchronized double[] getPowerChanges() {
+        return Arrays.copyOf(powers, change_count);
+    }
+
+    @Override
+    public double getMaxPower() {
+        return max_power;
+    }
+
+    @Override
+    public double getMinPower() {
+        return min_power;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return "RECORDING";
+    }
+
+    @Override
+    public String getPropertyName() {
+        return "Power";
+    }
+}
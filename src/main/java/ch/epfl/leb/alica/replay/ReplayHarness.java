@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.replay;
+
+import ch.epfl.leb.alica.AlicaLogger;
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.Controller;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerFactory;
+import ch.epfl.leb.alica.interfaces.controllers.ControllerFactory;
+import ch.epfl.leb.alica.workers.Coordinator;
+import ij.gui.Roi;
+import ij.io.FileInfo;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the AnalysisWorker, ControlWorker and laser pipeline of the
+ * Coordinator on a stack of images from a file, without Micro-Manager. The
+ * frames are fed as fast as the analyzers take them, and the control ticks
+ * drive a RecordingLaser. The result is a ReplayReport with the throughput,
+ * the analysis time percentiles and the jitter of the control ticks.
+ *
+ * Usage: java -cp ALICA.jar ch.epfl.leb.alica.replay.ReplayHarness [options] stack analyzer controller
+ */
+public class ReplayHarness {
+    private static final String USAGE =
+            "Usage: ReplayHarness [options] stack analyzer controller\n" +
+            "  -loops N             replay the stack N times (1)\n" +
+            "  -analyzers N         analyzer instances working in parallel (1)\n" +
+            "  -tick MS             controller tick rate in ms (500)\n" +
+            "  -setpoint V          controller setpoint (0)\n" +
+            "  -max-power P         maximal laser power (100)\n" +
+            "  -pixel UM            pixel size in um (0.1)\n" +
+            "  -raw W H BITS        read a raw file of W x H images with 8, 16 or 32 bit pixels\n" +
+            "  -big-endian          byte order of the raw file\n" +
+            "  -timeout S           maximal duration of the replay in s (600)";
+
+    private final StackFrameSource frame_source;
+    private final List<TimedAnalyzer> analyzers = new ArrayList<>();
+    private final TimedController controller;
+    private final RecordingLaser laser;
+    private final int controller_tick_rate_ms;
+    private final double pixel_size_um;
+    private Roi roi = null;
+
+    /**
+     * Initialize the harness.
+     * @param frame_source stack to be replayed, can be replayed only once
+     * @param analyzers independent analyzer instances, at least one
+     * @param controller controller fed with the batched analyzer output
+     * @param laser laser fed with the controller output
+     * @param controller_tick_rate_ms period of the control ticks
+     * @param pixel_size_um pixel size passed to the analyzers
+     */
+    public ReplayHarness(StackFrameSource frame_source, List<Analyzer> analyzers,
+            Controller controller, RecordingLaser laser, int controller_tick_rate_ms,
+            double pixel_size_um) {
+        if (frame_source == null)
+            throw new NullPointerException("You need to set a frame source!");
+        if (analyzers == null || analyzers.isEmpty())
+            throw new NullPointerException("You need to set an analyzer!");
+        this.frame_source = frame_source;
+        for (Analyzer analyzer: analyzers) {
+            this.analyzers.add(new TimedAnalyzer(analyzer));
+        }
+        this.controller = new TimedController(controller);
+        this.laser = laser;
+        this.controller_tick_rate_ms = controller_tick_rate_ms;
+        this.pixel_size_um = pixel_size_um;
+    }
+
+    /**
+     * Set the ROI passed to the analyzers.
+     * @param roi ROI, or null for the whole image
+     */
+    public void setROI(Roi roi) {
+        this.roi = roi;
+    }
+
+    /**
+     * Replay all frames of the stack and wait until they are analyzed.
+     * The AlicaLogger is cleared before the replay.
+     * @param timeout_ms maximal duration of the replay
+     * @return statistics of the replay
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public ReplayReport run(long timeout_ms) throws InterruptedException {
+        AlicaLogger.getInstance().clear();
+        long start_ns = System.nanoTime();
+        long deadline_ns = start_ns + timeout_ms * 1000000L;
+        Coordinator coordinator = new Coordinator(frame_source, pixel_size_um,
+                new ArrayList<Analyzer>(analyzers), controller, laser,
+                controller_tick_rate_ms, roi);
+        boolean complete;
+        long elapsed_ns;
+        int laser_request_count;
+        double[] laser_changes;
+        try {
+            complete = frame_source.awaitExhausted(timeout_ms);
+            // the last frames may still be in analysis
+            while (complete && getProcessedCount() < frame_source.getDeliveredCount()) {
+                if (System.nanoTime() > deadline_ns) {
+                    complete = false;
+                    break;
+                }
+                Thread.sleep(1);
+            }
+            elapsed_ns = System.nanoTime() - start_ns;
+            // taken before the coordinator switches the laser off
+            laser_request_count = laser.getRequestCount();
+            laser_changes = laser.getPowerChanges();
+        } finally {
+            coordinator.requestStop();
+        }
+
+        LongRecorder analysis_ns = new LongRecorder();
+        for (TimedAnalyzer analyzer: analyzers) {
+            for (long duration: analyzer.getDurationsNs()) {
+                analysis_ns.add(duration);
+            }
+        }
+        return new ReplayReport(complete, getProcessedCount(), elapsed_ns,
+                analysis_ns.toArray(), controller.getTickTimesNs(), controller_tick_rate_ms,
+                laser_request_count, laser_changes.length);
+    }
+
+    private int getProcessedCount() {
+        int count = 0;
+        for (TimedAnalyzer analyzer: analyzers) {
+            count += analyzer.getProcessedCount();
+        }
+        return count;
+    }
+
+    /**
+     * Replay a stack and print the report.
+     * @param args options, stack file, analyzer name and controller name
+     */
+    public static void main(String[] args) {
+        int loops = 1;
+        int analyzer_count = 1;
+        int tick_ms = 500;
+        double setpoint = 0.0;
+        double max_power = 100.0;
+        double pixel_size_um = 0.1;
+        int raw_width = 0, raw_height = 0, raw_bits = 0;
+        boolean little_endian = true;
+        long timeout_s = 600;
+        List<String> positional = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-loops": loops = Integer.parseInt(args[++i]); break;
+                    case "-analyzers": analyzer_count = Integer.parseInt(args[++i]); break;
+                    case "-tick": tick_ms = Integer.parseInt(args[++i]); break;
+                    case "-setpoint": setpoint = Double.parseDouble(args[++i]); break;
+                    case "-max-power": max_power = Double.parseDouble(args[++i]); break;
+                    case "-pixel": pixel_size_um = Double.parseDouble(args[++i]); break;
+                    case "-raw":
+                        raw_width = Integer.parseInt(args[++i]);
+                        raw_height = Integer.parseInt(args[++i]);
+                        raw_bits = Integer.parseInt(args[++i]);
+                        break;
+                    case "-big-endian": little_endian = false; break;
+                    case "-timeout": timeout_s = Long.parseLong(args[++i]); break;
+                    default: positional.add(args[i]);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            positional.clear();
+        }
+        if (positional.size() != 3) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        try {
+            File file = new File(positional.get(0));
+            StackFrameSource source;
+            if (raw_bits > 0) {
+                source = StackFrameSource.openRaw(file, raw_width, raw_height,
+                        rawFileType(raw_bits), little_endian, loops);
+            } else {
+                source = StackFrameSource.openImage(file, loops);
+            }
+
+            AnalyzerFactory analyzer_factory = new AnalyzerFactory();
+            analyzer_factory.selectProduct(positional.get(1));
+            List<Analyzer> analyzers = new ArrayList<>();
+            for (int i = 0; i < analyzer_count; i++) {
+                analyzers.add(analyzer_factory.build());
+            }
+            ControllerFactory controller_factory = new ControllerFactory();
+            controller_factory.setMaxControllerOutput(max_power);
+            controller_factory.setControllerTickRateMs(tick_ms);
+            controller_factory.selectProduct(positional.get(2));
+            Controller controller = controller_factory.build();
+            controller.setSetpoint(setpoint);
+
+            ReplayHarness harness = new ReplayHarness(source, analyzers, controller,
+                    new RecordingLaser(0.0, max_power), tick_ms, pixel_size_um);
+            System.out.println(String.format("Replaying %d frames of %d x %d pixels with %s and %s.",
+                    source.getFrameCount(), source.getWidth(), source.getHeight(),
+                    analyzers.get(0).getName(), controller.getName()));
+            ReplayReport report = harness.run(timeout_s * 1000);
+            System.out.print(report);
+            System.exit(report.isComplete() ? 0 : 1);
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("Replay failed: " + ex.getMessage());
+            System.exit(1);
+        } catch (InterruptedException ex) {
+            System.err.println("Replay was interrupted.");
+            System.exit(1);
+        }
+    }
+
+    private static int rawFileType(int bits) {
+        switch (bits) {
+            case 8: return FileInfo.GRAY8;
+            case 16: return FileInfo.GRAY16_UNSIGNED;
+            case 32: return FileInfo.GRAY32_FLOAT;
+            default: throw new IllegalArgumentException("Raw pixels must have 8, 16 or 32 bits.");
+        }
+    }
+}
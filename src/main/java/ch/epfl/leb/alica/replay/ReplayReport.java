@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.replay;
+
+import java.util.Arrays;
+
+/**
+ * Throughput and timing statistics of a replay.
+ */
+public class ReplayReport {
+    private static final double NS_PER_MS = 1e6;
+
+    private final boolean complete;
+    private final int frame_count;
+    private final long elapsed_ns;
+    private final long[] sorted_analysis_ns;
+    private final long[] sorted_jitter_ns;
+    private final double mean_tick_interval_ms;
+    private final int tick_count;
+    private final int controller_tick_rate_ms;
+    private final int laser_request_count;
+    private final int laser_change_count;
+
+    /**
+     * Compute the statistics.
+     * @param complete true if all frames were analyzed before the timeout
+     * @param frame_count number of analyzed frames
+     * @param elapsed_ns duration of the replay
+     * @param analysis_ns duration of each analysis
+     * @param tick_times_ns time of each control tick
+     * @param controller_tick_rate_ms nominal period of the control ticks
+     * @param laser_request_count number of laser power requests
+     * @param laser_change_count number of actual laser power changes
+     */
+    ReplayReport(boolean complete, int frame_count, long elapsed_ns, long[] analysis_ns,
+            long[] tick_times_ns, int controller_tick_rate_ms, int laser_request_count,
+            int laser_change_count) {
+        this.complete = complete;
+        this.frame_count = frame_count;
+        this.elapsed_ns = elapsed_ns;
+        this.sorted_analysis_ns = analysis_ns.clone();
+        Arrays.sort(sorted_analysis_ns);
+        this.tick_count = tick_times_ns.length;
+        this.controller_tick_rate_ms = controller_tick_rate_ms;
+        this.laser_request_count = laser_request_count;
+        this.laser_change_count = laser_change_count;
+
+        // jitter is the deviation of each tick interval from the nominal period
+        long period_ns = controller_tick_rate_ms * 1000000L;
+        int interval_count = Math.max(0, tick_times_ns.length - 1);
+        this.sorted_jitter_ns = new long[interval_count];
+        for (int i = 0; i < interval_count; i++) {
+            sorted_jitter_ns[i] = Math.abs(tick_times_ns[i + 1] - tick_times_ns[i] - period_ns);
+        }
+        Arrays.sort(sorted_jitter_ns);
+        this.mean_tick_interval_ms = (interval_count == 0) ? Double.NaN :
+                (tick_times_ns[interval_count] - tick_times_ns[0]) / NS_PER_MS / interval_count;
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values.
+     * @return percentile in milliseconds, NaN if there are no values
+     */
+    static double percentileMs(long[] sorted_values, double percentile) {
+        if (sorted_values.length == 0)
+            return Double.NaN;
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted_values.length);
+        int index = Math.min(sorted_values.length - 1, Math.max(0, rank - 1));
+        return sorted_values[index] / NS_PER_MS;
+    }
+
+    /**
+     *
+     * @return true if all frames were analyzed before the timeout
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     *
+     * @return number of analyzed frames
+     */
+    public int getFrameCount() {
+        return frame_count;
+    }
+
+    /**
+     *
+     * @return duration of the replay in seconds
+     */
+    public double getElapsedSeconds() {
+        return elapsed_ns / 1e9;
+    }
+
+    /**
+     *
+     * @return analyzed frames per second
+     */
+    public double getFramesPerSecond() {
+        return frame_count / getElapsedSeconds();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return percentile of the analysis time in milliseconds
+     */
+    public double getAnalysisTimeMs(double percentile) {
+        return percentileMs(sorted_analysis_ns, percentile);
+    }
+
+    /**
+     *
+     * @return number of control ticks
+     */
+    public int getTickCount() {
+        return tick_count;
+    }
+
+    /**
+     *
+     * @return mean interval between control ticks in milliseconds
+     */
+    public double getMeanTickIntervalMs() {
+        return mean_tick_interval_ms;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return percentile of the deviation of the tick intervals from the
+     *  nominal period, in milliseconds
+     */
+    public double getTickJitterMs(double percentile) {
+        return percentileMs(sorted_jitter_ns, percentile);
+    }
+
+    /**
+     *
+     * @return number of laser power requests
+     */
+    public int getLaserRequestCount() {
+        return laser_request_count;
+    }
+
+    /**
+     *
+     * @return number of requests which changed the laser power
+     */
+    public int getLaserChangeCount() {
+        return laser_change_count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (!complete) {
+            sb.append("Replay timed out, statistics are partial.\n");
+        }
+        sb.append(String.format("Frames:          %d in %.3f s (%.1f frames/s)%n",
+                frame_count, getElapsedSeconds(), getFramesPerSecond()));
+        sb.append(String.format("Analysis [ms]:   p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n",
+                getAnalysisTimeMs(50), getAnalysisTimeMs(90), getAnalysisTimeMs(99),
+                getAnalysisTimeMs(100)));
+        sb.append(String.format("Control ticks:   %d, period %d ms, mean interval %.3f ms%n",
+                tick_count, controller_tick_rate_ms, mean_tick_interval_ms));
+        sb.append(String.format("Tick jitter [ms]: p50 %.3f, p99 %.3f, max %.3f%n",
+                getTickJitterMs(50), getTickJitterMs(99), getTickJitterMs(100)));
+        sb.append(String.format("Laser:           %d requests, %d changes%n",
+                laser_request_count, laser_change_count));
+        return sb.toString();
+    }
+}
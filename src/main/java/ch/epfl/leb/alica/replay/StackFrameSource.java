@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.replay;
+
+import ch.epfl.leb.alica.workers.Frame;
+import ch.epfl.leb.alica.workers.FrameSource;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileInfo;
+import ij.io.FileOpener;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Supplies the images of a stack which is held in memory, as fast as the
+ * AnalysisWorker takes them. The whole stack is loaded before the replay,
+ * so that reading the file is not part of the measured throughput. The
+ * stack can be replayed several times in a row.
+ */
+public class StackFrameSource implements FrameSource {
+    private final Object[] slices;
+    private final int width;
+    private final int height;
+    private final int frame_count;
+
+    // only touched by the AnalysisWorker thread
+    private int next_frame = 0;
+    private volatile int delivered_count = 0;
+    private final CountDownLatch exhausted = new CountDownLatch(1);
+
+    /**
+     * Initialize the source from pixel arrays.
+     * @param slices pixel arrays of the images (byte[], short[], ...)
+     * @param width image width in pixels
+     * @param height image height in pixels
+     * @param loops number of times the stack is replayed, at least 1
+     */
+    public StackFrameSource(Object[] slices, int width, int height, int loops) {
+        if (slices.length == 0)
+            throw new IllegalArgumentException("The stack has no images!");
+        if (loops < 1)
+            throw new IllegalArgumentException("The stack must be replayed at least once!");
+        this.slices = slices.clone();
+        this.width = width;
+        this.height = height;
+        this.frame_count = slices.length * loops;
+    }
+
+    /**
+     * Load a TIFF stack, or any other format ImageJ can open.
+     * @param file image file
+     * @param loops number of times the stack is replayed
+     * @return frame source
+     * @throws IOException if the file can't be opened
+     */
+    public static StackFrameSource openImage(File file, int loops) throws IOException {
+        ImagePlus image = IJ.openImage(file.getAbsolutePath());
+        if (image == null)
+            throw new IOException("ImageJ could not open " + file.getPath());
+        return fromImage(image, loops);
+    }
+
+    /**
+     * Load a raw file of consecutive images without header.
+     * @param file raw file
+     * @param width image width in pixels
+     * @param height image height in pixels
+     * @param file_type pixel type, e.g. FileInfo.GRAY16_UNSIGNED
+     * @param little_endian byte order of the pixels
+     * @param loops number of times the stack is replayed
+     * @return frame source
+     * @throws IOException if the file can't be opened
+     */
+    public static StackFrameSource openRaw(File file, int width, int height,
+            int file_type, boolean little_endian, int loops) throws IOException {
+        FileInfo info = new FileInfo();
+        info.fileType = file_type;
+        info.width = width;
+        info.height = height;
+        info.intelByteOrder = little_endian;
+        info.fileName = file.getName();
+        info.directory = file.getAbsoluteFile().getParent() + File.separator;
+        long image_bytes = (long) width * height * info.getBytesPerPixel();
+        info.nImages = (int) (file.length() / image_bytes);
+        if (info.nImages < 1)
+            throw new IOException(file.getPath() + " is smaller than one image.");
+        ImagePlus image = new FileOpener(info).openImage();
+        if (image == null)
+            throw new IOException("ImageJ could not open " + file.getPath());
+        return fromImage(image, loops);
+    }
+
+    private static StackFrameSource fromImage(ImagePlus image, int loops) {
+        ImageStack stack = image.getStack();
+        Object[] slices = new Object[stack.getSize()];
+        for (int i = 0; i < slices.length; i++) {
+            // ImageJ numbers the slices from 1
+            slices[i] = stack.getPixels(i + 1);
+        }
+        return new StackFrameSource(slices, stack.getWidth(), stack.getHeight(), loops);
+    }
+
+    @Override
+    public Frame nextFrame(long timeout_ms) throws InterruptedException {
+        if (next_frame >= frame_count) {
+            // nothing more to come, don't let the worker spin
+            exhausted.countDown();
+            Thread.sleep(timeout_ms);
+            return null;
+        }
+        Frame frame = new Frame(slices[next_frame % slices.length], width, height, next_frame + 1);
+        next_frame++;
+        delivered_count = next_frame;
+        return frame;
+    }
+
+    /**
+     * Wait until all frames were handed to the AnalysisWorker.
+     * @param timeout_ms maximal waiting time in milliseconds
+     * @return true if all frames were handed over in time
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public boolean awaitExhausted(long timeout_ms) throws InterruptedException {
+        return exhausted.await(timeout_ms, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *
+     * @return number of frames which will be replayed, including loops
+     */
+    public int getFrameCount() {
+        return frame_count;
+    }
+
+    /**
+     *
+     * @return number of frames handed to the AnalysisWorker so far
+     */
+    public int getDeliveredCount() {
+        return delivered_count;
+    }
+
+    /**
+     *
+     * @return image width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     *
+     * @return image height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     *
+     * @return 0, the source never skips frames
+     */
+    @Override
+    public long getSkippedFrameCount() {
+        return 0;
+    }
+
+    @Override
+    public void resetCounters() {
+        // nothing is skipped, nothing to reset
+    }
+
+    @Override
+    public void dispose() {
+        // the stack is only held in memory
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.replay;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerStatusPanel;
+import ij.gui.Roi;
+
+/**
+ * Passes all calls on to an analyzer, and records the duration of each
+ * processImage() call with nanosecond resolution.
+ */
+public class TimedAnalyzer implements Analyzer {
+    private final Analyzer analyzer;
+    private final LongRecorder durations_ns = new LongRecorder();
+
+    /**
+     * Wrap an analyzer.
+     * @param analyzer analyzer whose analysis is timed
+     */
+    public TimedAnalyzer(Analyzer analyzer) {
+        if (analyzer == null)
+            throw new NullPointerException("You need to set an analyzer!");
+        this.analyzer = analyzer;
+    }
+
+    @Override
+    public void processImage(Object image, int image_width, int image_height,
+            double pixel_size_um, long time_ms) {
+        long start = System.nanoTime();
+        analyzer.processImage(image, image_width, image_height, pixel_size_um, time_ms);
+        durations_ns.add(System.nanoTime() - start);
+    }
+
+    /**
+     *
+     * @return number of analyzed images
+     */
+    public int getProcessedCount() {
+        return durations_ns.size();
+    }
+
+    /**
+     *
+     * @return durations of the processImage() calls in nanoseconds
+     */
+    public long[] getDurationsNs() {
+        return durations_ns.toArray();
+    }
+
+    @Override
+    public double getIntermittentOutput() {
+        return analyzer.getIntermittentOutput();
+    }
+
+    @Override
+    public double getBatchOutput() {
+        return analyzer.getBatchOutput();
+    }
+
+    @Override
+    public String getShortReturnDescription() {
+        return analyzer.getShortReturnDescription();
+    }
+
+    @Override
+    public void setROI(Roi roi) {
+        analyzer.setROI(roi);
+    }
+
+    @Override
+    public String getName() {
+        return analyzer.getName();
+    }
+
+    @Override
+    public AnalyzerStatusPanel getStatusPanel() {
+        return analyzer.getStatusPanel();
+    }
+
+    @Override
+    public void dispose() {
+        analyzer.dispose();
+    }
+}
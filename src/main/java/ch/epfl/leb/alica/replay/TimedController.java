@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.replay;
+
+import ch.epfl.leb.alica.interfaces.Controller;
+import ch.epfl.leb.alica.interfaces.controllers.ControllerStatusPanel;
+
+/**
+ * Passes all calls on to a controller, and records the time of each
+ * nextValue() call, i.e. of each control tick, in nanoseconds.
+ */
+public class TimedController implements Controller {
+    private final Controller controller;
+    private final LongRecorder tick_times_ns = new LongRecorder();
+
+    /**
+     * Wrap a controller.
+     * @param controller controller whose ticks are timed
+     */
+    public TimedController(Controller controller) {
+        if (controller == null)
+            throw new NullPointerException("You need to set a controller!");
+        this.controller = controller;
+    }
+
+    @Override
+    public double nextValue(double value) {
+        tick_times_ns.add(System.nanoTime());
+        return controller.nextValue(value);
+    }
+
+    /**
+     *
+     * @return number of control ticks
+     */
+    public int getTickCount() {
+        return tick_times_ns.size();
+    }
+
+    /**
+     *
+     * @return System.nanoTime() of each control tick
+     */
+    public long[] getTickTimesNs() {
+        return tick_times_ns.toArray();
+    }
+
+    @Override
+    public void setSetpoint(double value) {
+        controller.setSetpoint(value);
+    }
+
+    @Override
+    public double getSetpoint() {
+        return controller.getSetpoint();
+    }
+
+    @Override
+    public String getName() {
+        return controller.getName();
+    }
+
+    @Override
+    public ControllerStatusPanel getStatusPanel() {
+        return controller.getStatusPanel();
+    }
+}
@@ -24,73 +24,215 @@ import ch.epfl.leb.alica.interfaces.Analyzer;
 import ch.epfl.leb.alica.ImagingMode;
 import com.google.common.eventbus.Subscribe;
 import ij.gui.Roi;
-import mmcorej.TaggedImage;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import org.micromanager.Studio;
-import org.micromanager.data.Coords;
-import org.micromanager.data.Datastore;
-import org.micromanager.data.Image;
-import org.micromanager.data.DataProviderHasNewImageEvent;
 import org.micromanager.events.AcquisitionEndedEvent;
 import org.micromanager.events.AcquisitionStartedEvent;
 import org.micromanager.events.LiveModeEvent;
+import org.micromanager.events.PixelSizeChangedEvent;
+import org.micromanager.events.PropertyChangedEvent;
+import org.micromanager.events.SystemConfigurationLoadedEvent;
 
 /**
- * This thread continuously queries either the MMCore, or the processing pipeline
- * of the live mode for new images, and calls the analyzer's processImage() method
- * on them as fast as it can. Always the latest image is taken for analysis, so
- * it is possible for images to be skipped. It also gathers some statistics for
- * display by the GUI.
+ * This thread continuously takes new images from a FrameSource (either the
+ * MMCore, the processing pipeline of the live mode or of an acquisition, a
+ * replayed file, or an external source such as the offline replay harness),
+ * and calls the analyzer's processImage() method on them as fast as it can.
+ * Always the latest image is taken for analysis, so it is possible for images
+ * to be skipped. With several analyzer instances, consecutive images are
+ * analyzed in parallel by an AnalyzerPool, and the results are still logged in
+ * frame order. It also gathers some statistics for display by the GUI.
  * @author Marcel Stefko
  */
 public class AnalysisWorker extends Thread {
-    private boolean stop_flag = false;
+    // how long the worker waits for a new frame before re-checking the stop flag
+    private static final long FRAME_WAIT_TIMEOUT_MS = 100;
+    // how long queued frames are analyzed after the end of an acquisition
+    private static final long QUEUE_DRAIN_TIMEOUT_MS = 30000;
+    
+    private volatile boolean stop_flag = false;
     
     private final Coordinator coordinator;
+    // log of the pipeline
+    private final AlicaLogger log;
+    // time of the frames and of the statistics
+    private final PipelineClock clock;
     private final Studio studio;
-    private final Analyzer analyzer;
+    private final AnalyzerPool analyzer_pool;
     private final ImagingMode imaging_mode;
     
-    // recieves signals from the live view Datastore, and passes the latest
-    // Coords to last_live_image_coords
-    private final NewImageWatcher new_image_watcher;
-    private Coords last_live_image_coords = null;
-    // for comparison with newly acquired images, to see if the image has
-    // changed
-    private JSONObject last_core_image_tag = null;
+    // supplies the images to be analyzed
+    private final FrameSource frame_source;
+    // not null if images are taken from a live mode or acquisition Datastore
+    private final DatastoreFrameSource datastore_frame_source;
+    // not null if images are replayed from a file
+    private final ReplayFrameSource replay_frame_source;
+    private boolean replay_end_handled = false;
+    // name under which the frame index is logged
+    private final String frame_index_name;
+    // used instead of the MMCore pixel size if there is no studio
+    private final double pixel_size_um;
+    // pixel size and image size of the MMCore, null if there is no studio
+    private final CoreMetadataCache core_metadata;
     
     // for GUI output
-    private long last_analysis_time_ms = 0;
-    private int last_fps_count = 0;
+    private volatile long last_analysis_time_ms = 0;
+    private volatile int last_fps_count = 0;
     
     // for logging
-    private int image_counter = 0;
+    private volatile int image_counter = 0;
+    
+    // FPS counters, only touched by the in-order result callback
+    private long fps_time = 0;
+    private int fps_count = 0;
+    // timestamp of the previous analyzed frame, for the frame intervals
+    private boolean has_last_timestamp = false;
+    private long last_timestamp_ns = 0;
+    
+    // frames taken from the source since the last counter reset
+    private volatile long taken_frame_count = 0;
+    // gaps and repeats in the indices of the analyzed frames
+    private final FrameSequence frame_sequence = new FrameSequence();
+    private volatile double last_batch_coverage = Double.NaN;
+    
+    // stage latencies of the frames
+    private final PipelineLatency latency = new PipelineLatency();
+    // newest analyzed frame, and whether it is part of the next batch output
+    private final Object newest_frame_lock = new Object();
+    private long newest_timestamp_ns = 0;
+    private long newest_analysis_end_ns = 0;
+    private boolean newest_in_batch = false;
+    // exposure of the newest frame in the last batch output, if there was one
+    private volatile boolean batch_has_new_frame = false;
+    private volatile long batch_frame_timestamp_ns = 0;
     
     /**
-     * Initialize the worker.
+     * Initialize the worker with default settings.
      * @param coordinator parent Coordinator
      * @param studio for logging and image queries
      * @param analyzer this Analyzer's processImage() method is called on gathered images
      * @param imaging_mode
      */
     public AnalysisWorker(Coordinator coordinator, Studio studio, Analyzer analyzer, ImagingMode imaging_mode) {
+        this(coordinator, studio, analyzer, imaging_mode, new WorkerSettings());
+    }
+    
+    /**
+     * Initialize the worker.
+     * @param coordinator parent Coordinator
+     * @param studio for logging and image queries
+     * @param analyzer this Analyzer's processImage() method is called on gathered images
+     * @param imaging_mode
+     * @param settings frame queue settings for the ALL_FRAMES imaging mode
+     */
+    public AnalysisWorker(Coordinator coordinator, Studio studio, Analyzer analyzer, 
+            ImagingMode imaging_mode, WorkerSettings settings) {
+        this(coordinator, studio, Collections.singletonList(analyzer), imaging_mode, settings);
+    }
+    
+    /**
+     * Initialize the worker with several independent analyzer instances,
+     * which analyze consecutive frames in parallel.
+     * @param coordinator parent Coordinator
+     * @param studio for logging and image queries
+     * @param analyzers independent instances of the same Analyzer
+     * @param imaging_mode
+     * @param settings frame queue settings for the ALL_FRAMES imaging mode,
+     *  and the replayed file for the FILE_REPLAY imaging mode
+     */
+    public AnalysisWorker(Coordinator coordinator, Studio studio, List<Analyzer> analyzers, 
+            ImagingMode imaging_mode, WorkerSettings settings) {
         this.setName("Analysis Worker");
         
         this.coordinator = coordinator;
+        this.log = (coordinator != null) ? coordinator.getLog() : AlicaLogger.getInstance();
+        this.clock = (coordinator != null) ? coordinator.getClock() : new PipelineClock();
         this.studio = studio;
-        this.analyzer = analyzer;
         this.imaging_mode = imaging_mode;
+        this.pixel_size_um = Double.NaN;
+        this.core_metadata = new CoreMetadataCache(studio.core());
+        this.analyzer_pool = createPool(analyzers,
+                new PreprocessingChain(settings.getPreprocessingStages()));
         
-        this.new_image_watcher = new NewImageWatcher(this.analyzer, this);
+        if (imaging_mode.equals(ImagingMode.GRAB_FROM_CORE)) {
+            this.datastore_frame_source = null;
+            this.replay_frame_source = null;
+            this.frame_source = new CoreFrameSource(studio, core_metadata);
+            this.frame_index_name = "tag_frame_index";
+        } else if (imaging_mode.equals(ImagingMode.FILE_REPLAY)) {
+            this.datastore_frame_source = null;
+            try {
+                // a few more arrays than can be in analysis at once
+                this.replay_frame_source = new ReplayFrameSource(settings.openReplayStack(),
+                        settings.getReplayFramesPerSecond(), analyzers.size() + 2);
+            } catch (IOException ex) {
+                analyzer_pool.dispose();
+                throw new IllegalArgumentException("Replay file could not be opened: " + ex.getMessage(), ex);
+            }
+            this.frame_source = replay_frame_source;
+            this.frame_index_name = "tag_frame_index";
+        } else if (imaging_mode.equals(ImagingMode.ALL_FRAMES)) {
+            this.replay_frame_source = null;
+            this.datastore_frame_source = new DatastoreFrameSource(
+                    new FrameQueue<Frame>(settings.getFrameQueueCapacity(),
+                            settings.getFrameQueueOverflowPolicy(),
+                            settings.getFrameQueueBlockTimeoutMs()));
+            this.frame_source = datastore_frame_source;
+            this.frame_index_name = "coords_time";
+        } else if (imaging_mode.equals(ImagingMode.LIVE)) {
+            this.replay_frame_source = null;
+            // the live Datastore keeps the same coords, follow the ImageNumber
+            this.datastore_frame_source = new DatastoreFrameSource(true);
+            this.frame_source = datastore_frame_source;
+            this.frame_index_name = "tag_frame_index";
+        } else {
+            this.replay_frame_source = null;
+            this.datastore_frame_source = new DatastoreFrameSource();
+            this.frame_source = datastore_frame_source;
+            this.frame_index_name = "coords_time";
+        }
     }
     
     /**
-     * Called by the NewImageWatcher to update last coords
-     * @param coords new Coords
+     * Initialize a worker which takes its images from the given source,
+     * without Micro-Manager. Such a worker must not be registered for
+     * Micro-Manager events.
+     * @param coordinator parent Coordinator
+     * @param frame_source supplies the images to be analyzed
+     * @param analyzers independent instances of the same Analyzer
+     * @param pixel_size_um pixel size passed to the analyzers
      */
-    void setLastImageCoords(Coords coords) {
-        this.last_live_image_coords = coords;
+    public AnalysisWorker(Coordinator coordinator, FrameSource frame_source, 
+            List<Analyzer> analyzers, double pixel_size_um) {
+        this.setName("Analysis Worker");
+        
+        this.coordinator = coordinator;
+        this.log = (coordinator != null) ? coordinator.getLog() : AlicaLogger.getInstance();
+        this.clock = (coordinator != null) ? coordinator.getClock() : new PipelineClock();
+        this.studio = null;
+        this.imaging_mode = null;
+        this.pixel_size_um = pixel_size_um;
+        this.core_metadata = null;
+        this.analyzer_pool = createPool(analyzers,
+                new PreprocessingChain(Collections.<PreprocessingStage>emptyList()));
+        this.datastore_frame_source = null;
+        this.replay_frame_source = null;
+        this.frame_source = frame_source;
+        this.frame_index_name = "tag_frame_index";
+    }
+    
+    private AnalyzerPool createPool(List<Analyzer> analyzers, PreprocessingChain preprocessing) {
+        // the analyzers of all pipelines of an executor share its threads
+        PipelineExecutor executor = (coordinator != null) ? coordinator.getExecutor() : null;
+        return new AnalyzerPool(analyzers, new AnalyzerPool.FrameListener() {
+            @Override
+            public void frameAnalyzed(Frame frame, double intermittent_output,
+                    long analysis_start_ns, long analysis_end_ns) {
+                onFrameAnalyzed(frame, intermittent_output, analysis_start_ns, analysis_end_ns);
+            }
+        }, (executor != null) ? executor.getAnalysisExecutor() : null, preprocessing);
     }
     
     /**
@@ -100,180 +242,265 @@ public class AnalysisWorker extends Thread {
      */
     @Subscribe
     public void liveModeStarted(LiveModeEvent evt) {
+        if (evt.getIsOn()) {
+            core_metadata.refresh();
+        }
         if (evt.getIsOn() && imaging_mode.equals(ImagingMode.LIVE)) {
-            studio.logs().logDebugMessage("Live mode start detected. Alica " +
+            AlicaLogger.getInstance().logDebugMessage("Live mode start detected. Alica " +
                                           "analyzer thread will now begin " +
                                           "analyzing images from pipeline.");
-            this.new_image_watcher.setLatestDatastore(this.studio.live().getDisplay().getDatastore());
+            this.datastore_frame_source.setDatastore(this.studio.live().getDisplay().getDatastore());
+            this.frame_source.resetCounters();
+            this.taken_frame_count = 0;
+            this.frame_sequence.reset();
+            this.has_last_timestamp = false;
+            this.latency.reset();
+            this.analyzer_pool.getPreprocessing().resetTimings();
             this.image_counter = 0;
-            AlicaLogger.getInstance().clear();
+            log.clear();
         }
     }
     
     /**
-     * If the imaging mode is NEXT_ACQUISITION, the NewImageWatcher will be informed.
+     * If the imaging mode is NEXT_ACQUISITION or ALL_FRAMES, the
+     * NewImageWatcher will be informed.
      * @param evt new acquisition started event
      */
     @Subscribe
     public void acquisitionStarted(AcquisitionStartedEvent evt) {
-        if (imaging_mode.equals(ImagingMode.NEXT_ACQUISITION)) {
-            studio.logs().logDebugMessage("Acquisition start detected. Alica analyzer thread will now begin analyzing images from pipeline.");
-            this.new_image_watcher.setLatestDatastore(evt.getDatastore());
+        core_metadata.refresh();
+        if (isAcquisitionMode()) {
+            AlicaLogger.getInstance().logDebugMessage("Acquisition start detected. Alica analyzer thread will now begin analyzing images from pipeline.");
+            this.datastore_frame_source.setDatastore(evt.getDatastore());
+            this.frame_source.resetCounters();
+            this.taken_frame_count = 0;
+            this.frame_sequence.reset();
+            this.has_last_timestamp = false;
+            this.latency.reset();
+            this.analyzer_pool.getPreprocessing().resetTimings();
             this.image_counter = 0;
-            AlicaLogger.getInstance().clear();
+            log.clear();
         }
-        AlicaLogger.getInstance().addToLog(image_counter, "Acquisition_in_progress", 1.0);
+        log.addToLog(image_counter, "Acquisition_in_progress", 1.0);
     }
     
     /**
      * If the imaging mode is NEXT_ACQUISITION, the coordinator will 
-     * asked to stop.
+     * asked to stop. In ALL_FRAMES mode, the frames which are still queued
+     * are analyzed first.
      * @param evt acquisition stopped
      */
     @Subscribe
     public void acquisitionEnded(AcquisitionEndedEvent evt) {
+        log.addToLog(image_counter, "Acquisition_in_progress", 0.0);
         if (imaging_mode.equals(ImagingMode.NEXT_ACQUISITION)) {
-            studio.logs().logDebugMessage("Acquisition end detected. Alica worker threads will now terminate.");
-            this.new_image_watcher.setLatestDatastore(null);
+            AlicaLogger.getInstance().logDebugMessage("Acquisition end detected. Alica worker threads will now terminate.");
+            this.datastore_frame_source.setDatastore(null);
             this.coordinator.requestStop();
+        } else if (imaging_mode.equals(ImagingMode.ALL_FRAMES)) {
+            AlicaLogger.getInstance().logDebugMessage("Acquisition end detected. Alica worker threads will terminate after analyzing queued frames.");
+            this.datastore_frame_source.setDatastore(null);
+            logFrameQueueStatistics();
+            // don't block the event thread while the queue is drained
+            Thread drainer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!datastore_frame_source.awaitDrained(QUEUE_DRAIN_TIMEOUT_MS)) {
+                            AlicaLogger.getInstance().logMessage("Alica frame queue was not drained in time, " +
+                                    datastore_frame_source.getPendingFrameCount() + " frames will not be analyzed.");
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    coordinator.requestStop();
+                }
+            }, "Analysis Queue Drainer");
+            drainer.setDaemon(true);
+            drainer.start();
+        }
+    }
+    
+    /**
+     * The pixel size configuration or the objective changed.
+     * @param evt pixel size changed event
+     */
+    @Subscribe
+    public void pixelSizeChanged(PixelSizeChangedEvent evt) {
+        core_metadata.invalidate();
+    }
+    
+    /**
+     * Binning and ROI are properties of the camera, so any change of a
+     * camera property may change the image size.
+     * @param evt property changed event
+     */
+    @Subscribe
+    public void propertyChanged(PropertyChangedEvent evt) {
+        if (core_metadata.isCamera(evt.getDevice())) {
+            core_metadata.invalidate();
         }
-        AlicaLogger.getInstance().addToLog(image_counter, "Acquisition_in_progress", 0.0);
     }
     
     /**
-     * Set the ROI for Analyzer
+     * A new hardware configuration may have another camera and pixel sizes.
+     * @param evt configuration loaded event
+     */
+    @Subscribe
+    public void systemConfigurationLoaded(SystemConfigurationLoadedEvent evt) {
+        core_metadata.invalidate();
+    }
+    
+    /**
+     * 
+     * @return true if images are taken from the next acquisition
+     */
+    private boolean isAcquisitionMode() {
+        return imaging_mode.equals(ImagingMode.NEXT_ACQUISITION) ||
+                imaging_mode.equals(ImagingMode.ALL_FRAMES);
+    }
+    
+    /**
+     * Write the frame queue counters into the MM log.
+     */
+    private void logFrameQueueStatistics() {
+        FrameQueue<Frame> queue = datastore_frame_source.getFrameQueue();
+        AlicaLogger.getInstance().logMessage(String.format("Alica frame queue (%s): %d frames offered, " +
+                "%d oldest dropped, %d newest dropped, %d blocked.",
+                queue.getOverflowPolicy().toString(), queue.getOfferedCount(),
+                queue.getDroppedOldestCount(), queue.getDroppedNewestCount(),
+                queue.getBlockedCount()));
+    }
+    
+    /**
+     * Set the ROI for Analyzer. From the next frame on, the analyzer gets
+     * only the bounding rectangle of the ROI.
      * @param roi ROI to be set
      */
     public void setROI(Roi roi) {
-        synchronized(analyzer) {
-            analyzer.setROI(roi);
-        }
+        analyzer_pool.setROI(roi);
     }        
     
     
     
     @Override
     public void run() {
-        // FPS counters
-        long fps_time = coordinator.getTimeMillis();
-        int fps_count = 0;
+        fps_time = clock.elapsedMillis();
         // loop while asked to stop
         while (!this.stop_flag) {
-            // either draw from core or live mode datastore
+            Frame frame;
             try {
-                if (imaging_mode.equals(ImagingMode.GRAB_FROM_CORE))
-                    getNewImageFromCoreAndAnalyze();
-                else
-                    getNewImageFromWatcherAndAnalyze();
+                frame = frame_source.nextFrame(FRAME_WAIT_TIMEOUT_MS);
             } catch (InterruptedException ex) {
-                studio.logs().logMessage("Analysis Worker was interrupted.");
+                AlicaLogger.getInstance().logMessage("Analysis Worker was interrupted.");
                 break;
             }
-            // increment fps counter after each image
-            fps_count++;
-            image_counter++;
-            // log the intermittent output
-            AlicaLogger.getInstance().addIntermittentOutput(image_counter, this.queryAnalyzerForIntermittentOutput());
-            
-            // if a second has passed, store value and reset FPS counters
-            if ((coordinator.getTimeMillis() - fps_time) > 1000) {
-                last_fps_count = fps_count;
-                fps_count = 0;
-                fps_time = coordinator.getTimeMillis();
+            // no new image arrived, check the stop flag again
+            if (frame == null) {
+                if (replay_frame_source != null && replay_frame_source.isFinished()) {
+                    onReplayFinished();
+                }
+                continue;
             }
+            taken_frame_count++;
+            // with a single analyzer this returns after the analysis, otherwise
+            // it waits only until one of the analyzers is idle
+            try {
+                // time of the exposure if the camera provides it
+                analyzer_pool.submit(frame, getPixelSizeUm(),
+                        clock.elapsedNs(frame.getTimestampNs()) / 1000000L);
+            } catch (InterruptedException ex) {
+                AlicaLogger.getInstance().logMessage("Analysis Worker was interrupted.");
+                break;
+            }
+        }
+        // after finishing analysis, dispose of analyzer and source resources
+        frame_source.dispose();
+        analyzer_pool.dispose();
+        if (core_metadata != null) {
+            AlicaLogger.getInstance().logDebugMessage(String.format(
+                    "Core pixel and image size were queried %d times.",
+                    core_metadata.getRefreshCount()));
         }
-        // after finishing analysis, dispose of analyzer resources
-        analyzer.dispose();
     }
     
     /**
-     * Grabs new images from the Datastore associated with the NewImageWatcher, analyzes
-     * it.
-     * @throws java.lang.InterruptedException
+     * Stop the coordinator once the whole file was replayed. The frames in
+     * analysis are finished before the analyzers are disposed.
      */
-    public void getNewImageFromWatcherAndAnalyze() throws InterruptedException {
-        Coords current_coords;
-        // wait for image acquisition by NewImageWatcher
-        synchronized(analyzer) {
-            if (this.last_live_image_coords==null) {
-                analyzer.wait();
-            }
-            current_coords = this.last_live_image_coords;
+    private void onReplayFinished() {
+        if (replay_end_handled) {
+            return;
         }
-        long image_acquisition_time = coordinator.getTimeMillis();
-        try {
-            Image img = this.new_image_watcher.getLatestDatastore().getImage(current_coords);
-            analyzer.processImage(img.getRawPixels(), img.getWidth(), img.getHeight(), studio.core().getPixelSizeUm(), image_acquisition_time);
-        } catch (Exception ex) {
-            studio.logs().logError(ex, "Error in image retrieval from datastore or processing by analyzer.");
-        }
-        // log coords of the image, offset by 1 because counter was not yet incremented
-        AlicaLogger.getInstance().addToLog(image_counter+1, "coords_time", Integer.toString(current_coords.getTime()));
-        // clear last image coords pointer
-        this.last_live_image_coords = null;
-
-        last_analysis_time_ms = coordinator.getTimeMillis() - image_acquisition_time;
+        replay_end_handled = true;
+        AlicaLogger.getInstance().logDebugMessage("End of replay file reached. Alica worker threads will now terminate.");
+        // the coordinator waits for this thread to end, so stop from another one
+        Thread stopper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                coordinator.requestStop();
+            }
+        }, "Analysis Replay Stopper");
+        stopper.setDaemon(true);
+        stopper.start();
     }
     
     /**
-     * Acquire the new image directly from MMCore and send for analysis.
-     * @throws java.lang.InterruptedException if waiting is interrupted
+     * 
+     * @return cached pixel size of the MMCore, or the fixed one without a studio
      */
-    public void getNewImageFromCoreAndAnalyze() throws InterruptedException {
-        long image_acquisition_time = coordinator.getTimeMillis();
-        TaggedImage new_tagged_image = null;
-        Object new_image = null;
-        // query core for new image, if failed, just log it and enter loop
-        try {
-            new_tagged_image = studio.core().getLastTaggedImage();
-            new_image = new_tagged_image.pix;
-        } catch (Exception ex) {
-            studio.logs().logDebugMessage("Failure by AnalysisWorker to recieve image from MMCore.");
-        }
-        // if no image was detected, or is the same as last analyzed, wait a given period and query again
-        while (new_image==null || areTwoImagesEqual(new_tagged_image.tags, this.last_core_image_tag)) {
-            sleep(2); // wait 2ms
-            // try to get new image again
-            try {
-                // also update acq time value
-                image_acquisition_time = coordinator.getTimeMillis();
-                new_tagged_image = studio.core().getLastTaggedImage();
-                new_image = new_tagged_image.pix;
-            } catch (Exception ex) {
-                studio.logs().logDebugMessage("Failure by AnalysisWorker to recieve image from MMCore.");
-            }
-        }
-        // so we have a new image, now we process it and store the tag for later comparison
-        analyzer.processImage(new_image, (int) studio.core().getImageWidth(), (int) studio.core().getImageHeight(), studio.core().getPixelSizeUm(), image_acquisition_time);
-        this.last_core_image_tag = new_tagged_image.tags;
-        this.last_analysis_time_ms = coordinator.getTimeMillis() - image_acquisition_time;
-        try {
-            // log the image number
-            AlicaLogger.getInstance().addToLog(image_counter+1, "tag_frame_index", new_tagged_image.tags.getInt("ImageNumber"));
-        } catch (JSONException ex) {
-            studio.logs().logError(ex, "Failed to extract tagged image data.");
-        }
+    private double getPixelSizeUm() {
+        return (core_metadata != null) ? core_metadata.getPixelSizeUm() : pixel_size_um;
     }
     
     /**
-     * Compare the ImageNumber parameter of the JSONObjects
-     * @param tag1 first image tag
-     * @param tag2 second image tag
-     * @return true of ImageNumber is identical, false if not or it does not exist
+     * Log the results of an analyzed frame and update the statistics. Called
+     * by the AnalyzerPool in frame order, never concurrently.
+     * @param frame analyzed frame
+     * @param intermittent_output intermittent output right after analysis
+     * @param analysis_start_ns System.nanoTime() when the analysis started
+     * @param analysis_end_ns System.nanoTime() when the analysis ended
      */
-    private boolean areTwoImagesEqual(JSONObject tag1, JSONObject tag2) {
-        // if any of these images is null, they are marked as not equal
-        if ((tag1==null) || (tag2==null)) {
-            return false;
+    private void onFrameAnalyzed(Frame frame, double intermittent_output,
+            long analysis_start_ns, long analysis_end_ns) {
+        last_analysis_time_ms = (analysis_end_ns - analysis_start_ns) / 1000000L;
+        latency.record(PipelineLatency.Stage.QUEUE, analysis_start_ns - frame.getReceivedNs());
+        latency.record(PipelineLatency.Stage.ANALYSIS, analysis_end_ns - analysis_start_ns);
+        synchronized (newest_frame_lock) {
+            newest_timestamp_ns = frame.getTimestampNs();
+            newest_analysis_end_ns = analysis_end_ns;
+            newest_in_batch = true;
+        }
+        
+        // log the index of the image, offset by 1 because counter was not yet incremented
+        log.addToLog(image_counter+1, frame_index_name, frame.getFrameIndex());
+        int missing = frame_sequence.accept(frame.getFrameIndex());
+        log.addMissingFrames(image_counter+1, Math.max(0, missing));
+        log.addRepeatedFrame(image_counter+1, missing == FrameSequence.REPEAT);
+        // exposure time if the camera provides it, otherwise arrival time
+        log.addFrameTime(image_counter+1, clock.elapsedMs(frame.getTimestampNs()));
+        if (has_last_timestamp) {
+            log.addFrameInterval(image_counter+1, (frame.getTimestampNs() - last_timestamp_ns) / 1e6);
+        }
+        has_last_timestamp = true;
+        last_timestamp_ns = frame.getTimestampNs();
+        
+        // the pixels are not needed anymore
+        if (replay_frame_source != null) {
+            replay_frame_source.recycle(frame.getPixels());
         }
-        try {
-            if (tag1.getInt("ImageNumber") == tag2.getInt("ImageNumber"))
-                return true;
-            else
-                return false;
-        } catch (JSONException ex) {
-            studio.logs().logDebugMessage("Failed image from core comparison:\n"+ex.getMessage());
-            return false;
+        
+        // increment fps counter after each image
+        fps_count++;
+        image_counter++;
+        // log the intermittent output
+        log.addIntermittentOutput(image_counter, intermittent_output);
+        
+        // if a second has passed, store value and reset FPS counters
+        if ((clock.elapsedMillis() - fps_time) > 1000) {
+            last_fps_count = fps_count;
+            fps_count = 0;
+            fps_time = clock.elapsedMillis();
         }
     }
     
@@ -282,23 +509,95 @@ public class AnalysisWorker extends Thread {
      * @return intermittent output of the analyzer
      */
     public double queryAnalyzerForIntermittentOutput() {
-        synchronized(this.analyzer) {
-            double out = this.analyzer.getIntermittentOutput();
-            return out;
-        }
+        return analyzer_pool.getIntermittentOutput();
     }
     
     /**
      * Analyzer's internal state might change, and the output is passed on
-     * to the controller.
+     * to the controller. With several analyzer instances, their outputs are
+     * merged.
      * @return batched output of analyzer
      */
     public double queryAnalyzerForBatchOutput() {
-        synchronized(this.analyzer) {
-            double out = this.analyzer.getBatchOutput();
-            AlicaLogger.getInstance().addBatchedOutput(image_counter, out);
-            return out;
+        double out = analyzer_pool.getBatchOutput();
+        long now = System.nanoTime();
+        synchronized (newest_frame_lock) {
+            if (newest_in_batch) {
+                latency.record(PipelineLatency.Stage.BATCH, now - newest_analysis_end_ns);
+                batch_frame_timestamp_ns = newest_timestamp_ns;
+                batch_has_new_frame = true;
+                newest_in_batch = false;
+            } else {
+                batch_has_new_frame = false;
+            }
         }
+        log.addBatchedOutput(image_counter, out);
+        double coverage = frame_sequence.takeBatchCoverage();
+        last_batch_coverage = coverage;
+        if (!Double.isNaN(coverage)) {
+            log.addBatchCoverage(image_counter, coverage);
+        }
+        return out;
+    }
+    
+    /**
+     * 
+     * @return fraction of the frames which were analyzed between the last
+     *  batch output and the one before, or NaN if no frame was analyzed
+     */
+    public double getBatchCoverage() {
+        return last_batch_coverage;
+    }
+    
+    /**
+     * 
+     * @return gaps and repeats in the indices of the analyzed frames since
+     *  last counter reset
+     */
+    public FrameSequence getFrameSequence() {
+        return frame_sequence;
+    }
+    
+    /**
+     * 
+     * @return true if a frame was analyzed between the last batch output
+     *  and the one before
+     */
+    public boolean hasNewFrameInBatch() {
+        return batch_has_new_frame;
+    }
+    
+    /**
+     * 
+     * @return Frame.getTimestampNs() of the newest frame in the last batch
+     *  output, if hasNewFrameInBatch()
+     */
+    public long getBatchFrameTimestampNs() {
+        return batch_frame_timestamp_ns;
+    }
+    
+    /**
+     * 
+     * @return latency histograms of the pipeline stages
+     */
+    public PipelineLatency getPipelineLatency() {
+        return latency;
+    }
+    
+    /**
+     * 
+     * @return stages applied to the frames before the analysis, with their durations
+     */
+    public PreprocessingChain getPreprocessing() {
+        return analyzer_pool.getPreprocessing();
+    }
+    
+    /**
+     * 
+     * @return number of analyzer instances working in parallel
+     */
+    public int getAnalyzerCount() {
+        return analyzer_pool.size();
     }
     
     /**
@@ -319,82 +618,73 @@ public class AnalysisWorker extends Thread {
     
     /**
      * 
-     * @return number of analyzed frames since last counter reset,
-     *  which could be either caused by live mode start, or acquisition start.
+     * @return number of frames which were replaced by a newer frame, or
+     *  dropped from the frame queue, before they could be analyzed, since
+     *  last counter reset
      */
-    public int getCurrentImageCount() {
-        return this.image_counter;
+    public long getSkippedFrameCount() {
+        return frame_source.getSkippedFrameCount();
     }
     
     /**
-     * Returns the current description of the analyzer's output.
      * 
-     * @return A string describing the analyzer's current output.
+     * @return number of frames dropped from the frame queue in ALL_FRAMES
+     *  mode since last counter reset, these are included in the skipped
+     *  frames
      */
-    public String getAnalyzerShortDescription() {
-        return this.analyzer.getShortReturnDescription();
+    public long getDroppedFrameCount() {
+        if (datastore_frame_source == null || datastore_frame_source.getFrameQueue() == null)
+            return 0;
+        return datastore_frame_source.getFrameQueue().getDroppedCount();
     }
     
     /**
-     * Stops the analyzer after finalizing the current analysis.
+     * 
+     * @return number of frames the source delivered or skipped since last
+     *  counter reset, including those still waiting in the frame queue
      */
-    public void requestStop() {
-        this.stop_flag = true;
+    public long getReceivedFrameCount() {
+        return taken_frame_count + getSkippedFrameCount() + getFrameQueueDepth();
     }
-}
-
-/**
- * The watcher is subscribed to a Datastore by the AnalysisWorker, and then it
- * informs the AnalysisWorker of any new images in the Datastore.
- * @author Marcel Stefko
- */
-class NewImageWatcher {
-    private final Object object_to_lock;
-    private final AnalysisWorker thread_to_notify;
-    private Datastore latest_datastore;
     
-    public NewImageWatcher(Object object_to_lock, AnalysisWorker thread_to_notify) {
-        this.object_to_lock = object_to_lock;
-        this.thread_to_notify = thread_to_notify;
-        this.latest_datastore = null;
+    /**
+     * 
+     * @return number of frames waiting for analysis in ALL_FRAMES mode
+     */
+    public int getFrameQueueDepth() {
+        return (datastore_frame_source != null) ? datastore_frame_source.getPendingFrameCount() : 0;
     }
     
-    public Datastore getLatestDatastore() {
-        if (latest_datastore==null) {
-            throw new NullPointerException("No datastore associated with watcher!");
-        }
-        return latest_datastore;
+    /**
+     * 
+     * @return number of analyzed frames since last counter reset,
+     *  which could be either caused by live mode start, or acquisition start.
+     */
+    public int getCurrentImageCount() {
+        return this.image_counter;
     }
     
     /**
-     * Sets the latest datastore, and registers for its events.
-     * @param store 
+     * Returns the current description of the analyzer's output.
+     * 
+     * @return A string describing the analyzer's current output.
      */
-    public void setLatestDatastore(Datastore store) {
-        // try unregistering from previous datastore
-        if (latest_datastore != null) {
-            try {
-                latest_datastore.unregisterForEvents(this);
-            } catch (Exception ex) {
-                AlicaLogger.getInstance().logError(ex, "Failure in unsubscribing NewImageWatcher from events.");
-            }
-        }
-        store.registerForEvents(this);
-        this.latest_datastore = store;
+    public String getAnalyzerShortDescription() {
+        return analyzer_pool.getPrimaryAnalyzer().getShortReturnDescription();
+    }
+    
+    /**
+     * 
+     * @return log into which the outputs are written
+     */
+    public AlicaLogger getLog() {
+        return log;
     }
     
     /**
-     * Notify the thread that new image is available and send it the coords.
-     * @param evt event containing coords
+     * Stops the analyzer after finalizing the current analysis.
      */
-    @Subscribe
-    public void newImageAcquired(DataProviderHasNewImageEvent evt) {
-        synchronized(object_to_lock) {
-            // notify thread that it can wake up
-            object_to_lock.notify();
-            // store the last image coords
-            thread_to_notify.setLastImageCoords(evt.getCoords());
-        }
+    public void requestStop() {
+        this.stop_flag = true;
     }
 }
-
@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.AlicaLogger;
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ij.gui.Roi;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads frames across one or more independent Analyzer instances.
+ *
+ * With a single analyzer, frames are analyzed directly on the calling
+ * thread. With more analyzers, each analyzer is owned by one thread of
+ * a fixed pool, and a frame is given to whichever analyzer is idle. The
+ * results are released to the FrameListener strictly in the order in which
+ * the frames were submitted, and the batch outputs of all analyzers are
+ * merged, weighted by the number of frames each one analyzed since the
+ * last query.
+ *
+ * Analyzers keep their internal state across frames, so the pool is only
+ * suitable for analyzers whose per-frame outputs do not depend on the
+ * previous frames.
+ *
+ * The threads can also be taken from an executor shared with other
+ * pipelines. Each pool still has at most one frame in analysis per
+ * analyzer instance, and at most one unreleased result per analyzer
+ * instance: a slow frame holds back the submission of new frames until
+ * its result is released, instead of being overtaken indefinitely.
+ *
+ * If an ROI is set, the analyzers get only its bounding rectangle, copied
+ * into a buffer of their slot, and the ROI in the coordinates of the
+ * copy. Non-rectangular ROIs are rasterized into a MaskRoi once per ROI
+ * and frame size. The ROI of an analyzer is changed by the thread which
+ * runs it, between two frames.
+ *
+ * The cropped pixels then pass through the PreprocessingChain, with
+ * buffers of the slot. If the chain reduces the frame size, the ROI and
+ * the pixel size given to the analyzers are scaled accordingly.
+ */
+class AnalyzerPool {
+
+    /**
+     * Receives the results of the analysis, in submission order.
+     */
+    interface FrameListener {
+        /**
+         * Called once per submitted frame, never concurrently.
+         * @param frame analyzed frame
+         * @param intermittent_output intermittent output right after analysis
+         * @param analysis_start_ns System.nanoTime() when the analysis started
+         * @param analysis_end_ns System.nanoTime() when the analysis ended
+         */
+        void frameAnalyzed(Frame frame, double intermittent_output,
+                long analysis_start_ns, long analysis_end_ns);
+    }
+
+    private final List<Slot> slots;
+    private final FrameListener listener;
+    private final ArrayBlockingQueue<Slot> idle_slots;
+    private final ExecutorService executor;
+    // false if the executor is shared with other pools
+    private final boolean owns_executor;
+    private final PreprocessingChain preprocessing;
+
+    // reorder buffer, indexed by sequence number modulo the number of slots
+    private final Object reorder_lock = new Object();
+    // one permit per entry of the reorder buffer, taken when a frame is
+    // submitted and given back when its result is released, so that
+    // next_submitted - next_released never exceeds the number of slots
+    private final Semaphore in_flight;
+    private final boolean[] done;
+    private final Frame[] done_frames;
+    private final double[] done_outputs;
+    private final long[] done_starts;
+    private final long[] done_ends;
+    private long next_submitted = 0;
+    private long next_released = 0;
+
+    private volatile double last_intermittent_output = 0.0;
+
+    // ROI set by the user, applied to the next submitted frame
+    private volatile Roi user_roi = null;
+    private volatile boolean crop_valid = false;
+    // crop of the current ROI and frame size, only used by the submitting thread
+    private FrameCrop crop = null;
+    private int crop_width = -1;
+    private int crop_height = -1;
+
+    /**
+     * Initialize the pool.
+     * @param analyzers independent analyzer instances, at least one
+     * @param listener receives the analysis results in frame order
+     */
+    public AnalyzerPool(List<Analyzer> analyzers, FrameListener listener) {
+        this(analyzers, listener, null);
+    }
+
+    /**
+     * Initialize the pool.
+     * @param analyzers independent analyzer instances, at least one
+     * @param listener receives the analysis results in frame order
+     * @param shared_executor runs the analyses if there are several
+     *  analyzers, not shut down by dispose(), or null for an own pool
+     */
+    public AnalyzerPool(List<Analyzer> analyzers, FrameListener listener,
+            ExecutorService shared_executor) {
+        this(analyzers, listener, shared_executor,
+                new PreprocessingChain(Collections.<PreprocessingStage>emptyList()));
+    }
+
+    /**
+     * Initialize the pool.
+     * @param analyzers independent analyzer instances, at least one
+     * @param listener receives the analysis results in frame order
+     * @param shared_executor runs the analyses if there are several
+     *  analyzers, not shut down by dispose(), or null for an own pool
+     * @param preprocessing stages applied to the frames before the analysis
+     */
+    public AnalyzerPool(List<Analyzer> analyzers, FrameListener listener,
+            ExecutorService shared_executor, PreprocessingChain preprocessing) {
+        if (analyzers == null || analyzers.isEmpty())
+            throw new NullPointerException("You need to set an analyzer!");
+        if (preprocessing == null)
+            throw new NullPointerException("You need to set a preprocessing chain!");
+        this.listener = listener;
+        this.preprocessing = preprocessing;
+        this.slots = new ArrayList<>();
+        this.idle_slots = new ArrayBlockingQueue<>(analyzers.size());
+        for (Analyzer analyzer: analyzers) {
+            if (analyzer == null)
+                throw new NullPointerException("You need to set an analyzer!");
+            Slot slot = new Slot(analyzer, preprocessing.createBuffers());
+            slots.add(slot);
+            idle_slots.add(slot);
+        }
+        int n = slots.size();
+        this.in_flight = new Semaphore(n);
+        this.done = new boolean[n];
+        this.done_frames = new Frame[n];
+        this.done_outputs = new double[n];
+        this.done_starts = new long[n];
+        this.done_ends = new long[n];
+
+        if (n > 1 && shared_executor != null) {
+            this.executor = shared_executor;
+            this.owns_executor = false;
+        } else if (n > 1) {
+            this.owns_executor = true;
+            this.executor = Executors.newFixedThreadPool(n, new ThreadFactory() {
+                private int count = 0;
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Analysis Pool Worker " + (count++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        } else {
+            this.executor = null;
+            this.owns_executor = false;
+        }
+    }
+
+    /**
+     *
+     * @return number of analyzer instances
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     *
+     * @return stages applied to the frames before the analysis
+     */
+    public PreprocessingChain getPreprocessing() {
+        return preprocessing;
+    }
+
+    /**
+     *
+     * @return first analyzer instance, used for descriptions and status panels
+     */
+    public Analyzer getPrimaryAnalyzer() {
+        return slots.get(0).analyzer;
+    }
+
+    /**
+     * Analyze the frame. With a single analyzer this returns after the
+     * analysis, otherwise it returns as soon as an idle analyzer took the
+     * frame and the reorder buffer has space for its result.
+     * @param frame frame to be analyzed
+     * @param pixel_size_um pixel size in micrometers
+     * @param time_ms acquisition time of the frame
+     * @throws InterruptedException if interrupted while waiting for an idle analyzer
+     */
+    public void submit(final Frame frame, final double pixel_size_um,
+            final long time_ms) throws InterruptedException {
+        in_flight.acquire();
+        final Slot slot;
+        try {
+            slot = idle_slots.take();
+        } catch (InterruptedException ex) {
+            in_flight.release();
+            throw ex;
+        }
+        final long sequence_number = next_submitted++;
+        final FrameCrop frame_crop = getCrop(frame.getWidth(), frame.getHeight());
+        if (executor == null) {
+            runAnalysis(slot, sequence_number, frame, frame_crop, pixel_size_um, time_ms);
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runAnalysis(slot, sequence_number, frame, frame_crop, pixel_size_um, time_ms);
+            }
+        });
+    }
+
+    /**
+     * Analyze the frame with the analyzer of given slot, then release the
+     * slot and the result. Errors of the analyzer are logged, and the frame
+     * is released with a NaN output, so that the following frames are not
+     * held back.
+     */
+    private void runAnalysis(Slot slot, long sequence_number, Frame frame,
+            FrameCrop frame_crop, double pixel_size_um, long time_ms) {
+        double intermittent_output = Double.NaN;
+        long start = System.nanoTime();
+        long end = start;
+        try {
+            if (slot.crop != frame_crop) {
+                try {
+                    synchronized(slot.analyzer) {
+                        slot.analyzer.setROI(frame_crop.analyzer_roi == null ? null
+                                : (Roi) frame_crop.analyzer_roi.clone());
+                    }
+                    slot.crop = frame_crop;
+                } catch (Exception ex) {
+                    AlicaLogger.getInstance().logError(ex, "Error in setting the ROI of analyzer.");
+                }
+            }
+            start = System.nanoTime();
+            end = start;
+            try {
+                Object pixels = frame.getPixels();
+                int width = frame.getWidth();
+                int height = frame.getHeight();
+                int x = 0;
+                int y = 0;
+                if (frame_crop.region != null) {
+                    slot.buffer = ImageCrop.crop(pixels, width, frame_crop.region, slot.buffer);
+                    pixels = slot.buffer;
+                    width = frame_crop.region.width;
+                    height = frame_crop.region.height;
+                    x = frame_crop.region.x;
+                    y = frame_crop.region.y;
+                }
+                double analyzed_pixel_size_um = pixel_size_um;
+                if (!preprocessing.isEmpty()) {
+                    pixels = preprocessing.apply(pixels, width, height, x, y, slot.stage_buffers);
+                    int reduction = preprocessing.getReduction();
+                    width /= reduction;
+                    height /= reduction;
+                    analyzed_pixel_size_um *= reduction;
+                }
+                slot.analyzer.processImage(pixels, width, height, analyzed_pixel_size_um, time_ms);
+            } catch (Exception ex) {
+                AlicaLogger.getInstance().logError(ex, "Error in image processing by analyzer.");
+            }
+            end = System.nanoTime();
+            synchronized(slot.analyzer) {
+                slot.frames_since_batch++;
+                try {
+                    intermittent_output = slot.analyzer.getIntermittentOutput();
+                } catch (Exception ex) {
+                    AlicaLogger.getInstance().logError(ex, "Error in querying the intermittent output of analyzer.");
+                }
+            }
+        } finally {
+            idle_slots.add(slot);
+            release(sequence_number, frame, intermittent_output, start, end);
+        }
+    }
+
+    /**
+     * Store the result, and pass all results which are now in order to
+     * the listener.
+     */
+    private void release(long sequence_number, Frame frame,
+            double intermittent_output, long start_ns, long end_ns) {
+        synchronized(reorder_lock) {
+            int index = (int) (sequence_number % done.length);
+            done[index] = true;
+            done_frames[index] = frame;
+            done_outputs[index] = intermittent_output;
+            done_starts[index] = start_ns;
+            done_ends[index] = end_ns;
+
+            index = (int) (next_released % done.length);
+            while (done[index]) {
+                last_intermittent_output = done_outputs[index];
+                listener.frameAnalyzed(done_frames[index], done_outputs[index],
+                        done_starts[index], done_ends[index]);
+                done[index] = false;
+                done_frames[index] = null;
+                next_released++;
+                in_flight.release();
+                index = (int) (next_released % done.length);
+            }
+        }
+    }
+
+    /**
+     *
+     * @return intermittent output of the most recent frame, in frame order
+     */
+    public double getIntermittentOutput() {
+        if (slots.size() == 1) {
+            Analyzer analyzer = slots.get(0).analyzer;
+            synchronized(analyzer) {
+                return analyzer.getIntermittentOutput();
+            }
+        }
+        return last_intermittent_output;
+    }
+
+    /**
+     * Query all analyzers for their batch output and merge them. Each
+     * output is weighted by the number of frames the analyzer processed
+     * since the last query.
+     * @return merged batch output
+     */
+    public double getBatchOutput() {
+        if (slots.size() == 1) {
+            Slot slot = slots.get(0);
+            synchronized(slot.analyzer) {
+                slot.frames_since_batch = 0;
+                return slot.analyzer.getBatchOutput();
+            }
+        }
+        double weighted_sum = 0.0;
+        long total_frames = 0;
+        double plain_sum = 0.0;
+        int plain_count = 0;
+        for (Slot slot: slots) {
+            double output;
+            int frames;
+            synchronized(slot.analyzer) {
+                output = slot.analyzer.getBatchOutput();
+                frames = slot.frames_since_batch;
+                slot.frames_since_batch = 0;
+            }
+            if (Double.isNaN(output))
+                continue;
+            plain_sum += output;
+            plain_count++;
+            weighted_sum += output * frames;
+            total_frames += frames;
+        }
+        if (total_frames > 0)
+            return weighted_sum / total_frames;
+        // no frame was analyzed since the last query, keep the analyzers' view
+        if (plain_count > 0)
+            return plain_sum / plain_count;
+        return Double.NaN;
+    }
+
+    /**
+     * Set the ROI of all analyzers. It is applied from the next submitted
+     * frame on.
+     * @param roi ROI to be analyzed, or null for the whole frame
+     */
+    public void setROI(Roi roi) {
+        user_roi = roi;
+        crop_valid = false;
+    }
+
+    /**
+     * Return the crop for the current ROI and frame size, and compute it
+     * again if either changed.
+     */
+    private FrameCrop getCrop(int image_width, int image_height) {
+        if (crop_valid && crop != null && image_width == crop_width && image_height == crop_height)
+            return crop;
+        // read the flag before the ROI, so that a concurrent setROI()
+        // invalidates the crop again
+        crop_valid = true;
+        Roi roi = user_roi;
+        crop_width = image_width;
+        crop_height = image_height;
+        Rectangle image_bounds = new Rectangle(0, 0, image_width, image_height);
+        Rectangle region = (roi == null || roi.getBounds() == null) ? null
+                : roi.getBounds().intersection(image_bounds);
+        // the ROI is given in the pixels after preprocessing
+        int reduction = preprocessing.getReduction();
+        if (region == null || region.isEmpty()) {
+            // nothing to crop, the analyzers get the ROI as it is
+            crop = new FrameCrop(null, roi);
+        } else if (roi.getType() == Roi.RECTANGLE && !(roi instanceof MaskRoi)) {
+            crop = new FrameCrop(region.equals(image_bounds) ? null : region,
+                    new Roi(0, 0, region.width / reduction, region.height / reduction));
+        } else {
+            crop = new FrameCrop(region.equals(image_bounds) ? null : region,
+                    MaskRoi.fromRoi(roi, region, 0, 0, reduction));
+        }
+        return crop;
+    }
+
+    /**
+     * Wait for the analyses in progress, stop the threads and dispose of
+     * all analyzers.
+     */
+    public void dispose() {
+        if (executor != null && !owns_executor) {
+            awaitIdle(1000);
+        } else if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(1000, TimeUnit.MILLISECONDS))
+                    executor.shutdownNow();
+            } catch (InterruptedException ex) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Slot slot: slots) {
+            slot.analyzer.dispose();
+        }
+    }
+
+    /**
+     * Wait until all submitted frames were released, by taking all permits.
+     * No frame can be submitted afterwards.
+     */
+    private void awaitIdle(long timeout_ms) {
+        try {
+            in_flight.tryAcquire(slots.size(), timeout_ms, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * An analyzer and its bookkeeping.
+     */
+    private static class Slot {
+        final Analyzer analyzer;
+        // guarded by the analyzer's monitor
+        int frames_since_batch = 0;
+        // crop whose ROI the analyzer has, and the buffer for its pixels
+        FrameCrop crop = null;
+        Object buffer = null;
+        // outputs of the preprocessing stages
+        final Object[] stage_buffers;
+
+        Slot(Analyzer analyzer, Object[] stage_buffers) {
+            this.analyzer = analyzer;
+            this.stage_buffers = stage_buffers;
+        }
+    }
+
+    /**
+     * Region of the frames given to the analyzers, and their ROI.
+     */
+    private static class FrameCrop {
+        // null if the whole frame is analyzed
+        final Rectangle region;
+        // ROI in the coordinates of the region
+        final Roi analyzer_roi;
+
+        FrameCrop(Rectangle region, Roi analyzer_roi) {
+            this.region = region;
+            this.analyzer_roi = analyzer_roi;
+        }
+    }
+}
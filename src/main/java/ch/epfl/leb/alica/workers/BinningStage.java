@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+/**
+ * Combines blocks of factor x factor pixels into one, like the binning of
+ * a camera. Pixels at the right and bottom edges which don't fill a whole
+ * block are dropped.
+ */
+public class BinningStage implements PreprocessingStage {
+    /**
+     * How the pixels of a block are combined.
+     */
+    public enum Mode {
+        /**
+         * Mean of the block, keeps the range of the pixels.
+         */
+        AVERAGE,
+
+        /**
+         * Sum of the block, clamped to the range of integer pixels.
+         */
+        SUM
+    }
+
+    private final int factor;
+    private final Mode mode;
+
+    /**
+     * Initialize the stage.
+     * @param factor width and height of the blocks, at least 2
+     * @param mode how the pixels of a block are combined
+     */
+    public BinningStage(int factor, Mode mode) {
+        if (factor < 2)
+            throw new IllegalArgumentException("Binning factor must be at least 2!");
+        if (mode == null)
+            throw new NullPointerException("You need to set a binning mode!");
+        this.factor = factor;
+        this.mode = mode;
+    }
+
+    @Override
+    public String getName() {
+        return String.format("Binning %dx%d (%s)", factor, factor, mode.toString().toLowerCase());
+    }
+
+    @Override
+    public int getReduction() {
+        return factor;
+    }
+
+    @Override
+    public boolean needsCameraPixels() {
+        return false;
+    }
+
+    @Override
+    public Object process(Object pixels, int width, int height, int x, int y, Object buffer) {
+        int out_width = width / factor;
+        int out_height = height / factor;
+        Object out = ImageCrop.reuseOrAllocate(pixels, out_width * out_height, buffer);
+        switch (Pixels.typeOf(pixels)) {
+            case Pixels.BYTE:
+                binBytes((byte[]) pixels, width, (byte[]) out, out_width, out_height);
+                break;
+            case Pixels.SHORT:
+                binShorts((short[]) pixels, width, (short[]) out, out_width, out_height);
+                break;
+            default:
+                binFloats((float[]) pixels, width, (float[]) out, out_width, out_height);
+        }
+        return out;
+    }
+
+    private void binBytes(byte[] pixels, int width, byte[] out, int out_width, int out_height) {
+        if (factor == 2) {
+            binBytes2x2(pixels, width, out, out_width, out_height);
+            return;
+        }
+        int out_index = 0;
+        for (int out_row = 0; out_row < out_height; out_row++) {
+            int block_start = out_row * factor * width;
+            for (int out_column = 0; out_column < out_width; out_column++) {
+                int sum = 0;
+                int row_start = block_start + out_column * factor;
+                for (int row = 0; row < factor; row++) {
+                    for (int column = 0; column < factor; column++) {
+                        sum += pixels[row_start + column] & 0xff;
+                    }
+                    row_start += width;
+                }
+                out[out_index++] = (byte) combine(sum, 0xff);
+            }
+        }
+    }
+
+    private void binShorts(short[] pixels, int width, short[] out, int out_width, int out_height) {
+        if (factor == 2) {
+            binShorts2x2(pixels, width, out, out_width, out_height);
+            return;
+        }
+        int out_index = 0;
+        for (int out_row = 0; out_row < out_height; out_row++) {
+            int block_start = out_row * factor * width;
+            for (int out_column = 0; out_column < out_width; out_column++) {
+                int sum = 0;
+                int row_start = block_start + out_column * factor;
+                for (int row = 0; row < factor; row++) {
+                    for (int column = 0; column < factor; column++) {
+                        sum += pixels[row_start + column] & 0xffff;
+                    }
+                    row_start += width;
+                }
+                out[out_index++] = (short) combine(sum, 0xffff);
+            }
+        }
+    }
+
+    /**
+     * 2x2 blocks, the most common binning, with the pixels of both rows of
+     * a block read directly.
+     */
+    private void binBytes2x2(byte[] pixels, int width, byte[] out, int out_width, int out_height) {
+        boolean sum_mode = (mode == Mode.SUM);
+        int out_index = 0;
+        for (int out_row = 0; out_row < out_height; out_row++) {
+            int top = 2 * out_row * width;
+            int bottom = top + width;
+            for (int out_column = 0; out_column < out_width; out_column++) {
+                int sum = (pixels[top] & 0xff) + (pixels[top + 1] & 0xff)
+                        + (pixels[bottom] & 0xff) + (pixels[bottom + 1] & 0xff);
+                out[out_index++] = (byte) (sum_mode ? Math.min(sum, 0xff) : (sum + 2) >>> 2);
+                top += 2;
+                bottom += 2;
+            }
+        }
+    }
+
+    /**
+     * 2x2 blocks of 16 bit pixels, see binBytes2x2().
+     */
+    private void binShorts2x2(short[] pixels, int width, short[] out, int out_width, int out_height) {
+        boolean sum_mode = (mode == Mode.SUM);
+        int out_index = 0;
+        for (int out_row = 0; out_row < out_height; out_row++) {
+            int top = 2 * out_row * width;
+            int bottom = top + width;
+            for (int out_column = 0; out_column < out_width; out_column++) {
+                int sum = (pixels[top] & 0xffff) + (pixels[top + 1] & 0xffff)
+                        + (pixels[bottom] & 0xffff) + (pixels[bottom + 1] & 0xffff);
+                out[out_index++] = (short) (sum_mode ? Math.min(sum, 0xffff) : (sum + 2) >>> 2);
+                top += 2;
+                bottom += 2;
+            }
+        }
+    }
+
+    private void binFloats(float[] pixels, int width, float[] out, int out_width, int out_height) {
+        float scale = (mode == Mode.SUM) ? 1.0f : 1.0f / (factor * factor);
+        int out_index = 0;
+        for (int out_row = 0; out_row < out_height; out_row++) {
+            int block_start = out_row * factor * width;
+            for (int out_column = 0; out_column < out_width; out_column++) {
+                float sum = 0.0f;
+                int row_start = block_start + out_column * factor;
+                for (int row = 0; row < factor; row++) {
+                    for (int column = 0; column < factor; column++) {
+                        sum += pixels[row_start + column];
+                    }
+                    row_start += width;
+                }
+                out[out_index++] = sum * scale;
+            }
+        }
+    }
+
+    /**
+     * Combine the sum of a block of integer pixels.
+     * @param sum sum of the block
+     * @param max largest value of the pixel type
+     * @return rounded mean, or sum clamped to max
+     */
+    private int combine(int sum, int max) {
+        if (mode == Mode.SUM)
+            return Math.min(sum, max);
+        int count = factor * factor;
+        return (sum + count / 2) / count;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.Iterator;
+import org.json.JSONObject;
+import org.micromanager.data.Metadata;
+
+/**
+ * Maps the timestamps of a camera onto System.nanoTime(), so that frames
+ * get the time of their exposure instead of the time they reached ALICA.
+ *
+ * A frame always arrives some time after its timestamp. The smallest
+ * difference between arrival and timestamp seen so far is the best
+ * estimate of the offset between the two clocks; frames which are delayed
+ * in transfer, or arrive in a burst, have larger differences and don't
+ * affect it. If the camera timestamps go backwards, e.g. at the start of a
+ * new acquisition, the estimate starts over.
+ */
+class CameraClock {
+    /**
+     * Tag written by the MMCore when an image enters the circular buffer.
+     */
+    static final String ELAPSED_TIME_TAG = "ElapsedTime-ms";
+    /**
+     * Suffix of the hardware timestamp tags of camera adapters, e.g.
+     * "Camera-TimeStampMsec", preferred over the ElapsedTime-ms tag.
+     */
+    static final String HARDWARE_TIME_TAG_SUFFIX = "TimeStampMsec";
+
+    private boolean has_offset = false;
+    private long min_offset_ns = 0;
+    private double last_camera_time_ms = Double.NaN;
+
+    /**
+     * Timestamp of a frame.
+     * @param camera_time_ms timestamp of the camera in milliseconds, or NaN
+     * @param received_ns System.nanoTime() when the frame arrived
+     * @return System.nanoTime() of the exposure, or received_ns if the
+     *  frame has no camera timestamp
+     */
+    synchronized long timestampNs(double camera_time_ms, long received_ns) {
+        if (Double.isNaN(camera_time_ms))
+            return received_ns;
+        long camera_ns = Math.round(camera_time_ms * 1e6);
+        long offset_ns = received_ns - camera_ns;
+        if (!has_offset || camera_time_ms < last_camera_time_ms) {
+            has_offset = true;
+            min_offset_ns = offset_ns;
+        } else if (offset_ns < min_offset_ns) {
+            min_offset_ns = offset_ns;
+        }
+        last_camera_time_ms = camera_time_ms;
+        return camera_ns + min_offset_ns;
+    }
+
+    /**
+     * Forget the offset, the next frame starts a new estimate.
+     */
+    synchronized void reset() {
+        has_offset = false;
+        min_offset_ns = 0;
+        last_camera_time_ms = Double.NaN;
+    }
+
+    /**
+     * Read the camera timestamp from the tags of a TaggedImage.
+     * @param tags image tags, may be null
+     * @return hardware timestamp if the camera adapter provides one,
+     *  otherwise the ElapsedTime-ms tag, or NaN
+     */
+    static double fromTags(JSONObject tags) {
+        if (tags == null)
+            return Double.NaN;
+        Iterator<?> keys = tags.keys();
+        while (keys.hasNext()) {
+            String key = String.valueOf(keys.next());
+            if (key.endsWith(HARDWARE_TIME_TAG_SUFFIX)) {
+                double hardware_ms = parse(tags.opt(key));
+                if (!Double.isNaN(hardware_ms))
+                    return hardware_ms;
+            }
+        }
+        return parse(tags.opt(ELAPSED_TIME_TAG));
+    }
+
+    /**
+     * Read the camera timestamp from the metadata of a Datastore image.
+     * @param metadata image metadata, may be null
+     * @return elapsed time of the image, or NaN
+     */
+    static double fromMetadata(Metadata metadata) {
+        if (metadata == null || metadata.getElapsedTimeMs() == null)
+            return Double.NaN;
+        return metadata.getElapsedTimeMs();
+    }
+
+    /**
+     * Tags are numbers or strings, depending on the device adapter.
+     */
+    private static double parse(Object value) {
+        if (value instanceof Number)
+            return ((Number) value).doubleValue();
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException ex) {
+                return Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One high priority thread which runs the ticks of one or more
+ * ControlSchedulers, always the one whose tick is due first. The ticks
+ * only request laser powers from the dispatchers, so they are short and
+ * several control loops can share the thread.
+ */
+class ControlClock {
+    private final Thread thread;
+    private final List<ControlScheduler> schedulers = new ArrayList<>();
+    private volatile boolean shut_down = false;
+
+    /**
+     * Initialize the clock and start its thread.
+     * @param thread_name name of the clock thread
+     */
+    ControlClock(String thread_name) {
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, thread_name);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Start running the ticks of the scheduler.
+     * @param scheduler started scheduler
+     */
+    void add(ControlScheduler scheduler) {
+        synchronized (schedulers) {
+            schedulers.add(scheduler);
+        }
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Stop running the ticks of the scheduler. A tick which is running is
+     * finished.
+     * @param scheduler cancelled scheduler
+     */
+    void remove(ControlScheduler scheduler) {
+        synchronized (schedulers) {
+            schedulers.remove(scheduler);
+        }
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Stop the thread.
+     */
+    void shutdown() {
+        shut_down = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     *
+     * @return number of schedulers whose ticks are run
+     */
+    int getSchedulerCount() {
+        synchronized (schedulers) {
+            return schedulers.size();
+        }
+    }
+
+    private void loop() {
+        while (!shut_down) {
+            ControlScheduler next = null;
+            long next_ns = 0;
+            synchronized (schedulers) {
+                for (ControlScheduler scheduler: schedulers) {
+                    long scheduled_ns = scheduler.getScheduledNs();
+                    if (next == null || scheduled_ns - next_ns < 0) {
+                        next = scheduler;
+                        next_ns = scheduled_ns;
+                    }
+                }
+            }
+            if (next == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            long now = System.nanoTime();
+            if (next_ns - now > 0) {
+                // schedulers may be added or removed meanwhile, look again
+                LockSupport.parkNanos(this, next_ns - now);
+                continue;
+            }
+            next.tick(now);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.AlicaLogger;
+
+/**
+ * Runs a task periodically on its own thread, scheduled on System.nanoTime()
+ * so that changes of the wall clock don't affect the period. What happens
+ * after a tick was delayed, e.g. by a slow laser write or a GC pause, is
+ * decided by the CatchUpPolicy. Several schedulers can also share the
+ * thread of a ControlClock.
+ *
+ * The lateness of each tick (how long after its scheduled time it started)
+ * and its execution time are recorded, as totals, histograms and for the
+ * most recent ticks.
+ */
+public class ControlScheduler {
+    /**
+     * Behavior after a tick started late.
+     */
+    public enum CatchUpPolicy {
+        /**
+         * Ticks whose time has passed are skipped and counted as missed.
+         * The next tick happens at the next time on the original grid.
+         */
+        SKIP_MISSED,
+
+        /**
+         * The next tick happens one period after the end of the last one,
+         * so the grid shifts by the delay.
+         */
+        FIXED_DELAY,
+
+        /**
+         * Missed ticks are run back to back until the schedule is caught
+         * up, like java.util.Timer.scheduleAtFixedRate().
+         */
+        FIXED_RATE
+    }
+
+    /**
+     * Number of recent ticks whose lateness and execution time are kept.
+     */
+    public static final int HISTORY_LENGTH = 1024;
+
+    private final Runnable task;
+    private final CatchUpPolicy policy;
+    private final String thread_name;
+    // shared clock, or null if the scheduler has its own thread
+    private final ControlClock shared_clock;
+    // clock which runs the ticks, null before the start
+    private ControlClock clock = null;
+    private volatile boolean cancelled = false;
+    // only touched by the clock thread after the start
+    private long scheduled_ns = 0;
+    private long period_ns = 0;
+
+    // statistics, guarded by this
+    private long tick_count = 0;
+    private long missed_tick_count = 0;
+    private long total_lateness_ns = 0;
+    private long max_lateness_ns = 0;
+    private long total_execution_ns = 0;
+    private long max_execution_ns = 0;
+    private final long[] recent_lateness_ns = new long[HISTORY_LENGTH];
+    private final long[] recent_execution_ns = new long[HISTORY_LENGTH];
+    private final LatencyHistogram lateness_histogram = new LatencyHistogram();
+    private final LatencyHistogram execution_histogram = new LatencyHistogram();
+
+    /**
+     * Initialize the scheduler.
+     * @param task task to be run periodically
+     * @param policy behavior after a late tick
+     * @param thread_name name of the scheduler thread
+     */
+    public ControlScheduler(Runnable task, CatchUpPolicy policy, String thread_name) {
+        this(task, policy, thread_name, null);
+    }
+
+    /**
+     * Initialize a scheduler whose ticks are run by a shared clock.
+     * @param task task to be run periodically
+     * @param policy behavior after a late tick
+     * @param thread_name name of the scheduler thread if it has its own
+     * @param shared_clock clock which runs the ticks, or null for an own thread
+     */
+    ControlScheduler(Runnable task, CatchUpPolicy policy, String thread_name,
+            ControlClock shared_clock) {
+        if (task == null)
+            throw new NullPointerException("You need to set a task!");
+        if (policy == null)
+            throw new NullPointerException("You need to set a catch-up policy!");
+        this.task = task;
+        this.policy = policy;
+        this.thread_name = thread_name;
+        this.shared_clock = shared_clock;
+    }
+
+    /**
+     * Start running the task.
+     * @param delay_ms delay before the first tick
+     * @param period_ms period of the ticks
+     */
+    public synchronized void start(long delay_ms, long period_ms) {
+        if (clock != null)
+            throw new IllegalStateException("The scheduler was already started!");
+        if (period_ms <= 0)
+            throw new IllegalArgumentException("Period must be positive!");
+        // the clock thread sees these after add()
+        period_ns = period_ms * 1000000L;
+        scheduled_ns = System.nanoTime() + Math.max(0, delay_ms) * 1000000L;
+        clock = (shared_clock != null) ? shared_clock : new ControlClock(thread_name);
+        clock.add(this);
+    }
+
+    /**
+     * Stop running the task. A tick which is running is finished.
+     */
+    public void cancel() {
+        cancelled = true;
+        ControlClock c;
+        synchronized (this) {
+            c = clock;
+        }
+        if (c == null)
+            return;
+        c.remove(this);
+        if (c != shared_clock)
+            c.shutdown();
+    }
+
+    /**
+     * Called by the clock.
+     * @return System.nanoTime() at which the next tick is due
+     */
+    long getScheduledNs() {
+        return scheduled_ns;
+    }
+
+    /**
+     * Run a tick which is due, called by the clock.
+     * @param now current System.nanoTime()
+     */
+    void tick(long now) {
+        if (cancelled)
+            return;
+        long lateness_ns = now - scheduled_ns;
+        try {
+            task.run();
+        } catch (RuntimeException ex) {
+            // unlike a Timer, keep the control loop alive
+            AlicaLogger.getInstance().logError(ex, "Control tick failed.");
+        }
+        long end = System.nanoTime();
+        long missed = 0;
+        switch (policy) {
+            case FIXED_DELAY:
+                scheduled_ns = end + period_ns;
+                break;
+            case FIXED_RATE:
+                scheduled_ns += period_ns;
+                break;
+            default:
+                scheduled_ns += period_ns;
+                if (scheduled_ns - end <= 0) {
+                    missed = (end - scheduled_ns) / period_ns + 1;
+                    scheduled_ns += missed * period_ns;
+                }
+        }
+        record(lateness_ns, end - now, missed);
+    }
+
+    /**
+     * Record the statistics of a tick.
+     */
+    private synchronized void record(long lateness_ns, long execution_ns, long missed) {
+        int slot = (int) (tick_count % HISTORY_LENGTH);
+        recent_lateness_ns[slot] = lateness_ns;
+        recent_execution_ns[slot] = execution_ns;
+        tick_count++;
+        missed_tick_count += missed;
+        total_lateness_ns += lateness_ns;
+        max_lateness_ns = Math.max(max_lateness_ns, lateness_ns);
+        total_execution_ns += execution_ns;
+        max_execution_ns = Math.max(max_execution_ns, execution_ns);
+        lateness_histogram.record(lateness_ns);
+        execution_histogram.record(execution_ns);
+    }
+
+    /**
+     *
+     * @return behavior after a late tick
+     */
+    public CatchUpPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     *
+     * @return number of ticks run
+     */
+    public synchronized long getTickCount() {
+        return tick_count;
+    }
+
+    /**
+     *
+     * @return number of ticks skipped with the SKIP_MISSED policy
+     */
+    public synchronized long getMissedTickCount() {
+        return missed_tick_count;
+    }
+
+    /**
+     *
+     * @return mean delay between the scheduled and the actual start of a
+     *  tick in nanoseconds
+     */
+    public synchronized long getMeanLatenessNs() {
+        return (tick_count == 0) ? 0 : total_lateness_ns / tick_count;
+    }
+
+    /**
+     *
+     * @return largest delay between the scheduled and the actual start of
+     *  a tick in nanoseconds
+     */
+    public synchronized long getMaxLatenessNs() {
+        return max_lateness_ns;
+    }
+
+    /**
+     *
+     * @return mean execution time of a tick in nanoseconds
+     */
+    public synchronized long getMeanExecutionNs() {
+        return (tick_count == 0) ? 0 : total_execution_ns / tick_count;
+    }
+
+    /**
+     *
+     * @return largest execution time of a tick in nanoseconds
+     */
+    public synchronized long getMaxExecutionNs() {
+        return max_execution_ns;
+    }
+
+    /**
+     *
+     * @return lateness of the recent ticks in nanoseconds, oldest first
+     */
+    public synchronized long[] getRecentLatenessNs() {
+        return copyRecent(recent_lateness_ns);
+    }
+
+    /**
+     *
+     * @return execution time of the recent ticks in nanoseconds, oldest first
+     */
+    public synchronized long[] getRecentExecutionNs() {
+        return copyRecent(recent_execution_ns);
+    }
+
+    /**
+     *
+     * @return histogram of the lateness of all ticks
+     */
+    public LatencyHistogram getLatenessHistogram() {
+        return lateness_histogram;
+    }
+
+    /**
+     *
+     * @return histogram of the execution time of all ticks
+     */
+    public LatencyHistogram getExecutionHistogram() {
+        return execution_histogram;
+    }
+
+    private long[] copyRecent(long[] history) {
+        int count = (int) Math.min(tick_count, HISTORY_LENGTH);
+        long[] copy = new long[count];
+        int oldest = (int) ((tick_count - count) % HISTORY_LENGTH);
+        int first_part = Math.min(count, HISTORY_LENGTH - oldest);
+        System.arraycopy(history, oldest, copy, 0, first_part);
+        System.arraycopy(history, 0, copy, first_part, count - first_part);
+        return copy;
+    }
+
+    /**
+     *
+     * @return summary of the statistics
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("%d control ticks (%s), %d missed, "
+                + "lateness mean %.3f ms max %.3f ms, execution mean %.3f ms max %.3f ms",
+                tick_count, policy, missed_tick_count,
+                getMeanLatenessNs() / 1e6, max_lateness_ns / 1e6,
+                getMeanExecutionNs() / 1e6, max_execution_ns / 1e6);
+    }
+}
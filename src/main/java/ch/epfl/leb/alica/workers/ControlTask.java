@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This task is run periodically by the ControlWorker
+ * @author Marcel Stefko
+ */
+class ControlTask implements Runnable {
+    private final AnalysisWorker analysis_worker;
+    private final List<LaserChannel> channels;
+    private final List<LaserDispatcher> dispatchers;
+    
+    private volatile double last_analyzer_output = 0.0;
+    // replaced as a whole every tick
+    private volatile double[] last_controller_outputs;
+
+    /**
+     * Initialize the ControlTask for several lasers
+     * @param analysis_worker AnalysisWorker which will be queried for output
+     * @param channels lasers to drive, the first one has a controller
+     * @param dispatchers dispatcher of each channel
+     */
+    public ControlTask(AnalysisWorker analysis_worker, List<LaserChannel> channels,
+            List<LaserDispatcher> dispatchers) {
+        this.analysis_worker = analysis_worker;
+        this.channels = new ArrayList<>(channels);
+        this.dispatchers = new ArrayList<>(dispatchers);
+        this.last_controller_outputs = new double[channels.size()];
+    }
+    
+    @Override
+    public void run() {
+        // get batch output of the analyzer, shared by all channels
+        double analyzer_output = analysis_worker.queryAnalyzerForBatchOutput();
+        last_analyzer_output = analyzer_output;
+        int image_count = analysis_worker.getCurrentImageCount();
+        boolean has_frame = analysis_worker.hasNewFrameInBatch();
+        long frame_timestamp_ns = analysis_worker.getBatchFrameTimestampNs();
+        
+        double[] outputs = new double[channels.size()];
+        for (int i = 0; i < outputs.length; i++) {
+            // pass output to the controller, or derive it from the first one
+            outputs[i] = channels.get(i).nextValue(analyzer_output, outputs[0]);
+            analysis_worker.getLog().addControllerOutput(image_count, i, outputs[i]);
+            // request the laser power, written in the background
+            dispatchers.get(i).request(outputs[i], has_frame, frame_timestamp_ns);
+        }
+        last_controller_outputs = outputs;
+    }
+    
+    /**
+     * 
+     * @return last output of the controller of the first laser
+     */
+    public double getLastControllerOutput() {
+        return getLastControllerOutput(0);
+    }
+    
+    /**
+     * 
+     * @param channel index of the laser channel
+     * @return last output for that laser
+     */
+    public double getLastControllerOutput(int channel) {
+        return last_controller_outputs[channel];
+    }
+}
@@ -22,30 +22,100 @@ package ch.epfl.leb.alica.workers;
 import ch.epfl.leb.alica.AlicaLogger;
 import ch.epfl.leb.alica.interfaces.Controller;
 import ch.epfl.leb.alica.Laser;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
- * A Timer which schedules a task that regularly queries the AnalysisWorker
- * for batched output, and passes it on to the controller, then gets the
- * controller's output and passes it on to the laser.
+ * Schedules a task that regularly queries the AnalysisWorker for batched
+ * output, and passes it on to the controller, then gets the controller's
+ * output and passes it on to the laser. The laser is set by a
+ * LaserDispatcher, so the ticks don't wait for the device.
+ * 
+ * Several lasers can be driven from the same analysis, each by its own
+ * controller or derived from the first one. Every laser has its own
+ * dispatcher, so writes to different devices happen concurrently.
  * @author Marcel Stefko
  */
 
-public class ControlWorker extends Timer {
+public class ControlWorker {
     
     private final ControlTask control_task;
+    private final ControlScheduler scheduler;
+    private final List<LaserDispatcher> dispatchers;
     
     /**
-     * Initialize the ControlWorker
+     * Initialize the ControlWorker, which skips the ticks missed during a
+     * stall.
      * @param analysis_worker AnalysisWorker which will be queried for output
      * @param controller Controller to which output of AnalysisWorker is fed
      * @param laser Laser to which output of Controller is fed
      */
     public ControlWorker(AnalysisWorker analysis_worker, Controller controller, Laser laser) {
-        super();
+        this(analysis_worker, controller, laser, ControlScheduler.CatchUpPolicy.SKIP_MISSED, 0);
+    }
+    
+    /**
+     * Initialize the ControlWorker
+     * @param analysis_worker AnalysisWorker which will be queried for output
+     * @param controller Controller to which output of AnalysisWorker is fed
+     * @param laser Laser to which output of Controller is fed
+     * @param policy behavior after a delayed tick
+     * @param min_laser_write_interval_ms minimal time between two laser
+     *  writes, 0 for none
+     */
+    public ControlWorker(AnalysisWorker analysis_worker, Controller controller, Laser laser,
+            ControlScheduler.CatchUpPolicy policy, long min_laser_write_interval_ms) {
+        this(analysis_worker, Collections.singletonList(new LaserChannel(laser, controller)),
+                policy, min_laser_write_interval_ms);
+    }
+    
+    /**
+     * Initialize the ControlWorker for several lasers
+     * @param analysis_worker AnalysisWorker which will be queried for output
+     * @param channels lasers to drive, the first one needs a controller
+     * @param policy behavior after a delayed tick
+     * @param min_laser_write_interval_ms minimal time between two writes
+     *  to the same laser, 0 for none
+     */
+    public ControlWorker(AnalysisWorker analysis_worker, List<LaserChannel> channels,
+            ControlScheduler.CatchUpPolicy policy, long min_laser_write_interval_ms) {
+        this(analysis_worker, channels, policy, min_laser_write_interval_ms, null);
+    }
+    
+    /**
+     * Initialize the ControlWorker for several lasers, whose ticks are run
+     * by the clock of a shared executor.
+     * @param analysis_worker AnalysisWorker which will be queried for output
+     * @param channels lasers to drive, the first one needs a controller
+     * @param policy behavior after a delayed tick
+     * @param min_laser_write_interval_ms minimal time between two writes
+     *  to the same laser, 0 for none
+     * @param executor executor whose clock runs the ticks, or null for
+     *  an own thread
+     */
+    public ControlWorker(AnalysisWorker analysis_worker, List<LaserChannel> channels,
+            ControlScheduler.CatchUpPolicy policy, long min_laser_write_interval_ms,
+            PipelineExecutor executor) {
+        if (channels == null || channels.isEmpty())
+            throw new IllegalArgumentException("You need to set a laser!");
+        if (channels.get(0).isDerived())
+            throw new IllegalArgumentException("The first laser channel needs a controller!");
+        this.dispatchers = new ArrayList<>(channels.size());
+        for (int i = 0; i < channels.size(); i++) {
+            // the latencies are measured on the first laser only
+            if (i == 0) {
+                dispatchers.add(new LaserDispatcher(channels.get(i).getLaser(),
+                        analysis_worker.getPipelineLatency(), min_laser_write_interval_ms));
+            } else {
+                dispatchers.add(new LaserDispatcher(channels.get(i).getLaser(), null,
+                        min_laser_write_interval_ms, "ALICA Laser Dispatcher " + (i + 1)));
+            }
+        }
         // initialize the task
-        this.control_task = new ControlTask(analysis_worker, controller, laser);
+        this.control_task = new ControlTask(analysis_worker, channels, dispatchers);
+        this.scheduler = new ControlScheduler(control_task, policy, "ALICA Control Worker",
+                (executor != null) ? executor.getControlClock() : null);
     }
     
     /**
@@ -54,82 +124,127 @@ public class ControlWorker extends Timer {
      * @param period_ms period of the task
      */
     public void scheduleExecution(long delay_ms, long period_ms) {
-        this.scheduleAtFixedRate(control_task, delay_ms, period_ms);
+        scheduler.start(delay_ms, period_ms);
     }
     
     /**
-     * 
-     * @return last controller output
+     * Stop the execution of the task, and wait up to a second for the laser
+     * writes in progress. Requests which were not written are discarded.
      */
-    public double getLastControllerOutput() {
-        return control_task.getLastControllerOutput();
+    public void cancel() {
+        cancel(false);
     }
-}
-
-/**
- * This TimerTask is run periodically by the ControlWorker
- * @author Marcel Stefko
- */
-class ControlTask extends TimerTask {
-    private final AnalysisWorker analysis_worker;
-    private final Controller controller;
-    private final Laser laser;
-    
-    private double last_analyzer_output = 0.0;
-    private double last_controller_output = 0.0;
     
-    private boolean laser_error_displayed = false;
-
     /**
-     * Initialize the ControlTask
-     * @param analysis_worker AnalysisWorker which will be queried for output
-     * @param controller Controller to which output of AnalysisWorker is fed
-     * @param laser Laser to which output of Controller is fed
+     * Stop the execution of the task and turn all lasers off. The power 0
+     * is written by the dispatchers after their writes in progress, so it
+     * is the last power written even if a write takes longer than the
+     * second waited for it.
      */
-    public ControlTask(AnalysisWorker analysis_worker, Controller controller, Laser laser) {
-        super();
-        this.analysis_worker = analysis_worker;
-        this.controller = controller;
-        this.laser = laser;
-    }
-    
-    @Override
-    public void run() {
-        synchronized(this) {
-            // get batch output of the analyzer
-            double analyzer_output = analysis_worker.queryAnalyzerForBatchOutput();
-            last_analyzer_output = analyzer_output;
-            // pass output to the controller and get next output
-            last_controller_output = controller.nextValue(analyzer_output);
-            
-            AlicaLogger.getInstance().addControllerOutput(analysis_worker.getCurrentImageCount(), last_controller_output);
-            
-            // adjust the laser power
-            try {
-                laser.setLaserPower(last_controller_output);
-            } catch (Exception ex) {
-                if (!laser_error_displayed) {
-                    AlicaLogger.getInstance().showError(ex, "Error in setting laser power to " + 
-                            last_controller_output + ". Further errors will not be displayed.");
-                    laser_error_displayed = true;
-                } else {
-                    AlicaLogger.getInstance().logError(ex, "Error in setting laser power to " + 
-                            last_controller_output);
+    public void cancelAndTurnOffLasers() {
+        cancel(true);
+    }
+    
+    private void cancel(boolean turn_off) {
+        scheduler.cancel();
+        try {
+            for (LaserDispatcher dispatcher : dispatchers) {
+                if (turn_off && !dispatcher.stop(0.0, 1000)) {
+                    AlicaLogger.getInstance().logError(null,
+                            "Laser write did not finish within a second, the laser is turned off when it does.");
+                } else if (!turn_off && !dispatcher.stop(1000)) {
+                    AlicaLogger.getInstance().logError(null, "Laser write did not finish within a second.");
                 }
             }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
     }
     
     /**
      * 
-     * @return last controller output
+     * @return the scheduler, with the lateness and execution time of the ticks
+     */
+    public ControlScheduler getScheduler() {
+        return scheduler;
+    }
+    
+    /**
+     * 
+     * @return the dispatcher which writes the power of the first laser
+     */
+    public LaserDispatcher getLaserDispatcher() {
+        return dispatchers.get(0);
+    }
+    
+    /**
+     * 
+     * @param channel index of the laser channel
+     * @return the dispatcher which writes the power of that laser
+     */
+    public LaserDispatcher getLaserDispatcher(int channel) {
+        return dispatchers.get(channel);
+    }
+    
+    /**
+     * 
+     * @return number of lasers driven
+     */
+    public int getLaserChannelCount() {
+        return dispatchers.size();
+    }
+    
+    /**
+     * 
+     * @return last output of the controller of the first laser
      */
     public double getLastControllerOutput() {
-        synchronized(this) {
-            return last_controller_output;
-        }
+        return control_task.getLastControllerOutput(0);
     }
     
+    /**
+     * 
+     * @return number of laser powers requested, over all lasers
+     */
+    public long getLaserRequestCount() {
+        long count = 0;
+        for (LaserDispatcher dispatcher : dispatchers)
+            count += dispatcher.getRequestCount();
+        return count;
+    }
+    
+    /**
+     * 
+     * @return number of laser power requests replaced before their write,
+     *  over all lasers
+     */
+    public long getLaserSupersededCount() {
+        long count = 0;
+        for (LaserDispatcher dispatcher : dispatchers)
+            count += dispatcher.getSupersededCount();
+        return count;
+    }
     
+    /**
+     * 
+     * @return number of successful laser power writes, over all lasers
+     */
+    public long getLaserWriteCount() {
+        long count = 0;
+        for (LaserDispatcher dispatcher : dispatchers)
+            count += dispatcher.getWriteCount();
+        return count;
+    }
     
+    /**
+     * 
+     * @return number of laser power writes which threw an exception, over
+     *  all lasers
+     */
+    public long getLaserErrorCount() {
+        long count = 0;
+        for (LaserDispatcher dispatcher : dispatchers)
+            count += dispatcher.getErrorCount();
+        return count;
+    }
 }
@@ -28,31 +28,46 @@ import ch.epfl.leb.alica.MainGUI;
 import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerStatusPanel;
 import ch.epfl.leb.alica.interfaces.controllers.ControllerStatusPanel;
 import ij.gui.Roi;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.micromanager.Studio;
 
 /**
  * Coordinates workhorses of the analysis.
+ * 
+ * Several Coordinators can run side by side as named pipelines, e.g. one
+ * per camera and laser. Each named pipeline logs into its own session log,
+ * and their threads can be shared through a PipelineExecutor.
  * @author Marcel Stefko
  */
 public class Coordinator {
     private boolean stop_flag = false;
-    private final long thread_start_time_ms;
+    // monotonic time since the start
+    private final PipelineClock clock;
+    
+    // null for the default pipeline
+    private final String name;
+    private final AlicaLogger log;
+    // shared threads, or null if the workers have their own
+    private final PipelineExecutor executor;
     
     private final Studio studio;
     private final Controller controller;
     private final Analyzer analyzer;
     private final Laser laser;
+    private final List<LaserChannel> channels;
     
     private final AnalysisWorker analysis_worker;
     private final ControlWorker control_worker;
     private final MonitorWorker monitor_worker;
+    // JMX view of the workers
+    private final PipelineMBeans mbeans;
     
     private final MonitorGUI gui;
     
     /**
-     * Initialize the coordinator
+     * Initialize the coordinator with default worker settings
      * @param studio MM studio
      * @param analyzer
      * @param controller
@@ -60,51 +75,226 @@ public class Coordinator {
      * @param imaging_mode
      * @param controller_tick_rate_ms
      * @param ROI roi for analyzer
+     * @param headless if true, no MonitorGUI is displayed
      */
     public Coordinator(Studio studio, Analyzer analyzer, Controller controller, 
             Laser laser, ImagingMode imaging_mode, int controller_tick_rate_ms,
             final Roi ROI, boolean headless) {
+        this(studio, analyzer, controller, laser, imaging_mode, 
+                controller_tick_rate_ms, ROI, headless, new WorkerSettings());
+    }
+    
+    /**
+     * Initialize the coordinator
+     * @param studio MM studio
+     * @param analyzer
+     * @param controller
+     * @param laser
+     * @param imaging_mode
+     * @param controller_tick_rate_ms
+     * @param ROI roi for analyzer
+     * @param headless if true, no MonitorGUI is displayed
+     * @param settings optional settings of the workers
+     */
+    public Coordinator(Studio studio, Analyzer analyzer, Controller controller, 
+            Laser laser, ImagingMode imaging_mode, int controller_tick_rate_ms,
+            final Roi ROI, boolean headless, WorkerSettings settings) {
+        this(studio, Collections.singletonList(analyzer), controller, laser, 
+                imaging_mode, controller_tick_rate_ms, ROI, headless, settings);
+    }
+    
+    /**
+     * Initialize the coordinator with several instances of the same analyzer,
+     * which analyze consecutive frames in parallel. The first one provides
+     * the name, description and status panel.
+     * @param studio MM studio
+     * @param analyzers independent analyzer instances, at least one
+     * @param controller
+     * @param laser
+     * @param imaging_mode
+     * @param controller_tick_rate_ms
+     * @param ROI roi for analyzer
+     * @param headless if true, no MonitorGUI is displayed
+     * @param settings optional settings of the workers
+     */
+    public Coordinator(Studio studio, List<Analyzer> analyzers, Controller controller, 
+            Laser laser, ImagingMode imaging_mode, int controller_tick_rate_ms,
+            final Roi ROI, boolean headless, WorkerSettings settings) {
+        this(null, studio, null, Double.NaN, analyzers, singleChannel(controller, laser), 
+                imaging_mode, controller_tick_rate_ms, 1000, ROI, headless, settings, null);
+    }
+    
+    /**
+     * Initialize the coordinator for several lasers, which are driven from
+     * the output of the same analyzers. The first channel needs its own
+     * controller, it is the one displayed in the MonitorGUI. The other
+     * channels have their own controller, or follow the first one.
+     * @param studio MM studio
+     * @param analyzers independent analyzer instances, at least one
+     * @param channels lasers to drive, at least one
+     * @param imaging_mode
+     * @param controller_tick_rate_ms
+     * @param ROI roi for analyzer
+     * @param headless if true, no MonitorGUI is displayed
+     * @param settings optional settings of the workers
+     */
+    public Coordinator(Studio studio, List<Analyzer> analyzers, List<LaserChannel> channels,
+            ImagingMode imaging_mode, int controller_tick_rate_ms,
+            final Roi ROI, boolean headless, WorkerSettings settings) {
+        this(null, studio, null, Double.NaN, analyzers, channels, imaging_mode,
+                controller_tick_rate_ms, 1000, ROI, headless, settings, null);
+    }
+    
+    /**
+     * Initialize a named pipeline, which logs into its own session log.
+     * Pipelines which share an executor share its threads.
+     * @param name name of the pipeline, or null for the default pipeline
+     *  which logs into the default log
+     * @param studio MM studio
+     * @param analyzers independent analyzer instances, at least one
+     * @param channels lasers to drive, at least one
+     * @param imaging_mode
+     * @param controller_tick_rate_ms
+     * @param ROI roi for analyzer
+     * @param headless if true, no MonitorGUI is displayed
+     * @param settings optional settings of the workers
+     * @param executor shared threads, or null for threads of its own
+     */
+    public Coordinator(String name, Studio studio, List<Analyzer> analyzers, 
+            List<LaserChannel> channels, ImagingMode imaging_mode, 
+            int controller_tick_rate_ms, final Roi ROI, boolean headless, 
+            WorkerSettings settings, PipelineExecutor executor) {
+        this(name, studio, null, Double.NaN, analyzers, channels, imaging_mode,
+                controller_tick_rate_ms, 1000, ROI, headless, settings, executor);
+    }
+    
+    /**
+     * Initialize a headless coordinator which takes its images from the
+     * given source instead of Micro-Manager. No Studio is needed, so the
+     * analysis and control pipeline can be run offline, for example by the
+     * replay harness. The first control tick happens after one period.
+     * @param frame_source supplies the images to be analyzed
+     * @param pixel_size_um pixel size passed to the analyzers
+     * @param analyzers independent analyzer instances, at least one
+     * @param controller
+     * @param laser
+     * @param controller_tick_rate_ms
+     * @param ROI roi for analyzer
+     */
+    public Coordinator(FrameSource frame_source, double pixel_size_um, 
+            List<Analyzer> analyzers, Controller controller, Laser laser, 
+            int controller_tick_rate_ms, final Roi ROI) {
+        this(frame_source, pixel_size_um, analyzers, singleChannel(controller, laser),
+                controller_tick_rate_ms, ROI);
+    }
+    
+    /**
+     * Initialize a headless coordinator for several lasers, which takes its
+     * images from the given source instead of Micro-Manager.
+     * @param frame_source supplies the images to be analyzed
+     * @param pixel_size_um pixel size passed to the analyzers
+     * @param analyzers independent analyzer instances, at least one
+     * @param channels lasers to drive, the first one needs a controller
+     * @param controller_tick_rate_ms
+     * @param ROI roi for analyzer
+     */
+    public Coordinator(FrameSource frame_source, double pixel_size_um, 
+            List<Analyzer> analyzers, List<LaserChannel> channels, 
+            int controller_tick_rate_ms, final Roi ROI) {
+        this(null, null, frame_source, pixel_size_um, analyzers, channels, null,
+                controller_tick_rate_ms, controller_tick_rate_ms, ROI, true, 
+                new WorkerSettings(), null);
+    }
+    
+    /**
+     * Initialize a named headless pipeline which takes its images from the
+     * given source, and logs into its own session log.
+     * @param name name of the pipeline, or null for the default pipeline
+     * @param frame_source supplies the images to be analyzed
+     * @param pixel_size_um pixel size passed to the analyzers
+     * @param analyzers independent analyzer instances, at least one
+     * @param channels lasers to drive, the first one needs a controller
+     * @param controller_tick_rate_ms
+     * @param ROI roi for analyzer
+     * @param executor shared threads, or null for threads of its own
+     */
+    public Coordinator(String name, FrameSource frame_source, double pixel_size_um, 
+            List<Analyzer> analyzers, List<LaserChannel> channels, 
+            int controller_tick_rate_ms, final Roi ROI, PipelineExecutor executor) {
+        this(name, null, frame_source, pixel_size_um, analyzers, channels, null,
+                controller_tick_rate_ms, controller_tick_rate_ms, ROI, true, 
+                new WorkerSettings(), executor);
+    }
+    
+    private static List<LaserChannel> singleChannel(Controller controller, Laser laser) {
+        if (controller == null)
+            throw new NullPointerException("You need to set a controller!");
+        if (laser == null)
+            throw new NullPointerException("You need to set a laser!");
+        return Collections.singletonList(new LaserChannel(laser, controller));
+    }
+    
+    private Coordinator(String name, Studio studio, FrameSource frame_source, double pixel_size_um,
+            List<Analyzer> analyzers, List<LaserChannel> channels, 
+            ImagingMode imaging_mode, int controller_tick_rate_ms, long control_delay_ms,
+            final Roi ROI, boolean headless, WorkerSettings settings, PipelineExecutor executor) {
         // log the start time
-        this.thread_start_time_ms = System.currentTimeMillis();
+        this.clock = new PipelineClock();
         // sanitize input
-        if (studio == null)
+        if (studio == null && frame_source == null)
             throw new NullPointerException("You need to set a studio!");
-        if (analyzer == null)
+        if (analyzers == null || analyzers.isEmpty() || analyzers.contains(null))
             throw new NullPointerException("You need to set an analyzer!");
-        if (controller == null)
-            throw new NullPointerException("You need to set a controller!");
-        if (laser == null)
+        if (channels == null || channels.isEmpty() || channels.contains(null))
             throw new NullPointerException("You need to set a laser!");
+        if (channels.get(0).isDerived())
+            throw new IllegalArgumentException("The first laser channel needs a controller!");
+        if (settings == null)
+            throw new NullPointerException("You need to set the worker settings!");
+        if (name != null && name.isEmpty())
+            throw new IllegalArgumentException("Pipeline name must not be empty!");
+        this.name = name;
+        this.log = (name == null) ? AlicaLogger.getInstance() : AlicaLogger.openSession(name);
+        this.executor = executor;
         this.studio = studio;
-        this.controller = controller;
-        this.analyzer = analyzer;
-        this.laser = laser;
+        this.channels = new ArrayList<>(channels);
+        this.controller = channels.get(0).getController();
+        this.analyzer = analyzers.get(0);
+        this.laser = channels.get(0).getLaser();
         
-        studio.logs().logDebugMessage("Alica Coordinator started with imaging mode " + imaging_mode.toString());
         // analysis worker is a thread which runs continuously
-        this.analysis_worker = new AnalysisWorker(this, studio, analyzer, imaging_mode);
-        studio.events().registerForEvents(this.analysis_worker);
+        if (frame_source == null) {
+            AlicaLogger.getInstance().logDebugMessage("Alica Coordinator started with imaging mode " + imaging_mode.toString());
+            this.analysis_worker = new AnalysisWorker(this, studio, analyzers, imaging_mode, settings);
+            studio.events().registerForEvents(this.analysis_worker);
+        } else {
+            AlicaLogger.getInstance().logDebugMessage("Alica Coordinator started with an external frame source.");
+            this.analysis_worker = new AnalysisWorker(this, frame_source, analyzers, pixel_size_um);
+        }
         this.analysis_worker.setROI(ROI);
         
 
         
-        // this is a Timer which executes its internal task periodically
-        this.control_worker = new ControlWorker(analysis_worker, controller, laser);
-        this.control_worker.scheduleExecution(1000, controller_tick_rate_ms);
+        // this executes its internal task periodically on its own thread
+        this.control_worker = new ControlWorker(analysis_worker, this.channels,
+                settings.getControlCatchUpPolicy(), settings.getMinLaserWriteIntervalMs(),
+                executor);
+        this.control_worker.scheduleExecution(control_delay_ms, controller_tick_rate_ms);
         
         if (!headless) {
             // initialize the GUI
             gui = new MonitorGUI(this, 
                     analyzer.getName(), 
                     controller.getName(), 
-                    laser.getDeviceName()+"-"+laser.getPropertyName(),
+                    laser.getDeviceName()+"-"+laser.getPropertyName()
+                            + ((channels.size() > 1) ? " (+" + (channels.size() - 1) + ")" : ""),
                     analyzer.getShortReturnDescription(),
                     controller.getSetpoint());
             gui.setLaserPowerDisplayMax(laser.getMaxPower());
 
             // this updates the GUI with info from the workers
             this.monitor_worker = new MonitorWorker(gui, analysis_worker, control_worker);
-            this.monitor_worker.scheduleExecution(500, 100);
+            this.monitor_worker.scheduleExecution(500, MonitorWorker.PERIOD_MS);
 
             // display the GUI
             javax.swing.SwingUtilities.invokeLater(new Runnable() {
@@ -126,6 +316,8 @@ public class Coordinator {
             gui = null;
             this.monitor_worker = null;
         }
+        this.mbeans = new PipelineMBeans(this, analysis_worker, control_worker);
+        this.mbeans.register();
         this.analysis_worker.start();
     }
     
@@ -142,31 +334,37 @@ public class Coordinator {
         if (monitor_worker != null) {
             monitor_worker.cancel();
         }
-        control_worker.cancel();
+        // turn off lasers when we are turning off ALICA, after the writes
+        // of the control worker
+        control_worker.cancelAndTurnOffLasers();
+        String prefix = (name == null) ? "" : "Pipeline " + name + ": ";
+        AlicaLogger.getInstance().logDebugMessage(prefix + control_worker.getScheduler().toString());
+        AlicaLogger.getInstance().logMessage(prefix + analysis_worker.getPipelineLatency().toString());
+        AlicaLogger.getInstance().logMessage(prefix + "Frame sequence: " + analysis_worker.getFrameSequence().toString());
+        if (!analysis_worker.getPreprocessing().isEmpty()) {
+            AlicaLogger.getInstance().logMessage(prefix + analysis_worker.getPreprocessing().toString());
+        }
+        mbeans.unregister();
        
         try {
             analysis_worker.join(1000);
         } catch (InterruptedException ex) {
             // exit ungracefully
-            studio.logs().logError(ex, "Analysis worker shutdown was interrupted.");
+            AlicaLogger.getInstance().logError(ex, "Analysis worker shutdown was interrupted.");
             throw new RuntimeException("Analysis worker shutdown was interrupted.");
         }
         // if after 3 seconds the thread hasn't died, interrupt it
         if (analysis_worker.isAlive()) {
-            studio.logs().logError("Analysis worker is still alive after 3 seconds, interrupting.");
+            AlicaLogger.getInstance().logError(null, "Analysis worker is still alive after 3 seconds, interrupting.");
             try {
                 analysis_worker.interrupt();
             } catch (RuntimeException ex) {
-                studio.logs().logError(ex);
+                AlicaLogger.getInstance().logError(ex, "Analysis worker could not be interrupted.");
             }
         }
         
-        // turn off laser when we are turning off ALICA
-        try {
-            laser.setLaserPower(0.0);
-        } catch (Exception ex) {
-            Logger.getLogger(Coordinator.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        // the session log can still be read and saved
+        log.closeSession();
         
         if (gui!=null) {
             javax.swing.SwingUtilities.invokeLater(new Runnable() {
@@ -183,6 +381,30 @@ public class Coordinator {
         
     }
     
+    /**
+     * 
+     * @return name of the pipeline, or null for the default pipeline
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * 
+     * @return log of the pipeline, the default log if it has no name
+     */
+    public AlicaLogger getLog() {
+        return log;
+    }
+    
+    /**
+     * 
+     * @return shared threads, or null if the workers have their own
+     */
+    public PipelineExecutor getExecutor() {
+        return executor;
+    }
+    
     /**
      * True if still running, false if stopped
      * @return boolean
@@ -217,12 +439,28 @@ public class Coordinator {
     }
     
     /**
-     * Set the controller setpoint to value
+     * Set the setpoint of every laser channel with its own controller to
+     * value. Derived channels follow the first one.
      * @param value new value of controller setpoint
      */
     public void setSetpoint(double value) {
-        controller.setSetpoint(value);
-        AlicaLogger.getInstance().addSetpoint(analysis_worker.getCurrentImageCount(), value);
+        for (int i = 0; i < channels.size(); i++) {
+            if (!channels.get(i).isDerived())
+                setSetpoint(i, value);
+        }
+    }
+    
+    /**
+     * Set the controller setpoint of a single laser channel to value
+     * @param channel index of the laser channel
+     * @param value new value of controller setpoint
+     */
+    public void setSetpoint(int channel, double value) {
+        LaserChannel laser_channel = channels.get(channel);
+        if (laser_channel.isDerived())
+            throw new IllegalArgumentException("Laser channel " + channel + " has no controller!");
+        laser_channel.getController().setSetpoint(value);
+        log.addSetpoint(analysis_worker.getCurrentImageCount(), channel, value);
     }
     
     /**
@@ -230,6 +468,9 @@ public class Coordinator {
      * @return true if ROI has been set, false if no ROI is set
      */
     public boolean setCurrentROI() {
+        if (studio == null) {
+            return false;
+        }
         Roi roi = studio.displays().getCurrentWindow().getImagePlus().getRoi();
         analysis_worker.setROI(roi);
         if (roi != null) {
@@ -240,11 +481,20 @@ public class Coordinator {
     }
     
     /**
-     * Returns time in milliseconds since the worker was initialized
+     * Returns time in milliseconds since the worker was initialized, on
+     * the monotonic clock of the pipeline
      * @return elapsed time in milliseconds
      */
     public final long getTimeMillis() {
-        return System.currentTimeMillis() - thread_start_time_ms;
+        return clock.elapsedMillis();
+    }
+    
+    /**
+     * 
+     * @return monotonic clock started with the coordinator
+     */
+    public PipelineClock getClock() {
+        return clock;
     }
 }
 
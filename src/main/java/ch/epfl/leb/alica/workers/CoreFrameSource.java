@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.AlicaLogger;
+import java.lang.reflect.Array;
+import java.util.concurrent.locks.LockSupport;
+import mmcorej.CMMCore;
+import mmcorej.TaggedImage;
+import org.json.JSONException;
+import org.micromanager.Studio;
+
+/**
+ * Takes images from the MMCore circular buffer without popping them, so
+ * the live mode and the acquisition engine are not disturbed.
+ *
+ * Pulling an image copies the whole pixel array across JNI and builds its
+ * JSON tags, so the source first checks cheaply whether a new image can be
+ * expected. A pull is done only if the number of images in the circular
+ * buffer changed, or if the estimated frame interval has elapsed since the
+ * last new image (the count can stay constant if another consumer pops
+ * images as fast as they arrive). The ImageNumber tag is used to return
+ * every image at most once, and the frames are timestamped with the
+ * hardware or ElapsedTime-ms tags. The image size is read from a
+ * CoreMetadataCache, which is refreshed if the length of the pixel array
+ * changes.
+ */
+class CoreFrameSource implements FrameSource {
+    // period of the cheap checks of the circular buffer
+    private static final long CHECK_PERIOD_NS = 500000L;
+    // period of the checks while no sequence acquisition is running
+    private static final long IDLE_CHECK_PERIOD_NS = 20000000L;
+    // bounds of the estimated frame interval
+    private static final long MIN_FRAME_INTERVAL_NS = 1000000L;
+    private static final long MAX_FRAME_INTERVAL_NS = 1000000000L;
+
+    private final Studio studio;
+    private final CMMCore core;
+    private final CameraClock camera_clock = new CameraClock();
+    private final CoreMetadataCache metadata;
+
+    private long last_remaining_count = -1;
+    private long next_forced_pull_ns = 0;
+    private long last_new_frame_ns = 0;
+    private long frame_interval_ns = 10000000L;
+    private boolean has_last_image_number = false;
+    private int last_image_number = 0;
+
+    // statistics
+    private volatile long pull_count = 0;
+    private volatile long redundant_pull_count = 0;
+    private volatile long skipped_count = 0;
+
+    /**
+     * Initialize the source.
+     * @param studio MM studio whose core is queried
+     */
+    public CoreFrameSource(Studio studio) {
+        this(studio, new CoreMetadataCache(studio.core()));
+    }
+
+    /**
+     * Initialize the source with a shared cache of the image size.
+     * @param studio MM studio whose core is queried
+     * @param metadata cached image size of the core
+     */
+    CoreFrameSource(Studio studio, CoreMetadataCache metadata) {
+        this.studio = studio;
+        this.core = studio.core();
+        this.metadata = metadata;
+    }
+
+    @Override
+    public Frame nextFrame(long timeout_ms) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeout_ms*1000000L;
+        while (true) {
+            long now = System.nanoTime();
+            boolean sequence_running = core.isSequenceRunning();
+            long remaining_count = core.getRemainingImageCount();
+            boolean count_changed = (remaining_count != last_remaining_count);
+            last_remaining_count = remaining_count;
+
+            if (count_changed || now >= next_forced_pull_ns) {
+                Frame frame = pullFrame(now);
+                if (frame != null)
+                    return frame;
+                // nothing new, do not force another pull for a while
+                next_forced_pull_ns = now + Math.max(CHECK_PERIOD_NS, frame_interval_ns / 4);
+            }
+
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            long remaining_time = deadline - System.nanoTime();
+            if (remaining_time <= 0)
+                return null;
+            long check_period = sequence_running ? CHECK_PERIOD_NS : IDLE_CHECK_PERIOD_NS;
+            LockSupport.parkNanos(this, Math.min(check_period, remaining_time));
+        }
+    }
+
+    /**
+     * Pull the last image from the circular buffer.
+     * @param now current System.nanoTime()
+     * @return new frame, or null if there is no image or it was already returned
+     */
+    private Frame pullFrame(long now) {
+        TaggedImage tagged_image;
+        try {
+            tagged_image = core.getLastTaggedImage();
+        } catch (Exception ex) {
+            AlicaLogger.getInstance().logDebugMessage("Failure by AnalysisWorker to recieve image from MMCore.");
+            return null;
+        }
+        if (tagged_image == null || tagged_image.pix == null)
+            return null;
+        pull_count++;
+
+        int image_number;
+        try {
+            image_number = tagged_image.tags.getInt("ImageNumber");
+        } catch (JSONException | NullPointerException ex) {
+            // without the tag, images can't be told apart, so each is new
+            AlicaLogger.getInstance().logDebugMessage("Failed image from core comparison:\n" + ex.getMessage());
+            return createFrame(tagged_image, Frame.UNKNOWN_INDEX, now);
+        }
+
+        if (has_last_image_number && image_number == last_image_number) {
+            redundant_pull_count++;
+            return null;
+        }
+        if (has_last_image_number && image_number > last_image_number + 1) {
+            skipped_count += image_number - last_image_number - 1;
+        }
+        updateFrameInterval(now, has_last_image_number ? image_number - last_image_number : 1);
+        has_last_image_number = true;
+        last_image_number = image_number;
+
+        return createFrame(tagged_image, image_number, now);
+    }
+
+    private Frame createFrame(TaggedImage tagged_image, int image_number, long received_ns) {
+        double camera_time_ms = CameraClock.fromTags(tagged_image.tags);
+        metadata.checkPixelCount(Array.getLength(tagged_image.pix));
+        return new Frame(tagged_image.pix, metadata.getImageWidth(),
+                metadata.getImageHeight(), image_number, received_ns, camera_time_ms,
+                camera_clock.timestampNs(camera_time_ms, received_ns));
+    }
+
+    /**
+     * Update the running estimate of the camera frame interval, and schedule
+     * the next forced pull shortly before the next frame is expected.
+     * @param now current System.nanoTime()
+     * @param frames_elapsed number of camera frames since the last new image
+     */
+    private void updateFrameInterval(long now, int frames_elapsed) {
+        if (last_new_frame_ns != 0 && frames_elapsed > 0) {
+            long observed = (now - last_new_frame_ns) / frames_elapsed;
+            // exponentially weighted moving average
+            frame_interval_ns = (3*frame_interval_ns + observed) / 4;
+            if (frame_interval_ns < MIN_FRAME_INTERVAL_NS)
+                frame_interval_ns = MIN_FRAME_INTERVAL_NS;
+            if (frame_interval_ns > MAX_FRAME_INTERVAL_NS)
+                frame_interval_ns = MAX_FRAME_INTERVAL_NS;
+        }
+        last_new_frame_ns = now;
+        next_forced_pull_ns = now + (3*frame_interval_ns) / 4;
+    }
+
+    @Override
+    public long getSkippedFrameCount() {
+        return skipped_count;
+    }
+
+    /**
+     *
+     * @return number of pixel pulls from the core since last counter reset
+     */
+    public long getPullCount() {
+        return pull_count;
+    }
+
+    /**
+     *
+     * @return number of pulls which returned an already analyzed image
+     */
+    public long getRedundantPullCount() {
+        return redundant_pull_count;
+    }
+
+    @Override
+    public void resetCounters() {
+        camera_clock.reset();
+        pull_count = 0;
+        redundant_pull_count = 0;
+        skipped_count = 0;
+    }
+
+    @Override
+    public void dispose() {
+        studio.logs().logDebugMessage(String.format(
+                "Core frame source made %d pulls, %d of them redundant.",
+                pull_count, redundant_pull_count));
+    }
+}
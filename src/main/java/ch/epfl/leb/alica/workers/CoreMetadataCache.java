@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import mmcorej.CMMCore;
+
+/**
+ * Pixel size and image size of the MMCore, queried once and then read from
+ * fields. Each query of the core is a JNI call, the pixel size also a
+ * lookup of the pixel size configuration, so they are not repeated for
+ * every frame.
+ *
+ * The cache is refreshed at the start of a live mode or acquisition, and
+ * invalidated by the events which can change the values: a new pixel
+ * size, a changed camera property (binning, ROI) or a new system
+ * configuration. The next read after an invalidation queries the core
+ * again. Reads are lock-free and may come from any thread.
+ */
+class CoreMetadataCache {
+
+    /**
+     * Queries of the core whose results are cached.
+     */
+    interface CoreQueries {
+        /**
+         *
+         * @return pixel size of the current configuration in micrometers
+         */
+        double getPixelSizeUm();
+
+        /**
+         *
+         * @return width of the camera images in pixels
+         */
+        int getImageWidth();
+
+        /**
+         *
+         * @return height of the camera images in pixels
+         */
+        int getImageHeight();
+
+        /**
+         *
+         * @return label of the current camera
+         */
+        String getCameraDevice();
+    }
+
+    /**
+     * Values of one query of the core.
+     */
+    private static class Snapshot {
+        private final int generation;
+        private final double pixel_size_um;
+        private final int image_width;
+        private final int image_height;
+
+        private Snapshot(int generation, double pixel_size_um, int image_width, int image_height) {
+            this.generation = generation;
+            this.pixel_size_um = pixel_size_um;
+            this.image_width = image_width;
+            this.image_height = image_height;
+        }
+    }
+
+    private final CoreQueries core;
+    // incremented by every invalidation, a snapshot of an older one is stale
+    private volatile int generation = 0;
+    private volatile Snapshot snapshot = null;
+    private volatile long refresh_count = 0;
+    // length of the pixel array of the last frame, only used by the frame source
+    private int last_pixel_count = -1;
+
+    /**
+     * Initialize the cache, the core is queried on the first read.
+     * @param core MMCore whose values are cached
+     */
+    CoreMetadataCache(final CMMCore core) {
+        this(new CoreQueries() {
+            @Override
+            public double getPixelSizeUm() {
+                return core.getPixelSizeUm();
+            }
+
+            @Override
+            public int getImageWidth() {
+                return (int) core.getImageWidth();
+            }
+
+            @Override
+            public int getImageHeight() {
+                return (int) core.getImageHeight();
+            }
+
+            @Override
+            public String getCameraDevice() {
+                return core.getCameraDevice();
+            }
+        });
+    }
+
+    /**
+     * Initialize the cache, the queries are run on the first read.
+     * @param core queries whose results are cached
+     */
+    CoreMetadataCache(CoreQueries core) {
+        if (core == null)
+            throw new NullPointerException("You need to set a core!");
+        this.core = core;
+    }
+
+    /**
+     * Query the core now.
+     */
+    synchronized void refresh() {
+        // taken before the queries, so an invalidation during them is not lost
+        int current_generation = generation;
+        snapshot = new Snapshot(current_generation, core.getPixelSizeUm(),
+                core.getImageWidth(), core.getImageHeight());
+        refresh_count++;
+    }
+
+    /**
+     * Mark the values as outdated, the next read queries the core.
+     */
+    synchronized void invalidate() {
+        generation++;
+    }
+
+    /**
+     *
+     * @return current values, queried only if the cache was invalidated
+     */
+    private Snapshot get() {
+        Snapshot current = snapshot;
+        if (current == null || current.generation != generation) {
+            refresh();
+            current = snapshot;
+        }
+        return current;
+    }
+
+    /**
+     * Query the core again if the length of the pixel array of a frame
+     * changed, which means a new ROI or binning even if no event was seen.
+     * Called by the frame source for every frame.
+     * @param pixel_count length of the pixel array of the frame
+     */
+    void checkPixelCount(int pixel_count) {
+        if (pixel_count != last_pixel_count) {
+            if (last_pixel_count >= 0)
+                refresh();
+            last_pixel_count = pixel_count;
+        }
+    }
+
+    /**
+     *
+     * @param device_label device whose property changed
+     * @return true if the device is the current camera
+     */
+    boolean isCamera(String device_label) {
+        return device_label != null && device_label.equals(core.getCameraDevice());
+    }
+
+    /**
+     *
+     * @return pixel size of the current configuration in micrometers
+     */
+    double getPixelSizeUm() {
+        return get().pixel_size_um;
+    }
+
+    /**
+     *
+     * @return width of the camera images in pixels
+     */
+    int getImageWidth() {
+        return get().image_width;
+    }
+
+    /**
+     *
+     * @return height of the camera images in pixels
+     */
+    int getImageHeight() {
+        return get().image_height;
+    }
+
+    /**
+     *
+     * @return number of queries of the core so far
+     */
+    long getRefreshCount() {
+        return refresh_count;
+    }
+}
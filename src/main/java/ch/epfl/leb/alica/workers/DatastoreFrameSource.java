@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.AlicaLogger;
+import com.google.common.eventbus.Subscribe;
+import java.util.concurrent.TimeUnit;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataProviderHasNewImageEvent;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+
+/**
+ * Takes images from a Datastore (of the live mode or of an acquisition).
+ * New images are signalled by the NewImageWatcher. In latest-wins mode only
+ * the newest one is retrieved from the Datastore, otherwise every image is
+ * put into a bounded FrameQueue and returned in order. Frames are stamped
+ * with the time at which their image was signalled, and with the elapsed
+ * time of their metadata mapped onto the same clock.
+ *
+ * The frame index is the time coordinate of the image, except for the live
+ * mode Datastore, which keeps replacing the image at the same coordinates.
+ * There the ImageNumber of the image metadata is used.
+ */
+class DatastoreFrameSource implements FrameSource {
+    // used if only the latest image is analyzed
+    private final FrameMailbox<Arrival> mailbox;
+    // used if every image is analyzed
+    private final FrameQueue<Frame> queue;
+    private final NewImageWatcher new_image_watcher;
+    // index frames by the ImageNumber instead of the time coordinate
+    private final boolean image_number_index;
+    private final CameraClock camera_clock = new CameraClock();
+
+    /**
+     * Initialize a latest-wins source indexed by the time coordinate, it
+     * has no Datastore until setDatastore() is called.
+     */
+    public DatastoreFrameSource() {
+        this(false);
+    }
+
+    /**
+     * Initialize a latest-wins source, it has no Datastore until
+     * setDatastore() is called.
+     * @param image_number_index if true, frames are indexed by the
+     *  ImageNumber of their metadata instead of their time coordinate
+     */
+    public DatastoreFrameSource(boolean image_number_index) {
+        this.mailbox = new FrameMailbox<>();
+        this.queue = null;
+        this.new_image_watcher = new NewImageWatcher(this);
+        this.image_number_index = image_number_index;
+    }
+
+    /**
+     * Initialize a source which returns every image in order, it has no
+     * Datastore until setDatastore() is called.
+     * @param queue queue of frames waiting for analysis
+     */
+    public DatastoreFrameSource(FrameQueue<Frame> queue) {
+        this.mailbox = null;
+        this.queue = queue;
+        this.new_image_watcher = new NewImageWatcher(this);
+        this.image_number_index = false;
+    }
+
+    /**
+     * Start watching a new Datastore.
+     * @param store Datastore to be watched, or null to stop watching
+     */
+    public void setDatastore(Datastore store) {
+        new_image_watcher.setLatestDatastore(store);
+        camera_clock.reset();
+        // coords from the previous datastore are meaningless now, but
+        // queued images can still be analyzed after the datastore is detached
+        if (mailbox != null) {
+            mailbox.clear();
+        } else if (store != null) {
+            queue.clear();
+        }
+    }
+
+    /**
+     * Called by the NewImageWatcher on the thread which posts the event.
+     * @param evt new image event
+     */
+    void imageArrived(DataProviderHasNewImageEvent evt) {
+        long received_ns = System.nanoTime();
+        if (mailbox != null) {
+            mailbox.offer(new Arrival(evt.getCoords(), received_ns));
+        } else {
+            Image img = evt.getImage();
+            queue.offer(createFrame(img, img.getCoords().getTime(), received_ns));
+        }
+    }
+
+    @Override
+    public Frame nextFrame(long timeout_ms) throws InterruptedException {
+        if (queue != null) {
+            return queue.poll(timeout_ms, TimeUnit.MILLISECONDS);
+        }
+        // wait for image acquisition by NewImageWatcher, without holding any
+        // lock that the event thread or the other workers would need
+        Arrival arrival = mailbox.poll(timeout_ms, TimeUnit.MILLISECONDS);
+        if (arrival == null)
+            return null;
+        try {
+            Image img = new_image_watcher.getLatestDatastore().getImage(arrival.coords);
+            return createFrame(img, indexOf(img, arrival.coords), arrival.received_ns);
+        } catch (Exception ex) {
+            AlicaLogger.getInstance().logError(ex, "Error in image retrieval from datastore.");
+            return null;
+        }
+    }
+
+    /**
+     * Create the frame of an image, timestamped with its elapsed time.
+     */
+    private Frame createFrame(Image img, int frame_index, long received_ns) {
+        double camera_time_ms = CameraClock.fromMetadata(img.getMetadata());
+        return new Frame(img.getRawPixels(), img.getWidth(), img.getHeight(), frame_index,
+                received_ns, camera_time_ms, camera_clock.timestampNs(camera_time_ms, received_ns));
+    }
+
+    /**
+     *
+     * @param img image from the Datastore
+     * @param coords coordinates of the image
+     * @return frame index of the image
+     */
+    private int indexOf(Image img, Coords coords) {
+        if (!image_number_index)
+            return coords.getTime();
+        Long image_number = (img.getMetadata() != null) ? img.getMetadata().getImageNumber() : null;
+        return (image_number != null) ? image_number.intValue() : Frame.UNKNOWN_INDEX;
+    }
+
+    /**
+     *
+     * @return number of images waiting for analysis
+     */
+    public int getPendingFrameCount() {
+        return (queue != null) ? queue.getDepth() : 0;
+    }
+
+    /**
+     * Wait until all queued images were taken by the AnalysisWorker.
+     * @param timeout_ms maximal waiting time in milliseconds
+     * @return true if the queue is empty
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public boolean awaitDrained(long timeout_ms) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeout_ms * 1000000L;
+        while (getPendingFrameCount() > 0) {
+            if (System.nanoTime() - deadline > 0)
+                return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @return the frame queue, or null in latest-wins mode
+     */
+    public FrameQueue<Frame> getFrameQueue() {
+        return queue;
+    }
+
+    @Override
+    public long getSkippedFrameCount() {
+        if (queue != null)
+            return queue.getDroppedCount();
+        return mailbox.getSkippedCount();
+    }
+
+    @Override
+    public void resetCounters() {
+        if (queue != null) {
+            queue.resetCounters();
+        } else {
+            mailbox.resetCounters();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        new_image_watcher.setLatestDatastore(null);
+        if (queue != null) {
+            queue.close();
+            queue.clear();
+        }
+    }
+
+    /**
+     * Coordinates of a new image and the time they were signalled.
+     */
+    private static final class Arrival {
+        final Coords coords;
+        final long received_ns;
+
+        Arrival(Coords coords, long received_ns) {
+            this.coords = coords;
+            this.received_ns = received_ns;
+        }
+    }
+}
+
+/**
+ * The watcher is subscribed to a Datastore by the AnalysisWorker, and then it
+ * informs the AnalysisWorker of any new images in the Datastore.
+ * @author Marcel Stefko
+ */
+class NewImageWatcher {
+    private final DatastoreFrameSource source;
+    private volatile Datastore latest_datastore;
+
+    public NewImageWatcher(DatastoreFrameSource source) {
+        this.source = source;
+        this.latest_datastore = null;
+    }
+
+    public Datastore getLatestDatastore() {
+        Datastore store = latest_datastore;
+        if (store==null) {
+            throw new NullPointerException("No datastore associated with watcher!");
+        }
+        return store;
+    }
+
+    /**
+     * Sets the latest datastore, and registers for its events.
+     * @param store
+     */
+    public void setLatestDatastore(Datastore store) {
+        // try unregistering from previous datastore
+        if (latest_datastore != null) {
+            try {
+                latest_datastore.unregisterForEvents(this);
+            } catch (Exception ex) {
+                AlicaLogger.getInstance().logError(ex, "Failure in unsubscribing NewImageWatcher from events.");
+            }
+        }
+        if (store != null) {
+            store.registerForEvents(this);
+        }
+        this.latest_datastore = store;
+    }
+
+    /**
+     * Hand the new image over to the AnalysisWorker. This never blocks the
+     * thread which posts the event, unless every image is analyzed with the
+     * BLOCK overflow policy.
+     * @param evt event containing coords
+     */
+    @Subscribe
+    public void newImageAcquired(DataProviderHasNewImageEvent evt) {
+        source.imageArrived(evt);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+/**
+ * Keeps every factor-th pixel of every factor-th row. Cheaper than
+ * binning, but the noise is not averaged.
+ */
+public class DownsamplingStage implements PreprocessingStage {
+    private final int factor;
+
+    /**
+     * Initialize the stage.
+     * @param factor distance between the kept pixels, at least 2
+     */
+    public DownsamplingStage(int factor) {
+        if (factor < 2)
+            throw new IllegalArgumentException("Downsampling factor must be at least 2!");
+        this.factor = factor;
+    }
+
+    @Override
+    public String getName() {
+        return String.format("Downsampling %dx", factor);
+    }
+
+    @Override
+    public int getReduction() {
+        return factor;
+    }
+
+    @Override
+    public boolean needsCameraPixels() {
+        return false;
+    }
+
+    @Override
+    public Object process(Object pixels, int width, int height, int x, int y, Object buffer) {
+        int type = Pixels.typeOf(pixels);
+        int out_width = width / factor;
+        int out_height = height / factor;
+        Object out = ImageCrop.reuseOrAllocate(pixels, out_width * out_height, buffer);
+        int out_index = 0;
+        for (int out_row = 0; out_row < out_height; out_row++) {
+            int index = out_row * factor * width;
+            for (int out_column = 0; out_column < out_width; out_column++) {
+                Pixels.set(out, type, out_index++, Pixels.get(pixels, type, index));
+                index += factor;
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+/**
+ * A single image handed over by a FrameSource to the AnalysisWorker.
+ */
+public final class Frame {
+    /**
+     * Frame index of images which carry no index.
+     */
+    public static final int UNKNOWN_INDEX = -1;
+    
+    private final Object pixels;
+    private final int width;
+    private final int height;
+    private final int frame_index;
+    private final long received_ns;
+    private final double camera_time_ms;
+    private final long timestamp_ns;
+    
+    /**
+     * Initialize a frame which was received just now.
+     * @param pixels raw pixel array (byte[], short[], ...)
+     * @param width image width in pixels
+     * @param height image height in pixels
+     * @param frame_index index of the frame assigned by its source (e.g.
+     *  the ImageNumber tag, or the time coordinate in a Datastore)
+     */
+    public Frame(Object pixels, int width, int height, int frame_index) {
+        this(pixels, width, height, frame_index, System.nanoTime());
+    }
+    
+    /**
+     * Initialize the frame.
+     * @param pixels raw pixel array (byte[], short[], ...)
+     * @param width image width in pixels
+     * @param height image height in pixels
+     * @param frame_index index of the frame assigned by its source (e.g.
+     *  the ImageNumber tag, or the time coordinate in a Datastore)
+     * @param received_ns System.nanoTime() when the frame became available
+     */
+    public Frame(Object pixels, int width, int height, int frame_index, long received_ns) {
+        this(pixels, width, height, frame_index, received_ns, Double.NaN, received_ns);
+    }
+    
+    /**
+     * Initialize a frame with the timestamp of its camera.
+     * @param pixels raw pixel array (byte[], short[], ...)
+     * @param width image width in pixels
+     * @param height image height in pixels
+     * @param frame_index index of the frame assigned by its source (e.g.
+     *  the ImageNumber tag, or the time coordinate in a Datastore)
+     * @param received_ns System.nanoTime() when the frame became available
+     * @param camera_time_ms timestamp of the camera in milliseconds, or NaN
+     * @param timestamp_ns System.nanoTime() of the exposure, estimated
+     *  from the camera timestamp
+     */
+    public Frame(Object pixels, int width, int height, int frame_index, long received_ns,
+            double camera_time_ms, long timestamp_ns) {
+        if (pixels == null)
+            throw new NullPointerException("Frame pixels can't be null!");
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.frame_index = frame_index;
+        this.received_ns = received_ns;
+        this.camera_time_ms = camera_time_ms;
+        this.timestamp_ns = timestamp_ns;
+    }
+    
+    /**
+     * 
+     * @return raw pixel array
+     */
+    public Object getPixels() {
+        return pixels;
+    }
+    
+    /**
+     * 
+     * @return image width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * 
+     * @return image height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * 
+     * @return index of the frame assigned by its source, or UNKNOWN_INDEX
+     */
+    public int getFrameIndex() {
+        return frame_index;
+    }
+    
+    /**
+     * 
+     * @return System.nanoTime() when the frame became available to ALICA
+     */
+    public long getReceivedNs() {
+        return received_ns;
+    }
+    
+    /**
+     * 
+     * @return timestamp of the camera in milliseconds, or NaN if the
+     *  source has none
+     */
+    public double getCameraTimeMs() {
+        return camera_time_ms;
+    }
+    
+    /**
+     * 
+     * @return System.nanoTime() of the exposure if the frame has a camera
+     *  timestamp, otherwise of its arrival
+     */
+    public long getTimestampNs() {
+        return timestamp_ns;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-slot, latest-wins handoff between one producer (for example a
+ * Micro-Manager event thread) and one consumer thread.
+ *
+ * Offering never blocks: a newer item simply replaces an item which was not
+ * yet taken, and the replaced item is counted as skipped. The consumer
+ * parks while the slot is empty and is unparked by the producer.
+ * @param <T> type of the handed-over item
+ */
+public class FrameMailbox<T> {
+    private final AtomicReference<T> slot = new AtomicReference<>(null);
+    private final AtomicLong offered_count = new AtomicLong(0);
+    private final AtomicLong skipped_count = new AtomicLong(0);
+    private volatile Thread consumer = null;
+
+    /**
+     * Place a new item into the slot, replacing any item that was not
+     * yet taken, and wake up the consumer. Never blocks.
+     * @param item item to be handed over, must not be null
+     */
+    public void offer(T item) {
+        if (item == null)
+            throw new NullPointerException("Mailbox item can't be null!");
+        offered_count.incrementAndGet();
+        if (slot.getAndSet(item) != null)
+            skipped_count.incrementAndGet();
+        Thread waiting = consumer;
+        if (waiting != null)
+            LockSupport.unpark(waiting);
+    }
+
+    /**
+     * Take the latest item, waiting at most the given time for one to arrive.
+     * Only one thread may consume from the mailbox.
+     * @param timeout maximal waiting time
+     * @param unit unit of the timeout
+     * @return latest item, or null if none arrived in time
+     * @throws InterruptedException if the consumer was interrupted while waiting
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        T item = slot.getAndSet(null);
+        if (item != null)
+            return item;
+
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        consumer = Thread.currentThread();
+        try {
+            while (true) {
+                // re-check after publishing ourselves, the producer might have
+                // offered just before it could see us
+                item = slot.getAndSet(null);
+                if (item != null)
+                    return item;
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return null;
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            consumer = null;
+        }
+    }
+
+    /**
+     * Discard the item in the slot without counting it as skipped.
+     */
+    public void clear() {
+        slot.set(null);
+    }
+
+    /**
+     * Reset the offered and skipped counters.
+     */
+    public void resetCounters() {
+        offered_count.set(0);
+        skipped_count.set(0);
+    }
+
+    /**
+     *
+     * @return number of items offered since last counter reset
+     */
+    public long getOfferedCount() {
+        return offered_count.get();
+    }
+
+    /**
+     *
+     * @return number of items which were overwritten before being taken
+     */
+    public long getSkippedCount() {
+        return skipped_count.get();
+    }
+}
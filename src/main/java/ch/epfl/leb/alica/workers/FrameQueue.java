@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded first-in first-out handoff of frames between a producer and the
+ * AnalysisWorker. What happens when the queue is full is decided by the
+ * OverflowPolicy, and every dropped frame is counted.
+ * @param <T> type of the queued item
+ */
+public class FrameQueue<T> {
+    /**
+     * Behavior of a full queue.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The producer waits until there is space in the queue. To avoid
+         * stalling Micro-Manager indefinitely, the frame is dropped if no
+         * space appears within the block timeout.
+         */
+        BLOCK,
+
+        /**
+         * The oldest queued frame is dropped to make space.
+         */
+        DROP_OLDEST,
+
+        /**
+         * The new frame is dropped.
+         */
+        DROP_NEWEST
+    }
+
+    private final ArrayBlockingQueue<T> queue;
+    private final OverflowPolicy policy;
+    private final long block_timeout_ms;
+    private volatile boolean closed = false;
+
+    private final AtomicLong offered_count = new AtomicLong(0);
+    private final AtomicLong dropped_oldest_count = new AtomicLong(0);
+    private final AtomicLong dropped_newest_count = new AtomicLong(0);
+    private final AtomicLong blocked_count = new AtomicLong(0);
+
+    /**
+     * Initialize the queue.
+     * @param capacity maximal number of queued frames
+     * @param policy behavior of a full queue
+     * @param block_timeout_ms maximal waiting time of the producer with
+     *  the BLOCK policy
+     */
+    public FrameQueue(int capacity, OverflowPolicy policy, long block_timeout_ms) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Frame queue capacity must be positive!");
+        if (policy == null)
+            throw new NullPointerException("You need to set an overflow policy!");
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.block_timeout_ms = block_timeout_ms;
+    }
+
+    /**
+     * Add a frame to the tail of the queue, applying the overflow policy if
+     * the queue is full.
+     * @param item frame to be queued
+     * @return true if the frame was queued, false if it was dropped
+     */
+    public boolean offer(T item) {
+        offered_count.incrementAndGet();
+        if (queue.offer(item))
+            return true;
+
+        switch (policy) {
+            case BLOCK:
+                blocked_count.incrementAndGet();
+                try {
+                    if (!closed && queue.offer(item, block_timeout_ms, TimeUnit.MILLISECONDS))
+                        return true;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                dropped_newest_count.incrementAndGet();
+                return false;
+            case DROP_OLDEST:
+                // the consumer may take frames concurrently, so retry
+                while (!queue.offer(item)) {
+                    if (queue.poll() != null)
+                        dropped_oldest_count.incrementAndGet();
+                }
+                return true;
+            default:
+                dropped_newest_count.incrementAndGet();
+                return false;
+        }
+    }
+
+    /**
+     * Take the frame at the head of the queue.
+     * @param timeout maximal waiting time
+     * @param unit unit of the timeout
+     * @return the oldest queued frame, or null if none arrived in time
+     * @throws InterruptedException if the consumer was interrupted while waiting
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    /**
+     * Remove all queued frames without counting them as dropped.
+     */
+    public void clear() {
+        queue.clear();
+    }
+
+    /**
+     * Stop blocking producers, later frames which do not fit are dropped
+     * immediately.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Reset all counters.
+     */
+    public void resetCounters() {
+        offered_count.set(0);
+        dropped_oldest_count.set(0);
+        dropped_newest_count.set(0);
+        blocked_count.set(0);
+    }
+
+    /**
+     *
+     * @return number of currently queued frames
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     *
+     * @return overflow policy of this queue
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     *
+     * @return number of frames offered since last counter reset
+     */
+    public long getOfferedCount() {
+        return offered_count.get();
+    }
+
+    /**
+     *
+     * @return number of queued frames dropped to make space for newer ones
+     */
+    public long getDroppedOldestCount() {
+        return dropped_oldest_count.get();
+    }
+
+    /**
+     *
+     * @return number of new frames dropped because the queue was full
+     */
+    public long getDroppedNewestCount() {
+        return dropped_newest_count.get();
+    }
+
+    /**
+     *
+     * @return total number of dropped frames
+     */
+    public long getDroppedCount() {
+        return dropped_oldest_count.get() + dropped_newest_count.get();
+    }
+
+    /**
+     *
+     * @return number of times a producer had to wait for space
+     */
+    public long getBlockedCount() {
+        return blocked_count.get();
+    }
+}
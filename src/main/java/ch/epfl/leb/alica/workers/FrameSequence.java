@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+/**
+ * Follows the frame indices of the analyzed frames (ImageNumber tags or
+ * time coordinates), which should increase by one from frame to frame.
+ * A jump forward means frames were never analyzed, e.g. because a newer
+ * frame replaced them, and an index which does not increase means the
+ * same image was picked up again.
+ *
+ * The coverage is the fraction of the frames in the sequence which were
+ * analyzed. It is computed over all frames and over the frames since the
+ * last batch output.
+ */
+public class FrameSequence {
+    /**
+     * Returned by accept() for a frame whose index does not increase.
+     */
+    public static final int REPEAT = -1;
+
+    private boolean has_last_index = false;
+    private int last_index = 0;
+
+    private long accepted_count = 0;
+    private long repeat_count = 0;
+    private long gap_count = 0;
+    private long missing_count = 0;
+    private long untracked_count = 0;
+
+    // frames since the last batch output
+    private long batch_accepted_count = 0;
+    private long batch_missing_count = 0;
+
+    /**
+     * Account for an analyzed frame. Frames are expected in the order of
+     * their indices.
+     * @param frame_index index of the frame, or Frame.UNKNOWN_INDEX
+     * @return number of frames missing before this one, or REPEAT if the
+     *  index is not larger than the previous one
+     */
+    public synchronized int accept(int frame_index) {
+        if (frame_index == Frame.UNKNOWN_INDEX) {
+            untracked_count++;
+            return 0;
+        }
+        if (has_last_index && frame_index <= last_index) {
+            repeat_count++;
+            return REPEAT;
+        }
+        int missing = has_last_index ? frame_index - last_index - 1 : 0;
+        has_last_index = true;
+        last_index = frame_index;
+        accepted_count++;
+        batch_accepted_count++;
+        if (missing > 0) {
+            gap_count++;
+            missing_count += missing;
+            batch_missing_count += missing;
+        }
+        return missing;
+    }
+
+    /**
+     * Coverage of the frames accepted since the last call, and start a new
+     * batch.
+     * @return fraction of the frames since the last call which were
+     *  analyzed, or NaN if there were none
+     */
+    public synchronized double takeBatchCoverage() {
+        double coverage = coverage(batch_accepted_count, batch_missing_count);
+        batch_accepted_count = 0;
+        batch_missing_count = 0;
+        return coverage;
+    }
+
+    /**
+     * Forget all frames, the next frame starts a new sequence.
+     */
+    public synchronized void reset() {
+        has_last_index = false;
+        last_index = 0;
+        accepted_count = 0;
+        repeat_count = 0;
+        gap_count = 0;
+        missing_count = 0;
+        untracked_count = 0;
+        batch_accepted_count = 0;
+        batch_missing_count = 0;
+    }
+
+    /**
+     *
+     * @return fraction of all frames in the sequence which were analyzed,
+     *  or NaN if there were none
+     */
+    public synchronized double getCoverage() {
+        return coverage(accepted_count, missing_count);
+    }
+
+    /**
+     *
+     * @return number of frames with a new index
+     */
+    public synchronized long getAcceptedCount() {
+        return accepted_count;
+    }
+
+    /**
+     *
+     * @return number of frames whose index did not increase
+     */
+    public synchronized long getRepeatCount() {
+        return repeat_count;
+    }
+
+    /**
+     *
+     * @return number of jumps in the indices
+     */
+    public synchronized long getGapCount() {
+        return gap_count;
+    }
+
+    /**
+     *
+     * @return number of indices skipped over by the jumps
+     */
+    public synchronized long getMissingCount() {
+        return missing_count;
+    }
+
+    /**
+     *
+     * @return number of frames without an index
+     */
+    public synchronized long getUntrackedCount() {
+        return untracked_count;
+    }
+
+    /**
+     *
+     * @return summary of the counters
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("%d frames in sequence, %d missing in %d gaps, %d repeated, "
+                + "%d without index, coverage %.3f",
+                accepted_count, missing_count, gap_count, repeat_count, untracked_count,
+                getCoverage());
+    }
+
+    private static double coverage(long accepted, long missing) {
+        long total = accepted + missing;
+        return (total == 0) ? Double.NaN : (double) accepted / total;
+    }
+}
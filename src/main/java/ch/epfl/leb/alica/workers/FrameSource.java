@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+/**
+ * Supplies new images to the AnalysisWorker. Each frame is returned at
+ * most once. Only the AnalysisWorker thread calls nextFrame().
+ */
+public interface FrameSource {
+    
+    /**
+     * Wait for the next frame which was not yet returned.
+     * @param timeout_ms maximal waiting time in milliseconds
+     * @return the next frame, or null if none arrived in time
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public Frame nextFrame(long timeout_ms) throws InterruptedException;
+    
+    /**
+     * 
+     * @return number of frames the source knows were never returned,
+     *  because a newer frame replaced them
+     */
+    public long getSkippedFrameCount();
+    
+    /**
+     * Reset the internal counters, called when a new acquisition or live
+     * mode starts.
+     */
+    public void resetCounters();
+    
+    /**
+     * Release any resources held by the source.
+     */
+    public void dispose();
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import org.micromanager.internal.graph.GraphData;
+
+/**
+ * Wrapped around GraphData for easier processing.
+ *
+ * The recent points are kept in a circular buffer, so adding a point does
+ * not move the others. Every added point is also accumulated into coarser
+ * tiers, each of which keeps the minimum, maximum and mean of a fixed
+ * number of points of the previous tier. Each tier is a circular buffer of
+ * fixed length, so the memory does not grow with the acquisition time, and
+ * the plot of any zoom level is built from its own tier only.
+ *
+ * At the monitor period of 100 ms, the zoom levels cover 10 seconds,
+ * 10 minutes, 2 hours and 24 hours.
+ */
+class Grapher {
+    // number of points of the previous tier which make one point of a tier
+    static final int[] TIER_FACTORS = {10, 10, 6};
+    // number of points kept by each decimated tier
+    static final int[] TIER_LENGTHS = {600, 720, 1440};
+
+    private final Tier[] tiers;
+
+    /**
+     * Initialize a grapher with set length of point plotting
+     * @param n_points no. of recent points to be plotted at the finest zoom
+     */
+    public Grapher(int n_points) {
+        if (n_points < 1)
+            throw new IllegalArgumentException("At least one point must be plotted!");
+        tiers = new Tier[TIER_FACTORS.length + 1];
+        tiers[0] = new Tier(n_points, 1);
+        for (int i = 0; i < TIER_FACTORS.length; i++) {
+            tiers[i + 1] = new Tier(TIER_LENGTHS[i], TIER_FACTORS[i]);
+        }
+    }
+
+    /**
+     * Return GraphData of the recent points which can then be plotted
+     * @return GraphData
+     */
+    public GraphData getGraphData() {
+        return getGraphData(0);
+    }
+
+    /**
+     * Return GraphData of the means of a zoom level which can then be
+     * plotted. Only the points of that level are copied, and only if they
+     * changed since the last call.
+     * @param level zoom level, 0 for the recent points
+     * @return GraphData
+     */
+    public synchronized GraphData getGraphData(int level) {
+        return tiers[level].getGraphData();
+    }
+
+    /**
+     * Copy the means of a zoom level, for use outside of the thread which
+     * adds the points.
+     * @param level zoom level, 0 for the recent points
+     * @return new array of the means, oldest first
+     */
+    public synchronized double[] getPoints(int level) {
+        double[] points = new double[tiers[level].count];
+        tiers[level].copyMeans(points);
+        return points;
+    }
+
+    /**
+     *
+     * @param level zoom level, 0 for the recent points
+     * @return number of points ever stored at the zoom level, which
+     *  changes whenever the plot of the level changes
+     */
+    public synchronized long getVersion(int level) {
+        return tiers[level].total;
+    }
+
+    /**
+     *
+     * @param level zoom level, 0 for the recent points
+     * @return largest value which is represented at the zoom level, or 0.0
+     *  if there is no point yet
+     */
+    public synchronized double getMaximum(int level) {
+        return tiers[level].getMaximum();
+    }
+
+    /**
+     *
+     * @param level zoom level, 0 for the recent points
+     * @return smallest value which is represented at the zoom level, or 0.0
+     *  if there is no point yet
+     */
+    public synchronized double getMinimum(int level) {
+        return tiers[level].getMinimum();
+    }
+
+    /**
+     *
+     * @return number of zoom levels
+     */
+    static int getZoomLevelCount() {
+        return TIER_FACTORS.length + 1;
+    }
+
+    /**
+     *
+     * @param n_points no. of recent points plotted at the finest zoom
+     * @param level zoom level
+     * @return number of added points which the full zoom level spans
+     */
+    static long getSpanPoints(int n_points, int level) {
+        if (level == 0)
+            return n_points;
+        long points_per_point = 1;
+        for (int i = 0; i < level; i++) {
+            points_per_point *= TIER_FACTORS[i];
+        }
+        return points_per_point * TIER_LENGTHS[level - 1];
+    }
+
+    /**
+     * Add the next point to the grapher. Costs O(1), independently of the
+     * number of plotted points.
+     * @param value value to be added
+     */
+    public synchronized void addDataPoint(double value) {
+        tiers[0].add(value, value, value);
+        // pass the points on to the coarser tiers, as long as one completes
+        double min = value, max = value, mean = value;
+        for (int i = 1; i < tiers.length; i++) {
+            Tier tier = tiers[i];
+            if (!tier.accumulate(min, max, mean))
+                break;
+            min = tier.last_min;
+            max = tier.last_max;
+            mean = tier.last_mean;
+        }
+    }
+
+    /**
+     * Fixed-length circular buffer of min/max/mean points, with the
+     * accumulator of the point being built.
+     */
+    private static class Tier {
+        final int length;
+        final int factor;
+        final double[] mins;
+        final double[] maxs;
+        final double[] means;
+        // position of the next point to be written, and number of points
+        int head = 0;
+        int count = 0;
+        // number of points ever stored
+        long total = 0;
+
+        // point being accumulated
+        int acc_count = 0;
+        double acc_min, acc_max, acc_sum;
+        // last completed point
+        double last_min, last_max, last_mean;
+
+        final GraphData graph_data = new GraphData();
+        double[] plotted = new double[0];
+        boolean dirty = false;
+
+        Tier(int length, int factor) {
+            this.length = length;
+            this.factor = factor;
+            mins = new double[length];
+            maxs = new double[length];
+            means = new double[length];
+            graph_data.setData(plotted);
+        }
+
+        /**
+         * Store a completed point, overwriting the oldest one if full.
+         */
+        void add(double min, double max, double mean) {
+            mins[head] = min;
+            maxs[head] = max;
+            means[head] = mean;
+            head = (head + 1 == length) ? 0 : head + 1;
+            if (count < length)
+                count++;
+            total++;
+            last_min = min;
+            last_max = max;
+            last_mean = mean;
+            dirty = true;
+        }
+
+        /**
+         * Accumulate a point of the previous tier.
+         * @return true if this completed a point of this tier
+         */
+        boolean accumulate(double min, double max, double mean) {
+            if (acc_count == 0) {
+                acc_min = min;
+                acc_max = max;
+                acc_sum = mean;
+            } else {
+                acc_min = Math.min(acc_min, min);
+                acc_max = Math.max(acc_max, max);
+                acc_sum += mean;
+            }
+            acc_count++;
+            if (acc_count < factor)
+                return false;
+            add(acc_min, acc_max, acc_sum / factor);
+            acc_count = 0;
+            return true;
+        }
+
+        /**
+         * Copy the means into the array, oldest first.
+         */
+        void copyMeans(double[] destination) {
+            int oldest = (head - count + length) % length;
+            int first_part = Math.min(count, length - oldest);
+            System.arraycopy(means, oldest, destination, 0, first_part);
+            System.arraycopy(means, 0, destination, first_part, count - first_part);
+        }
+
+        GraphData getGraphData() {
+            if (dirty) {
+                // the array is only reallocated while the buffer fills up
+                if (plotted.length != count)
+                    plotted = new double[count];
+                copyMeans(plotted);
+                graph_data.setData(plotted);
+                dirty = false;
+            }
+            return graph_data;
+        }
+
+        double getMaximum() {
+            if (count == 0)
+                return 0.0;
+            double max = maxs[0];
+            for (int i = 1; i < count; i++) {
+                max = Math.max(max, maxs[i]);
+            }
+            return max;
+        }
+
+        double getMinimum() {
+            if (count == 0)
+                return 0.0;
+            double min = mins[0];
+            for (int i = 1; i < count; i++) {
+                min = Math.min(min, mins[i]);
+            }
+            return min;
+        }
+    }
+}
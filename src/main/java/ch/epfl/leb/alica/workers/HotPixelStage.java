@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Replaces known hot pixels of the camera by the mean of their four
+ * neighbours, so that they are not taken for fluorophores.
+ *
+ * The positions are pixels of the camera frame, so the stage must come
+ * before any stage which reduces the frame size.
+ */
+public class HotPixelStage implements PreprocessingStage {
+    // sorted by row, then column
+    private final int[] rows;
+    private final int[] columns;
+
+    /**
+     * Initialize the stage.
+     * @param hot_pixels positions of the hot pixels in the camera frame
+     */
+    public HotPixelStage(Collection<Point> hot_pixels) {
+        List<Point> sorted = new ArrayList<>(hot_pixels);
+        Collections.sort(sorted, new Comparator<Point>() {
+            @Override
+            public int compare(Point a, Point b) {
+                return (a.y != b.y) ? Integer.compare(a.y, b.y) : Integer.compare(a.x, b.x);
+            }
+        });
+        rows = new int[sorted.size()];
+        columns = new int[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            rows[i] = sorted.get(i).y;
+            columns[i] = sorted.get(i).x;
+        }
+    }
+
+    /**
+     * Find the hot pixels in a dark frame.
+     * @param dark byte[], short[] or float[] frame taken without light
+     * @param width width of the frame
+     * @param height height of the frame
+     * @param threshold pixels above this value are hot
+     * @return positions of the hot pixels
+     */
+    public static List<Point> findHotPixels(Object dark, int width, int height, float threshold) {
+        int type = Pixels.typeOf(dark);
+        List<Point> hot_pixels = new ArrayList<>();
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                if (Pixels.get(dark, type, row * width + column) > threshold)
+                    hot_pixels.add(new Point(column, row));
+            }
+        }
+        return hot_pixels;
+    }
+
+    /**
+     *
+     * @return number of hot pixels
+     */
+    public int getHotPixelCount() {
+        return rows.length;
+    }
+
+    @Override
+    public String getName() {
+        return String.format("Hot pixels (%d)", rows.length);
+    }
+
+    @Override
+    public int getReduction() {
+        return 1;
+    }
+
+    @Override
+    public boolean needsCameraPixels() {
+        return true;
+    }
+
+    @Override
+    public Object process(Object pixels, int width, int height, int x, int y, Object buffer) {
+        int type = Pixels.typeOf(pixels);
+        Object out = ImageCrop.reuseOrAllocate(pixels, width * height, buffer);
+        System.arraycopy(pixels, 0, out, 0, width * height);
+        for (int i = 0; i < rows.length; i++) {
+            int row = rows[i] - y;
+            int column = columns[i] - x;
+            if (row < 0 || column < 0 || column >= width)
+                continue;
+            if (row >= height)
+                break;
+            switch (type) {
+                case Pixels.BYTE:
+                    replaceByte((byte[]) pixels, (byte[]) out, width, height, row, column);
+                    break;
+                case Pixels.SHORT:
+                    replaceShort((short[]) pixels, (short[]) out, width, height, row, column);
+                    break;
+                default:
+                    replaceFloat((float[]) pixels, (float[]) out, width, height, row, column);
+            }
+        }
+        return out;
+    }
+
+    private static void replaceByte(byte[] pixels, byte[] out, int width, int height,
+            int row, int column) {
+        int index = row * width + column;
+        int sum = 0;
+        int count = 0;
+        if (column > 0) {
+            sum += pixels[index - 1] & 0xff;
+            count++;
+        }
+        if (column < width - 1) {
+            sum += pixels[index + 1] & 0xff;
+            count++;
+        }
+        if (row > 0) {
+            sum += pixels[index - width] & 0xff;
+            count++;
+        }
+        if (row < height - 1) {
+            sum += pixels[index + width] & 0xff;
+            count++;
+        }
+        if (count > 0)
+            out[index] = (byte) ((sum + count / 2) / count);
+    }
+
+    private static void replaceShort(short[] pixels, short[] out, int width, int height,
+            int row, int column) {
+        int index = row * width + column;
+        int sum = 0;
+        int count = 0;
+        if (column > 0) {
+            sum += pixels[index - 1] & 0xffff;
+            count++;
+        }
+        if (column < width - 1) {
+            sum += pixels[index + 1] & 0xffff;
+            count++;
+        }
+        if (row > 0) {
+            sum += pixels[index - width] & 0xffff;
+            count++;
+        }
+        if (row < height - 1) {
+            sum += pixels[index + width] & 0xffff;
+            count++;
+        }
+        if (count > 0)
+            out[index] = (short) ((sum + count / 2) / count);
+    }
+
+    private static void replaceFloat(float[] pixels, float[] out, int width, int height,
+            int row, int column) {
+        int index = row * width + column;
+        float sum = 0.0f;
+        int count = 0;
+        if (column > 0) {
+            sum += pixels[index - 1];
+            count++;
+        }
+        if (column < width - 1) {
+            sum += pixels[index + 1];
+            count++;
+        }
+        if (row > 0) {
+            sum += pixels[index - width];
+            count++;
+        }
+        if (row < height - 1) {
+            sum += pixels[index + width];
+            count++;
+        }
+        if (count > 0)
+            out[index] = sum / count;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.awt.Rectangle;
+import java.lang.reflect.Array;
+
+/**
+ * Copies rectangular regions of raw pixel arrays (byte[], short[], int[],
+ * float[], ...) into reusable buffers.
+ */
+public final class ImageCrop {
+
+    private ImageCrop() {
+    }
+
+    /**
+     * Copy a region of the image into a buffer of the same element type.
+     * @param pixels raw pixel array of the whole image, row by row
+     * @param image_width width of the whole image
+     * @param region region to be copied, must lie inside the image
+     * @param buffer buffer from a previous call, or null
+     * @return the buffer if it has the right type and length, otherwise a
+     *  newly allocated array, containing region.width*region.height pixels
+     */
+    public static Object crop(Object pixels, int image_width, Rectangle region, Object buffer) {
+        int length = region.width * region.height;
+        Object dst = reuseOrAllocate(pixels, length, buffer);
+        int src_pos = region.y * image_width + region.x;
+        int dst_pos = 0;
+        for (int row = 0; row < region.height; row++) {
+            System.arraycopy(pixels, src_pos, dst, dst_pos, region.width);
+            src_pos += image_width;
+            dst_pos += region.width;
+        }
+        return dst;
+    }
+
+    /**
+     * Return the buffer if it can hold exactly length pixels of the same
+     * type as the template, otherwise allocate a new one.
+     * @param template array whose element type is used
+     * @param length required number of pixels
+     * @param buffer candidate buffer, or null
+     * @return array of the template's element type with given length
+     */
+    public static Object reuseOrAllocate(Object template, int length, Object buffer) {
+        Class<?> type = template.getClass().getComponentType();
+        if (type == null)
+            throw new IllegalArgumentException("Pixels must be an array!");
+        if (buffer != null && buffer.getClass().getComponentType() == type
+                && Array.getLength(buffer) == length)
+            return buffer;
+        return Array.newInstance(type, length);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.Laser;
+import ch.epfl.leb.alica.interfaces.Controller;
+
+/**
+ * A laser driven by the ControlWorker. Its power either comes from its own
+ * controller, which is fed with the batched output of the analyzer, or is
+ * derived from the output of the primary (first) channel's controller as
+ * scale * output + offset, e.g. to keep two activation lasers at a fixed
+ * ratio.
+ */
+public class LaserChannel {
+    private final Laser laser;
+    private final Controller controller;
+    private final double scale;
+    private final double offset;
+
+    /**
+     * Initialize a channel with its own controller.
+     * @param laser laser of the channel
+     * @param controller controller fed with the analyzer output
+     */
+    public LaserChannel(Laser laser, Controller controller) {
+        if (laser == null)
+            throw new NullPointerException("You need to set a laser!");
+        if (controller == null)
+            throw new NullPointerException("You need to set a controller!");
+        this.laser = laser;
+        this.controller = controller;
+        this.scale = 1.0;
+        this.offset = 0.0;
+    }
+
+    /**
+     * Initialize a channel which follows the primary channel.
+     * @param laser laser of the channel
+     * @param scale factor applied to the output of the primary controller
+     * @param offset added to the scaled output
+     */
+    public LaserChannel(Laser laser, double scale, double offset) {
+        if (laser == null)
+            throw new NullPointerException("You need to set a laser!");
+        this.laser = laser;
+        this.controller = null;
+        this.scale = scale;
+        this.offset = offset;
+    }
+
+    /**
+     *
+     * @return laser of the channel
+     */
+    public Laser getLaser() {
+        return laser;
+    }
+
+    /**
+     *
+     * @return controller of the channel, or null if it follows the
+     *  primary channel
+     */
+    public Controller getController() {
+        return controller;
+    }
+
+    /**
+     *
+     * @return true if the power is derived from the primary channel
+     */
+    public boolean isDerived() {
+        return controller == null;
+    }
+
+    /**
+     * Compute the power of the channel for one control tick.
+     * @param analyzer_output batched output of the analyzer
+     * @param primary_output output of the primary channel in this tick
+     * @return requested power of this channel
+     */
+    double nextValue(double analyzer_output, double primary_output) {
+        if (controller != null)
+            return controller.nextValue(analyzer_output);
+        return scale * primary_output + offset;
+    }
+}
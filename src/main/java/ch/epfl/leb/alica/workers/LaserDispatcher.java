@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.AlicaLogger;
+import ch.epfl.leb.alica.Laser;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes laser power requests on its own thread, so that the control loop
+ * never waits for the device. Only the newest request is kept: requests
+ * which arrive while a write is in progress replace each other, and the
+ * newest one is written next. Writes can be spaced by a minimum interval,
+ * for devices which don't cope with frequent commands.
+ *
+ * The time requests wait before their write starts (LASER_QUEUE) and the
+ * duration of the writes (LASER) are recorded in the PipelineLatency.
+ */
+public class LaserDispatcher {
+    /**
+     * A power requested by the controller.
+     */
+    private static final class Request {
+        final double power;
+        final long requested_ns;
+        // exposure of the newest frame the power is based on, if any
+        final boolean has_frame;
+        final long frame_timestamp_ns;
+
+        Request(double power, long requested_ns, boolean has_frame, long frame_timestamp_ns) {
+            this.power = power;
+            this.requested_ns = requested_ns;
+            this.has_frame = has_frame;
+            this.frame_timestamp_ns = frame_timestamp_ns;
+        }
+    }
+
+    private final Laser laser;
+    private final PipelineLatency latency;
+    private final long min_write_interval_ns;
+    private final AtomicReference<Request> pending = new AtomicReference<>(null);
+    private final Thread thread;
+    private volatile boolean stopped = false;
+    // written by the dispatcher thread when it was stopped, if any
+    private volatile Request final_request = null;
+
+    private final AtomicLong request_count = new AtomicLong(0);
+    private final AtomicLong superseded_count = new AtomicLong(0);
+    private volatile long write_count = 0;
+    private volatile long error_count = 0;
+    private volatile double last_written_power = Double.NaN;
+    // only touched by the dispatcher thread
+    private boolean error_displayed = false;
+
+    /**
+     * Initialize the dispatcher and start its thread.
+     * @param laser laser whose power is set
+     * @param latency receives the queueing and write latencies
+     * @param min_write_interval_ms minimal time between the starts of two
+     *  writes, 0 to write as soon as possible
+     */
+    public LaserDispatcher(Laser laser, PipelineLatency latency, long min_write_interval_ms) {
+        this(laser, latency, min_write_interval_ms, "ALICA Laser Dispatcher");
+    }
+
+    /**
+     * Initialize the dispatcher and start its thread.
+     * @param laser laser whose power is set
+     * @param latency receives the queueing and write latencies, or null
+     * @param min_write_interval_ms minimal time between the starts of two
+     *  writes, 0 to write as soon as possible
+     * @param thread_name name of the dispatcher thread
+     */
+    public LaserDispatcher(Laser laser, PipelineLatency latency, long min_write_interval_ms,
+            String thread_name) {
+        if (laser == null)
+            throw new NullPointerException("You need to set a laser!");
+        if (min_write_interval_ms < 0)
+            throw new IllegalArgumentException("Minimal write interval can't be negative!");
+        this.laser = laser;
+        this.latency = latency;
+        this.min_write_interval_ns = min_write_interval_ms * 1000000L;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, thread_name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Request a laser power without waiting for the device. A request
+     * which was not written yet is replaced.
+     * @param power requested laser power
+     */
+    public void request(double power) {
+        request(power, false, 0);
+    }
+
+    /**
+     * Request a laser power without waiting for the device. A request
+     * which was not written yet is replaced.
+     * @param power requested laser power
+     * @param has_frame true if the power is based on a newly analyzed frame
+     * @param frame_timestamp_ns Frame.getTimestampNs() of that frame, for
+     *  the END_TO_END latency
+     */
+    public void request(double power, boolean has_frame, long frame_timestamp_ns) {
+        request_count.incrementAndGet();
+        if (pending.getAndSet(new Request(power, System.nanoTime(), has_frame, frame_timestamp_ns)) != null)
+            superseded_count.incrementAndGet();
+        LockSupport.unpark(thread);
+    }
+
+    private void loop() {
+        long last_write_ns = 0;
+        boolean has_written = false;
+        while (!stopped) {
+            if (pending.get() == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            if (has_written) {
+                long wait_ns = last_write_ns + min_write_interval_ns - System.nanoTime();
+                if (wait_ns > 0) {
+                    // newer requests may arrive meanwhile and replace this one
+                    LockSupport.parkNanos(this, wait_ns);
+                    continue;
+                }
+            }
+            Request request = pending.getAndSet(null);
+            if (request == null)
+                continue;
+            long start_ns = System.nanoTime();
+            last_write_ns = start_ns;
+            has_written = true;
+            write(request, start_ns);
+        }
+        Request request = final_request;
+        if (request != null)
+            write(request, System.nanoTime());
+    }
+
+    private void write(Request request, long start_ns) {
+        if (latency != null)
+            latency.record(PipelineLatency.Stage.LASER_QUEUE, start_ns - request.requested_ns);
+        try {
+            laser.setLaserPower(request.power);
+            long end_ns = System.nanoTime();
+            write_count++;
+            last_written_power = request.power;
+            if (latency != null) {
+                latency.record(PipelineLatency.Stage.LASER, end_ns - start_ns);
+                if (request.has_frame)
+                    latency.record(PipelineLatency.Stage.END_TO_END, end_ns - request.frame_timestamp_ns);
+            }
+        } catch (Exception ex) {
+            error_count++;
+            if (!error_displayed) {
+                AlicaLogger.getInstance().showError(ex, "Error in setting laser power to " +
+                        request.power + ". Further errors will not be displayed.");
+                error_displayed = true;
+            } else {
+                AlicaLogger.getInstance().logError(ex, "Error in setting laser power to " +
+                        request.power);
+            }
+        }
+    }
+
+    /**
+     * Stop the thread. Pending requests are discarded, a write in progress
+     * is finished.
+     * @param timeout_ms maximal time to wait for the write in progress
+     * @return true if the thread ended in time
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public boolean stop(long timeout_ms) throws InterruptedException {
+        stopped = true;
+        LockSupport.unpark(thread);
+        thread.join(timeout_ms);
+        return !thread.isAlive();
+    }
+
+    /**
+     * Stop the thread, and write a last power after the write in progress.
+     * Pending requests are discarded. The last power is written by the
+     * dispatcher thread, so it is the last one the laser gets even if the
+     * write in progress takes longer than the timeout.
+     * @param final_power power written before the thread ends
+     * @param timeout_ms maximal time to wait for the writes
+     * @return true if the thread ended in time, otherwise the last power is
+     *  written when the write in progress returns
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public boolean stop(double final_power, long timeout_ms) throws InterruptedException {
+        final_request = new Request(final_power, System.nanoTime(), false, 0);
+        return stop(timeout_ms);
+    }
+
+    /**
+     *
+     * @return number of requests
+     */
+    public long getRequestCount() {
+        return request_count.get();
+    }
+
+    /**
+     *
+     * @return number of requests replaced by a newer one before their write
+     */
+    public long getSupersededCount() {
+        return superseded_count.get();
+    }
+
+    /**
+     *
+     * @return number of successful writes
+     */
+    public long getWriteCount() {
+        return write_count;
+    }
+
+    /**
+     *
+     * @return number of writes which threw an exception
+     */
+    public long getErrorCount() {
+        return error_count;
+    }
+
+    /**
+     *
+     * @return power of the last successful write, NaN before the first
+     */
+    public double getLastWrittenPower() {
+        return last_written_power;
+    }
+}
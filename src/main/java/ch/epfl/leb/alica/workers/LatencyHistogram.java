@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds, from 1 ns to several
+ * days, with a relative resolution of about 3%.
+ *
+ * Values below 32 ns have a bucket each. Above, every power of two is
+ * split into 32 buckets of equal width, so the buckets grow with the
+ * value, like in an HDR histogram. Recording is a few atomic increments
+ * and never allocates, so it can be done on the hot paths of any thread.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values up to 2^62 ns
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (62 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong total_ns = new AtomicLong(0);
+    private final AtomicLong max_ns = new AtomicLong(0);
+
+    /**
+     * Record a duration. Negative durations are recorded as 0.
+     * @param duration_ns duration in nanoseconds
+     */
+    public void record(long duration_ns) {
+        long value = Math.max(0, duration_ns);
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        total_ns.addAndGet(value);
+        long max = max_ns.get();
+        while (value > max && !max_ns.compareAndSet(max, value)) {
+            max = max_ns.get();
+        }
+    }
+
+    /**
+     *
+     * @param value non-negative value
+     * @return index of the bucket of the value
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub_bucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return Math.min(BUCKET_COUNT - 1, SUB_BUCKETS + shift * SUB_BUCKETS + sub_bucket);
+    }
+
+    /**
+     *
+     * @param bucket index of a bucket
+     * @return largest value of the bucket
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long sub_bucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub_bucket + 1) << shift) - 1;
+    }
+
+    /**
+     *
+     * @return number of recorded durations
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     *
+     * @return largest recorded duration in nanoseconds
+     */
+    public long getMaxNs() {
+        return max_ns.get();
+    }
+
+    /**
+     *
+     * @return mean of the recorded durations in nanoseconds
+     */
+    public double getMeanNs() {
+        long n = count.get();
+        return (n == 0) ? 0.0 : (double) total_ns.get() / n;
+    }
+
+    /**
+     * Nearest-rank percentile, at the resolution of the buckets. Values
+     * recorded during the call may or may not be taken into account.
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding the percentile in
+     *  nanoseconds, at most the largest recorded duration, or 0 if
+     *  nothing was recorded
+     */
+    public long getPercentileNs(double percentile) {
+        long n = 0;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= rank)
+                return Math.min(upperBoundOf(i), max_ns.get());
+        }
+        return max_ns.get();
+    }
+
+    /**
+     * Forget all recorded durations. Durations recorded concurrently may
+     * be partially kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total_ns.set(0);
+        max_ns.set(0);
+    }
+
+    /**
+     *
+     * @return count, p50, p99 and max in milliseconds
+     */
+    @Override
+    public String toString() {
+        return String.format("n=%d p50=%.3f ms p99=%.3f ms max=%.3f ms",
+                getCount(), getPercentileNs(50) / 1e6, getPercentileNs(99) / 1e6,
+                getMaxNs() / 1e6);
+    }
+}
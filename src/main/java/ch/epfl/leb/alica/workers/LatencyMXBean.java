@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+/**
+ * Summary of a LatencyHistogram, registered as
+ * "ch.epfl.leb.alica:type=Latency,name=..." in the platform MBean server.
+ */
+public interface LatencyMXBean {
+
+    /**
+     *
+     * @return number of recorded durations
+     */
+    public long getCount();
+
+    /**
+     *
+     * @return mean duration in milliseconds
+     */
+    public double getMeanMs();
+
+    /**
+     *
+     * @return median duration in milliseconds
+     */
+    public double getP50Ms();
+
+    /**
+     *
+     * @return 90th percentile in milliseconds
+     */
+    public double getP90Ms();
+
+    /**
+     *
+     * @return 99th percentile in milliseconds
+     */
+    public double getP99Ms();
+
+    /**
+     *
+     * @return largest duration in milliseconds
+     */
+    public double getMaxMs();
+}
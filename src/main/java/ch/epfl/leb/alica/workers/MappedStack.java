@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ij.io.FileInfo;
+import ij.io.TiffDecoder;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An uncompressed TIFF stack, or a raw file of consecutive images, mapped
+ * into memory. Reading a frame is a single bulk copy from the mapping into
+ * a pixel array, without decoding by ImageJ. Files larger than 2 GB are
+ * mapped in several segments, each holding whole frames.
+ */
+public final class MappedStack implements Closeable {
+    // largest segment mapped at once, well below the 2 GB limit of a mapping
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int bytes_per_pixel;
+    private final ByteOrder byte_order;
+    private final MappedByteBuffer[] segments;
+    private final int[] frame_segments;
+    private final int[] frame_positions;
+
+    private MappedStack(File file, int width, int height, int bytes_per_pixel,
+            boolean little_endian, long[] offsets) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.bytes_per_pixel = bytes_per_pixel;
+        this.byte_order = little_endian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long frame_bytes = getFrameBytes();
+            long file_size = channel.size();
+            this.frame_segments = new int[offsets.length];
+            this.frame_positions = new int[offsets.length];
+            List<MappedByteBuffer> mapped = new ArrayList<>();
+            long segment_start = 0;
+            long segment_end = -1;
+            for (int i = 0; i < offsets.length; i++) {
+                if (offsets[i] < 0 || offsets[i] + frame_bytes > file_size)
+                    throw new IOException("Image " + (i + 1) + " is outside of " + file.getName());
+                // start a new segment if the frame does not fit into the current one
+                if (offsets[i] < segment_start || offsets[i] + frame_bytes > segment_end) {
+                    segment_start = offsets[i];
+                    segment_end = Math.min(file_size, segment_start + Math.max(frame_bytes, MAX_SEGMENT_BYTES));
+                    mapped.add(channel.map(FileChannel.MapMode.READ_ONLY,
+                            segment_start, segment_end - segment_start));
+                }
+                frame_segments[i] = mapped.size() - 1;
+                frame_positions[i] = (int) (offsets[i] - segment_start);
+            }
+            this.segments = mapped.toArray(new MappedByteBuffer[mapped.size()]);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Map an uncompressed TIFF stack, as saved by ImageJ or Micro-Manager.
+     * @param file TIFF file
+     * @return mapped stack
+     * @throws IOException if the file can't be read, is compressed, or has
+     *  an unsupported pixel type
+     */
+    public static MappedStack openTiff(File file) throws IOException {
+        File absolute = file.getAbsoluteFile();
+        TiffDecoder decoder = new TiffDecoder(absolute.getParent() + File.separator, absolute.getName());
+        FileInfo[] infos = decoder.getTiffInfo();
+        if (infos == null || infos.length == 0)
+            throw new IOException(file.getName() + " is not a TIFF file.");
+        FileInfo first = infos[0];
+        int bytes_per_pixel = getBytesPerPixel(first.fileType);
+        int frame_count = 0;
+        for (FileInfo info: infos) {
+            if (info.compression > FileInfo.COMPRESSION_NONE)
+                throw new IOException("Compressed TIFF files can't be replayed.");
+            if (info.width != first.width || info.height != first.height || info.fileType != first.fileType)
+                throw new IOException("All images of a replayed TIFF file must have the same size and type.");
+            frame_count += Math.max(1, info.nImages);
+        }
+        long frame_bytes = (long) first.width * first.height * bytes_per_pixel;
+        long[] offsets = new long[frame_count];
+        int i = 0;
+        for (FileInfo info: infos) {
+            // ImageJ describes its own stacks with one entry and a gap between images
+            for (int j = 0; j < Math.max(1, info.nImages); j++) {
+                offsets[i++] = info.getOffset() + j * (frame_bytes + info.gapBetweenImages);
+            }
+        }
+        return new MappedStack(file, first.width, first.height, bytes_per_pixel,
+                first.intelByteOrder, offsets);
+    }
+
+    /**
+     * Map a raw file of consecutive images without header.
+     * @param file raw file
+     * @param width image width in pixels
+     * @param height image height in pixels
+     * @param bits bits per pixel, 8, 16 (unsigned) or 32 (float)
+     * @param little_endian byte order of the pixels
+     * @return mapped stack
+     * @throws IOException if the file can't be read or is smaller than one image
+     */
+    public static MappedStack openRaw(File file, int width, int height, int bits,
+            boolean little_endian) throws IOException {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Image size must be positive!");
+        if (bits != 8 && bits != 16 && bits != 32)
+            throw new IllegalArgumentException("Raw pixels must have 8, 16 or 32 bits!");
+        long frame_bytes = (long) width * height * (bits / 8);
+        long frame_count = file.length() / frame_bytes;
+        if (frame_count < 1)
+            throw new IOException(file.getName() + " is smaller than one image.");
+        if (frame_count > Integer.MAX_VALUE)
+            throw new IOException(file.getName() + " has too many images.");
+        long[] offsets = new long[(int) frame_count];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = i * frame_bytes;
+        }
+        return new MappedStack(file, width, height, bits / 8, little_endian, offsets);
+    }
+
+    private static int getBytesPerPixel(int file_type) throws IOException {
+        switch (file_type) {
+            case FileInfo.GRAY8:
+                return 1;
+            case FileInfo.GRAY16_UNSIGNED:
+            case FileInfo.GRAY16_SIGNED:
+                return 2;
+            case FileInfo.GRAY32_FLOAT:
+                return 4;
+            default:
+                throw new IOException("Only 8 bit, 16 bit and 32 bit float images can be replayed.");
+        }
+    }
+
+    private long getFrameBytes() {
+        return (long) width * height * bytes_per_pixel;
+    }
+
+    /**
+     * Copy a frame into a pixel array.
+     * @param index index of the frame, from 0
+     * @param buffer pixel array which is reused if it has the right type
+     *  and length, may be null
+     * @return byte[] for 8 bit, short[] for 16 bit and float[] for 32 bit
+     *  images
+     */
+    public Object copyFrame(int index, Object buffer) {
+        int length = width * height;
+        ByteBuffer view = segments[frame_segments[index]].duplicate();
+        view.order(byte_order);
+        view.position(frame_positions[index]);
+        switch (bytes_per_pixel) {
+            case 1:
+                byte[] bytes = (buffer instanceof byte[] && ((byte[]) buffer).length == length) ?
+                        (byte[]) buffer : new byte[length];
+                view.get(bytes);
+                return bytes;
+            case 2:
+                short[] shorts = (buffer instanceof short[] && ((short[]) buffer).length == length) ?
+                        (short[]) buffer : new short[length];
+                view.asShortBuffer().get(shorts);
+                return shorts;
+            default:
+                float[] floats = (buffer instanceof float[] && ((float[]) buffer).length == length) ?
+                        (float[]) buffer : new float[length];
+                view.asFloatBuffer().get(floats);
+                return floats;
+        }
+    }
+
+    /**
+     *
+     * @return number of frames in the file
+     */
+    public int getFrameCount() {
+        return frame_segments.length;
+    }
+
+    /**
+     *
+     * @return image width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     *
+     * @return image height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Close the file. The mappings are released when they are collected.
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import java.awt.Rectangle;
+
+/**
+ * ROI of arbitrary shape whose pixels are computed once and stored as a
+ * packed bit mask, one bit per pixel of the bounding rectangle.
+ *
+ * Polygon and composite ROIs of ImageJ evaluate their shape for every
+ * contains() call and rebuild their mask on request. A MaskRoi answers
+ * contains() with a bit lookup, and getMask() returns the same mask
+ * every time, so analyzers which test pixels or call
+ * ImageProcessor.setRoi() for every frame don't pay for the shape. The
+ * mask must not be modified.
+ *
+ * The type stays the one of a plain Roi, since ImageJ expects the
+ * polygon types to be PolygonRoi instances. Code which needs to tell
+ * a MaskRoi from a rectangle checks its class.
+ */
+public class MaskRoi extends Roi {
+    private final int words_per_row;
+    private final long[] bits;
+    private final int pixel_count;
+    // built on the first request
+    private volatile ImageProcessor mask = null;
+
+    private MaskRoi(Rectangle bounds, long[] bits, int words_per_row, int pixel_count) {
+        super(bounds);
+        this.bits = bits;
+        this.words_per_row = words_per_row;
+        this.pixel_count = pixel_count;
+    }
+
+    /**
+     * Rasterize a region of an ROI.
+     * @param roi ROI in image coordinates
+     * @param region part of the image which is rasterized
+     * @param x location of the new ROI
+     * @param y location of the new ROI
+     * @return the pixels of the ROI within the region, as an ROI of the
+     *  size of the region located at (x, y)
+     */
+    public static MaskRoi fromRoi(Roi roi, Rectangle region, int x, int y) {
+        return fromRoi(roi, region, x, y, 1);
+    }
+
+    /**
+     * Rasterize a region of an ROI onto a coarser grid, e.g. for binned
+     * frames. Each pixel of the new ROI belongs to it if the center of its
+     * block belongs to the ROI.
+     * @param roi ROI in image coordinates
+     * @param region part of the image which is rasterized
+     * @param x location of the new ROI
+     * @param y location of the new ROI
+     * @param factor size of the blocks of image pixels
+     * @return the pixels of the ROI within the region, as an ROI of the
+     *  size of the region divided by the factor, located at (x, y)
+     */
+    public static MaskRoi fromRoi(Roi roi, Rectangle region, int x, int y, int factor) {
+        int width = region.width / factor;
+        int height = region.height / factor;
+        int words_per_row = (width + 63) >>> 6;
+        long[] bits = new long[words_per_row * height];
+        int count = 0;
+        for (int row = 0; row < height; row++) {
+            int offset = row * words_per_row;
+            int image_y = region.y + row * factor + factor / 2;
+            for (int column = 0; column < width; column++) {
+                if (roi.contains(region.x + column * factor + factor / 2, image_y)) {
+                    bits[offset + (column >>> 6)] |= 1L << (column & 63);
+                    count++;
+                }
+            }
+        }
+        return new MaskRoi(new Rectangle(x, y, width, height),
+                bits, words_per_row, count);
+    }
+
+    /**
+     *
+     * @param x image coordinate
+     * @param y image coordinate
+     * @return true if the pixel belongs to the ROI
+     */
+    @Override
+    public boolean contains(int x, int y) {
+        int column = x - this.x;
+        int row = y - this.y;
+        if (column < 0 || row < 0 || column >= width || row >= height)
+            return false;
+        return (bits[row * words_per_row + (column >>> 6)] & (1L << (column & 63))) != 0;
+    }
+
+    /**
+     *
+     * @return mask of the bounding rectangle, 255 inside the ROI
+     */
+    @Override
+    public ImageProcessor getMask() {
+        ImageProcessor current = mask;
+        if (current == null) {
+            ByteProcessor new_mask = new ByteProcessor(width, height);
+            byte[] pixels = (byte[]) new_mask.getPixels();
+            for (int row = 0; row < height; row++) {
+                for (int column = 0; column < width; column++) {
+                    if ((bits[row * words_per_row + (column >>> 6)] & (1L << (column & 63))) != 0)
+                        pixels[row * width + column] = (byte) 255;
+                }
+            }
+            mask = new_mask;
+            current = new_mask;
+        }
+        return current;
+    }
+
+    /**
+     *
+     * @return number of pixels which belong to the ROI
+     */
+    public int getPixelCount() {
+        return pixel_count;
+    }
+
+    /**
+     * Part of this ROI, e.g. for one tile of the image.
+     * @param region part of the image, in image coordinates
+     * @param x location of the new ROI
+     * @param y location of the new ROI
+     * @return the pixels of this ROI within the region, as an ROI of the
+     *  size of the region located at (x, y)
+     */
+    public MaskRoi region(Rectangle region, int x, int y) {
+        return fromRoi(this, region, x, y);
+    }
+}
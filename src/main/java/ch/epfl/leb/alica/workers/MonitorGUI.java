@@ -40,6 +40,10 @@ public class MonitorGUI extends javax.swing.JFrame {
     private double plot_max = 0.0;
     private final Coordinator coordinator;
     private final GraphPanel realtime_graph;
+    private final GraphData plot_data = new GraphData();
+    private volatile int plot_zoom_level = 0;
+    // last snapshot shown, only touched by the EDT
+    private MonitorSnapshot shown_snapshot = null;
     private final AnalyzerStatusPanel analyzer_status;
     private final ControllerStatusPanel controller_status;
     
@@ -89,6 +93,14 @@ public class MonitorGUI extends javax.swing.JFrame {
         p_realtime_plot.add(realtime_graph);
         l_realtime_plot.setText(analyzer_description);
         
+        // offer the time spans of the plot zoom levels
+        cb_plot_zoom.removeAllItems();
+        for (int level = 0; level < Grapher.getZoomLevelCount(); level++) {
+            cb_plot_zoom.addItem(formatSpan(MonitorWorker.PERIOD_MS *
+                    Grapher.getSpanPoints(MonitorWorker.PLOT_POINTS, level)));
+        }
+        cb_plot_zoom.setSelectedIndex(0);
+        
         // place analyzer and controller status panels
         analyzer_status = coordinator.getAnalyzerStatusPanel();
         if (analyzer_status != null) {
@@ -178,6 +190,17 @@ public class MonitorGUI extends javax.swing.JFrame {
         l_last_analysis_duration.setText(String.format("%d", duration_ms));
     }
     
+    /**
+     * Update the displayed latency from frame exposure to laser write.
+     * @param p50_ns median in nanoseconds
+     * @param p99_ns 99th percentile in nanoseconds
+     * @param max_ns maximum in nanoseconds
+     */
+    public void updateLatency(long p50_ns, long p99_ns, long max_ns) {
+        l_latency.setText(String.format("%.1f / %.1f / %.1f ms",
+                p50_ns / 1e6, p99_ns / 1e6, max_ns / 1e6));
+    }
+    
     /**
      * Update the GUI display of ROI status
      * @param is_set true if ROI is set
@@ -189,17 +212,71 @@ public class MonitorGUI extends javax.swing.JFrame {
             l_roi_isset.setText("ROI: Not set");
     }
     
+    /**
+     * Format a time span for the zoom selector.
+     * @param span_ms time span in milliseconds
+     * @return e.g. "10 s", "2 h"
+     */
+    private static String formatSpan(long span_ms) {
+        long span_s = span_ms / 1000;
+        if (span_s < 60)
+            return String.format("%d s", span_s);
+        else if (span_s < 3600)
+            return String.format("%d min", span_s / 60);
+        else
+            return String.format("%d h", span_s / 3600);
+    }
+    
+    /**
+     * Can be called from any thread.
+     * @return selected zoom level of the plot, 0 for the recent points
+     */
+    public int getPlotZoomLevel() {
+        return plot_zoom_level;
+    }
+    
+    /**
+     * Show a snapshot taken by the MonitorTask. Only the parts which
+     * differ from the previously shown snapshot are updated.
+     * @param snapshot snapshot to be shown
+     */
+    void showSnapshot(MonitorSnapshot snapshot) {
+        MonitorSnapshot shown = shown_snapshot;
+        if (shown == null || shown.laser_power != snapshot.laser_power)
+            updateLaserPowerDisplay(snapshot.laser_power);
+        if (shown == null || shown.fps != snapshot.fps)
+            updateFPS(snapshot.fps);
+        if (shown == null || shown.last_analysis_time_ms != snapshot.last_analysis_time_ms)
+            updateLastAnalysisDuration(snapshot.last_analysis_time_ms);
+        if (snapshot.analyzer_description != null && (shown == null ||
+                !snapshot.analyzer_description.equals(shown.analyzer_description)))
+            updateAnalyzerDescription(snapshot.analyzer_description);
+        if (snapshot.latency_count > 0 && (shown == null ||
+                shown.latency_count != snapshot.latency_count))
+            updateLatency(snapshot.latency_p50_ns, snapshot.latency_p99_ns, snapshot.latency_max_ns);
+        if (snapshot.isPlotChanged(shown)) {
+            plot_data.setData(snapshot.plot_points);
+            updatePlot(plot_data, snapshot.plot_max);
+        }
+        shown_snapshot = snapshot;
+    }
+    
     /**
      * Update the plow with new data
      * @param data data to be plotted
+     * @param y_max largest value represented by the data, which can be
+     *  above the plotted means
      */
-    public void updatePlot(GraphData data) {
+    public void updatePlot(GraphData data, double y_max) {
+        if (data.getSize() == 0)
+            return;
         // set data to the graph
         realtime_graph.setData(data);
         
         // rescale y-bounds from 0 to 10% above historical max value
         GraphData.Bounds bounds = data.getBounds();
-        plot_max = (1.1*bounds.yMax > plot_max) ? 1.1*bounds.yMax : plot_max;
+        double data_max = Math.max(bounds.yMax, y_max);
+        plot_max = (1.1*data_max > plot_max) ? 1.1*data_max : plot_max;
         realtime_graph.setBounds(bounds.xMin, bounds.xMax, 0.0, plot_max);
         
         realtime_graph.repaint();
@@ -240,11 +317,14 @@ public class MonitorGUI extends javax.swing.JFrame {
         l_fps = new javax.swing.JLabel();
         l_last_analysis_duration = new javax.swing.JLabel();
         jLabel12 = new javax.swing.JLabel();
+        jLabel10 = new javax.swing.JLabel();
+        l_latency = new javax.swing.JLabel();
         l_running = new javax.swing.JLabel();
         b_stop = new javax.swing.JButton();
         p_realtime_plot_parent = new javax.swing.JPanel();
         l_realtime_plot = new javax.swing.JLabel();
         p_realtime_plot = new javax.swing.JPanel();
+        cb_plot_zoom = new javax.swing.JComboBox();
         jPanel5 = new javax.swing.JPanel();
         p_analyzer_status = new javax.swing.JPanel();
         p_controller_status = new javax.swing.JPanel();
@@ -444,6 +524,12 @@ public class MonitorGUI extends javax.swing.JFrame {
 
         jLabel12.setText("ms");
 
+        jLabel10.setText("Frame to laser:");
+
+        l_latency.setHorizontalAlignment(javax.swing.SwingConstants.TRAILING);
+        l_latency.setText("-");
+        l_latency.setToolTipText("Time from the exposure of a frame until the laser write based on it returned: p50 / p99 / max");
+
         l_running.setFont(new java.awt.Font("Tahoma", 0, 24)); // NOI18N
         l_running.setForeground(new java.awt.Color(0, 120, 0));
         l_running.setText("Running...");
@@ -472,6 +558,10 @@ public class MonitorGUI extends javax.swing.JFrame {
                             .addComponent(l_last_analysis_duration, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                         .addComponent(jLabel12))
+                    .addGroup(jPanel4Layout.createSequentialGroup()
+                        .addComponent(jLabel10)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(l_latency, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
                     .addGroup(jPanel4Layout.createSequentialGroup()
                         .addGap(30, 30, 30)
                         .addComponent(l_running)
@@ -495,6 +585,10 @@ public class MonitorGUI extends javax.swing.JFrame {
                     .addComponent(l_last_analysis_duration)
                     .addComponent(jLabel12))
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanel4Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabel10)
+                    .addComponent(l_latency))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(l_running)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(b_stop)
@@ -506,6 +600,13 @@ public class MonitorGUI extends javax.swing.JFrame {
 
         l_realtime_plot.setHorizontalAlignment(javax.swing.SwingConstants.CENTER);
 
+        cb_plot_zoom.setToolTipText("Time span of the plot");
+        cb_plot_zoom.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                cb_plot_zoomActionPerformed(evt);
+            }
+        });
+
         javax.swing.GroupLayout p_realtime_plotLayout = new javax.swing.GroupLayout(p_realtime_plot);
         p_realtime_plot.setLayout(p_realtime_plotLayout);
         p_realtime_plotLayout.setHorizontalGroup(
@@ -525,7 +626,10 @@ public class MonitorGUI extends javax.swing.JFrame {
                 .addContainerGap()
                 .addGroup(p_realtime_plot_parentLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.TRAILING)
                     .addComponent(p_realtime_plot, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
-                    .addComponent(l_realtime_plot, javax.swing.GroupLayout.DEFAULT_SIZE, 396, Short.MAX_VALUE))
+                    .addGroup(p_realtime_plot_parentLayout.createSequentialGroup()
+                        .addComponent(l_realtime_plot, javax.swing.GroupLayout.DEFAULT_SIZE, 310, Short.MAX_VALUE)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(cb_plot_zoom, javax.swing.GroupLayout.PREFERRED_SIZE, 80, javax.swing.GroupLayout.PREFERRED_SIZE)))
                 .addContainerGap())
         );
         p_realtime_plot_parentLayout.setVerticalGroup(
@@ -534,7 +638,9 @@ public class MonitorGUI extends javax.swing.JFrame {
                 .addContainerGap()
                 .addComponent(p_realtime_plot, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-                .addComponent(l_realtime_plot, javax.swing.GroupLayout.PREFERRED_SIZE, 23, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addGroup(p_realtime_plot_parentLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(l_realtime_plot, javax.swing.GroupLayout.PREFERRED_SIZE, 23, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(cb_plot_zoom, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
                 .addContainerGap())
         );
 
@@ -664,13 +770,19 @@ public class MonitorGUI extends javax.swing.JFrame {
         coordinator.requestStop();
     }//GEN-LAST:event_b_stopActionPerformed
 
+    private void cb_plot_zoomActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_cb_plot_zoomActionPerformed
+        plot_zoom_level = Math.max(0, cb_plot_zoom.getSelectedIndex());
+    }//GEN-LAST:event_cb_plot_zoomActionPerformed
+
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JButton b_set_ROI;
     private javax.swing.JButton b_set_setpoint;
     private javax.swing.JButton b_stop;
+    private javax.swing.JComboBox cb_plot_zoom;
     private javax.swing.JTextField e_new_setpoint;
     private javax.swing.JLabel jLabel1;
+    private javax.swing.JLabel jLabel10;
     private javax.swing.JLabel jLabel12;
     private javax.swing.JLabel jLabel2;
     private javax.swing.JLabel jLabel3;
@@ -689,6 +801,7 @@ public class MonitorGUI extends javax.swing.JFrame {
     private javax.swing.JLabel l_current_laser_power;
     public javax.swing.JLabel l_fps;
     private javax.swing.JLabel l_laser;
+    private javax.swing.JLabel l_latency;
     public javax.swing.JLabel l_laser_power_max;
     public javax.swing.JLabel l_last_analysis_duration;
     private javax.swing.JLabel l_realtime_plot;
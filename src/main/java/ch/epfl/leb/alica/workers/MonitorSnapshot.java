@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+/**
+ * Everything the MonitorGUI displays, gathered at once by the MonitorTask.
+ * Snapshots are immutable, so they can be handed to the event dispatch
+ * thread without copying. The plotted points are shared between
+ * consecutive snapshots as long as the plot does not change, and must not
+ * be modified.
+ */
+final class MonitorSnapshot {
+    final double laser_power;
+    final int fps;
+    final int last_analysis_time_ms;
+    final String analyzer_description;
+    final int plot_zoom_level;
+    final long plot_version;
+    final double[] plot_points;
+    final double plot_max;
+    // frame-to-laser latency
+    final long latency_count;
+    final long latency_p50_ns;
+    final long latency_p99_ns;
+    final long latency_max_ns;
+    // System.nanoTime() when the snapshot was taken
+    final long created_ns;
+
+    MonitorSnapshot(double laser_power, int fps, int last_analysis_time_ms,
+            String analyzer_description, int plot_zoom_level, long plot_version,
+            double[] plot_points, double plot_max, LatencyHistogram latency,
+            long created_ns) {
+        this.laser_power = laser_power;
+        this.fps = fps;
+        this.last_analysis_time_ms = last_analysis_time_ms;
+        this.analyzer_description = analyzer_description;
+        this.plot_zoom_level = plot_zoom_level;
+        this.plot_version = plot_version;
+        this.plot_points = plot_points;
+        this.plot_max = plot_max;
+        if (latency != null) {
+            this.latency_count = latency.getCount();
+            this.latency_p50_ns = latency.getPercentileNs(50);
+            this.latency_p99_ns = latency.getPercentileNs(99);
+            this.latency_max_ns = latency.getMaxNs();
+        } else {
+            this.latency_count = 0;
+            this.latency_p50_ns = 0;
+            this.latency_p99_ns = 0;
+            this.latency_max_ns = 0;
+        }
+        this.created_ns = created_ns;
+    }
+
+    /**
+     *
+     * @param other previous snapshot, or null
+     * @return true if the plot differs from the one of the other snapshot
+     */
+    boolean isPlotChanged(MonitorSnapshot other) {
+        return other == null || other.plot_zoom_level != plot_zoom_level
+                || other.plot_version != plot_version;
+    }
+}
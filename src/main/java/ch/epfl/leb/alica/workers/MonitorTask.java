@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This TimerTask updates GUI with recent information from other workers.
+ * 
+ * The analyzer output is added to the plot on every tick, but the GUI is
+ * only refreshed every few ticks, depending on how long the event dispatch
+ * thread took to start the previous refresh. Each refresh publishes one
+ * immutable snapshot. If the previous snapshot has not been shown yet, it
+ * is replaced by the new one instead of queueing another refresh.
+ * @author Marcel Stefko
+ */
+class MonitorTask extends TimerTask {
+    // the refresh slows down to every MAX_STRIDE-th tick at most
+    static final int MAX_STRIDE = 10;
+    // EDT latencies above which the refresh slows down, and below which
+    // it speeds up again
+    static final long SLOW_LATENCY_NS = 50000000L;
+    static final long FAST_LATENCY_NS = 10000000L;
+    
+    private final AnalysisWorker analysis_worker;
+    private final ControlWorker control_worker;
+    private final MonitorGUI gui;
+    
+    private final Grapher grapher;
+    
+    // snapshot waiting for the EDT, null if none is pending
+    private final AtomicReference<MonitorSnapshot> pending = new AtomicReference<>();
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            MonitorSnapshot snapshot = pending.getAndSet(null);
+            if (snapshot == null)
+                return;
+            edt_latency_ns = System.nanoTime() - snapshot.created_ns;
+            gui.showSnapshot(snapshot);
+        }
+    };
+    private volatile long edt_latency_ns = 0;
+    
+    // only touched by the timer thread
+    private MonitorSnapshot last_published = null;
+    private int ticks_to_refresh = 1;
+    private volatile int stride = 1;
+    private volatile long dropped_count = 0;
+    
+    /**
+     * Initialize new task with relevant members
+     * @param gui MonitorGUI to be updated
+     * @param analysis_worker
+     * @param control_worker
+     */
+    public MonitorTask(MonitorGUI gui, AnalysisWorker analysis_worker, ControlWorker control_worker) {
+        super();
+        this.gui = gui;
+        this.analysis_worker = analysis_worker;
+        this.control_worker = control_worker;
+        this.grapher = new Grapher(MonitorWorker.PLOT_POINTS);
+    }
+    
+    @Override
+    public void run() {
+        // the plot is sampled on every tick to keep its time scale
+        grapher.addDataPoint(analysis_worker.queryAnalyzerForIntermittentOutput());
+        
+        if (--ticks_to_refresh > 0)
+            return;
+        
+        MonitorSnapshot snapshot = takeSnapshot();
+        last_published = snapshot;
+        boolean dropped = pending.getAndSet(snapshot) != null;
+        if (dropped) {
+            // the queued refresh will show this snapshot instead
+            dropped_count++;
+        } else {
+            javax.swing.SwingUtilities.invokeLater(refresh);
+        }
+        stride = adaptStride(stride, edt_latency_ns, dropped);
+        ticks_to_refresh = stride;
+    }
+    
+    /**
+     * Gather the displayed data from workers. This includes the analyzer
+     * description, so that the analyzer is never called on the EDT.
+     */
+    private MonitorSnapshot takeSnapshot() {
+        int level = gui.getPlotZoomLevel();
+        long version = grapher.getVersion(level);
+        double[] points;
+        double max;
+        if (last_published != null && last_published.plot_zoom_level == level
+                && last_published.plot_version == version) {
+            points = last_published.plot_points;
+            max = last_published.plot_max;
+        } else {
+            points = grapher.getPoints(level);
+            max = grapher.getMaximum(level);
+        }
+        return new MonitorSnapshot(
+                control_worker.getLastControllerOutput(),
+                analysis_worker.getCurrentFPS(),
+                (int) analysis_worker.getLastAnalysisTime(),
+                analysis_worker.getAnalyzerShortDescription(),
+                level, version, points, max,
+                analysis_worker.getPipelineLatency().getHistogram(PipelineLatency.Stage.END_TO_END),
+                System.nanoTime());
+    }
+    
+    /**
+     * Choose after how many ticks the GUI is refreshed next. The refresh
+     * backs off quickly when the EDT is busy, and recovers slowly.
+     * @param stride current number of ticks between refreshes
+     * @param edt_latency_ns time the last refresh waited for the EDT
+     * @param dropped true if the last snapshot replaced one which was not
+     *  shown yet
+     * @return new number of ticks between refreshes
+     */
+    static int adaptStride(int stride, long edt_latency_ns, boolean dropped) {
+        if (dropped || edt_latency_ns > SLOW_LATENCY_NS)
+            return Math.min(MAX_STRIDE, 2 * stride);
+        if (edt_latency_ns < FAST_LATENCY_NS && stride > 1)
+            return stride - 1;
+        return stride;
+    }
+    
+    /**
+     * 
+     * @return current number of ticks between GUI refreshes
+     */
+    int getStride() {
+        return stride;
+    }
+    
+    /**
+     * 
+     * @return number of snapshots replaced before they were shown
+     */
+    long getDroppedCount() {
+        return dropped_count;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+/**
+ * Subtracts the camera offset, and optionally a background image, from
+ * every pixel. Integer pixels are clamped at 0.
+ *
+ * The background image covers the camera frame, so the stage must come
+ * before any stage which reduces the frame size.
+ */
+public class OffsetSubtractionStage implements PreprocessingStage {
+    private final float offset;
+    private final float[] background;
+    private final int background_width;
+    private final int background_height;
+
+    /**
+     * Subtract a constant offset.
+     * @param offset value subtracted from every pixel
+     */
+    public OffsetSubtractionStage(float offset) {
+        this.offset = offset;
+        this.background = null;
+        this.background_width = 0;
+        this.background_height = 0;
+    }
+
+    /**
+     * Subtract a background image, e.g. the mean of dark frames, and a
+     * constant offset.
+     * @param offset value subtracted from every pixel
+     * @param background byte[], short[] or float[] background of the camera frame
+     * @param width width of the background
+     * @param height height of the background
+     */
+    public OffsetSubtractionStage(float offset, Object background, int width, int height) {
+        if (background == null)
+            throw new NullPointerException("You need to set a background image!");
+        this.background = Pixels.toFloat(background);
+        if (this.background.length != width * height)
+            throw new IllegalArgumentException("Background image does not have the given size!");
+        this.offset = offset;
+        this.background_width = width;
+        this.background_height = height;
+    }
+
+    @Override
+    public String getName() {
+        return (background == null) ? "Offset subtraction" : "Background subtraction";
+    }
+
+    @Override
+    public int getReduction() {
+        return 1;
+    }
+
+    @Override
+    public boolean needsCameraPixels() {
+        return true;
+    }
+
+    @Override
+    public Object process(Object pixels, int width, int height, int x, int y, Object buffer) {
+        int type = Pixels.typeOf(pixels);
+        Object out = ImageCrop.reuseOrAllocate(pixels, width * height, buffer);
+        // the rows are split into columns outside of the background, which
+        // only lose the offset, and columns inside, which lose the background too
+        int inside_start = (background == null) ? width : Math.min(width, Math.max(0, -x));
+        int inside_end = (background == null) ? width
+                : Math.max(inside_start, Math.min(width, background_width - x));
+        for (int row = 0; row < height; row++) {
+            int background_row = y + row;
+            int start = row * width;
+            if (background == null || background_row < 0 || background_row >= background_height) {
+                subtractRow(pixels, out, type, start, start + width, false, 0);
+                continue;
+            }
+            int background_start = background_row * background_width + x;
+            subtractRow(pixels, out, type, start, start + inside_start, false, 0);
+            subtractRow(pixels, out, type, start + inside_start, start + inside_end,
+                    true, background_start - start);
+            subtractRow(pixels, out, type, start + inside_end, start + width, false, 0);
+        }
+        return out;
+    }
+
+    /**
+     * Subtract the offset, and the background if given, from a range of
+     * pixels.
+     * @param from index of the first pixel
+     * @param to index after the last pixel
+     * @param with_background false to subtract the offset only
+     * @param background_shift index of the background value minus the
+     *  index of the pixel
+     */
+    private void subtractRow(Object pixels, Object out, int type, int from, int to,
+            boolean with_background, int background_shift) {
+        switch (type) {
+            case Pixels.BYTE: {
+                byte[] in_bytes = (byte[]) pixels;
+                byte[] out_bytes = (byte[]) out;
+                for (int i = from; i < to; i++) {
+                    float value = (in_bytes[i] & 0xff) - offset;
+                    if (with_background)
+                        value -= background[i + background_shift];
+                    out_bytes[i] = (byte) Pixels.clamp(value, 0xff);
+                }
+                break;
+            }
+            case Pixels.SHORT: {
+                short[] in_shorts = (short[]) pixels;
+                short[] out_shorts = (short[]) out;
+                for (int i = from; i < to; i++) {
+                    float value = (in_shorts[i] & 0xffff) - offset;
+                    if (with_background)
+                        value -= background[i + background_shift];
+                    out_shorts[i] = (short) Pixels.clamp(value, 0xffff);
+                }
+                break;
+            }
+            default: {
+                float[] in_floats = (float[]) pixels;
+                float[] out_floats = (float[]) out;
+                for (int i = from; i < to; i++) {
+                    float value = in_floats[i] - offset;
+                    if (with_background)
+                        value -= background[i + background_shift];
+                    out_floats[i] = value;
+                }
+            }
+        }
+    }
+}
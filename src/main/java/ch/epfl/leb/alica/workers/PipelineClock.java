@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+/**
+ * Time since the start of a pipeline, based on System.nanoTime(). Unlike
+ * the wall clock it has sub-microsecond resolution on common platforms
+ * and never jumps, e.g. when the system time is adjusted over NTP.
+ */
+public class PipelineClock {
+    private final long start_ns;
+
+    /**
+     * Start the clock now.
+     */
+    public PipelineClock() {
+        this(System.nanoTime());
+    }
+
+    /**
+     * Start the clock at the given time.
+     * @param start_ns System.nanoTime() at the start
+     */
+    public PipelineClock(long start_ns) {
+        this.start_ns = start_ns;
+    }
+
+    /**
+     *
+     * @return System.nanoTime() at the start
+     */
+    public long getStartNs() {
+        return start_ns;
+    }
+
+    /**
+     *
+     * @return nanoseconds since the start
+     */
+    public long elapsedNs() {
+        return System.nanoTime() - start_ns;
+    }
+
+    /**
+     *
+     * @param nano_time a System.nanoTime() value
+     * @return nanoseconds from the start to the given time
+     */
+    public long elapsedNs(long nano_time) {
+        return nano_time - start_ns;
+    }
+
+    /**
+     *
+     * @return whole milliseconds since the start
+     */
+    public long elapsedMillis() {
+        return elapsedNs() / 1000000L;
+    }
+
+    /**
+     *
+     * @param nano_time a System.nanoTime() value
+     * @return milliseconds from the start to the given time, with the
+     *  fraction
+     */
+    public double elapsedMs(long nano_time) {
+        return elapsedNs(nano_time) / 1e6;
+    }
+}
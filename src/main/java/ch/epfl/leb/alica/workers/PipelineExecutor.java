@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads shared by several Coordinators, so that the number of threads
+ * doesn't multiply with the number of pipelines:
+ * <ul>
+ * <li>one clock thread which runs the control ticks of all pipelines,</li>
+ * <li>a fixed pool on which the analyzer instances of all pipelines run
+ *  when a pipeline has more than one instance,</li>
+ * <li>a fork-join pool for the tiles of TiledAnalyzers.</li>
+ * </ul>
+ * Each pipeline still has its own analysis thread, which waits for the
+ * frames of its source, and one dispatcher thread per laser. Pool threads
+ * are only created when they are needed.
+ */
+public class PipelineExecutor {
+    private final int thread_count;
+    private final ControlClock control_clock;
+    private final ThreadPoolExecutor analysis_executor;
+    private final ForkJoinPool tile_pool;
+
+    /**
+     * Initialize the executor with one pool thread per processor.
+     */
+    public PipelineExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Initialize the executor.
+     * @param thread_count number of threads of the analysis pool and of
+     *  the tile pool
+     */
+    public PipelineExecutor(int thread_count) {
+        if (thread_count < 1)
+            throw new IllegalArgumentException("At least one pool thread is required!");
+        this.thread_count = thread_count;
+        this.control_clock = new ControlClock("ALICA Control Clock");
+        this.analysis_executor = new ThreadPoolExecutor(thread_count, thread_count,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private int count = 0;
+                    @Override
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Shared Analysis Worker " + (count++));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        this.tile_pool = new ForkJoinPool(thread_count);
+    }
+
+    /**
+     *
+     * @return clock which runs the control ticks
+     */
+    ControlClock getControlClock() {
+        return control_clock;
+    }
+
+    /**
+     *
+     * @return pool for the analyzer instances, shared by all pipelines
+     */
+    ExecutorService getAnalysisExecutor() {
+        return analysis_executor;
+    }
+
+    /**
+     *
+     * @return pool to be passed to TiledAnalyzers of the pipelines
+     */
+    public ForkJoinPool getTilePool() {
+        return tile_pool;
+    }
+
+    /**
+     *
+     * @return number of threads of each pool
+     */
+    public int getThreadCount() {
+        return thread_count;
+    }
+
+    /**
+     *
+     * @return number of control loops currently run by the clock
+     */
+    public int getControlLoopCount() {
+        return control_clock.getSchedulerCount();
+    }
+
+    /**
+     * Stop all threads. The Coordinators using the executor must be
+     * stopped first.
+     */
+    public void shutdown() {
+        control_clock.shutdown();
+        analysis_executor.shutdown();
+        tile_pool.shutdown();
+    }
+}
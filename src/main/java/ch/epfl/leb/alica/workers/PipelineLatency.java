@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.EnumMap;
+
+/**
+ * Latency histograms of the stages between the arrival of a frame and the
+ * moment the laser power derived from it is set, and of the whole path from
+ * its exposure.
+ */
+public class PipelineLatency {
+    /**
+     * Stages of the pipeline.
+     */
+    public enum Stage {
+        /**
+         * From the arrival of a frame until its analysis starts.
+         */
+        QUEUE,
+
+        /**
+         * Duration of the analysis of a frame.
+         */
+        ANALYSIS,
+
+        /**
+         * From the end of the analysis of the newest frame until the
+         * controller takes the batch output which includes it.
+         */
+        BATCH,
+
+        /**
+         * From the laser power request of the controller until its write
+         * starts.
+         */
+        LASER_QUEUE,
+
+        /**
+         * Duration of a laser power write.
+         */
+        LASER,
+
+        /**
+         * From the exposure of the newest frame of a batch until the laser
+         * write based on that batch returned. Frames without a camera
+         * timestamp count from their arrival.
+         */
+        END_TO_END
+    }
+
+    private final EnumMap<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+
+    /**
+     * Initialize empty histograms.
+     */
+    public PipelineLatency() {
+        for (Stage stage: Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Record the latency of a stage.
+     * @param stage pipeline stage
+     * @param duration_ns latency in nanoseconds
+     */
+    public void record(Stage stage, long duration_ns) {
+        histograms.get(stage).record(duration_ns);
+    }
+
+    /**
+     *
+     * @param stage pipeline stage
+     * @return histogram of the stage
+     */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * Reset all histograms.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram: histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     *
+     * @return one line per stage with its count, p50, p99 and max
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Pipeline latency:");
+        for (Stage stage: Stage.values()) {
+            sb.append("\n  ").append(stage).append(": ").append(histograms.get(stage));
+        }
+        return sb.toString();
+    }
+}
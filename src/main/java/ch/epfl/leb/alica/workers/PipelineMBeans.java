@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.AlicaLogger;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Registers the MXBeans of a Coordinator in the platform MBean server, so
+ * that a running pipeline can be watched with JConsole or any other JMX
+ * client, also in headless mode. The beans only read counters which the
+ * workers keep anyway, so they cost nothing while nobody is looking.
+ * The beans of a named pipeline carry its name as "pipeline" key.
+ */
+class PipelineMBeans {
+    /**
+     * Domain of the object names.
+     */
+    static final String DOMAIN = "ch.epfl.leb.alica";
+
+    private final MBeanServer server;
+    private final Map<String, Object> beans = new LinkedHashMap<>();
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    /**
+     * Create the beans of the pipeline.
+     * @param coordinator running Coordinator
+     * @param analysis_worker its AnalysisWorker
+     * @param control_worker its ControlWorker
+     */
+    PipelineMBeans(Coordinator coordinator, AnalysisWorker analysis_worker,
+            ControlWorker control_worker) {
+        this.server = ManagementFactory.getPlatformMBeanServer();
+        String pipeline = (coordinator.getName() == null) ? ""
+                : ",pipeline=" + ObjectName.quote(coordinator.getName());
+        beans.put(DOMAIN + ":type=Pipeline" + pipeline,
+                new Pipeline(coordinator, analysis_worker, control_worker));
+        PipelineLatency latency = analysis_worker.getPipelineLatency();
+        for (PipelineLatency.Stage stage: PipelineLatency.Stage.values()) {
+            beans.put(DOMAIN + ":type=Latency" + pipeline + ",name=" + stage,
+                    new Latency(latency.getHistogram(stage)));
+        }
+        ControlScheduler scheduler = control_worker.getScheduler();
+        beans.put(DOMAIN + ":type=Latency" + pipeline + ",name=CONTROL_TICK_LATENESS",
+                new Latency(scheduler.getLatenessHistogram()));
+        beans.put(DOMAIN + ":type=Latency" + pipeline + ",name=CONTROL_TICK_EXECUTION",
+                new Latency(scheduler.getExecutionHistogram()));
+    }
+
+    /**
+     * Register all beans. A bean whose name is taken, e.g. by a Coordinator
+     * which was not stopped, is skipped and the error is logged.
+     */
+    synchronized void register() {
+        for (Map.Entry<String, Object> entry: beans.entrySet()) {
+            try {
+                ObjectName name = new ObjectName(entry.getKey());
+                Object bean = entry.getValue();
+                StandardMBean mbean = (bean instanceof Pipeline)
+                        ? new StandardMBean((Pipeline) bean, PipelineMXBean.class, true)
+                        : new StandardMBean((Latency) bean, LatencyMXBean.class, true);
+                server.registerMBean(mbean, name);
+                registered.add(name);
+            } catch (JMException ex) {
+                AlicaLogger.getInstance().logError(ex, "Could not register MBean " + entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Unregister the beans registered by register().
+     */
+    synchronized void unregister() {
+        for (ObjectName name: registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException ex) {
+                AlicaLogger.getInstance().logError(ex, "Could not unregister MBean " + name);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * Counters of the workers.
+     */
+    private static class Pipeline implements PipelineMXBean {
+        private final Coordinator coordinator;
+        private final AnalysisWorker analysis_worker;
+        private final ControlWorker control_worker;
+
+        Pipeline(Coordinator coordinator, AnalysisWorker analysis_worker,
+                ControlWorker control_worker) {
+            this.coordinator = coordinator;
+            this.analysis_worker = analysis_worker;
+            this.control_worker = control_worker;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return coordinator.isRunning();
+        }
+
+        @Override
+        public long getFramesReceived() {
+            return analysis_worker.getReceivedFrameCount();
+        }
+
+        @Override
+        public long getFramesAnalyzed() {
+            return analysis_worker.getCurrentImageCount();
+        }
+
+        @Override
+        public long getFramesSkipped() {
+            return analysis_worker.getSkippedFrameCount() - analysis_worker.getDroppedFrameCount();
+        }
+
+        @Override
+        public long getFramesDropped() {
+            return analysis_worker.getDroppedFrameCount();
+        }
+
+        @Override
+        public long getFramesMissing() {
+            return analysis_worker.getFrameSequence().getMissingCount();
+        }
+
+        @Override
+        public long getFramesRepeated() {
+            return analysis_worker.getFrameSequence().getRepeatCount();
+        }
+
+        @Override
+        public double getCoverage() {
+            return analysis_worker.getFrameSequence().getCoverage();
+        }
+
+        @Override
+        public double getBatchCoverage() {
+            return analysis_worker.getBatchCoverage();
+        }
+
+        @Override
+        public int getFrameQueueDepth() {
+            return analysis_worker.getFrameQueueDepth();
+        }
+
+        @Override
+        public int getFramesPerSecond() {
+            return analysis_worker.getCurrentFPS();
+        }
+
+        @Override
+        public long getLastAnalysisTimeMs() {
+            return analysis_worker.getLastAnalysisTime();
+        }
+
+        @Override
+        public int getAnalyzerCount() {
+            return analysis_worker.getAnalyzerCount();
+        }
+
+        @Override
+        public long getControlTickCount() {
+            return control_worker.getScheduler().getTickCount();
+        }
+
+        @Override
+        public long getMissedControlTickCount() {
+            return control_worker.getScheduler().getMissedTickCount();
+        }
+
+        @Override
+        public double getLastControllerOutput() {
+            return control_worker.getLastControllerOutput();
+        }
+
+        @Override
+        public long getLaserRequestCount() {
+            return control_worker.getLaserRequestCount();
+        }
+
+        @Override
+        public long getLaserSupersededCount() {
+            return control_worker.getLaserSupersededCount();
+        }
+
+        @Override
+        public long getLaserWriteCount() {
+            return control_worker.getLaserWriteCount();
+        }
+
+        @Override
+        public long getLaserErrorCount() {
+            return control_worker.getLaserErrorCount();
+        }
+
+        @Override
+        public long getLogMemoryBytes() {
+            return coordinator.getLog().getMemoryBytes();
+        }
+
+        @Override
+        public int getLogQueuedValueCount() {
+            return coordinator.getLog().getQueuedValueCount();
+        }
+
+        @Override
+        public boolean isLogStreaming() {
+            return coordinator.getLog().isStreaming();
+        }
+    }
+
+    /**
+     * Percentiles of a histogram.
+     */
+    private static class Latency implements LatencyMXBean {
+        private final LatencyHistogram histogram;
+
+        Latency(LatencyHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        @Override
+        public double getMeanMs() {
+            return histogram.getMeanNs() / 1e6;
+        }
+
+        @Override
+        public double getP50Ms() {
+            return histogram.getPercentileNs(50) / 1e6;
+        }
+
+        @Override
+        public double getP90Ms() {
+            return histogram.getPercentileNs(90) / 1e6;
+        }
+
+        @Override
+        public double getP99Ms() {
+            return histogram.getPercentileNs(99) / 1e6;
+        }
+
+        @Override
+        public double getMaxMs() {
+            return histogram.getMaxNs() / 1e6;
+        }
+    }
+}
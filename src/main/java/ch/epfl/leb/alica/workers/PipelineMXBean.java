@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+/**
+ * Counters of a running Coordinator, registered as
+ * "ch.epfl.leb.alica:type=Pipeline" in the platform MBean server. Frame
+ * counters are reset when live mode or an acquisition starts.
+ */
+public interface PipelineMXBean {
+
+    /**
+     *
+     * @return true until the Coordinator was asked to stop
+     */
+    public boolean isRunning();
+
+    /**
+     *
+     * @return number of frames delivered by the camera or file
+     */
+    public long getFramesReceived();
+
+    /**
+     *
+     * @return number of frames analyzed
+     */
+    public long getFramesAnalyzed();
+
+    /**
+     *
+     * @return number of frames replaced by a newer frame before analysis
+     */
+    public long getFramesSkipped();
+
+    /**
+     *
+     * @return number of frames dropped from the full frame queue
+     */
+    public long getFramesDropped();
+
+    /**
+     *
+     * @return number of frames whose index was skipped over between two
+     *  analyzed frames
+     */
+    public long getFramesMissing();
+
+    /**
+     *
+     * @return number of analyzed frames whose index did not increase
+     */
+    public long getFramesRepeated();
+
+    /**
+     *
+     * @return fraction of the frames in the index sequence which were
+     *  analyzed, or NaN
+     */
+    public double getCoverage();
+
+    /**
+     *
+     * @return fraction of the frames analyzed between the last two batch
+     *  outputs, or NaN
+     */
+    public double getBatchCoverage();
+
+    /**
+     *
+     * @return number of frames waiting in the frame queue
+     */
+    public int getFrameQueueDepth();
+
+    /**
+     *
+     * @return number of frames analyzed in the last second
+     */
+    public int getFramesPerSecond();
+
+    /**
+     *
+     * @return duration of the last analysis in milliseconds
+     */
+    public long getLastAnalysisTimeMs();
+
+    /**
+     *
+     * @return number of analyzer instances working in parallel
+     */
+    public int getAnalyzerCount();
+
+    /**
+     *
+     * @return number of control ticks run
+     */
+    public long getControlTickCount();
+
+    /**
+     *
+     * @return number of control ticks skipped after a stall
+     */
+    public long getMissedControlTickCount();
+
+    /**
+     *
+     * @return last output of the controller of the first laser
+     */
+    public double getLastControllerOutput();
+
+    /**
+     *
+     * @return number of laser powers requested, over all lasers
+     */
+    public long getLaserRequestCount();
+
+    /**
+     *
+     * @return number of laser power requests replaced by a newer one
+     *  before they were written, over all lasers
+     */
+    public long getLaserSupersededCount();
+
+    /**
+     *
+     * @return number of successful laser power writes, over all lasers
+     */
+    public long getLaserWriteCount();
+
+    /**
+     *
+     * @return number of failed laser power writes, over all lasers
+     */
+    public long getLaserErrorCount();
+
+    /**
+     *
+     * @return approximate heap used by the log in memory, in bytes
+     */
+    public long getLogMemoryBytes();
+
+    /**
+     *
+     * @return number of logged values not yet moved into the log
+     */
+    public int getLogQueuedValueCount();
+
+    /**
+     *
+     * @return true if the log is streamed to a file
+     */
+    public boolean isLogStreaming();
+}
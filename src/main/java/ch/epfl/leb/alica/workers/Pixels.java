@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.lang.reflect.Array;
+
+/**
+ * Access to the values of raw pixel arrays independent of their type.
+ * Integer pixels are unsigned, and values written into them are rounded
+ * and clamped to their range.
+ *
+ * get() and set() dispatch on the type for every pixel, so the stages use
+ * them only where few pixels are touched, and loop over the typed arrays
+ * for whole frames.
+ */
+final class Pixels {
+    static final int BYTE = 0;
+    static final int SHORT = 1;
+    static final int FLOAT = 2;
+
+    private Pixels() {
+    }
+
+    /**
+     *
+     * @param pixels raw pixel array
+     * @return BYTE, SHORT or FLOAT
+     */
+    static int typeOf(Object pixels) {
+        if (pixels instanceof byte[])
+            return BYTE;
+        if (pixels instanceof short[])
+            return SHORT;
+        if (pixels instanceof float[])
+            return FLOAT;
+        throw new IllegalArgumentException("Only 8 bit, 16 bit and float pixels can be preprocessed!");
+    }
+
+    /**
+     *
+     * @param pixels raw pixel array
+     * @param type type of the array
+     * @param index pixel index
+     * @return value of the pixel
+     */
+    static float get(Object pixels, int type, int index) {
+        switch (type) {
+            case BYTE:
+                return ((byte[]) pixels)[index] & 0xff;
+            case SHORT:
+                return ((short[]) pixels)[index] & 0xffff;
+            default:
+                return ((float[]) pixels)[index];
+        }
+    }
+
+    /**
+     * Set a pixel, rounded and clamped to the range of integer types.
+     * @param pixels raw pixel array
+     * @param type type of the array
+     * @param index pixel index
+     * @param value new value
+     */
+    static void set(Object pixels, int type, int index, float value) {
+        switch (type) {
+            case BYTE:
+                ((byte[]) pixels)[index] = (byte) clamp(value, 0xff);
+                break;
+            case SHORT:
+                ((short[]) pixels)[index] = (short) clamp(value, 0xffff);
+                break;
+            default:
+                ((float[]) pixels)[index] = value;
+        }
+    }
+
+    /**
+     * Round a value and clamp it to the range of an integer type.
+     * @param value value to be stored
+     * @param max largest value of the type
+     * @return value between 0 and max
+     */
+    static int clamp(float value, int max) {
+        if (!(value > 0.0f))
+            return 0;
+        if (value >= max)
+            return max;
+        return (int) (value + 0.5f);
+    }
+
+    /**
+     *
+     * @param pixels raw pixel array
+     * @return all values as floats
+     */
+    static float[] toFloat(Object pixels) {
+        int type = typeOf(pixels);
+        float[] values = new float[Array.getLength(pixels)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = get(pixels, type, i);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Preprocessing stages applied in order to every frame before the
+ * analysis, with a histogram of the duration of each stage.
+ *
+ * The chain is shared by all analyzer instances of a pipeline. Each of
+ * them passes its own buffers, one per stage, which are reused from frame
+ * to frame.
+ */
+public class PreprocessingChain {
+    private final List<PreprocessingStage> stages;
+    private final LatencyHistogram[] timings;
+    private final int reduction;
+
+    /**
+     * Initialize the chain.
+     * @param stages stages in the order in which they are applied, may be empty
+     * @throws IllegalArgumentException if a stage which needs the pixels of
+     *  the camera frame follows a stage which reduces the frame size
+     */
+    public PreprocessingChain(List<PreprocessingStage> stages) {
+        this.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+        this.reduction = checkStages(this.stages);
+        this.timings = new LatencyHistogram[this.stages.size()];
+        for (int i = 0; i < timings.length; i++) {
+            timings[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Check the stages and their order.
+     * @param stages stages in the order in which they are applied
+     * @return factor by which the stages divide the frame width and height
+     * @throws IllegalArgumentException if a stage which needs the pixels of
+     *  the camera frame follows a stage which reduces the frame size
+     */
+    static int checkStages(List<PreprocessingStage> stages) {
+        int total = 1;
+        for (PreprocessingStage stage: stages) {
+            if (stage == null)
+                throw new NullPointerException("Preprocessing stages can't be null!");
+            if (stage.getReduction() < 1)
+                throw new IllegalArgumentException("Reduction of a preprocessing stage must be positive!");
+            if (total > 1 && stage.needsCameraPixels())
+                throw new IllegalArgumentException(stage.getName() +
+                        " must come before the stages which reduce the frame size!");
+            total *= stage.getReduction();
+        }
+        return total;
+    }
+
+    /**
+     *
+     * @return true if frames are passed on unchanged
+     */
+    public boolean isEmpty() {
+        return stages.isEmpty();
+    }
+
+    /**
+     *
+     * @return stages in the order in which they are applied
+     */
+    public List<PreprocessingStage> getStages() {
+        return stages;
+    }
+
+    /**
+     *
+     * @param index index of the stage
+     * @return durations of the stage
+     */
+    public LatencyHistogram getTiming(int index) {
+        return timings[index];
+    }
+
+    /**
+     *
+     * @return factor by which the chain divides the frame width and height
+     */
+    public int getReduction() {
+        return reduction;
+    }
+
+    /**
+     *
+     * @return new buffers for one analyzer instance
+     */
+    Object[] createBuffers() {
+        return new Object[stages.size()];
+    }
+
+    /**
+     * Apply all stages. The output has the size of the frame divided by
+     * getReduction(), rounded down.
+     * @param pixels pixels of the frame
+     * @param width width of the pixels
+     * @param height height of the pixels
+     * @param x position of the first pixel in the camera frame
+     * @param y position of the first pixel in the camera frame
+     * @param buffers buffers of the calling analyzer instance, replaced by
+     *  the stage outputs
+     * @return output of the last stage, or the pixels if there is none
+     */
+    Object apply(Object pixels, int width, int height, int x, int y, Object[] buffers) {
+        Object current = pixels;
+        for (int i = 0; i < buffers.length; i++) {
+            PreprocessingStage stage = stages.get(i);
+            long start = System.nanoTime();
+            buffers[i] = stage.process(current, width, height, x, y, buffers[i]);
+            timings[i].record(System.nanoTime() - start);
+            current = buffers[i];
+            int stage_reduction = stage.getReduction();
+            width /= stage_reduction;
+            height /= stage_reduction;
+            x /= stage_reduction;
+            y /= stage_reduction;
+        }
+        return current;
+    }
+
+    /**
+     * Reset the histograms of all stages.
+     */
+    public void resetTimings() {
+        for (LatencyHistogram timing: timings) {
+            timing.reset();
+        }
+    }
+
+    /**
+     *
+     * @return one line per stage with its count, p50, p99 and max
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Preprocessing:");
+        for (int i = 0; i < timings.length; i++) {
+            sb.append("\n  ").append(stages.get(i).getName()).append(": ").append(timings[i]);
+        }
+        return sb.toString();
+    }
+}
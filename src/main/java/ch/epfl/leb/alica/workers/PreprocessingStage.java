@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+/**
+ * Operation applied to the pixels of each frame before the analysis, such
+ * as binning or offset subtraction, so that it doesn't have to be
+ * implemented by every analyzer.
+ *
+ * A stage is shared by all analyzer instances of a pipeline and may be
+ * called concurrently, so it must not keep state between frames. The
+ * output is written into the given buffer, which the stage reuses if it
+ * has the right type and length. The input must not be modified.
+ */
+public interface PreprocessingStage {
+
+    /**
+     *
+     * @return short name for the statistics
+     */
+    String getName();
+
+    /**
+     *
+     * @return factor by which the width and the height of the frame are
+     *  divided (rounded down), 1 if the size doesn't change
+     */
+    int getReduction();
+
+    /**
+     *
+     * @return true if the stage works on pixels of the camera frame, such
+     *  as a background image, so that it can't follow a stage which
+     *  reduces the frame size
+     */
+    boolean needsCameraPixels();
+
+    /**
+     * Process the pixels of a frame.
+     * @param pixels byte[], short[] or float[] pixels, row by row
+     * @param width width of the pixels
+     * @param height height of the pixels
+     * @param x position of the first pixel in the camera frame, in units
+     *  of the pixels of this stage
+     * @param y position of the first pixel in the camera frame, in units
+     *  of the pixels of this stage
+     * @param buffer output of the previous call, or null
+     * @return output pixels of the same type as the input
+     */
+    Object process(Object pixels, int width, int height, int x, int y, Object buffer);
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.AlicaLogger;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Supplies the frames of a MappedStack, either as fast as they are taken,
+ * or paced like a camera running at a given frame rate. When paced and the
+ * analysis falls behind, the frames which a camera would have overwritten
+ * meanwhile are skipped, as with the MMCore.
+ *
+ * The pixel arrays are recycled once the AnalysisWorker has logged the
+ * results of their frame, so that the replay does not allocate a new
+ * array for every frame.
+ */
+public class ReplayFrameSource implements FrameSource {
+    private final MappedStack stack;
+    private final long frame_interval_ns;
+    private final ArrayBlockingQueue<Object> free_buffers;
+
+    // only touched by the AnalysisWorker thread
+    private int next_frame = 0;
+    private long start_ns = 0;
+
+    private volatile long skipped_count = 0;
+    private volatile boolean finished = false;
+
+    /**
+     * Initialize the source.
+     * @param stack frames to be replayed, closed when the source is disposed
+     * @param frames_per_second replay rate, 0 for as fast as possible
+     * @param buffer_count number of pixel arrays kept for reuse
+     */
+    public ReplayFrameSource(MappedStack stack, double frames_per_second, int buffer_count) {
+        if (frames_per_second < 0)
+            throw new IllegalArgumentException("Replay rate can't be negative!");
+        this.stack = stack;
+        this.frame_interval_ns = (frames_per_second > 0) ? (long) (1e9 / frames_per_second) : 0;
+        this.free_buffers = new ArrayBlockingQueue<>(Math.max(1, buffer_count));
+    }
+
+    @Override
+    public Frame nextFrame(long timeout_ms) throws InterruptedException {
+        if (next_frame >= stack.getFrameCount()) {
+            finished = true;
+            Thread.sleep(timeout_ms);
+            return null;
+        }
+        if (frame_interval_ns > 0) {
+            long now = System.nanoTime();
+            if (next_frame == 0) {
+                start_ns = now;
+            }
+            long due_ns = start_ns + next_frame * frame_interval_ns;
+            if (now < due_ns) {
+                long wait_ns = Math.min(due_ns - now, TimeUnit.MILLISECONDS.toNanos(timeout_ms));
+                TimeUnit.NANOSECONDS.sleep(wait_ns);
+                if (System.nanoTime() < due_ns) {
+                    return null;
+                }
+            } else {
+                // jump to the latest frame the camera would have taken by now
+                long latest = Math.min(stack.getFrameCount() - 1, (now - start_ns) / frame_interval_ns);
+                if (latest > next_frame) {
+                    skipped_count += latest - next_frame;
+                    next_frame = (int) latest;
+                }
+            }
+        }
+        // a paced frame is due when the camera would have taken it
+        long received_ns = (frame_interval_ns > 0) ?
+                start_ns + next_frame * frame_interval_ns : System.nanoTime();
+        Object pixels = stack.copyFrame(next_frame, free_buffers.poll());
+        next_frame++;
+        return new Frame(pixels, stack.getWidth(), stack.getHeight(), next_frame, received_ns);
+    }
+
+    /**
+     * Return the pixel array of a frame whose analysis is finished, so that
+     * it can be reused for a later frame.
+     * @param pixels pixel array of a frame supplied by this source
+     */
+    public void recycle(Object pixels) {
+        free_buffers.offer(pixels);
+    }
+
+    /**
+     *
+     * @return true once all frames were supplied
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     *
+     * @return number of frames skipped because the analysis was slower
+     *  than the replay rate
+     */
+    @Override
+    public long getSkippedFrameCount() {
+        return skipped_count;
+    }
+
+    @Override
+    public void resetCounters() {
+        skipped_count = 0;
+    }
+
+    @Override
+    public void dispose() {
+        try {
+            stack.close();
+        } catch (IOException ex) {
+            AlicaLogger.getInstance().logError(ex, "Replay file could not be closed.");
+        }
+    }
+}
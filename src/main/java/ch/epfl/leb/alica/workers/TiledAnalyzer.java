@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerStatusPanel;
+import ij.gui.Roi;
+import ij.gui.ShapeRoi;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits each frame (or the bounding box of the ROI) into a grid of
+ * overlapping tiles, and analyzes the tiles in parallel on a fork-join pool,
+ * each by its own instance of the same analyzer. Every tile analyzer only
+ * counts its core region (the tile without the overlap, intersected with the
+ * ROI), so that structures near the tile borders are seen whole but counted
+ * once. The outputs of the tiles are reduced into a single value.
+ */
+public class TiledAnalyzer implements Analyzer {
+    /**
+     * How the outputs of the tiles are combined.
+     */
+    public enum Reduction {
+        /**
+         * Outputs are added, for outputs which count something, such as the
+         * number of localizations.
+         */
+        SUM,
+
+        /**
+         * Outputs are averaged, weighted by the analyzed area of the tile,
+         * for outputs which are densities.
+         */
+        AREA_WEIGHTED_MEAN
+    }
+
+    private final List<Analyzer> tile_analyzers;
+    private final int rows;
+    private final int columns;
+    private final int overlap_px;
+    private final Reduction reduction;
+    private final ForkJoinPool fork_join_pool;
+    // false if the pool is shared with other analyzers
+    private final boolean owns_pool;
+
+    private volatile Roi user_roi = null;
+    private volatile boolean geometry_valid = false;
+    private int geometry_width = -1;
+    private int geometry_height = -1;
+
+    // tiles of the current geometry, only those with a non-empty core region
+    private volatile Tile[] tiles = new Tile[0];
+    private volatile double last_intermittent_output = 0.0;
+
+    /**
+     * Initialize the tiled analyzer.
+     * @param tile_analyzers independent instances of the same analyzer, one
+     *  per tile, row by row
+     * @param rows number of tile rows
+     * @param columns number of tile columns
+     * @param overlap_px number of pixels by which a tile extends beyond its
+     *  core region on each side
+     * @param reduction how the outputs of the tiles are combined
+     */
+    public TiledAnalyzer(List<Analyzer> tile_analyzers, int rows, int columns,
+            int overlap_px, Reduction reduction) {
+        this(tile_analyzers, rows, columns, overlap_px, reduction, null);
+    }
+
+    /**
+     * Initialize the tiled analyzer, whose tiles are analyzed on a pool
+     * shared with other analyzers.
+     * @param tile_analyzers independent instances of the same analyzer, one
+     *  per tile, row by row
+     * @param rows number of tile rows
+     * @param columns number of tile columns
+     * @param overlap_px number of pixels by which a tile extends beyond its
+     *  core region on each side
+     * @param reduction how the outputs of the tiles are combined
+     * @param shared_pool pool which analyzes the tiles, not shut down by
+     *  dispose(), or null for an own pool
+     */
+    public TiledAnalyzer(List<Analyzer> tile_analyzers, int rows, int columns,
+            int overlap_px, Reduction reduction, ForkJoinPool shared_pool) {
+        if (rows < 1 || columns < 1)
+            throw new IllegalArgumentException("Tile grid must have at least one row and one column!");
+        if (tile_analyzers == null || tile_analyzers.size() != rows * columns || tile_analyzers.contains(null))
+            throw new IllegalArgumentException("One analyzer per tile is required!");
+        if (overlap_px < 0)
+            throw new IllegalArgumentException("Tile overlap must not be negative!");
+        if (reduction == null)
+            throw new NullPointerException("You need to set a reduction!");
+        this.tile_analyzers = new ArrayList<>(tile_analyzers);
+        this.rows = rows;
+        this.columns = columns;
+        this.overlap_px = overlap_px;
+        this.reduction = reduction;
+        this.owns_pool = (shared_pool == null);
+        this.fork_join_pool = owns_pool ? new ForkJoinPool(
+                Math.min(rows * columns, Runtime.getRuntime().availableProcessors())) : shared_pool;
+    }
+
+    @Override
+    public void processImage(Object image, int image_width, int image_height,
+            double pixel_size_um, long time_ms) {
+        if (!geometry_valid || image_width != geometry_width || image_height != geometry_height) {
+            updateGeometry(image_width, image_height);
+        }
+        Tile[] current_tiles = tiles;
+        List<Callable<Void>> tasks = new ArrayList<>(current_tiles.length);
+        for (Tile tile: current_tiles) {
+            tasks.add(tile.prepare(image, image_width, pixel_size_um, time_ms));
+        }
+        RuntimeException failure = null;
+        for (Future<Void> future: fork_join_pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                failure = new RuntimeException("Error in analysis of a tile.", ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (failure != null)
+            throw failure;
+
+        double[] outputs = new double[current_tiles.length];
+        for (int i = 0; i < current_tiles.length; i++) {
+            outputs[i] = current_tiles[i].analyzer.getIntermittentOutput();
+        }
+        last_intermittent_output = reduce(current_tiles, outputs);
+    }
+
+    /**
+     * Recompute the tiles for the current image size and ROI, and set the
+     * ROI of each tile analyzer to its core region.
+     */
+    private void updateGeometry(int image_width, int image_height) {
+        // read the flag before the ROI, so that a concurrent setROI()
+        // invalidates the geometry again
+        geometry_valid = true;
+        Roi roi = user_roi;
+        Rectangle image_bounds = new Rectangle(0, 0, image_width, image_height);
+        Rectangle region = image_bounds;
+        if (roi != null && roi.getBounds() != null)
+            region = region.intersection(roi.getBounds());
+
+        List<Tile> new_tiles = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                Analyzer analyzer = tile_analyzers.get(row * columns + column);
+                int x0 = region.x + column * region.width / columns;
+                int x1 = region.x + (column + 1) * region.width / columns;
+                int y0 = region.y + row * region.height / rows;
+                int y1 = region.y + (row + 1) * region.height / rows;
+                Rectangle core = new Rectangle(x0, y0, x1 - x0, y1 - y0);
+                if (region.isEmpty() || core.isEmpty()) {
+                    continue;
+                }
+                Rectangle bounds = new Rectangle(core.x - overlap_px, core.y - overlap_px,
+                        core.width + 2 * overlap_px, core.height + 2 * overlap_px)
+                        .intersection(image_bounds);
+
+                Roi core_roi;
+                long area;
+                if (roi == null || (roi.getType() == Roi.RECTANGLE && !(roi instanceof MaskRoi))) {
+                    core_roi = new Roi(core.x - bounds.x, core.y - bounds.y, core.width, core.height);
+                    area = (long) core.width * core.height;
+                } else if (roi instanceof MaskRoi) {
+                    // already rasterized, only the core region is taken
+                    MaskRoi core_mask = ((MaskRoi) roi).region(core, core.x - bounds.x, core.y - bounds.y);
+                    core_roi = core_mask;
+                    area = core_mask.getPixelCount();
+                } else {
+                    ShapeRoi shape = new ShapeRoi((Roi) roi.clone()).and(new ShapeRoi(new Roi(core)));
+                    Rectangle shape_bounds = shape.getBounds();
+                    area = 0;
+                    if (shape_bounds != null) {
+                        Rectangle counted = shape_bounds.intersection(core);
+                        for (int y = counted.y; y < counted.y + counted.height; y++) {
+                            for (int x = counted.x; x < counted.x + counted.width; x++) {
+                                if (roi.contains(x, y))
+                                    area++;
+                            }
+                        }
+                        shape.setLocation(shape_bounds.x - bounds.x, shape_bounds.y - bounds.y);
+                    }
+                    core_roi = shape;
+                }
+                if (area == 0) {
+                    continue;
+                }
+                synchronized(analyzer) {
+                    analyzer.setROI(core_roi);
+                }
+                new_tiles.add(new Tile(analyzer, bounds, area));
+            }
+        }
+        geometry_width = image_width;
+        geometry_height = image_height;
+        tiles = new_tiles.toArray(new Tile[new_tiles.size()]);
+    }
+
+    /**
+     * Combine the outputs of the tiles.
+     * @param current_tiles tiles whose outputs are combined
+     * @param outputs output of each tile
+     * @return reduced output
+     */
+    private double reduce(Tile[] current_tiles, double[] outputs) {
+        double sum = 0.0;
+        long total_area = 0;
+        for (int i = 0; i < current_tiles.length; i++) {
+            if (reduction == Reduction.SUM) {
+                sum += outputs[i];
+            } else {
+                sum += outputs[i] * current_tiles[i].area;
+                total_area += current_tiles[i].area;
+            }
+        }
+        if (reduction == Reduction.SUM)
+            return sum;
+        return (total_area > 0) ? sum / total_area : 0.0;
+    }
+
+    @Override
+    public double getIntermittentOutput() {
+        return last_intermittent_output;
+    }
+
+    @Override
+    public double getBatchOutput() {
+        Tile[] current_tiles = tiles;
+        double[] outputs = new double[current_tiles.length];
+        for (int i = 0; i < current_tiles.length; i++) {
+            Analyzer analyzer = current_tiles[i].analyzer;
+            synchronized(analyzer) {
+                outputs[i] = analyzer.getBatchOutput();
+            }
+        }
+        return reduce(current_tiles, outputs);
+    }
+
+    @Override
+    public String getShortReturnDescription() {
+        return tile_analyzers.get(0).getShortReturnDescription();
+    }
+
+    /**
+     * The ROI is split into tiles at the next frame.
+     * @param roi ROI to be analyzed, or null for the whole frame
+     */
+    @Override
+    public void setROI(Roi roi) {
+        user_roi = roi;
+        geometry_valid = false;
+    }
+
+    @Override
+    public String getName() {
+        return tile_analyzers.get(0).getName();
+    }
+
+    /**
+     *
+     * @return status panel of the analyzer of the first tile
+     */
+    @Override
+    public AnalyzerStatusPanel getStatusPanel() {
+        return tile_analyzers.get(0).getStatusPanel();
+    }
+
+    @Override
+    public void dispose() {
+        if (owns_pool) {
+            fork_join_pool.shutdown();
+            try {
+                fork_join_pool.awaitTermination(1000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Analyzer analyzer: tile_analyzers) {
+            analyzer.dispose();
+        }
+    }
+
+    /**
+     * A tile, its analyzer and its crop buffer.
+     */
+    private static class Tile {
+        final Analyzer analyzer;
+        final Rectangle bounds;
+        final long area;
+        Object buffer = null;
+
+        Tile(Analyzer analyzer, Rectangle bounds, long area) {
+            this.analyzer = analyzer;
+            this.bounds = bounds;
+            this.area = area;
+        }
+
+        /**
+         * @return task which crops the tile out of the image and analyzes it
+         */
+        Callable<Void> prepare(final Object image, final int image_width,
+                final double pixel_size_um, final long time_ms) {
+            return new Callable<Void>() {
+                @Override
+                public Void call() {
+                    buffer = ImageCrop.crop(image, image_width, bounds, buffer);
+                    analyzer.processImage(buffer, bounds.width, bounds.height,
+                            pixel_size_um, time_ms);
+                    return null;
+                }
+            };
+        }
+    }
+}
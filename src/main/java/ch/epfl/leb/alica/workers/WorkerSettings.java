@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Optional settings of the Coordinator and its workers. The defaults
+ * reproduce the behavior of a Coordinator constructed without settings.
+ */
+public class WorkerSettings {
+    private int frame_queue_capacity = 64;
+    private FrameQueue.OverflowPolicy frame_queue_overflow_policy = FrameQueue.OverflowPolicy.BLOCK;
+    private long frame_queue_block_timeout_ms = 1000;
+    private int analyzer_count = 1;
+    private int tile_rows = 1;
+    private int tile_columns = 1;
+    private int tile_overlap_px = 16;
+    private TiledAnalyzer.Reduction tile_reduction = TiledAnalyzer.Reduction.AREA_WEIGHTED_MEAN;
+    private File replay_file = null;
+    private double replay_frames_per_second = 0.0;
+    private int replay_raw_width = 0;
+    private int replay_raw_height = 0;
+    private int replay_raw_bits = 16;
+    private boolean replay_raw_little_endian = true;
+    private ControlScheduler.CatchUpPolicy control_catch_up_policy = ControlScheduler.CatchUpPolicy.SKIP_MISSED;
+    private long min_laser_write_interval_ms = 0;
+    private List<PreprocessingStage> preprocessing_stages = Collections.emptyList();
+
+    /**
+     *
+     * @return capacity of the frame queue in ALL_FRAMES imaging mode
+     */
+    public int getFrameQueueCapacity() {
+        return frame_queue_capacity;
+    }
+
+    /**
+     * Sets the capacity of the frame queue in ALL_FRAMES imaging mode.
+     * @param capacity maximal number of frames waiting for analysis
+     */
+    public void setFrameQueueCapacity(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Frame queue capacity must be positive!");
+        this.frame_queue_capacity = capacity;
+    }
+
+    /**
+     *
+     * @return behavior of a full frame queue in ALL_FRAMES imaging mode
+     */
+    public FrameQueue.OverflowPolicy getFrameQueueOverflowPolicy() {
+        return frame_queue_overflow_policy;
+    }
+
+    /**
+     * Sets the behavior of a full frame queue in ALL_FRAMES imaging mode.
+     * @param policy overflow policy
+     */
+    public void setFrameQueueOverflowPolicy(FrameQueue.OverflowPolicy policy) {
+        if (policy == null)
+            throw new NullPointerException("You need to set an overflow policy!");
+        this.frame_queue_overflow_policy = policy;
+    }
+
+    /**
+     *
+     * @return maximal time a new frame waits for space with the BLOCK policy
+     */
+    public long getFrameQueueBlockTimeoutMs() {
+        return frame_queue_block_timeout_ms;
+    }
+
+    /**
+     * Sets the maximal time a new frame waits for space in the queue with
+     * the BLOCK policy, after which it is dropped.
+     * @param timeout_ms timeout in milliseconds
+     */
+    public void setFrameQueueBlockTimeoutMs(long timeout_ms) {
+        this.frame_queue_block_timeout_ms = timeout_ms;
+    }
+
+    /**
+     *
+     * @return number of analyzer instances which analyze frames in parallel
+     */
+    public int getAnalyzerCount() {
+        return analyzer_count;
+    }
+
+    /**
+     * Sets the number of analyzer instances which analyze consecutive frames
+     * in parallel. Use more than one only if the analyzer is the bottleneck
+     * and its output for a frame does not depend on the previous frames.
+     * @param count number of analyzer instances
+     */
+    public void setAnalyzerCount(int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("Analyzer count must be positive!");
+        this.analyzer_count = count;
+    }
+
+    /**
+     *
+     * @return number of tile rows, 1 if frames are not tiled
+     */
+    public int getTileRows() {
+        return tile_rows;
+    }
+
+    /**
+     *
+     * @return number of tile columns, 1 if frames are not tiled
+     */
+    public int getTileColumns() {
+        return tile_columns;
+    }
+
+    /**
+     *
+     * @return true if each frame is split into tiles analyzed in parallel
+     */
+    public boolean isTiled() {
+        return tile_rows * tile_columns > 1;
+    }
+
+    /**
+     * Sets the grid of tiles into which each frame (or the ROI) is split
+     * for parallel analysis. A 1x1 grid disables tiling.
+     * @param rows number of tile rows
+     * @param columns number of tile columns
+     */
+    public void setTileGrid(int rows, int columns) {
+        if (rows < 1 || columns < 1)
+            throw new IllegalArgumentException("Tile grid must have at least one row and one column!");
+        this.tile_rows = rows;
+        this.tile_columns = columns;
+    }
+
+    /**
+     *
+     * @return number of pixels by which tiles extend into their neighbours
+     */
+    public int getTileOverlapPx() {
+        return tile_overlap_px;
+    }
+
+    /**
+     * Sets the number of pixels by which tiles extend into their
+     * neighbours. It should be larger than the features the analyzer
+     * detects, so that features at tile borders are seen whole.
+     * @param overlap_px overlap in pixels
+     */
+    public void setTileOverlapPx(int overlap_px) {
+        if (overlap_px < 0)
+            throw new IllegalArgumentException("Tile overlap must not be negative!");
+        this.tile_overlap_px = overlap_px;
+    }
+
+    /**
+     *
+     * @return how the outputs of the tiles are combined
+     */
+    public TiledAnalyzer.Reduction getTileReduction() {
+        return tile_reduction;
+    }
+
+    /**
+     * Sets how the outputs of the tiles are combined. Use SUM for counts
+     * and AREA_WEIGHTED_MEAN (default) for densities.
+     * @param reduction reduction of tile outputs
+     */
+    public void setTileReduction(TiledAnalyzer.Reduction reduction) {
+        if (reduction == null)
+            throw new NullPointerException("You need to set a reduction!");
+        this.tile_reduction = reduction;
+    }
+
+    /**
+     *
+     * @return file replayed in FILE_REPLAY imaging mode, or null
+     */
+    public File getReplayFile() {
+        return replay_file;
+    }
+
+    /**
+     * Sets the file replayed in FILE_REPLAY imaging mode. It is read as
+     * an uncompressed TIFF stack, unless a raw format is set.
+     * @param file TIFF or raw file
+     */
+    public void setReplayFile(File file) {
+        if (file == null)
+            throw new NullPointerException("You need to set a replay file!");
+        this.replay_file = file;
+    }
+
+    /**
+     *
+     * @return replay rate in FILE_REPLAY imaging mode, 0 for as fast as possible
+     */
+    public double getReplayFramesPerSecond() {
+        return replay_frames_per_second;
+    }
+
+    /**
+     * Sets the rate at which frames are supplied in FILE_REPLAY imaging
+     * mode. Frames are skipped if the analysis is slower.
+     * @param frames_per_second replay rate, 0 for as fast as possible
+     */
+    public void setReplayFramesPerSecond(double frames_per_second) {
+        if (frames_per_second < 0 || Double.isNaN(frames_per_second))
+            throw new IllegalArgumentException("Replay rate can't be negative!");
+        this.replay_frames_per_second = frames_per_second;
+    }
+
+    /**
+     * Read the replay file as raw images without header instead of TIFF.
+     * @param width image width in pixels, 0 to read TIFF again
+     * @param height image height in pixels
+     * @param bits bits per pixel, 8, 16 (unsigned) or 32 (float)
+     * @param little_endian byte order of the pixels
+     */
+    public void setReplayRawFormat(int width, int height, int bits, boolean little_endian) {
+        if (width < 0 || height < 0)
+            throw new IllegalArgumentException("Image size can't be negative!");
+        if (bits != 8 && bits != 16 && bits != 32)
+            throw new IllegalArgumentException("Raw pixels must have 8, 16 or 32 bits!");
+        this.replay_raw_width = width;
+        this.replay_raw_height = height;
+        this.replay_raw_bits = bits;
+        this.replay_raw_little_endian = little_endian;
+    }
+
+    /**
+     *
+     * @return true if the replay file is read as raw images
+     */
+    public boolean isReplayRaw() {
+        return replay_raw_width > 0;
+    }
+
+    /**
+     *
+     * @return behavior of the control loop after a delayed tick
+     */
+    public ControlScheduler.CatchUpPolicy getControlCatchUpPolicy() {
+        return control_catch_up_policy;
+    }
+
+    /**
+     * Sets the behavior of the control loop after a tick was delayed, e.g.
+     * by a slow laser. SKIP_MISSED keeps the ticks on the original grid
+     * without a burst of catch-up ticks.
+     * @param policy catch-up policy
+     */
+    public void setControlCatchUpPolicy(ControlScheduler.CatchUpPolicy policy) {
+        if (policy == null)
+            throw new NullPointerException("You need to set a catch-up policy!");
+        this.control_catch_up_policy = policy;
+    }
+
+    /**
+     *
+     * @return minimal time between two laser power writes in milliseconds
+     */
+    public long getMinLaserWriteIntervalMs() {
+        return min_laser_write_interval_ms;
+    }
+
+    /**
+     * Sets the minimal time between two laser power writes, for devices
+     * which can't take a command every control tick. Requests made
+     * meanwhile are coalesced, only the newest one is written.
+     * @param interval_ms minimal interval in milliseconds, 0 for none
+     */
+    public void setMinLaserWriteIntervalMs(long interval_ms) {
+        if (interval_ms < 0)
+            throw new IllegalArgumentException("Minimal laser write interval can't be negative!");
+        this.min_laser_write_interval_ms = interval_ms;
+    }
+
+    /**
+     *
+     * @return stages applied to every frame before the analysis
+     */
+    public List<PreprocessingStage> getPreprocessingStages() {
+        return preprocessing_stages;
+    }
+
+    /**
+     * Sets the stages applied to every frame before the analysis, in
+     * order. Stages which depend on the position in the camera frame, such
+     * as background subtraction, must come before stages which reduce the
+     * frame size, such as binning.
+     * @param stages preprocessing stages, empty for none
+     * @throws IllegalArgumentException if the stages are in the wrong order
+     */
+    public void setPreprocessingStages(List<PreprocessingStage> stages) {
+        if (stages == null)
+            throw new NullPointerException("You need to set the preprocessing stages!");
+        PreprocessingChain.checkStages(stages);
+        this.preprocessing_stages = Collections.unmodifiableList(new ArrayList<>(stages));
+    }
+
+    /**
+     * Map the replay file into memory.
+     * @return the mapped stack
+     * @throws IOException if the file can't be read
+     */
+    MappedStack openReplayStack() throws IOException {
+        if (replay_file == null)
+            throw new IOException("No replay file was chosen.");
+        if (isReplayRaw()) {
+            return MappedStack.openRaw(replay_file, replay_raw_width, replay_raw_height,
+                    replay_raw_bits, replay_raw_little_endian);
+        }
+        return MappedStack.openTiff(replay_file);
+    }
+}
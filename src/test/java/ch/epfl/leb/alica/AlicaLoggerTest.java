@@ -21,6 +21,7 @@ import org.junit.Test;
 import org.junit.Before;
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.util.LinkedHashMap;
 
 /**
@@ -86,4 +87,62 @@ public class AlicaLoggerTest {
         assertEquals(value, log.get(frame_no).get(value_name));
     }
     
+    /**
+     * Test of streaming the log to a file.
+     */
+    @Test
+    public void testStreamingRoundTrip() throws Exception {
+        System.out.println("streamingRoundTrip");
+        AlicaLogger instance = AlicaLogger.getInstance();
+        File file = File.createTempFile("alica_log_stream", ".csv");
+        file.deleteOnExit();
+        
+        instance.startStreaming(file, 2, 10, 100);
+        for (int frame_no = 1; frame_no <= 200; frame_no++) {
+            instance.addIntermittentOutput(frame_no, 0.5 * frame_no);
+            instance.addToLog(frame_no, "tag_frame_index", frame_no);
+        }
+        instance.addToLog(7, "coords_time", "late");
+        instance.stopStreaming();
+        
+        LogTable table = new LogTable();
+        LogStreamWriter.readLastSession(file, table);
+        assertEquals(200, table.getMaxFrame());
+        assertEquals(Double.valueOf(50.0), table.getValue(0, 100));
+        assertEquals(Integer.valueOf(100), table.getValue(1, 100));
+        assertEquals("late", table.getValue(2, 7));
+    }
+    
+    /**
+     * Values logged concurrently from several threads are all stored.
+     */
+    @Test
+    public void testConcurrentLogging() throws Exception {
+        System.out.println("concurrentLogging");
+        final AlicaLogger instance = AlicaLogger.getInstance();
+        final int frames = 20000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final String value_name = "thread_" + t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int frame_no = 1; frame_no <= frames; frame_no++) {
+                        instance.addToLog(frame_no, value_name, (double) frame_no);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        
+        LinkedHashMap<Integer,LinkedHashMap<String, Object>> log
+                = instance.getLogMap();
+        assertEquals(frames, log.size());
+        for (int t = 0; t < threads.length; t++) {
+            assertEquals((double) frames, log.get(frames).get("thread_" + t));
+        }
+    }
 }
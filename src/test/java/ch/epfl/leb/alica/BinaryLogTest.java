@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the binary log format and its conversion to csv.
+ */
+public class BinaryLogTest {
+
+    private LogTable createTable() {
+        LogTable table = new LogTable();
+        table.put(0, "Acquisition_in_progress", 1.0);
+        for (int frame_no = 1; frame_no <= 150; frame_no++) {
+            table.put(frame_no, "analyzer_intermittent_output", 0.25 * frame_no);
+            table.put(frame_no, "tag_frame_index", 1000 + frame_no);
+        }
+        table.put(70, "analyzer_batched_output", 3.5);
+        table.put(90, "note", "hello");
+        return table;
+    }
+
+    /**
+     * Values read from a binary log match the written table.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        System.out.println("roundTrip");
+        LogTable table = createTable();
+        File file = File.createTempFile("alica_log", "." + BinaryLog.EXTENSION);
+        file.deleteOnExit();
+        BinaryLog.write(table, file);
+
+        assertTrue(BinaryLog.isBinaryLog(file));
+        BinaryLog log = BinaryLog.open(file);
+        assertEquals(table.getColumnCount(), log.getColumnCount());
+        assertEquals(150, log.getMaxFrame());
+        for (int column = 0; column < table.getColumnCount(); column++) {
+            assertEquals(table.getColumnName(column), log.getColumnName(column));
+            for (int frame_no = -1; frame_no <= 151; frame_no++) {
+                assertEquals(table.getValue(column, frame_no), log.getValue(column, frame_no));
+            }
+        }
+        assertEquals(37.5, log.getDouble(log.getColumnIndex("analyzer_intermittent_output"), 150), 0.0);
+    }
+
+    /**
+     * The converter writes the same csv as AlicaLogger, also for a subset
+     * of the parameters.
+     */
+    @Test
+    public void testConvertToCsv() throws Exception {
+        System.out.println("convertToCsv");
+        LogTable table = createTable();
+        File file = File.createTempFile("alica_log", "." + BinaryLog.EXTENSION);
+        file.deleteOnExit();
+        File csv = File.createTempFile("alica_log", ".csv");
+        csv.deleteOnExit();
+        BinaryLog.write(table, file);
+
+        StringWriter expected = new StringWriter();
+        try (PrintWriter writer = new PrintWriter(expected)) {
+            LogConverter.writeCsv(table, writer, LogConverter.selectColumns(table));
+        }
+        LogConverter.convert(file, csv);
+        assertEquals(expected.toString(), new String(Files.readAllBytes(csv.toPath()), StandardCharsets.UTF_8));
+
+        LogConverter.convert(file, csv, "note", "tag_frame_index");
+        String[] lines = new String(Files.readAllBytes(csv.toPath()), StandardCharsets.UTF_8).split("\n");
+        assertEquals("#frame_no,note,tag_frame_index", lines[0]);
+        assertEquals("1,0.0,1001", lines[1]);
+        assertEquals("90,hello,1090", lines[90]);
+        assertEquals("150,hello,1150", lines[150]);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the columnar log storage.
+ */
+public class LogTableTest {
+
+    /**
+     * Values of all types are stored and not overwritten.
+     */
+    @Test
+    public void testPutNoOverwrite() {
+        System.out.println("putNoOverwrite");
+        LogTable table = new LogTable();
+        assertTrue(table.put(5, "a", 1.5));
+        assertFalse(table.put(5, "a", 2.5));
+        assertTrue(table.put(5, "b", 7));
+        assertTrue(table.put(6, "c", "hello"));
+
+        assertEquals(3, table.getColumnCount());
+        assertEquals(Double.valueOf(1.5), table.getValue(0, 5));
+        assertEquals(Integer.valueOf(7), table.getValue(1, 5));
+        assertEquals("hello", table.getValue(2, 6));
+        assertNull(table.getValue(0, 6));
+        assertEquals(5, table.getMinFrame());
+        assertEquals(6, table.getMaxFrame());
+    }
+
+    /**
+     * Columns grow beyond their initial capacity, also towards frames
+     * before the first logged frame.
+     */
+    @Test
+    public void testGrowth() {
+        System.out.println("growth");
+        LogTable table = new LogTable();
+        table.put(10, "a", 10.0);
+        table.put(5000, "a", 5000.0);
+        table.put(0, "a", 0.0);
+
+        assertEquals(Double.valueOf(10.0), table.getValue(0, 10));
+        assertEquals(Double.valueOf(5000.0), table.getValue(0, 5000));
+        assertEquals(Double.valueOf(0.0), table.getValue(0, 0));
+        assertFalse(table.hasValue(0, 11));
+        assertEquals(0, table.getMinFrame());
+    }
+
+    /**
+     * A column is promoted to a wider type when needed.
+     */
+    @Test
+    public void testPromotion() {
+        System.out.println("promotion");
+        LogTable table = new LogTable();
+        table.put(1, "a", 3);
+        table.put(2, "a", 0.5);
+        assertEquals(Double.valueOf(3.0), table.getValue(0, 1));
+        table.put(3, "a", "x");
+        assertEquals("3.0", table.getValue(0, 1));
+        assertEquals("0.5", table.getValue(0, 2));
+        assertEquals("x", table.getValue(0, 3));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.replay;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.Controller;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerStatusPanel;
+import ch.epfl.leb.alica.interfaces.controllers.ControllerStatusPanel;
+import ij.gui.Roi;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the replay harness with stand-in analyzers and controller.
+ */
+public class ReplayHarnessTest {
+
+    /**
+     * Sums the pixels of each image, and takes about 1 ms per image.
+     */
+    private static class SumAnalyzer implements Analyzer {
+        private double last_sum = 0.0;
+
+        @Override
+        public synchronized void processImage(Object image, int image_width, int image_height,
+                double pixel_size_um, long time_ms) {
+            double sum = 0.0;
+            for (short pixel: (short[]) image) {
+                sum += pixel;
+            }
+            last_sum = sum;
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public synchronized double getIntermittentOutput() {
+            return last_sum;
+        }
+
+        @Override
+        public synchronized double getBatchOutput() {
+            return last_sum;
+        }
+
+        @Override
+        public String getShortReturnDescription() {
+            return "sum";
+        }
+
+        @Override
+        public void setROI(Roi roi) {
+        }
+
+        @Override
+        public String getName() {
+            return "Sum";
+        }
+
+        @Override
+        public AnalyzerStatusPanel getStatusPanel() {
+            return null;
+        }
+
+        @Override
+        public void dispose() {
+        }
+    }
+
+    /**
+     * Passes the analyzer output through.
+     */
+    private static class IdentityController implements Controller {
+        private double setpoint = 0.0;
+
+        @Override
+        public double nextValue(double value) {
+            return value;
+        }
+
+        @Override
+        public void setSetpoint(double value) {
+            setpoint = value;
+        }
+
+        @Override
+        public double getSetpoint() {
+            return setpoint;
+        }
+
+        @Override
+        public String getName() {
+            return "Identity";
+        }
+
+        @Override
+        public ControllerStatusPanel getStatusPanel() {
+            return null;
+        }
+    }
+
+    /**
+     * All frames of all loops are analyzed by the pool, and the control
+     * ticks reach the laser.
+     */
+    @Test
+    public void testReplayAnalyzesAllFrames() throws InterruptedException {
+        System.out.println("replayAnalyzesAllFrames");
+        Object[] slices = new Object[20];
+        for (int i = 0; i < slices.length; i++) {
+            short[] pixels = new short[16 * 16];
+            pixels[0] = (short) (i + 1);
+            slices[i] = pixels;
+        }
+        StackFrameSource source = new StackFrameSource(slices, 16, 16, 5);
+        List<Analyzer> analyzers = new ArrayList<>();
+        analyzers.add(new SumAnalyzer());
+        analyzers.add(new SumAnalyzer());
+        RecordingLaser laser = new RecordingLaser(0.0, 100.0);
+        ReplayHarness harness = new ReplayHarness(source, analyzers,
+                new IdentityController(), laser, 10, 0.1);
+
+        ReplayReport report = harness.run(10000);
+        assertTrue(report.isComplete());
+        assertEquals(100, report.getFrameCount());
+        assertTrue(report.getTickCount() > 0);
+        assertTrue(report.getLaserRequestCount() > 0);
+        assertTrue(report.getAnalysisTimeMs(50) >= 1.0);
+        assertTrue(report.getAnalysisTimeMs(100) >= report.getAnalysisTimeMs(50));
+        for (double power: laser.getPowerChanges()) {
+            assertTrue(power >= 0.0 && power <= 20.0);
+        }
+    }
+
+    /**
+     * Percentiles use the nearest rank.
+     */
+    @Test
+    public void testPercentile() {
+        System.out.println("percentile");
+        long[] sorted = new long[] {1000000, 2000000, 3000000, 4000000};
+        assertEquals(1.0, ReplayReport.percentileMs(sorted, 0), 1e-9);
+        assertEquals(2.0, ReplayReport.percentileMs(sorted, 50), 1e-9);
+        assertEquals(4.0, ReplayReport.percentileMs(sorted, 99), 1e-9);
+        assertTrue(Double.isNaN(ReplayReport.percentileMs(new long[0], 50)));
+    }
+}
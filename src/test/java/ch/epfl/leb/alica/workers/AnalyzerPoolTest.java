@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.workers.TestStubs.ConstantAnalyzer;
+import ij.gui.Roi;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Ordering and merging of the results of several analyzer instances.
+ */
+public class AnalyzerPoolTest {
+
+    /**
+     * Sleeps for a time given by the pixel value, and outputs the frame
+     * index stored in the second pixel.
+     */
+    private static class SleepingAnalyzer extends ConstantAnalyzer {
+        SleepingAnalyzer() {
+            super(Double.NaN);
+        }
+
+        @Override
+        public void processImage(Object image, int image_width, int image_height,
+                double pixel_size_um, long time_ms) {
+            short[] pixels = (short[]) image;
+            try {
+                Thread.sleep(pixels[0]);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            output = pixels[1];
+        }
+    }
+
+    /**
+     * Fails to set the ROI, and fails to return the output of frames with
+     * an odd index.
+     */
+    private static class FailingAnalyzer extends SleepingAnalyzer {
+        @Override
+        public double getIntermittentOutput() {
+            double output = super.getIntermittentOutput();
+            if (output % 2 == 1)
+                throw new IllegalStateException("no output");
+            return output;
+        }
+
+        @Override
+        public void setROI(Roi roi) {
+            throw new IllegalStateException("no ROI");
+        }
+    }
+
+    /**
+     * Records the released frames and the largest number of results which
+     * were submitted but not yet released.
+     */
+    private static class OrderListener implements AnalyzerPool.FrameListener {
+        final List<Integer> indices = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Double> outputs = Collections.synchronizedList(new ArrayList<Double>());
+        final AtomicInteger released = new AtomicInteger(0);
+
+        @Override
+        public void frameAnalyzed(Frame frame, double intermittent_output,
+                long analysis_start_ns, long analysis_end_ns) {
+            indices.add(frame.getFrameIndex());
+            outputs.add(intermittent_output);
+            released.incrementAndGet();
+        }
+    }
+
+    private static Frame frame(int index, int sleep_ms) {
+        return new Frame(new short[] {(short) sleep_ms, (short) index}, 2, 1, index);
+    }
+
+    private static List<Analyzer> analyzers(int count) {
+        List<Analyzer> analyzers = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            analyzers.add(new SleepingAnalyzer());
+        return analyzers;
+    }
+
+    /**
+     * With uneven analysis times, the results are released in frame order
+     * and no more results than analyzers are ever waiting for release.
+     */
+    @Test
+    public void testOrderWithUnevenLatencies() throws InterruptedException {
+        System.out.println("orderWithUnevenLatencies");
+        final int n = 3;
+        final int frames = 60;
+        OrderListener listener = new OrderListener();
+        AnalyzerPool pool = new AnalyzerPool(analyzers(n), listener);
+        int max_unreleased = 0;
+        for (int i = 0; i < frames; i++) {
+            // every fourth frame is slow, the others overtake it
+            pool.submit(frame(i, i % 4 == 0 ? 15 : 1), 0.1, 0);
+            max_unreleased = Math.max(max_unreleased, i + 1 - listener.released.get());
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (listener.released.get() < frames && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        pool.dispose();
+
+        assertTrue(max_unreleased <= n);
+        assertEquals(frames, listener.indices.size());
+        for (int i = 0; i < frames; i++) {
+            assertEquals(Integer.valueOf(i), listener.indices.get(i));
+            assertEquals(i, listener.outputs.get(i), 0.0);
+        }
+        assertEquals(frames - 1, pool.getIntermittentOutput(), 0.0);
+    }
+
+    /**
+     * A single analyzer runs on the submitting thread, so the result is
+     * released before submit() returns.
+     */
+    @Test
+    public void testSingleAnalyzerIsSynchronous() throws InterruptedException {
+        System.out.println("singleAnalyzerIsSynchronous");
+        OrderListener listener = new OrderListener();
+        AnalyzerPool pool = new AnalyzerPool(analyzers(1), listener);
+        for (int i = 0; i < 5; i++) {
+            pool.submit(frame(i, 0), 0.1, 0);
+            assertEquals(i + 1, listener.released.get());
+        }
+        pool.dispose();
+    }
+
+    /**
+     * Disposing waits for the results of the frames in analysis.
+     */
+    @Test
+    public void testDisposeWaitsForRelease() throws InterruptedException {
+        System.out.println("disposeWaitsForRelease");
+        OrderListener listener = new OrderListener();
+        AnalyzerPool pool = new AnalyzerPool(analyzers(2), listener);
+        pool.submit(frame(0, 30), 0.1, 0);
+        pool.submit(frame(1, 1), 0.1, 0);
+        pool.dispose();
+        assertEquals(2, listener.released.get());
+    }
+
+    /**
+     * Submit frames to analyzers which throw, and check that all frames
+     * are released in order with a NaN output where the analyzer failed.
+     */
+    private static void checkFailingAnalyzers(int n) throws InterruptedException {
+        final int frames = 4 * n + 2;
+        List<Analyzer> analyzers = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            analyzers.add(new FailingAnalyzer());
+        OrderListener listener = new OrderListener();
+        AnalyzerPool pool = new AnalyzerPool(analyzers, listener);
+        // more frames than analyzers, so a leaked slot or result would block
+        for (int i = 0; i < frames; i++)
+            pool.submit(frame(i, 1), 0.1, 0);
+        pool.dispose();
+
+        assertEquals(frames, listener.released.get());
+        for (int i = 0; i < frames; i++) {
+            assertEquals(Integer.valueOf(i), listener.indices.get(i));
+            assertEquals(i % 2 == 1 ? Double.NaN : i, listener.outputs.get(i), 0.0);
+        }
+    }
+
+    /**
+     * A single analyzer which throws does not stop the submitting thread.
+     */
+    @Test(timeout = 10000)
+    public void testFailingSingleAnalyzer() throws InterruptedException {
+        System.out.println("failingSingleAnalyzer");
+        checkFailingAnalyzers(1);
+    }
+
+    /**
+     * Several analyzers which throw neither hold back the reorder buffer
+     * nor leak their slots.
+     */
+    @Test(timeout = 10000)
+    public void testFailingAnalyzers() throws InterruptedException {
+        System.out.println("failingAnalyzers");
+        checkFailingAnalyzers(3);
+    }
+}
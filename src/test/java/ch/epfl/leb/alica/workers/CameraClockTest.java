@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Camera timestamps mapped onto System.nanoTime().
+ */
+public class CameraClockTest {
+    private static final long MS = 1000000L;
+
+    /**
+     * Frames which arrive in a burst keep the intervals of their camera
+     * timestamps.
+     */
+    @Test
+    public void testBurst() {
+        System.out.println("burst");
+        CameraClock clock = new CameraClock();
+        long base = 1000 * MS;
+        // camera runs at 2 ms per frame, the first frame takes 3 ms to arrive
+        assertEquals(base + 3 * MS, clock.timestampNs(0.0, base + 3 * MS));
+        // the next three frames are delivered together, 10 ms late
+        long t1 = clock.timestampNs(2.0, base + 16 * MS);
+        long t2 = clock.timestampNs(4.0, base + 16 * MS);
+        long t3 = clock.timestampNs(6.0, base + 16 * MS);
+        assertEquals(2 * MS, t1 - base - 3 * MS);
+        assertEquals(2 * MS, t2 - t1);
+        assertEquals(2 * MS, t3 - t2);
+        // a frame with less delay improves the estimate
+        assertEquals(base + 10 * MS, clock.timestampNs(8.0, base + 10 * MS));
+        assertEquals(base + 12 * MS, clock.timestampNs(10.0, base + 15 * MS));
+    }
+
+    /**
+     * Sub-millisecond timestamps are kept.
+     */
+    @Test
+    public void testResolution() {
+        System.out.println("resolution");
+        CameraClock clock = new CameraClock();
+        long first = clock.timestampNs(10.0, 50 * MS);
+        long second = clock.timestampNs(11.25, 52 * MS);
+        assertEquals(1250000L, second - first);
+    }
+
+    /**
+     * Frames without a timestamp get their arrival time, and timestamps
+     * which go backwards start a new estimate.
+     */
+    @Test
+    public void testMissingAndRestart() {
+        System.out.println("missingAndRestart");
+        CameraClock clock = new CameraClock();
+        assertEquals(42 * MS, clock.timestampNs(Double.NaN, 42 * MS));
+        clock.timestampNs(500.0, 100 * MS);
+        // new acquisition, the camera clock starts over
+        assertEquals(200 * MS, clock.timestampNs(0.0, 200 * MS));
+        clock.reset();
+        assertEquals(300 * MS, clock.timestampNs(1.0, 300 * MS));
+    }
+}
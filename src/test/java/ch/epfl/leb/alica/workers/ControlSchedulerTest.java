@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the catch-up policies of the ControlScheduler.
+ */
+public class ControlSchedulerTest {
+    private static final long PERIOD_MS = 20;
+    private static final long STALL_MS = 110;
+    private static final int TICKS = 12;
+
+    /**
+     * Task whose second tick stalls, and which records its start times.
+     */
+    private static class StallingTask implements Runnable {
+        final long[] start_ns = new long[TICKS];
+        final CountDownLatch done = new CountDownLatch(1);
+        int count = 0;
+
+        @Override
+        public void run() {
+            if (count >= TICKS)
+                return;
+            start_ns[count] = System.nanoTime();
+            count++;
+            if (count == TICKS)
+                done.countDown();
+            if (count == 2) {
+                try {
+                    Thread.sleep(STALL_MS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * @return shortest interval between two starts after the stall in ms
+         */
+        double shortestIntervalAfterStallMs() {
+            long shortest = Long.MAX_VALUE;
+            for (int i = 2; i < TICKS; i++) {
+                shortest = Math.min(shortest, start_ns[i] - start_ns[i - 1]);
+            }
+            return shortest / 1e6;
+        }
+
+        /**
+         * @return time between the first tick after the stall and the last
+         *  tick in ms
+         */
+        double spanAfterStallMs() {
+            return (start_ns[TICKS - 1] - start_ns[2]) / 1e6;
+        }
+    }
+
+    private ControlScheduler runScheduler(StallingTask task,
+            ControlScheduler.CatchUpPolicy policy) throws InterruptedException {
+        ControlScheduler scheduler = new ControlScheduler(task, policy, "test");
+        scheduler.start(0, PERIOD_MS);
+        assertTrue(task.done.await(5, TimeUnit.SECONDS));
+        scheduler.cancel();
+        return scheduler;
+    }
+
+    /**
+     * SKIP_MISSED stays on the grid without a burst after the stall.
+     */
+    @Test
+    public void testSkipMissed() throws InterruptedException {
+        System.out.println("skipMissed");
+        StallingTask task = new StallingTask();
+        ControlScheduler scheduler = runScheduler(task, ControlScheduler.CatchUpPolicy.SKIP_MISSED);
+        // a burst would compress the ticks after the stall, the jitter of
+        // single ticks doesn't
+        assertTrue(task.spanAfterStallMs() > 0.75 * (TICKS - 3) * PERIOD_MS);
+        // the stall covers at least 4 further ticks of the grid
+        assertTrue(scheduler.getMissedTickCount() >= 4);
+        assertTrue(scheduler.getMaxExecutionNs() >= STALL_MS * 1000000L);
+        // the last tick may not be recorded yet when the latch opens
+        assertTrue(scheduler.getRecentLatenessNs().length >= TICKS - 1);
+    }
+
+    /**
+     * FIXED_RATE runs the missed ticks back to back.
+     */
+    @Test
+    public void testFixedRate() throws InterruptedException {
+        System.out.println("fixedRate");
+        StallingTask task = new StallingTask();
+        ControlScheduler scheduler = runScheduler(task, ControlScheduler.CatchUpPolicy.FIXED_RATE);
+        assertTrue(task.shortestIntervalAfterStallMs() < PERIOD_MS / 2);
+        assertEquals(0, scheduler.getMissedTickCount());
+        // the catch-up ticks started late
+        assertTrue(scheduler.getMaxLatenessNs() >= (STALL_MS - 2 * PERIOD_MS) * 1000000L);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Queries of the core by the metadata cache.
+ */
+public class CoreMetadataCacheTest {
+
+    /**
+     * Counts its queries, and returns values which can be changed by the
+     * test. A query of the pixel size can be held until it is released.
+     */
+    private static class FakeCore implements CoreMetadataCache.CoreQueries {
+        final AtomicInteger query_count = new AtomicInteger(0);
+        volatile double pixel_size_um = 0.1;
+        volatile int image_width = 512;
+        volatile int image_height = 256;
+        volatile CountDownLatch query_started = null;
+        volatile CountDownLatch query_released = null;
+
+        @Override
+        public double getPixelSizeUm() {
+            query_count.incrementAndGet();
+            double value = pixel_size_um;
+            if (query_started != null) {
+                query_started.countDown();
+                try {
+                    query_released.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return value;
+        }
+
+        @Override
+        public int getImageWidth() {
+            return image_width;
+        }
+
+        @Override
+        public int getImageHeight() {
+            return image_height;
+        }
+
+        @Override
+        public String getCameraDevice() {
+            return "Camera";
+        }
+    }
+
+    /**
+     * The core is queried on the first read only, until the cache is
+     * invalidated or refreshed.
+     */
+    @Test
+    public void testReadsAreCached() {
+        System.out.println("readsAreCached");
+        FakeCore core = new FakeCore();
+        CoreMetadataCache cache = new CoreMetadataCache(core);
+        assertEquals(0, core.query_count.get());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0.1, cache.getPixelSizeUm(), 0.0);
+            assertEquals(512, cache.getImageWidth());
+            assertEquals(256, cache.getImageHeight());
+        }
+        assertEquals(1, core.query_count.get());
+        assertEquals(1, cache.getRefreshCount());
+
+        core.pixel_size_um = 0.2;
+        core.image_width = 128;
+        assertEquals(0.1, cache.getPixelSizeUm(), 0.0);
+        assertEquals(512, cache.getImageWidth());
+        assertEquals(1, core.query_count.get());
+
+        assertTrue(cache.isCamera("Camera"));
+        assertFalse(cache.isCamera("Laser"));
+        assertFalse(cache.isCamera(null));
+    }
+
+    /**
+     * An invalidation makes the next read query the core, a refresh
+     * queries it immediately.
+     */
+    @Test
+    public void testInvalidateAndRefresh() {
+        System.out.println("invalidateAndRefresh");
+        FakeCore core = new FakeCore();
+        CoreMetadataCache cache = new CoreMetadataCache(core);
+        cache.getPixelSizeUm();
+
+        core.pixel_size_um = 0.2;
+        cache.invalidate();
+        cache.invalidate();
+        assertEquals(1, core.query_count.get());
+        assertEquals(0.2, cache.getPixelSizeUm(), 0.0);
+        assertEquals(0.2, cache.getPixelSizeUm(), 0.0);
+        assertEquals(2, core.query_count.get());
+
+        core.image_height = 64;
+        cache.refresh();
+        assertEquals(3, core.query_count.get());
+        assertEquals(64, cache.getImageHeight());
+        assertEquals(3, core.query_count.get());
+    }
+
+    /**
+     * An invalidation while the core is being queried makes the next read
+     * query it again, so the value read before the change is not kept.
+     */
+    @Test
+    public void testInvalidationDuringRefreshIsNotLost() throws InterruptedException {
+        System.out.println("invalidationDuringRefreshIsNotLost");
+        final FakeCore core = new FakeCore();
+        final CoreMetadataCache cache = new CoreMetadataCache(core);
+        core.query_started = new CountDownLatch(1);
+        core.query_released = new CountDownLatch(1);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                cache.getPixelSizeUm();
+            }
+        });
+        reader.start();
+        core.query_started.await();
+        // the pixel size changes after the core was queried
+        core.query_started = null;
+        core.pixel_size_um = 0.2;
+        Thread invalidator = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                cache.invalidate();
+            }
+        });
+        invalidator.start();
+        // let the invalidation reach the cache before the query ends
+        long deadline = System.currentTimeMillis() + 5000;
+        while (invalidator.getState() == Thread.State.RUNNABLE
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        core.query_released.countDown();
+        reader.join();
+        invalidator.join();
+
+        assertEquals(0.2, cache.getPixelSizeUm(), 0.0);
+        assertEquals(2, core.query_count.get());
+    }
+
+    /**
+     * The core is queried again when the length of the pixel array of the
+     * frames changes, but not for the first frame.
+     */
+    @Test
+    public void testPixelCountChange() {
+        System.out.println("pixelCountChange");
+        FakeCore core = new FakeCore();
+        CoreMetadataCache cache = new CoreMetadataCache(core);
+        cache.checkPixelCount(512 * 256);
+        cache.checkPixelCount(512 * 256);
+        assertEquals(0, core.query_count.get());
+        assertEquals(512, cache.getImageWidth());
+        assertEquals(1, core.query_count.get());
+
+        // binning 2x2 without a property change event
+        core.image_width = 256;
+        core.image_height = 128;
+        cache.checkPixelCount(256 * 128);
+        assertEquals(2, core.query_count.get());
+        assertEquals(256, cache.getImageWidth());
+        assertEquals(128, cache.getImageHeight());
+        cache.checkPixelCount(256 * 128);
+        assertEquals(2, core.query_count.get());
+    }
+}
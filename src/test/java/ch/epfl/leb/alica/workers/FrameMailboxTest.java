@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the latest-wins frame mailbox.
+ */
+public class FrameMailboxTest {
+
+    /**
+     * Only the latest offered item is taken, the others are counted as skipped.
+     */
+    @Test
+    public void testLatestWins() throws InterruptedException {
+        System.out.println("latestWins");
+        FrameMailbox<Integer> mailbox = new FrameMailbox<>();
+        mailbox.offer(1);
+        mailbox.offer(2);
+        mailbox.offer(3);
+
+        assertEquals(Integer.valueOf(3), mailbox.poll(0, TimeUnit.MILLISECONDS));
+        assertEquals(3, mailbox.getOfferedCount());
+        assertEquals(2, mailbox.getSkippedCount());
+    }
+
+    /**
+     * Polling an empty mailbox times out with null.
+     */
+    @Test
+    public void testPollTimeout() throws InterruptedException {
+        System.out.println("pollTimeout");
+        FrameMailbox<Integer> mailbox = new FrameMailbox<>();
+        assertNull(mailbox.poll(5, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * A waiting consumer is woken up by an offer from another thread.
+     */
+    @Test
+    public void testConsumerIsWokenUp() throws InterruptedException {
+        System.out.println("consumerIsWokenUp");
+        final FrameMailbox<Integer> mailbox = new FrameMailbox<>();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                mailbox.offer(42);
+            }
+        });
+        producer.start();
+        assertEquals(Integer.valueOf(42), mailbox.poll(10, TimeUnit.SECONDS));
+        producer.join();
+        assertEquals(0, mailbox.getSkippedCount());
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the bounded frame queue and its overflow policies.
+ */
+public class FrameQueueTest {
+
+    /**
+     * Frames are taken in the order they were offered.
+     */
+    @Test
+    public void testFifo() throws InterruptedException {
+        System.out.println("fifo");
+        FrameQueue<Integer> queue = new FrameQueue<>(3, FrameQueue.OverflowPolicy.DROP_NEWEST, 0);
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertEquals(2, queue.getDepth());
+
+        assertEquals(Integer.valueOf(1), queue.poll(0, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(2), queue.poll(0, TimeUnit.MILLISECONDS));
+        assertNull(queue.poll(5, TimeUnit.MILLISECONDS));
+        assertEquals(2, queue.getOfferedCount());
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    /**
+     * A full DROP_NEWEST queue rejects the new frame and keeps the old ones.
+     */
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        System.out.println("dropNewest");
+        FrameQueue<Integer> queue = new FrameQueue<>(2, FrameQueue.OverflowPolicy.DROP_NEWEST, 0);
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertFalse(queue.offer(3));
+        assertFalse(queue.offer(4));
+
+        assertEquals(4, queue.getOfferedCount());
+        assertEquals(2, queue.getDroppedNewestCount());
+        assertEquals(0, queue.getDroppedOldestCount());
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(0, queue.getBlockedCount());
+        assertEquals(Integer.valueOf(1), queue.poll(0, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(2), queue.poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * A full DROP_OLDEST queue discards its head to make space.
+     */
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        System.out.println("dropOldest");
+        FrameQueue<Integer> queue = new FrameQueue<>(2, FrameQueue.OverflowPolicy.DROP_OLDEST, 0);
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertTrue(queue.offer(3));
+        assertTrue(queue.offer(4));
+
+        assertEquals(2, queue.getDepth());
+        assertEquals(2, queue.getDroppedOldestCount());
+        assertEquals(0, queue.getDroppedNewestCount());
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(Integer.valueOf(3), queue.poll(0, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(4), queue.poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * A full BLOCK queue drops the frame only after the block timeout.
+     */
+    @Test
+    public void testBlockTimeout() {
+        System.out.println("blockTimeout");
+        FrameQueue<Integer> queue = new FrameQueue<>(1, FrameQueue.OverflowPolicy.BLOCK, 20);
+        assertTrue(queue.offer(1));
+        long start = System.nanoTime();
+        assertFalse(queue.offer(2));
+        long waited_ms = (System.nanoTime() - start) / 1000000;
+
+        assertTrue(waited_ms >= 15);
+        assertEquals(1, queue.getBlockedCount());
+        assertEquals(1, queue.getDroppedNewestCount());
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    /**
+     * A blocked producer continues as soon as the consumer makes space.
+     */
+    @Test
+    public void testBlockUntilSpace() throws InterruptedException {
+        System.out.println("blockUntilSpace");
+        final FrameQueue<Integer> queue = new FrameQueue<>(1, FrameQueue.OverflowPolicy.BLOCK, 10000);
+        assertTrue(queue.offer(1));
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                    queue.poll(0, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    // end of test
+                }
+            }
+        });
+        consumer.start();
+        assertTrue(queue.offer(2));
+        consumer.join();
+
+        assertEquals(1, queue.getBlockedCount());
+        assertEquals(0, queue.getDroppedCount());
+        assertEquals(Integer.valueOf(2), queue.poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * A closed BLOCK queue drops frames which don't fit without waiting.
+     */
+    @Test
+    public void testClosedDoesNotBlock() {
+        System.out.println("closedDoesNotBlock");
+        FrameQueue<Integer> queue = new FrameQueue<>(1, FrameQueue.OverflowPolicy.BLOCK, 10000);
+        queue.offer(1);
+        queue.close();
+        long start = System.nanoTime();
+        assertFalse(queue.offer(2));
+        assertTrue(System.nanoTime() - start < 5000000000L);
+        assertEquals(1, queue.getDroppedNewestCount());
+    }
+
+    /**
+     * Clearing doesn't count frames as dropped, resetting zeroes all counters.
+     */
+    @Test
+    public void testClearAndReset() {
+        System.out.println("clearAndReset");
+        FrameQueue<Integer> queue = new FrameQueue<>(1, FrameQueue.OverflowPolicy.DROP_NEWEST, 0);
+        queue.offer(1);
+        queue.offer(2);
+        queue.clear();
+        assertEquals(0, queue.getDepth());
+        assertEquals(1, queue.getDroppedCount());
+
+        queue.resetCounters();
+        assertEquals(0, queue.getOfferedCount());
+        assertEquals(0, queue.getDroppedCount());
+        assertEquals(0, queue.getBlockedCount());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the gap and repeat accounting of the FrameSequence.
+ */
+public class FrameSequenceTest {
+
+    /**
+     * Jumps count the skipped indices, indices which don't increase are
+     * repeats, and frames without index are ignored.
+     */
+    @Test
+    public void testGapsAndRepeats() {
+        System.out.println("gapsAndRepeats");
+        FrameSequence sequence = new FrameSequence();
+        assertTrue(Double.isNaN(sequence.getCoverage()));
+        assertEquals(0, sequence.accept(5));
+        assertEquals(0, sequence.accept(6));
+        assertEquals(3, sequence.accept(10));
+        assertEquals(FrameSequence.REPEAT, sequence.accept(10));
+        assertEquals(FrameSequence.REPEAT, sequence.accept(8));
+        assertEquals(0, sequence.accept(Frame.UNKNOWN_INDEX));
+        assertEquals(1, sequence.accept(12));
+
+        assertEquals(4, sequence.getAcceptedCount());
+        assertEquals(2, sequence.getGapCount());
+        assertEquals(4, sequence.getMissingCount());
+        assertEquals(2, sequence.getRepeatCount());
+        assertEquals(1, sequence.getUntrackedCount());
+        assertEquals(4.0 / 8.0, sequence.getCoverage(), 1e-12);
+
+        sequence.reset();
+        assertEquals(0, sequence.accept(100));
+        assertEquals(0, sequence.getMissingCount());
+    }
+
+    /**
+     * The batch coverage only covers the frames since the last batch.
+     */
+    @Test
+    public void testBatchCoverage() {
+        System.out.println("batchCoverage");
+        FrameSequence sequence = new FrameSequence();
+        sequence.accept(0);
+        sequence.accept(1);
+        assertEquals(1.0, sequence.takeBatchCoverage(), 0.0);
+        assertTrue(Double.isNaN(sequence.takeBatchCoverage()));
+        // one of every three frames is analyzed
+        sequence.accept(4);
+        sequence.accept(7);
+        assertEquals(1.0 / 3.0, sequence.takeBatchCoverage(), 1e-12);
+        assertEquals(4.0 / 8.0, sequence.getCoverage(), 1e-12);
+    }
+}
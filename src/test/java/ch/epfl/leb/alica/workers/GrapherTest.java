@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import org.micromanager.internal.graph.GraphData;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the circular buffer and the zoom levels of the Grapher.
+ */
+public class GrapherTest {
+
+    /**
+     * The recent points keep only the last n points, oldest first.
+     */
+    @Test
+    public void testRecentPointsWrapAround() {
+        System.out.println("recentPointsWrapAround");
+        Grapher grapher = new Grapher(10);
+        assertEquals(0, grapher.getGraphData().getSize());
+        for (int i = 0; i < 25; i++) {
+            grapher.addDataPoint(i);
+        }
+        GraphData data = grapher.getGraphData();
+        assertEquals(10, data.getSize());
+        assertEquals(15.0, data.getBounds().yMin, 0.0);
+        assertEquals(24.0, data.getBounds().yMax, 0.0);
+    }
+
+    /**
+     * The coarser levels hold the means of blocks of points, and the
+     * extremes of the points within them.
+     */
+    @Test
+    public void testDecimatedLevels() {
+        System.out.println("decimatedLevels");
+        Grapher grapher = new Grapher(10);
+        // a spike of 100.0 within otherwise constant blocks of 1.0
+        for (int i = 0; i < 1000; i++) {
+            grapher.addDataPoint(i == 505 ? 100.0 : 1.0);
+        }
+        // 1000 points make 100 blocks of 10, 10 blocks of 100 and one of 600
+        assertEquals(100, grapher.getGraphData(1).getSize());
+        assertEquals(10, grapher.getGraphData(2).getSize());
+        assertEquals(1, grapher.getGraphData(3).getSize());
+
+        // the spike is averaged out of the means, but kept as the maximum
+        assertEquals(1.0 + 99.0 / 10, grapher.getGraphData(1).getBounds().yMax, 1e-9);
+        assertEquals(1.0 + 99.0 / 100, grapher.getGraphData(2).getBounds().yMax, 1e-9);
+        assertEquals(100.0, grapher.getMaximum(2), 0.0);
+        assertEquals(1.0, grapher.getMinimum(2), 0.0);
+    }
+
+    /**
+     * The time spans of the zoom levels at the monitor period.
+     */
+    @Test
+    public void testSpanPoints() {
+        System.out.println("spanPoints");
+        assertEquals(4, Grapher.getZoomLevelCount());
+        assertEquals(100, Grapher.getSpanPoints(100, 0));
+        assertEquals(6000, Grapher.getSpanPoints(100, 1));
+        assertEquals(72000, Grapher.getSpanPoints(100, 2));
+        assertEquals(864000, Grapher.getSpanPoints(100, 3));
+    }
+}
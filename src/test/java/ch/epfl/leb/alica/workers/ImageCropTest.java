@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.awt.Rectangle;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for cropping of raw pixel arrays.
+ */
+public class ImageCropTest {
+
+    /**
+     * The region is copied row by row, and a matching buffer is reused.
+     */
+    @Test
+    public void testCropReusesBuffer() {
+        System.out.println("cropReusesBuffer");
+        // 4x3 image with pixel value 10*y + x
+        short[] image = new short[12];
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 4; x++) {
+                image[y * 4 + x] = (short) (10 * y + x);
+            }
+        }
+        Rectangle region = new Rectangle(1, 1, 2, 2);
+        Object first = ImageCrop.crop(image, 4, region, null);
+        assertArrayEquals(new short[] {11, 12, 21, 22}, (short[]) first);
+
+        Object second = ImageCrop.crop(image, 4, new Rectangle(2, 0, 2, 2), first);
+        assertSame(first, second);
+        assertArrayEquals(new short[] {2, 3, 12, 13}, (short[]) second);
+    }
+
+    /**
+     * A buffer of the wrong type or length is replaced.
+     */
+    @Test
+    public void testCropAllocatesMatchingBuffer() {
+        System.out.println("cropAllocatesMatchingBuffer");
+        byte[] image = new byte[] {1, 2, 3, 4};
+        Object buffer = new short[2];
+        Object result = ImageCrop.crop(image, 2, new Rectangle(0, 1, 2, 1), buffer);
+        assertNotSame(buffer, result);
+        assertArrayEquals(new byte[] {3, 4}, (byte[]) result);
+    }
+}
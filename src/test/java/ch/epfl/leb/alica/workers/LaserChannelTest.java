@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.replay.RecordingLaser;
+import ch.epfl.leb.alica.replay.StackFrameSource;
+import ch.epfl.leb.alica.workers.TestStubs.ConstantAnalyzer;
+import ch.epfl.leb.alica.workers.TestStubs.GainController;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Several lasers driven by one ControlWorker.
+ */
+public class LaserChannelTest {
+
+    private static void awaitPower(ControlWorker worker, int channel, double power)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (worker.getLaserDispatcher(channel).getLastWrittenPower() != power
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(power, worker.getLaserDispatcher(channel).getLastWrittenPower(), 0.0);
+    }
+
+    /**
+     * Each laser gets the output of its own controller, or the mapped
+     * output of the first one.
+     */
+    @Test
+    public void testFanOut() throws InterruptedException {
+        System.out.println("fanOut");
+        // the analysis thread is never started, only its output is queried
+        AnalysisWorker analysis_worker = new AnalysisWorker(null,
+                new StackFrameSource(new Object[] {new short[1]}, 1, 1, 1),
+                Collections.<Analyzer>singletonList(new ConstantAnalyzer(3.0)), 0.1);
+        RecordingLaser first = new RecordingLaser(0.0, 100.0);
+        RecordingLaser second = new RecordingLaser(0.0, 100.0);
+        RecordingLaser derived = new RecordingLaser(0.0, 100.0);
+        List<LaserChannel> channels = Arrays.asList(
+                new LaserChannel(first, new GainController(2.0)),
+                new LaserChannel(second, new GainController(5.0)),
+                new LaserChannel(derived, 0.5, 1.0));
+
+        ControlWorker worker = new ControlWorker(analysis_worker, channels,
+                ControlScheduler.CatchUpPolicy.SKIP_MISSED, 0);
+        assertEquals(3, worker.getLaserChannelCount());
+        worker.scheduleExecution(0, 10);
+        try {
+            awaitPower(worker, 0, 6.0);
+            awaitPower(worker, 1, 15.0);
+            awaitPower(worker, 2, 4.0);
+        } finally {
+            worker.cancel();
+        }
+        assertEquals(6.0, worker.getLastControllerOutput(), 0.0);
+        assertEquals(6.0, first.getLaserPowerCached(), 0.0);
+        assertEquals(15.0, second.getLaserPowerCached(), 0.0);
+        assertEquals(4.0, derived.getLaserPowerCached(), 0.0);
+        assertEquals(0, worker.getLaserErrorCount());
+        assertTrue(worker.getLaserWriteCount() >= 3);
+    }
+
+    /**
+     * The first laser can't follow another one.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testDerivedFirstChannel() {
+        System.out.println("derivedFirstChannel");
+        AnalysisWorker analysis_worker = new AnalysisWorker(null,
+                new StackFrameSource(new Object[] {new short[1]}, 1, 1, 1),
+                Collections.<Analyzer>singletonList(new ConstantAnalyzer(3.0)), 0.1);
+        new ControlWorker(analysis_worker,
+                Collections.singletonList(new LaserChannel(new RecordingLaser(0.0, 1.0), 1.0, 0.0)),
+                ControlScheduler.CatchUpPolicy.SKIP_MISSED, 0);
+    }
+
+    /**
+     * A new setpoint reaches the controller of every laser, or of a single
+     * one, and derived lasers have none.
+     */
+    @Test
+    public void testSetpoint() {
+        System.out.println("setpoint");
+        GainController first = new GainController(2.0);
+        GainController second = new GainController(5.0);
+        List<LaserChannel> channels = Arrays.asList(
+                new LaserChannel(new RecordingLaser(0.0, 100.0), first),
+                new LaserChannel(new RecordingLaser(0.0, 100.0), second),
+                new LaserChannel(new RecordingLaser(0.0, 100.0), 0.5, 1.0));
+        Coordinator coordinator = new Coordinator(
+                new StackFrameSource(new Object[] {new short[1]}, 1, 1, 1), 0.1,
+                Collections.<Analyzer>singletonList(new ConstantAnalyzer(3.0)), channels, 10, null);
+        try {
+            coordinator.setSetpoint(2.5);
+            assertEquals(2.5, first.getSetpoint(), 0.0);
+            assertEquals(2.5, second.getSetpoint(), 0.0);
+
+            coordinator.setSetpoint(1, 4.0);
+            assertEquals(2.5, first.getSetpoint(), 0.0);
+            assertEquals(4.0, second.getSetpoint(), 0.0);
+
+            try {
+                coordinator.setSetpoint(2, 1.0);
+                fail("A derived laser has no setpoint.");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        } finally {
+            coordinator.requestStop();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.Laser;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The LaserDispatcher coalesces requests and spaces the writes.
+ */
+public class LaserDispatcherTest {
+
+    /**
+     * Records the start time of each write, and takes a fixed time per
+     * write like a serial device.
+     */
+    private static class SlowLaser implements Laser {
+        private final long write_ms;
+        private final List<Long> write_starts_ns = new ArrayList<>();
+        private double power = 0.0;
+
+        SlowLaser(long write_ms) {
+            this.write_ms = write_ms;
+        }
+
+        @Override
+        public double setLaserPower(double desired_power) throws Exception {
+            synchronized (this) {
+                write_starts_ns.add(System.nanoTime());
+            }
+            Thread.sleep(write_ms);
+            synchronized (this) {
+                power = desired_power;
+            }
+            return desired_power;
+        }
+
+        @Override
+        public synchronized double getLaserPower() {
+            return power;
+        }
+
+        @Override
+        public synchronized double getLaserPowerCached() {
+            return power;
+        }
+
+        synchronized List<Long> getWriteStartsNs() {
+            return new ArrayList<>(write_starts_ns);
+        }
+
+        @Override
+        public double getMaxPower() {
+            return 100.0;
+        }
+
+        @Override
+        public double getMinPower() {
+            return 0.0;
+        }
+
+        @Override
+        public String getDeviceName() {
+            return "Slow";
+        }
+
+        @Override
+        public String getPropertyName() {
+            return "Power";
+        }
+    }
+
+    private static void awaitPower(LaserDispatcher dispatcher, double power)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.getLastWrittenPower() != power && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(power, dispatcher.getLastWrittenPower(), 0.0);
+    }
+
+    /**
+     * Requests return without waiting for the device, and those made
+     * during a write are replaced by the newest one.
+     */
+    @Test
+    public void testCoalescing() throws InterruptedException {
+        System.out.println("coalescing");
+        PipelineLatency latency = new PipelineLatency();
+        LaserDispatcher dispatcher = new LaserDispatcher(new SlowLaser(20), latency, 0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            dispatcher.request(i);
+        }
+        // 50 synchronous writes would take a second
+        assertTrue(System.nanoTime() - start < 200000000L);
+
+        awaitPower(dispatcher, 49.0);
+        assertTrue(dispatcher.stop(1000));
+        assertEquals(50, dispatcher.getRequestCount());
+        assertTrue(dispatcher.getWriteCount() < 50);
+        // every request was either written or replaced
+        assertEquals(50, dispatcher.getWriteCount() + dispatcher.getSupersededCount());
+        assertEquals(dispatcher.getWriteCount(),
+                latency.getHistogram(PipelineLatency.Stage.LASER).getCount());
+        assertTrue(latency.getHistogram(PipelineLatency.Stage.LASER).getMaxNs() >= 20000000L);
+    }
+
+    /**
+     * Writes are spaced by the minimal interval.
+     */
+    @Test
+    public void testMinWriteInterval() throws InterruptedException {
+        System.out.println("minWriteInterval");
+        SlowLaser laser = new SlowLaser(0);
+        LaserDispatcher dispatcher = new LaserDispatcher(laser, null, 30);
+        for (int i = 1; i <= 40; i++) {
+            dispatcher.request(i);
+            Thread.sleep(5);
+        }
+        awaitPower(dispatcher, 40.0);
+        assertTrue(dispatcher.stop(1000));
+        List<Long> starts = laser.getWriteStartsNs();
+        assertTrue(starts.size() >= 2);
+        for (int i = 1; i < starts.size(); i++) {
+            assertTrue(starts.get(i) - starts.get(i - 1) >= 30000000L);
+        }
+    }
+
+    /**
+     * The end-to-end latency runs from the timestamp of the frame, and
+     * only powers based on a new frame are counted.
+     */
+    @Test
+    public void testEndToEndFromFrameTimestamp() throws InterruptedException {
+        System.out.println("endToEndFromFrameTimestamp");
+        PipelineLatency latency = new PipelineLatency();
+        LaserDispatcher dispatcher = new LaserDispatcher(new SlowLaser(0), latency, 0);
+        // the frame was exposed 40 ms before the request
+        dispatcher.request(1.0, true, System.nanoTime() - 40000000L);
+        awaitPower(dispatcher, 1.0);
+        dispatcher.request(2.0, false, 0);
+        awaitPower(dispatcher, 2.0);
+        assertTrue(dispatcher.stop(1000));
+
+        LatencyHistogram end_to_end = latency.getHistogram(PipelineLatency.Stage.END_TO_END);
+        assertEquals(1, end_to_end.getCount());
+        assertTrue(end_to_end.getMaxNs() >= 40000000L);
+        assertEquals(2, latency.getHistogram(PipelineLatency.Stage.LASER).getCount());
+    }
+
+    /**
+     * The final power is written after a write which outlasts the stop
+     * timeout, and requests pending at the stop are discarded.
+     */
+    @Test
+    public void testFinalPowerAfterSlowWrite() throws InterruptedException {
+        System.out.println("finalPowerAfterSlowWrite");
+        SlowLaser laser = new SlowLaser(200);
+        LaserDispatcher dispatcher = new LaserDispatcher(laser, null, 0);
+        dispatcher.request(1.0);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (laser.getWriteStartsNs().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        // pending during the write, never written
+        dispatcher.request(2.0);
+        assertFalse(dispatcher.stop(0.0, 10));
+
+        awaitPower(dispatcher, 0.0);
+        Thread.sleep(50);
+        assertEquals(0.0, laser.getLaserPower(), 0.0);
+        assertEquals(2, laser.getWriteStartsNs().size());
+        assertEquals(2, dispatcher.getWriteCount());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the buckets and percentiles of the LatencyHistogram.
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Every value falls into a bucket whose upper bound is at most ~3%
+     * above it, and the buckets are contiguous.
+     */
+    @Test
+    public void testBuckets() {
+        System.out.println("buckets");
+        long[] values = {0, 1, 31, 32, 33, 63, 64, 1000, 123456789L, 1L << 40};
+        for (long value: values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertTrue(upper >= value);
+            assertTrue(upper <= value + value / 32);
+            if (bucket > 0)
+                assertTrue(LatencyHistogram.upperBoundOf(bucket - 1) < value);
+        }
+    }
+
+    /**
+     * Percentiles of 1..1000 microseconds.
+     */
+    @Test
+    public void testPercentiles() {
+        System.out.println("percentiles");
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNs(50));
+        for (int i = 1000; i >= 1; i--) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000L, histogram.getMaxNs());
+        assertEquals(500500.0, histogram.getMeanNs(), 1e-9);
+        assertEquals(500000.0, histogram.getPercentileNs(50), 500000.0 / 32);
+        assertEquals(990000.0, histogram.getPercentileNs(99), 990000.0 / 32);
+        // the highest percentile is clamped to the largest value
+        assertEquals(1000000L, histogram.getPercentileNs(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNs());
+    }
+}
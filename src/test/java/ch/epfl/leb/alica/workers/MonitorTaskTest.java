@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the adaptive refresh of the monitor.
+ */
+public class MonitorTaskTest {
+    private static final long MS = 1000000L;
+
+    /**
+     * The refresh backs off when the EDT is slow or a snapshot was
+     * dropped, and recovers one tick at a time.
+     */
+    @Test
+    public void testAdaptStride() {
+        System.out.println("adaptStride");
+        assertEquals(1, MonitorTask.adaptStride(1, 1 * MS, false));
+        assertEquals(2, MonitorTask.adaptStride(1, 80 * MS, false));
+        assertEquals(2, MonitorTask.adaptStride(1, 1 * MS, true));
+        assertEquals(MonitorTask.MAX_STRIDE, MonitorTask.adaptStride(8, 80 * MS, false));
+        // between the thresholds, the stride is kept
+        assertEquals(4, MonitorTask.adaptStride(4, 20 * MS, false));
+        assertEquals(3, MonitorTask.adaptStride(4, 2 * MS, false));
+    }
+
+    /**
+     * Snapshots share the plotted points as long as the plot is unchanged.
+     */
+    @Test
+    public void testPlotVersion() {
+        System.out.println("plotVersion");
+        Grapher grapher = new Grapher(10);
+        grapher.addDataPoint(1.0);
+        long version = grapher.getVersion(0);
+        double[] points = grapher.getPoints(0);
+        MonitorSnapshot first = new MonitorSnapshot(0.0, 0, 0, "", 0, version, points, 1.0, null, 0);
+        MonitorSnapshot same = new MonitorSnapshot(1.0, 5, 3, "", 0, version, points, 1.0, null, 0);
+        assertFalse(same.isPlotChanged(first));
+        grapher.addDataPoint(2.0);
+        MonitorSnapshot next = new MonitorSnapshot(1.0, 5, 3, "", 0, grapher.getVersion(0),
+                grapher.getPoints(0), 2.0, null, 0);
+        assertTrue(next.isPlotChanged(same));
+        assertEquals(2, next.plot_points.length);
+        assertEquals(1, points.length);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.replay.RecordingLaser;
+import ch.epfl.leb.alica.replay.StackFrameSource;
+import ch.epfl.leb.alica.workers.TestStubs.IdentityController;
+import ch.epfl.leb.alica.workers.TestStubs.PixelAnalyzer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Named pipelines which share a PipelineExecutor.
+ */
+public class PipelineExecutorTest {
+
+    /**
+     * Frames whose first pixel is the given value.
+     */
+    private static StackFrameSource source(int frame_count, short value) {
+        Object[] slices = new Object[frame_count];
+        for (int i = 0; i < slices.length; i++) {
+            short[] pixels = new short[4 * 4];
+            pixels[0] = value;
+            slices[i] = pixels;
+        }
+        return new StackFrameSource(slices, 4, 4, 1);
+    }
+
+    private static List<Analyzer> analyzers(int count) {
+        List<Analyzer> analyzers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            analyzers.add(new PixelAnalyzer());
+        }
+        return analyzers;
+    }
+
+    /**
+     * Two pipelines run their control loops on the same clock, drive their
+     * own lasers, and log into separate sessions.
+     */
+    @Test
+    public void testTwoPipelines() throws Exception {
+        System.out.println("twoPipelines");
+        PipelineExecutor executor = new PipelineExecutor(2);
+        RecordingLaser laser_a = new RecordingLaser(0.0, 100.0);
+        RecordingLaser laser_b = new RecordingLaser(0.0, 100.0);
+        Coordinator a = new Coordinator("cam-a", source(20, (short) 3), 0.1, analyzers(2),
+                Collections.singletonList(new LaserChannel(laser_a, new IdentityController())),
+                5, null, executor);
+        Coordinator b = new Coordinator("cam-b", source(20, (short) 7), 0.1, analyzers(1),
+                Collections.singletonList(new LaserChannel(laser_b, new IdentityController())),
+                5, null, executor);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(2, executor.getControlLoopCount());
+            assertTrue(server.isRegistered(new ObjectName(
+                    PipelineMBeans.DOMAIN + ":type=Pipeline,pipeline=\"cam-a\"")));
+            assertTrue(server.isRegistered(new ObjectName(
+                    PipelineMBeans.DOMAIN + ":type=Pipeline,pipeline=\"cam-b\"")));
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((laser_a.getLaserPowerCached() != 3.0 || laser_b.getLaserPowerCached() != 7.0)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(3.0, laser_a.getLaserPowerCached(), 0.0);
+            assertEquals(7.0, laser_b.getLaserPowerCached(), 0.0);
+        } finally {
+            a.requestStop();
+            b.requestStop();
+        }
+        assertEquals(0, executor.getControlLoopCount());
+        assertEquals("cam-a", a.getLog().getSessionName());
+        assertNotSame(a.getLog(), b.getLog());
+        assertOutputs(a.getLog().getLogMap(), 3.0);
+        assertOutputs(b.getLog().getLogMap(), 7.0);
+        executor.shutdown();
+    }
+
+    /**
+     * Every logged controller output of the session is the expected value.
+     */
+    private static void assertOutputs(Map<Integer, ? extends Map<String, Object>> log_map,
+            double expected) {
+        int count = 0;
+        for (Map<String, Object> frame: log_map.values()) {
+            Object output = frame.get("controller_output");
+            if (output != null && (Double) output != 0.0) {
+                assertEquals(expected, (Double) output, 0.0);
+                count++;
+            }
+        }
+        assertTrue(count > 0);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.replay.RecordingLaser;
+import ch.epfl.leb.alica.replay.StackFrameSource;
+import ch.epfl.leb.alica.workers.TestStubs.ConstantAnalyzer;
+import ch.epfl.leb.alica.workers.TestStubs.IdentityController;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The MXBeans of a headless Coordinator.
+ */
+public class PipelineMBeansTest {
+
+    /**
+     * The beans are readable while the Coordinator runs, and are
+     * unregistered when it stops.
+     */
+    @Test
+    public void testRegistration() throws Exception {
+        System.out.println("registration");
+        Object[] slices = new Object[10];
+        for (int i = 0; i < slices.length; i++) {
+            slices[i] = new short[4 * 4];
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pipeline = new ObjectName(PipelineMBeans.DOMAIN + ":type=Pipeline");
+        ObjectName end_to_end = new ObjectName(PipelineMBeans.DOMAIN + ":type=Latency,name=END_TO_END");
+
+        Coordinator coordinator = new Coordinator(new StackFrameSource(slices, 4, 4, 1), 0.1,
+                Collections.<Analyzer>singletonList(new ConstantAnalyzer(1.0)),
+                new IdentityController(), new RecordingLaser(0.0, 10.0), 5, null);
+        try {
+            assertTrue(server.isRegistered(pipeline));
+            assertTrue(server.isRegistered(end_to_end));
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((((Long) server.getAttribute(pipeline, "FramesAnalyzed")) < 10
+                    || ((Long) server.getAttribute(end_to_end, "Count")) < 1)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(10L, server.getAttribute(pipeline, "FramesAnalyzed"));
+            assertEquals(10L, server.getAttribute(pipeline, "FramesReceived"));
+            assertEquals(0L, server.getAttribute(pipeline, "FramesMissing"));
+            assertEquals(1.0, server.getAttribute(pipeline, "Coverage"));
+            assertEquals(0L, server.getAttribute(pipeline, "LaserErrorCount"));
+            assertTrue((Long) server.getAttribute(pipeline, "LaserWriteCount") >= 1);
+            assertTrue((Long) server.getAttribute(pipeline, "ControlTickCount") >= 1);
+            assertEquals(Boolean.TRUE, server.getAttribute(pipeline, "Running"));
+            assertTrue((Long) server.getAttribute(end_to_end, "Count") >= 1);
+        } finally {
+            coordinator.requestStop();
+        }
+        assertFalse(server.isRegistered(pipeline));
+        assertFalse(server.isRegistered(end_to_end));
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.workers.TestStubs.RecordingAnalyzer;
+import ij.gui.Roi;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Preprocessing stages and their place between the ROI crop and the
+ * analyzer.
+ */
+public class PreprocessingChainTest {
+
+    /**
+     * Binning averages or sums the blocks and drops incomplete ones.
+     */
+    @Test
+    public void testBinning() {
+        System.out.println("binning");
+        short[] pixels = {
+            1, 2, 3, 4, 9,
+            5, 6, 7, 8, 9,
+            9, 9, 9, 9, 9};
+        short[] average = (short[]) new BinningStage(2, BinningStage.Mode.AVERAGE)
+                .process(pixels, 5, 3, 0, 0, null);
+        assertArrayEquals(new short[] {4, 6}, average);
+        short[] saturated = {(short) 60000, (short) 60000, 1, 1};
+        short[] sum = (short[]) new BinningStage(2, BinningStage.Mode.SUM)
+                .process(saturated, 2, 2, 0, 0, null);
+        assertArrayEquals(new short[] {(short) 65535}, sum);
+        // the buffer is reused
+        Object buffer = new short[2];
+        assertSame(buffer, new BinningStage(2, BinningStage.Mode.AVERAGE)
+                .process(pixels, 5, 3, 0, 0, buffer));
+    }
+
+    /**
+     * Offsets and backgrounds are subtracted at the position of the pixels
+     * in the camera frame, hot pixels are replaced by their neighbours.
+     */
+    @Test
+    public void testPositionalStages() {
+        System.out.println("positionalStages");
+        short[] pixels = {100, 100, 100, 100};
+        float[] background = {0, 1, 2, 3, 4, 5, 6, 7, 8};
+        short[] out = (short[]) new OffsetSubtractionStage(90.0f, background, 3, 3)
+                .process(pixels, 2, 2, 1, 1, null);
+        assertArrayEquals(new short[] {6, 5, 3, 2}, out);
+        out = (short[]) new OffsetSubtractionStage(200.0f).process(pixels, 2, 2, 0, 0, null);
+        assertArrayEquals(new short[] {0, 0, 0, 0}, out);
+
+        short[] frame = {
+            10, 10, 10,
+            10, 500, 20,
+            10, 10, 10};
+        List<Point> hot = HotPixelStage.findHotPixels(frame, 3, 3, 100.0f);
+        assertEquals(Collections.singletonList(new Point(1, 1)), hot);
+        out = (short[]) new HotPixelStage(hot).process(frame, 3, 3, 0, 0, null);
+        assertEquals(13, out[4]);
+        assertEquals(500, frame[4]);
+        // the hot pixel is outside of a cropped frame
+        out = (short[]) new HotPixelStage(hot).process(frame, 3, 1, 0, 2, null);
+        assertEquals(10, out[1]);
+    }
+
+    /**
+     * The loops over byte, short and float pixels give the same values as
+     * the per-pixel access of Pixels, also for a frame which only partly
+     * covers the background.
+     */
+    @Test
+    public void testPixelTypes() {
+        System.out.println("pixelTypes");
+        int width = 7;
+        int height = 5;
+        float[] values = new float[width * height];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i * 37) % 251;
+        }
+        float[] background = new float[4 * 4];
+        for (int i = 0; i < background.length; i++) {
+            background[i] = i * 3.25f;
+        }
+        List<Point> hot = Arrays.asList(new Point(0, 0), new Point(3, 2), new Point(6, 4));
+        List<PreprocessingStage> stages = Arrays.<PreprocessingStage>asList(
+                new BinningStage(2, BinningStage.Mode.AVERAGE),
+                new BinningStage(3, BinningStage.Mode.SUM),
+                new OffsetSubtractionStage(10.5f),
+                new OffsetSubtractionStage(10.5f, background, 4, 4),
+                new HotPixelStage(hot));
+        Object[] frames = {new byte[values.length], new short[values.length], new float[values.length]};
+        for (Object frame: frames) {
+            int type = Pixels.typeOf(frame);
+            for (int i = 0; i < values.length; i++) {
+                Pixels.set(frame, type, i, values[i]);
+            }
+            for (PreprocessingStage stage: stages) {
+                Object out = stage.process(frame, width, height, -2, 1, null);
+                float[] expected = reference(stage, frame, width, height, -2, 1, background, hot);
+                assertArrayEquals(stage.getName(), expected, Pixels.toFloat(out), 1e-3f);
+            }
+        }
+    }
+
+    /**
+     * Result of a stage computed pixel by pixel through Pixels.
+     */
+    private static float[] reference(PreprocessingStage stage, Object pixels, int width, int height,
+            int x, int y, float[] background, List<Point> hot) {
+        int type = Pixels.typeOf(pixels);
+        if (stage instanceof BinningStage) {
+            int factor = stage.getReduction();
+            boolean sum = stage.getName().contains("sum");
+            Object out = ImageCrop.reuseOrAllocate(pixels, (width / factor) * (height / factor), null);
+            for (int row = 0; row < height / factor; row++) {
+                for (int column = 0; column < width / factor; column++) {
+                    float value = 0.0f;
+                    for (int i = 0; i < factor * factor; i++) {
+                        value += Pixels.get(pixels, type,
+                                (row * factor + i / factor) * width + column * factor + i % factor);
+                    }
+                    Pixels.set(out, type, row * (width / factor) + column,
+                            sum ? value : value / (factor * factor));
+                }
+            }
+            return Pixels.toFloat(out);
+        }
+        Object out = ImageCrop.reuseOrAllocate(pixels, width * height, null);
+        System.arraycopy(pixels, 0, out, 0, width * height);
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                int index = row * width + column;
+                if (stage instanceof OffsetSubtractionStage) {
+                    float value = Pixels.get(pixels, type, index) - 10.5f;
+                    int background_x = x + column;
+                    int background_y = y + row;
+                    if (stage.getName().startsWith("Background") && background_x >= 0
+                            && background_x < 4 && background_y >= 0 && background_y < 4)
+                        value -= background[background_y * 4 + background_x];
+                    Pixels.set(out, type, index, value);
+                } else if (hot.contains(new Point(x + column, y + row))) {
+                    float value = 0.0f;
+                    int count = 0;
+                    int[][] neighbours = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+                    for (int[] neighbour: neighbours) {
+                        int nx = column + neighbour[0];
+                        int ny = row + neighbour[1];
+                        if (nx >= 0 && nx < width && ny >= 0 && ny < height) {
+                            value += Pixels.get(pixels, type, ny * width + nx);
+                            count++;
+                        }
+                    }
+                    Pixels.set(out, type, index, value / count);
+                }
+            }
+        }
+        return Pixels.toFloat(out);
+    }
+
+    /**
+     * The analyzer gets the binned crop of the ROI, the scaled ROI and the
+     * pixel size of the binned pixels, and each stage is timed.
+     */
+    @Test
+    public void testChainInPool() throws Exception {
+        System.out.println("chainInPool");
+        RecordingAnalyzer analyzer = new RecordingAnalyzer();
+        PreprocessingChain chain = new PreprocessingChain(Arrays.<PreprocessingStage>asList(
+                new OffsetSubtractionStage(1.0f),
+                new BinningStage(2, BinningStage.Mode.AVERAGE)));
+        assertEquals(2, chain.getReduction());
+        AnalyzerPool pool = new AnalyzerPool(Collections.<Analyzer>singletonList(analyzer),
+                new AnalyzerPool.FrameListener() {
+                    @Override
+                    public void frameAnalyzed(Frame frame, double intermittent_output,
+                            long analysis_start_ns, long analysis_end_ns) {
+                    }
+                }, null, chain);
+        short[] pixels = new short[8 * 8];
+        Arrays.fill(pixels, (short) 5);
+        pool.setROI(new Roi(2, 2, 4, 5));
+        pool.submit(new Frame(pixels, 8, 8, 0, System.nanoTime()), 0.1, 0);
+        assertEquals(2, analyzer.width);
+        assertEquals(2, analyzer.height);
+        assertArrayEquals(new short[] {4, 4, 4, 4}, analyzer.image);
+        assertEquals(0.2, analyzer.pixel_size_um, 1e-12);
+        assertEquals(new Rectangle(0, 0, 2, 2), analyzer.roi.getBounds());
+        assertEquals(1, chain.getTiming(0).getCount());
+        assertEquals(1, chain.getTiming(1).getCount());
+        pool.dispose();
+    }
+
+    /**
+     * Stages which need the pixels of the camera frame are rejected after
+     * a stage which reduces the frame size.
+     */
+    @Test
+    public void testStageOrder() {
+        System.out.println("stageOrder");
+        PreprocessingStage hot_pixels = new HotPixelStage(Collections.singletonList(new Point(1, 1)));
+        PreprocessingStage offset = new OffsetSubtractionStage(1.0f);
+        PreprocessingStage binning = new BinningStage(2, BinningStage.Mode.SUM);
+        PreprocessingStage downsampling = new DownsamplingStage(2);
+
+        PreprocessingChain chain = new PreprocessingChain(Arrays.asList(
+                hot_pixels, offset, binning, downsampling));
+        assertEquals(4, chain.getReduction());
+        for (PreprocessingStage stage: Arrays.asList(hot_pixels, offset)) {
+            for (PreprocessingStage reduction: Arrays.asList(binning, downsampling)) {
+                try {
+                    new PreprocessingChain(Arrays.asList(reduction, stage));
+                    fail(stage.getName() + " after " + reduction.getName());
+                } catch (IllegalArgumentException ex) {
+                }
+            }
+        }
+        try {
+            new WorkerSettings().setPreprocessingStages(Arrays.asList(binning, offset));
+            fail("Offset subtraction after binning");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the replay of a memory-mapped raw stack.
+ */
+public class ReplayFrameSourceTest {
+    private static final int FRAME_COUNT = 50;
+    private File file;
+
+    /**
+     * Write 50 little-endian 16 bit frames of 3x2 pixels, with pixel value
+     * 100 * frame + pixel index.
+     */
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("alica_replay", ".raw");
+        ByteBuffer bytes = ByteBuffer.allocate(FRAME_COUNT * 6 * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            for (int pixel = 0; pixel < 6; pixel++) {
+                bytes.putShort((short) (100 * frame + pixel));
+            }
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes.array());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * All frames are supplied in order, and recycled arrays are reused.
+     */
+    @Test
+    public void testReplayAsFastAsPossible() throws IOException, InterruptedException {
+        System.out.println("replayAsFastAsPossible");
+        MappedStack stack = MappedStack.openRaw(file, 3, 2, 16, true);
+        assertEquals(FRAME_COUNT, stack.getFrameCount());
+        ReplayFrameSource source = new ReplayFrameSource(stack, 0, 2);
+
+        Frame first = source.nextFrame(10);
+        assertEquals(1, first.getFrameIndex());
+        assertArrayEquals(new short[] {0, 1, 2, 3, 4, 5}, (short[]) first.getPixels());
+        source.recycle(first.getPixels());
+
+        Frame second = source.nextFrame(10);
+        assertSame(first.getPixels(), second.getPixels());
+        assertArrayEquals(new short[] {100, 101, 102, 103, 104, 105}, (short[]) second.getPixels());
+
+        for (int i = 3; i <= FRAME_COUNT; i++) {
+            assertEquals(i, source.nextFrame(10).getFrameIndex());
+        }
+        assertFalse(source.isFinished());
+        assertNull(source.nextFrame(1));
+        assertTrue(source.isFinished());
+        assertEquals(0, source.getSkippedFrameCount());
+        source.dispose();
+    }
+
+    /**
+     * When paced, frames which are overdue are skipped like with a camera.
+     */
+    @Test
+    public void testPacedReplaySkipsOverdueFrames() throws IOException, InterruptedException {
+        System.out.println("pacedReplaySkipsOverdueFrames");
+        ReplayFrameSource source = new ReplayFrameSource(
+                MappedStack.openRaw(file, 3, 2, 16, true), 1000.0, 2);
+        assertEquals(1, source.nextFrame(10).getFrameIndex());
+        Thread.sleep(20);
+        Frame late = source.nextFrame(10);
+        assertTrue(late.getFrameIndex() > 10);
+        assertEquals(late.getFrameIndex() - 2, source.getSkippedFrameCount());
+        short[] pixels = (short[]) late.getPixels();
+        assertEquals(100 * (late.getFrameIndex() - 1), pixels[0]);
+        source.dispose();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.workers.TestStubs.RecordingAnalyzer;
+import ij.gui.Roi;
+import java.awt.Rectangle;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Frames cropped to the ROI before analysis, and rasterized ROIs.
+ */
+public class RoiCropTest {
+
+    /**
+     * Disk of given radius around the center of its bounds.
+     */
+    private static class DiskRoi extends Roi {
+        DiskRoi(int x, int y, int diameter) {
+            super(x, y, diameter, diameter);
+            this.type = Roi.OVAL;
+        }
+
+        @Override
+        public boolean contains(int x, int y) {
+            Rectangle bounds = getBounds();
+            double radius = bounds.width / 2.0;
+            double dx = x + 0.5 - (bounds.x + radius);
+            double dy = y + 0.5 - (bounds.y + radius);
+            return dx * dx + dy * dy <= radius * radius;
+        }
+    }
+
+    private static Frame frame(int width, int height) {
+        short[] pixels = new short[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (short) i;
+        }
+        return new Frame(pixels, width, height, 0, System.nanoTime());
+    }
+
+    private static AnalyzerPool pool(Analyzer analyzer) {
+        return new AnalyzerPool(Collections.singletonList(analyzer),
+                new AnalyzerPool.FrameListener() {
+                    @Override
+                    public void frameAnalyzed(Frame frame, double intermittent_output,
+                            long analysis_start_ns, long analysis_end_ns) {
+                    }
+                });
+    }
+
+    /**
+     * A rectangular ROI is cropped, and the analyzer gets the ROI of the
+     * whole crop.
+     */
+    @Test
+    public void testRectangle() throws Exception {
+        System.out.println("rectangle");
+        RecordingAnalyzer analyzer = new RecordingAnalyzer();
+        AnalyzerPool pool = pool(analyzer);
+        pool.setROI(new Roi(2, 1, 3, 2));
+        pool.submit(frame(8, 4), 0.1, 0);
+        assertEquals(3, analyzer.width);
+        assertEquals(2, analyzer.height);
+        assertArrayEquals(new short[] {10, 11, 12, 18, 19, 20}, analyzer.image);
+        assertEquals(new Rectangle(0, 0, 3, 2), analyzer.roi.getBounds());
+
+        // back to the whole frame
+        pool.setROI(null);
+        pool.submit(frame(8, 4), 0.1, 0);
+        assertEquals(8, analyzer.width);
+        assertNull(analyzer.roi);
+        pool.dispose();
+    }
+
+    /**
+     * A disk partly outside the frame is cropped to the frame and passed
+     * on as a mask.
+     */
+    @Test
+    public void testMask() throws Exception {
+        System.out.println("mask");
+        RecordingAnalyzer analyzer = new RecordingAnalyzer();
+        AnalyzerPool pool = pool(analyzer);
+        DiskRoi disk = new DiskRoi(-2, 4, 8);
+        pool.setROI(disk);
+        pool.submit(frame(16, 16), 0.1, 0);
+        assertEquals(6, analyzer.width);
+        assertEquals(8, analyzer.height);
+        assertTrue(analyzer.roi instanceof MaskRoi);
+        MaskRoi mask = (MaskRoi) analyzer.roi;
+        int count = 0;
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                boolean expected = disk.contains(x, y);
+                assertEquals(expected, mask.contains(x, y - 4));
+                if (expected)
+                    count++;
+            }
+        }
+        assertEquals(count, mask.getPixelCount());
+        byte[] mask_pixels = (byte[]) mask.getMask().getPixels();
+        assertEquals(disk.contains(0, 8) ? (byte) 255 : 0, mask_pixels[4 * 6]);
+        assertSame(mask.getMask(), mask.getMask());
+        pool.dispose();
+    }
+
+    /**
+     * Masks wider than one word are packed row by row.
+     */
+    @Test
+    public void testRegion() {
+        System.out.println("region");
+        DiskRoi disk = new DiskRoi(0, 0, 100);
+        MaskRoi mask = MaskRoi.fromRoi(disk, new Rectangle(0, 0, 100, 100), 0, 0);
+        MaskRoi part = mask.region(new Rectangle(60, 30, 40, 40), 5, 5);
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 40; x++) {
+                assertEquals(disk.contains(60 + x, 30 + y), part.contains(5 + x, 5 + y));
+            }
+        }
+        assertFalse(part.contains(4, 5));
+    }
+
+    /**
+     * A MaskRoi has the type of a plain Roi, but is not cropped like a
+     * rectangle.
+     */
+    @Test
+    public void testMaskIsNotRectangle() throws Exception {
+        System.out.println("maskIsNotRectangle");
+        DiskRoi disk = new DiskRoi(2, 2, 6);
+        MaskRoi mask = MaskRoi.fromRoi(disk, new Rectangle(2, 2, 6, 6), 2, 2);
+        assertEquals(Roi.RECTANGLE, mask.getType());
+        RecordingAnalyzer analyzer = new RecordingAnalyzer();
+        AnalyzerPool pool = pool(analyzer);
+        pool.setROI(mask);
+        pool.submit(frame(16, 16), 0.1, 0);
+        assertEquals(6, analyzer.width);
+        assertTrue(analyzer.roi instanceof MaskRoi);
+        assertEquals(mask.getPixelCount(), ((MaskRoi) analyzer.roi).getPixelCount());
+        assertFalse(analyzer.roi.contains(0, 0));
+        pool.dispose();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.Controller;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerStatusPanel;
+import ch.epfl.leb.alica.interfaces.controllers.ControllerStatusPanel;
+import ij.gui.Roi;
+
+/**
+ * Analyzers and controllers shared by the tests of the workers.
+ */
+final class TestStubs {
+
+    private TestStubs() {
+    }
+
+    /**
+     * Ignores the images, always returns the same output and remembers
+     * the last ROI.
+     */
+    static class ConstantAnalyzer implements Analyzer {
+        volatile double output;
+        volatile Roi roi;
+
+        ConstantAnalyzer(double output) {
+            this.output = output;
+        }
+
+        @Override
+        public void processImage(Object image, int image_width, int image_height,
+                double pixel_size_um, long time_ms) {
+        }
+
+        @Override
+        public double getIntermittentOutput() {
+            return output;
+        }
+
+        @Override
+        public double getBatchOutput() {
+            return output;
+        }
+
+        @Override
+        public String getShortReturnDescription() {
+            return "";
+        }
+
+        @Override
+        public void setROI(Roi roi) {
+            this.roi = roi;
+        }
+
+        @Override
+        public String getName() {
+            return getClass().getSimpleName();
+        }
+
+        @Override
+        public AnalyzerStatusPanel getStatusPanel() {
+            return null;
+        }
+
+        @Override
+        public void dispose() {
+        }
+    }
+
+    /**
+     * Returns the first pixel of the last image.
+     */
+    static class PixelAnalyzer extends ConstantAnalyzer {
+        PixelAnalyzer() {
+            super(0.0);
+        }
+
+        @Override
+        public void processImage(Object image, int image_width, int image_height,
+                double pixel_size_um, long time_ms) {
+            output = ((short[]) image)[0];
+        }
+    }
+
+    /**
+     * Remembers the image, its size and pixel size of the last frame.
+     */
+    static class RecordingAnalyzer extends ConstantAnalyzer {
+        short[] image;
+        int width;
+        int height;
+        double pixel_size_um;
+
+        RecordingAnalyzer() {
+            this(0.0);
+        }
+
+        RecordingAnalyzer(double output) {
+            super(output);
+        }
+
+        @Override
+        public void processImage(Object image, int image_width, int image_height,
+                double pixel_size_um, long time_ms) {
+            this.image = ((short[]) image).clone();
+            this.width = image_width;
+            this.height = image_height;
+            this.pixel_size_um = pixel_size_um;
+        }
+    }
+
+    /**
+     * Outputs its input times a gain, and remembers its setpoint.
+     */
+    static class GainController implements Controller {
+        private final double gain;
+        private volatile double setpoint = 0.0;
+
+        GainController(double gain) {
+            this.gain = gain;
+        }
+
+        @Override
+        public double nextValue(double value) {
+            return gain * value;
+        }
+
+        @Override
+        public void setSetpoint(double value) {
+            setpoint = value;
+        }
+
+        @Override
+        public double getSetpoint() {
+            return setpoint;
+        }
+
+        @Override
+        public String getName() {
+            return getClass().getSimpleName();
+        }
+
+        @Override
+        public ControllerStatusPanel getStatusPanel() {
+            return null;
+        }
+    }
+
+    /**
+     * Passes the analyzer output on.
+     */
+    static class IdentityController extends GainController {
+        IdentityController() {
+            super(1.0);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.workers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.workers.TestStubs.RecordingAnalyzer;
+import ij.gui.Roi;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tile geometry, overlap and reduction of the tile outputs.
+ */
+public class TiledAnalyzerTest {
+
+    /**
+     * Remembers the tile it got, and outputs either a fixed value or the
+     * area of its ROI.
+     */
+    private static class TileAnalyzer extends RecordingAnalyzer {
+        TileAnalyzer(double fixed_output) {
+            super(fixed_output);
+        }
+
+        @Override
+        public double getIntermittentOutput() {
+            if (!Double.isNaN(output))
+                return output;
+            Rectangle bounds = roi.getBounds();
+            return bounds.width * bounds.height;
+        }
+
+        @Override
+        public double getBatchOutput() {
+            return getIntermittentOutput();
+        }
+    }
+
+    private static List<Analyzer> analyzers(double... outputs) {
+        List<Analyzer> analyzers = new ArrayList<>();
+        for (double output: outputs)
+            analyzers.add(new TileAnalyzer(output));
+        return analyzers;
+    }
+
+    /**
+     * @return image whose pixels hold x + y * width
+     */
+    private static short[] image(int width, int height) {
+        short[] pixels = new short[width * height];
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] = (short) i;
+        return pixels;
+    }
+
+    /**
+     * Tiles extend by the overlap into their neighbours but not beyond the
+     * image, and the ROI of each tile analyzer is its core region.
+     */
+    @Test
+    public void testGeometry() {
+        System.out.println("geometry");
+        List<Analyzer> analyzers = analyzers(Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        TiledAnalyzer tiled = new TiledAnalyzer(analyzers, 2, 2, 2, TiledAnalyzer.Reduction.SUM);
+        tiled.processImage(image(10, 8), 10, 8, 0.1, 0);
+        tiled.dispose();
+
+        // core regions are (0,0), (5,0), (0,4) and (5,4), each 5x4
+        int[][] expected = {
+            // tile x, tile y, roi x, roi y
+            {0, 0, 0, 0},
+            {3, 0, 2, 0},
+            {0, 2, 0, 2},
+            {3, 2, 2, 2}};
+        for (int i = 0; i < 4; i++) {
+            TileAnalyzer analyzer = (TileAnalyzer) analyzers.get(i);
+            assertEquals(7, analyzer.width);
+            assertEquals(6, analyzer.height);
+            assertEquals(expected[i][0] + expected[i][1] * 10, analyzer.image[0]);
+            assertEquals(new Rectangle(expected[i][2], expected[i][3], 5, 4),
+                    analyzer.roi.getBounds());
+        }
+    }
+
+    /**
+     * With the SUM reduction, every pixel of the ROI is counted by exactly
+     * one tile, whatever the overlap.
+     */
+    @Test
+    public void testSumCountsCoreOnce() {
+        System.out.println("sumCountsCoreOnce");
+        TiledAnalyzer tiled = new TiledAnalyzer(analyzers(Double.NaN, Double.NaN, Double.NaN),
+                1, 3, 4, TiledAnalyzer.Reduction.SUM);
+        tiled.processImage(image(10, 8), 10, 8, 0.1, 0);
+        assertEquals(80.0, tiled.getIntermittentOutput(), 0.0);
+
+        tiled.setROI(new Roi(1, 1, 7, 5));
+        tiled.processImage(image(10, 8), 10, 8, 0.1, 0);
+        assertEquals(35.0, tiled.getIntermittentOutput(), 0.0);
+        assertEquals(35.0, tiled.getBatchOutput(), 0.0);
+        tiled.dispose();
+    }
+
+    /**
+     * With the AREA_WEIGHTED_MEAN reduction, the outputs are weighted by
+     * the core area of their tile.
+     */
+    @Test
+    public void testAreaWeightedMean() {
+        System.out.println("areaWeightedMean");
+        // the cores are 3, 3 and 4 pixels wide
+        TiledAnalyzer tiled = new TiledAnalyzer(analyzers(1.0, 2.0, 3.0),
+                1, 3, 1, TiledAnalyzer.Reduction.AREA_WEIGHTED_MEAN);
+        tiled.processImage(image(10, 8), 10, 8, 0.1, 0);
+        assertEquals((1.0 * 3 + 2.0 * 3 + 3.0 * 4) / 10, tiled.getIntermittentOutput(), 1e-12);
+        assertEquals((1.0 * 3 + 2.0 * 3 + 3.0 * 4) / 10, tiled.getBatchOutput(), 1e-12);
+        tiled.dispose();
+    }
+
+    /**
+     * Tiles whose core region lies outside of the ROI are not analyzed.
+     */
+    @Test
+    public void testTilesOutsideRoiAreSkipped() {
+        System.out.println("tilesOutsideRoiAreSkipped");
+        List<Analyzer> analyzers = analyzers(1.0, 2.0, 3.0, 4.0);
+        TiledAnalyzer tiled = new TiledAnalyzer(analyzers, 2, 2, 0,
+                TiledAnalyzer.Reduction.SUM);
+        // a ROI of one pixel row can't be split into two rows, the upper
+        // tiles get an empty core
+        tiled.setROI(new Roi(0, 0, 10, 1));
+        tiled.processImage(image(10, 8), 10, 8, 0.1, 0);
+        assertEquals(3.0 + 4.0, tiled.getIntermittentOutput(), 0.0);
+        assertEquals(0, ((TileAnalyzer) analyzers.get(0)).width);
+        assertEquals(0, ((TileAnalyzer) analyzers.get(1)).width);
+        tiled.dispose();
+    }
+}